@@ -0,0 +1,100 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.cmd.ingest;
+
+import org.apache.commons.cli.*;
+import org.apache.hadoop.conf.Configuration;
+import org.mrgeo.cmd.Command;
+import org.mrgeo.cmd.MrGeo;
+import org.mrgeo.data.DataProviderFactory;
+import org.mrgeo.data.DataProviderNotFound;
+import org.mrgeo.data.ProviderProperties;
+import org.mrgeo.data.vector.VectorDataProvider;
+import org.mrgeo.hdfs.vector.HdfsVectorDataProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ingest step for vector data (delimited files and shapefiles) that is copied into MrGeo
+ * rather than written by it.  Builds the spatial index bounded reads use, reads never build
+ * one themselves.
+ */
+public class IndexVector extends Command
+{
+private static Logger log = LoggerFactory.getLogger(IndexVector.class);
+
+@Override
+public int run(String[] args, final Configuration conf,
+    final ProviderProperties providerProperties)
+{
+  Options options = MrGeo.createOptions();
+  CommandLine line;
+
+  try
+  {
+    //if no arguments, print help
+    if (args.length == 0) throw new ParseException(null);
+    CommandLineParser parser = new PosixParser();
+    line = parser.parse(options, args);
+  }
+  catch (ParseException e)
+  {
+    new HelpFormatter().printHelp("indexvector <input> [<input> ...]", options);
+    return -1;
+  }
+
+  if (line == null || line.hasOption("h") || line.getArgs().length == 0)
+  {
+    new HelpFormatter().printHelp("indexvector <input> [<input> ...]", options);
+    return -1;
+  }
+
+  for (String input : line.getArgs())
+  {
+    VectorDataProvider provider;
+    try
+    {
+      provider = DataProviderFactory.getVectorDataProvider(input, DataProviderFactory.AccessMode.READ,
+          providerProperties);
+    }
+    catch (DataProviderNotFound e)
+    {
+      log.error(input + " is not vector data");
+      return -1;
+    }
+
+    if (!(provider instanceof HdfsVectorDataProvider))
+    {
+      log.info(input + " isn't a file, it has no spatial index to build");
+      continue;
+    }
+
+    try
+    {
+      log.info("Building the spatial index of " + input);
+      ((HdfsVectorDataProvider) provider).buildIndex();
+    }
+    catch (Exception e)
+    {
+      log.error("IndexVector exited with error", e);
+      return 1;
+    }
+  }
+
+  return 0;
+}
+}
@@ -57,6 +57,9 @@ public class ColorScale extends TreeMap<Double, Color>
   private static ColorScale _colorScale = null;
   private static ColorScale _grayScale = null;
   private int[][] cache = null;
+  // cache, packed as RGBA ints, and the cache it was packed from
+  private transient int[] packedCache = null;
+  private transient int[][] packedFrom = null;
   private boolean interpolate;
   private Double min, max;
   private int[] nullColor = {0, 0, 0, 0};
@@ -647,6 +650,69 @@ public class ColorScale extends TreeMap<Double, Color>
     System.arraycopy(c, 0, color, 0, 4);
   }
 
+  /**
+   * The color of v, as lookup() returns it, packed into an int as RGBA (red in the high byte)
+   */
+  final public int lookupRGBA(final double v)
+  {
+    return pack(lookup(v));
+  }
+
+  /**
+   * The colors of the first count values, as lookupRGBA() returns them, for coloring a row of
+   * pixels at a time
+   */
+  final public void lookupRGBA(final double[] values, final int[] rgba, final int count)
+  {
+    if (cache == null)
+    {
+      buildCache();
+    }
+    if (packedFrom != cache)
+    {
+      final int[] packed = new int[CACHE_SIZE];
+      for (int i = 0; i < CACHE_SIZE; i++)
+      {
+        packed[i] = pack(cache[i]);
+      }
+      packedCache = packed;
+      packedFrom = cache;
+    }
+
+    final int[] packed = packedCache;
+    final int nullRGBA = pack(nullColor);
+    final int below = forceValuesIntoRange ? packed[0] : nullRGBA;
+    final int above = forceValuesIntoRange ? packed[CACHE_SIZE - 1] : nullRGBA;
+    final double lo = min;
+    final double hi = max;
+
+    for (int i = 0; i < count; i++)
+    {
+      final double v = values[i];
+      if (Double.isNaN(v) || v == transparent)
+      {
+        rgba[i] = nullRGBA;
+      }
+      else if (v < lo)
+      {
+        rgba[i] = below;
+      }
+      else if (v > hi)
+      {
+        rgba[i] = above;
+      }
+      else
+      {
+        rgba[i] = packed[(int) ((v - lo) / (hi - lo) * (CACHE_SIZE - 1) + 0.5)];
+      }
+    }
+  }
+
+  private static int pack(final int[] c)
+  {
+    return (c[R] & 0xff) << 24 | (c[G] & 0xff) << 16 | (c[B] & 0xff) << 8 | (c[A] & 0xff);
+  }
+
   public void put(final double key, final Color c)
   {
     put(new Double(key), c);
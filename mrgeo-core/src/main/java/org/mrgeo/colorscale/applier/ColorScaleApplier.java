@@ -27,60 +27,392 @@ import java.awt.image.*;
  */
 public abstract class ColorScaleApplier
 {
+  // integer images with a range of at most this many values are colored from a table with the
+  // color of every value, when the image has at least as many pixels as the table has entries
+  private static final int MAX_TABLE_SIZE = 65536;
+
+  /**
+   * Colors band 0 of source into dest, a byte raster with a band for each of red, green, blue
+   * and (optionally) alpha.  The source is read, and dest written, a row at a time.
+   */
   protected static void apply(final Raster source, final WritableRaster dest,
     final ColorScale colorScale)
   {
-    final int w = source.getMinX() + source.getWidth();
-    final int h = source.getMinY() + source.getHeight();
+    final int width = source.getWidth();
+    final int height = source.getHeight();
 
-    final DataBufferByte buffer = (DataBufferByte) (dest.getDataBuffer());
+    final int[] table = buildTable(source, colorScale);
+    final int tableOffset = (source.getTransferType() == DataBuffer.TYPE_SHORT) ? -Short.MIN_VALUE : 0;
 
-    final int scanlineStride;
-    final int pixelStride;
-    final int[] bandOffsets;
+    final RowReader reader = new RowReader(source);
+    final RowWriter writer = new RowWriter(dest);
 
-    final SampleModel model = dest.getSampleModel();
-    if (model instanceof ComponentSampleModel)
+    final int[] intRow = (table != null) ? new int[width] : null;
+    final double[] doubleRow = (table == null) ? new double[width] : null;
+    final int[] rgba = new int[width];
+
+    for (int y = 0; y < height; y++)
     {
-      final ComponentSampleModel cm = (ComponentSampleModel) model;
-      scanlineStride = cm.getScanlineStride();
-      pixelStride = cm.getPixelStride();
-      bandOffsets = cm.getBandOffsets();
+      if (table != null)
+      {
+        reader.read(y, intRow);
+        for (int x = 0; x < width; x++)
+        {
+          rgba[x] = table[intRow[x] + tableOffset];
+        }
+      }
+      else
+      {
+        reader.read(y, doubleRow);
+        colorScale.lookupRGBA(doubleRow, rgba, width);
+      }
+
+      writer.write(y, rgba);
     }
-    else
+  }
+
+  /**
+   * The packed RGBA color of every value of a byte or short raster, or null if the raster isn't
+   * an integer type or is too small for the table to pay for itself.  Values are offset by
+   * -Short.MIN_VALUE for signed shorts.
+   */
+  private static int[] buildTable(final Raster source, final ColorScale colorScale)
+  {
+    final int size;
+    final int offset;
+    switch (source.getTransferType())
     {
-      scanlineStride = w;
-      pixelStride = 1;
-      bandOffsets = new int[source.getNumBands()];
-      for (int i = 0; i < source.getNumBands(); i++)
+    case DataBuffer.TYPE_BYTE:
+      size = 256;
+      offset = 0;
+      break;
+    case DataBuffer.TYPE_USHORT:
+      size = MAX_TABLE_SIZE;
+      offset = 0;
+      break;
+    case DataBuffer.TYPE_SHORT:
+      size = MAX_TABLE_SIZE;
+      offset = -Short.MIN_VALUE;
+      break;
+    default:
+      return null;
+    }
+
+    if ((long) source.getWidth() * source.getHeight() < size)
+    {
+      return null;
+    }
+
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++)
+    {
+      values[i] = i - offset;
+    }
+
+    final int[] table = new int[size];
+    colorScale.lookupRGBA(values, table, size);
+    return table;
+  }
+
+  /**
+   * Reads rows of band 0 of a raster, straight from the primitive array of its DataBuffer when it
+   * has a ComponentSampleModel.
+   */
+  private static class RowReader
+  {
+    private final Raster source;
+    private final int type;
+
+    private final Object data;
+    private final int start;
+    private final int scanlineStride;
+    private final int pixelStride;
+
+    RowReader(final Raster source)
+    {
+      this.source = source;
+      type = source.getTransferType();
+
+      final SampleModel model = source.getSampleModel();
+      final DataBuffer buffer = source.getDataBuffer();
+      if (model instanceof ComponentSampleModel)
+      {
+        final ComponentSampleModel cm = (ComponentSampleModel) model;
+        final int bank = cm.getBankIndices()[0];
+
+        scanlineStride = cm.getScanlineStride();
+        pixelStride = cm.getPixelStride();
+        start = buffer.getOffsets()[bank] + cm.getOffset(source.getMinX() - source.getSampleModelTranslateX(),
+            source.getMinY() - source.getSampleModelTranslateY(), 0);
+
+        if (buffer instanceof DataBufferByte)
+        {
+          data = ((DataBufferByte) buffer).getData(bank);
+        }
+        else if (buffer instanceof DataBufferUShort)
+        {
+          data = ((DataBufferUShort) buffer).getData(bank);
+        }
+        else if (buffer instanceof DataBufferShort)
+        {
+          data = ((DataBufferShort) buffer).getData(bank);
+        }
+        else if (buffer instanceof DataBufferInt)
+        {
+          data = ((DataBufferInt) buffer).getData(bank);
+        }
+        else if (buffer instanceof DataBufferFloat)
+        {
+          data = ((DataBufferFloat) buffer).getData(bank);
+        }
+        else if (buffer instanceof DataBufferDouble)
+        {
+          data = ((DataBufferDouble) buffer).getData(bank);
+        }
+        else
+        {
+          data = null;
+        }
+      }
+      else
       {
-        bandOffsets[i] = i;
+        data = null;
+        start = 0;
+        scanlineStride = 0;
+        pixelStride = 0;
       }
     }
 
-    final byte[][] data = buffer.getBankData();
-    final int banks = data.length;
+    // only called for byte and short rasters
+    void read(final int y, final int[] row)
+    {
+      if (data == null)
+      {
+        source.getSamples(source.getMinX(), source.getMinY() + y, row.length, 1, 0, row);
+        return;
+      }
 
-    for (int y = source.getMinY(); y < h; y++)
+      int offset = start + y * scanlineStride;
+      switch (type)
+      {
+      case DataBuffer.TYPE_BYTE:
+      {
+        final byte[] d = (byte[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset] & 0xff;
+        }
+        break;
+      }
+      case DataBuffer.TYPE_USHORT:
+      {
+        final short[] d = (short[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset] & 0xffff;
+        }
+        break;
+      }
+      default:
+      {
+        final short[] d = (short[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset];
+        }
+        break;
+      }
+      }
+    }
+
+    void read(final int y, final double[] row)
     {
-      final int lineOffset = y * scanlineStride;
-      for (int x = source.getMinX(); x < w; x++)
+      if (data == null)
       {
-        final double v = source.getSampleDouble(x, y, 0);
-        final int[] color = colorScale.lookup(v);
+        source.getSamples(source.getMinX(), source.getMinY() + y, row.length, 1, 0, row);
+        return;
+      }
 
-        if (banks == 1)
+      int offset = start + y * scanlineStride;
+      switch (type)
+      {
+      case DataBuffer.TYPE_BYTE:
+      {
+        final byte[] d = (byte[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset] & 0xff;
+        }
+        break;
+      }
+      case DataBuffer.TYPE_USHORT:
+      {
+        final short[] d = (short[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset] & 0xffff;
+        }
+        break;
+      }
+      case DataBuffer.TYPE_SHORT:
+      {
+        final short[] d = (short[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
         {
-          final int pixelOffset = lineOffset + x * pixelStride;
+          row[x] = d[offset];
+        }
+        break;
+      }
+      case DataBuffer.TYPE_INT:
+      {
+        final int[] d = (int[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset];
+        }
+        break;
+      }
+      case DataBuffer.TYPE_FLOAT:
+      {
+        final float[] d = (float[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset];
+        }
+        break;
+      }
+      default:
+      {
+        final double[] d = (double[]) data;
+        for (int x = 0; x < row.length; x++, offset += pixelStride)
+        {
+          row[x] = d[offset];
+        }
+        break;
+      }
+      }
+    }
+  }
+
+  /**
+   * Writes rows of packed RGBA colors into the bands of a raster, straight into its
+   * DataBufferByte when it has one.
+   */
+  private static class RowWriter
+  {
+    private final WritableRaster dest;
+    private final int bands;
+
+    private final byte[][] banks;
+    private final int[] bandStarts;
+    private final int scanlineStride;
+    private final int pixelStride;
+    private final boolean interleaved;
+
+    private final int[] samples;
 
-          for (int b = 0; b < dest.getNumBands(); b++)
+    RowWriter(final WritableRaster dest)
+    {
+      this.dest = dest;
+      bands = Math.min(dest.getNumBands(), 4);
+
+      final SampleModel model = dest.getSampleModel();
+      if (model instanceof ComponentSampleModel && dest.getDataBuffer() instanceof DataBufferByte)
+      {
+        final ComponentSampleModel cm = (ComponentSampleModel) model;
+        final DataBufferByte buffer = (DataBufferByte) dest.getDataBuffer();
+
+        final int x0 = dest.getMinX() - dest.getSampleModelTranslateX();
+        final int y0 = dest.getMinY() - dest.getSampleModelTranslateY();
+
+        scanlineStride = cm.getScanlineStride();
+        pixelStride = cm.getPixelStride();
+
+        // each band may be in its own bank
+        banks = new byte[bands][];
+        bandStarts = new int[bands];
+        for (int b = 0; b < bands; b++)
+        {
+          final int bank = cm.getBankIndices()[b];
+          banks[b] = buffer.getData(bank);
+          bandStarts[b] = buffer.getOffsets()[bank] + cm.getOffset(x0, y0, b);
+        }
+
+        boolean oneBank = true;
+        for (int b = 1; b < bands; b++)
+        {
+          oneBank &= banks[b] == banks[0];
+        }
+        interleaved = oneBank && pixelStride >= bands && bands >= 3;
+        samples = null;
+      }
+      else
+      {
+        banks = null;
+        bandStarts = null;
+        scanlineStride = 0;
+        pixelStride = 0;
+        interleaved = false;
+        samples = new int[dest.getWidth()];
+      }
+    }
+
+    void write(final int y, final int[] rgba)
+    {
+      if (interleaved)
+      {
+        // all the bands of a pixel are next to each other, write them together
+        final byte[] data = banks[0];
+        final int stride = pixelStride;
+        final int r = bandStarts[0] + y * scanlineStride;
+        final int g = bandStarts[1] - bandStarts[0];
+        final int b = bandStarts[2] - bandStarts[0];
+        if (bands == 4)
+        {
+          final int a = bandStarts[3] - bandStarts[0];
+          for (int x = 0, offset = r; x < rgba.length; x++, offset += stride)
           {
-            data[0][pixelOffset + bandOffsets[b]] = (byte) color[b];
+            final int c = rgba[x];
+            data[offset] = (byte) (c >>> 24);
+            data[offset + g] = (byte) (c >>> 16);
+            data[offset + b] = (byte) (c >>> 8);
+            data[offset + a] = (byte) c;
           }
         }
         else
         {
-          // what to do here?
+          for (int x = 0, offset = r; x < rgba.length; x++, offset += stride)
+          {
+            final int c = rgba[x];
+            data[offset] = (byte) (c >>> 24);
+            data[offset + g] = (byte) (c >>> 16);
+            data[offset + b] = (byte) (c >>> 8);
+          }
+        }
+        return;
+      }
+
+      for (int b = 0; b < bands; b++)
+      {
+        final int shift = 24 - 8 * b;
+
+        if (banks != null)
+        {
+          final byte[] data = banks[b];
+          int offset = bandStarts[b] + y * scanlineStride;
+          for (int x = 0; x < rgba.length; x++)
+          {
+            data[offset] = (byte) (rgba[x] >>> shift);
+            offset += pixelStride;
+          }
+        }
+        else
+        {
+          for (int x = 0; x < rgba.length; x++)
+          {
+            samples[x] = (rgba[x] >>> shift) & 0xff;
+          }
+          dest.setSamples(dest.getMinX(), dest.getMinY() + y, rgba.length, 1, b, samples);
         }
       }
     }
@@ -99,6 +99,86 @@ public static final String MRGEO_LEGION_PROC = "legion.processortype.preference"
 public static final String MRGEO_MRS_TILESIZE = "mrsimage.tilesize";
 public static final int MRGEO_MRS_TILESIZE_DEFAULT_INT = 512;
 public static final String MRGEO_MRS_TILESIZE_DEFAULT = Integer.toString(MRGEO_MRS_TILESIZE_DEFAULT_INT);
+// how new pyramids store their tiles: none, lz4, lz4-delta, deflate or deflate-delta (see RasterCodec)
+public static final String MRGEO_TILE_CODEC = "mrsimage.tile.codec";
+public static final String MRGEO_TILE_CODEC_DEFAULT = "none";
+
+/*
+ * Image reader (decoded) tile cache keys
+ */
+public static final String MRGEO_READER_TILE_CACHE_MB = "reader.tilecache.mb";
+public static final String MRGEO_READER_TILE_CACHE_MB_DEFAULT = "128";
+public static final String MRGEO_READER_TILE_CACHE_OFFHEAP = "reader.tilecache.offheap";
+public static final String MRGEO_READER_TILE_CACHE_OFFHEAP_DEFAULT = "false";
+// on a miss, also read the tiles up to this many tiles around the one asked for
+public static final String MRGEO_READER_TILE_CACHE_READAHEAD = "reader.tilecache.readahead";
+public static final String MRGEO_READER_TILE_CACHE_READAHEAD_DEFAULT = "0";
+public static final String MRGEO_READER_TILE_CACHE_EXPIRE = "reader.tilecache.expire.seconds";
+public static final String MRGEO_READER_TILE_CACHE_EXPIRE_DEFAULT = "600";
+
+/*
+ * Map algebra configuration keys
+ */
+public static final String MRGEO_FUSE_PIXEL_MAPOPS = "mapalgebra.fuse.pixel.mapops";
+public static final String MRGEO_FUSE_PIXEL_MAPOPS_DEFAULT = "true";
+// plan the storage levels of intermediate rdds from their use, size and cost
+public static final String MRGEO_PERSIST_PLAN = "mapalgebra.persist.plan";
+public static final String MRGEO_PERSIST_PLAN_DEFAULT = "true";
+// the fraction of the executors' free storage memory the plan may fill
+public static final String MRGEO_PERSIST_MEMORY_FRACTION = "mapalgebra.persist.memory.fraction";
+public static final String MRGEO_PERSIST_MEMORY_FRACTION_DEFAULT = "0.8";
+// count, and log where they come from, the jobs run just to learn a tile's bands, type and size
+public static final String MRGEO_SCHEMA_DEBUG = "mapalgebra.schema.debug";
+public static final String MRGEO_SCHEMA_DEBUG_DEFAULT = "false";
+
+/*
+ * Build pyramid configuration keys
+ */
+public static final String MRGEO_BUILDPYRAMID_MULTILEVEL = "buildpyramid.multilevel";
+public static final String MRGEO_BUILDPYRAMID_MULTILEVEL_DEFAULT = "true";
+
+/*
+ * Save configuration keys
+ */
+public static final String MRGEO_SAVE_SINGLE_PASS = "save.single.pass";
+public static final String MRGEO_SAVE_SINGLE_PASS_DEFAULT = "true";
+// don't write tiles that are entirely nodata, a missing tile reads as nodata
+public static final String MRGEO_SAVE_DROP_NODATA_TILES = "save.drop.nodata.tiles";
+public static final String MRGEO_SAVE_DROP_NODATA_TILES_DEFAULT = "false";
+
+/*
+ * Vector configuration keys
+ */
+// write a spatial index next to delimited vector files, for bounded reads (see VectorIndex)
+public static final String MRGEO_VECTOR_INDEX = "vector.index";
+public static final String MRGEO_VECTOR_INDEX_DEFAULT = "true";
+
+/*
+ * Ingest configuration keys
+ */
+public static final String MRGEO_INGEST_WINDOW_MB = "ingest.window.mb";
+public static final String MRGEO_INGEST_WINDOW_MB_DEFAULT = "256";
+
+/*
+ * Quantiles configuration keys
+ */
+// normalized rank error of the quantile sketches
+public static final String MRGEO_QUANTILES_ERROR = "quantiles.error";
+public static final String MRGEO_QUANTILES_ERROR_DEFAULT = "0.01";
+
+/*
+ * Focal (neighborhood) operation configuration keys
+ */
+public static final String MRGEO_FOCAL_HALO_EXCHANGE = "focal.halo.exchange";
+public static final String MRGEO_FOCAL_HALO_EXCHANGE_DEFAULT = "true";
+
+/*
+ * Kernel (convolution) configuration keys.  Kernels that aren't separable use the FFT convolution once
+ * their area reaches kernel.fft.min.area, where ConvolutionBenchmark shows the FFT overtaking the naive
+ * convolution (17x17 on 256 and 512 pixel tiles)
+ */
+public static final String MRGEO_KERNEL_FFT_MIN_AREA = "kernel.fft.min.area";
+public static final String MRGEO_KERNEL_FFT_MIN_AREA_DEFAULT = "289";
 
 /*
  * Security classification keys
@@ -113,6 +193,19 @@ public static final String MRGEO_PROTECTION_LEVEL = "protectionLevel";
 public static final String MRGEO_WCS_CAPABILITIES_CACHE = "wcs.capabilities.cache";
 public static final String MRGEO_WCS_CAPABILITIES_REFRESH = "wcs.capabilities.refresh";
 
+/*
+ * Rendered tile cache (TMS/WMS) keys
+ */
+public static final String MRGEO_TILE_CACHE_ENABLED = "tilecache.enabled";
+public static final String MRGEO_TILE_CACHE_ENABLED_DEFAULT = "true";
+public static final String MRGEO_TILE_CACHE_MEMORY_MB = "tilecache.memory.mb";
+public static final String MRGEO_TILE_CACHE_MEMORY_MB_DEFAULT = "64";
+public static final String MRGEO_TILE_CACHE_DISK_DIR = "tilecache.disk.dir";
+public static final String MRGEO_TILE_CACHE_DISK_MB = "tilecache.disk.mb";
+public static final String MRGEO_TILE_CACHE_DISK_MB_DEFAULT = "1024";
+public static final String MRGEO_TILE_CACHE_METADATA_CHECK = "tilecache.metadata.check.seconds";
+public static final String MRGEO_TILE_CACHE_METADATA_CHECK_DEFAULT = "30";
+
 /**
  * The default constructor for the class is private.  Additionally,
  * nothing can instantiate this class.
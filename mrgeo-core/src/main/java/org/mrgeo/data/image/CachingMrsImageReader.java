@@ -0,0 +1,214 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.image;
+
+import org.mrgeo.data.KVIterator;
+import org.mrgeo.data.tile.TileIdWritable;
+import org.mrgeo.utils.LongRectangle;
+import org.mrgeo.utils.tms.Bounds;
+import org.mrgeo.utils.tms.TMSUtils;
+import org.mrgeo.utils.tms.Tile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.Raster;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An MrsImageReader that reads single tiles through an MrsImageTileCache, and reads ahead the
+ * tiles around a tile that isn't cached.  Scans of many tiles go straight to the wrapped reader.
+ */
+public class CachingMrsImageReader extends MrsImageReader
+{
+  private static final Logger log = LoggerFactory.getLogger(CachingMrsImageReader.class);
+
+  private final MrsImageTileCache cache;
+  private final String name;
+  private final String scope;
+  private final MrsImageReader reader;
+
+  public CachingMrsImageReader(final MrsImageTileCache cache, final String name, final MrsImageReader reader)
+  {
+    this(cache, name, "", reader);
+  }
+
+  /**
+   * @param scope who the reader reads for (see MrsImageTileCache.cacheScope()), tiles are only
+   *              shared with readers in the same scope
+   */
+  public CachingMrsImageReader(final MrsImageTileCache cache, final String name, final String scope,
+      final MrsImageReader reader)
+  {
+    this.cache = cache;
+    this.name = name;
+    this.scope = scope;
+    this.reader = reader;
+  }
+
+  public MrsImageReader getReader()
+  {
+    return reader;
+  }
+
+  @Override
+  public Raster get(final TileIdWritable key)
+  {
+    final int zoom = getZoomlevel();
+    final long tileid = key.get();
+
+    final Raster cached = cache.get(name, scope, zoom, tileid);
+    if (cached != null || cache.contains(name, scope, zoom, tileid))
+    {
+      return cached;
+    }
+
+    if (cache.getReadAhead() > 0)
+    {
+      return readAhead(tileid, zoom);
+    }
+
+    final Raster raster = reader.get(key);
+    cache.put(name, scope, zoom, tileid, raster);
+    return raster;
+  }
+
+  // read the block of tiles around the tile in a single scan, remembering the ones that are
+  // missing, and return the tile
+  private Raster readAhead(final long tileid, final int zoom)
+  {
+    Raster result = null;
+    final int distance = cache.getReadAhead();
+    final Tile tile = TMSUtils.tileid(tileid, zoom);
+
+    final long minX = Math.max(0, tile.tx - distance);
+    final long minY = Math.max(0, tile.ty - distance);
+    final long maxX = Math.min(TMSUtils.numXTiles(zoom) - 1, tile.tx + distance);
+    final long maxY = Math.min(TMSUtils.numYTiles(zoom) - 1, tile.ty + distance);
+
+    final Set<Long> found = new HashSet<>();
+    final KVIterator<TileIdWritable, Raster> it = reader.get(new LongRectangle(minX, minY, maxX, maxY));
+    try
+    {
+      while (it.hasNext())
+      {
+        final Raster raster = it.next();
+        final long id = it.currentKey().get();
+        found.add(id);
+        if (id == tileid)
+        {
+          result = raster;
+        }
+        else
+        {
+          cache.countReadAhead(1);
+        }
+        cache.put(name, scope, zoom, id, raster);
+      }
+    }
+    finally
+    {
+      if (!reader.canBeCached() && it instanceof Closeable)
+      {
+        try
+        {
+          ((Closeable) it).close();
+        }
+        catch (IOException e)
+        {
+          log.warn("Unable to close the read-ahead scanner", e);
+        }
+      }
+    }
+
+    for (long ty = minY; ty <= maxY; ty++)
+    {
+      for (long tx = minX; tx <= maxX; tx++)
+      {
+        final long id = TMSUtils.tileid(tx, ty, zoom);
+        if (!found.contains(id))
+        {
+          cache.put(name, scope, zoom, id, null);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public int getZoomlevel()
+  {
+    return reader.getZoomlevel();
+  }
+
+  @Override
+  public int getTileSize()
+  {
+    return reader.getTileSize();
+  }
+
+  @Override
+  public void close()
+  {
+    reader.close();
+  }
+
+  @Override
+  public long calculateTileCount()
+  {
+    return reader.calculateTileCount();
+  }
+
+  @Override
+  public boolean exists(final TileIdWritable key)
+  {
+    return get(key) != null;
+  }
+
+  @Override
+  public KVIterator<TileIdWritable, Raster> get()
+  {
+    return reader.get();
+  }
+
+  @Override
+  public KVIterator<TileIdWritable, Raster> get(final LongRectangle tileBounds)
+  {
+    return reader.get(tileBounds);
+  }
+
+  @Override
+  public KVIterator<Bounds, Raster> get(final Bounds bounds)
+  {
+    return reader.get(bounds);
+  }
+
+  @Override
+  public KVIterator<TileIdWritable, Raster> get(final TileIdWritable startKey, final TileIdWritable endKey)
+  {
+    return reader.get(startKey, endKey);
+  }
+
+  @Override
+  public boolean canBeCached()
+  {
+    return reader.canBeCached();
+  }
+}
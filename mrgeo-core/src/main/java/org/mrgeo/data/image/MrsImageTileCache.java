@@ -0,0 +1,532 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.image;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.core.MrGeoProperties;
+import org.mrgeo.data.ProviderProperties;
+import org.mrgeo.data.raster.RasterWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Point;
+import java.awt.image.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of decoded tiles, shared by every MrsImageReader opened through
+ * {@link #wrap(MrsImageDataProvider, MrsImageReader)}, so tiles that are read over and over (WMS
+ * mosaics, path walking, ...) are only seeked and decoded once.  Tiles are keyed by provider,
+ * zoom level and tile id, and the cache is bounded by the bytes of the tiles it holds.
+ *
+ * Providers can filter tiles by who is reading them (e.g. Accumulo visibilities), so tiles are
+ * also keyed by the scope they were read in, the user and roles of the provider's
+ * ProviderProperties.  A tile (or a missing tile) read by one user is never handed to another
+ * user with different roles.
+ *
+ * Tiles are normally kept on the heap, decoded.  With off-heap storage, the encoded tiles are kept
+ * in direct buffers instead, which keeps them out of the garbage collector's way, but they are
+ * decoded on every hit.  Either way, a hit returns a raster the caller is free to modify.
+ *
+ * Tiles that don't exist are remembered too, so sparse images aren't searched again and again.
+ */
+public class MrsImageTileCache
+{
+  private static final Logger log = LoggerFactory.getLogger(MrsImageTileCache.class);
+
+  private static volatile MrsImageTileCache instance = null;
+
+  // marks a tile that isn't in the image
+  private static final Object MISSING = new Object();
+
+  // rough size of a cache entry (key, map entry, raster object headers)
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private static class Key
+  {
+    final String name;
+    final String scope;
+    final int zoom;
+    final long tileid;
+
+    Key(final String name, final String scope, final int zoom, final long tileid)
+    {
+      this.name = name;
+      this.scope = scope;
+      this.zoom = zoom;
+      this.tileid = tileid;
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+      if (!(o instanceof Key))
+      {
+        return false;
+      }
+      final Key other = (Key) o;
+      return tileid == other.tileid && zoom == other.zoom && name.equals(other.name) &&
+          scope.equals(other.scope);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * (31 * (31 * name.hashCode() + scope.hashCode()) + zoom) + (int) (tileid ^ (tileid >>> 32));
+    }
+  }
+
+  private final Cache<Key, Object> cache;
+  private final boolean offHeap;
+  private final int readAhead;
+
+  private final AtomicLong readAheads = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public static MrsImageTileCache getInstance()
+  {
+    if (instance == null)
+    {
+      synchronized (MrsImageTileCache.class)
+      {
+        if (instance == null)
+        {
+          instance = create(MrGeoProperties.getInstance());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * @param maxBytes the most bytes of tiles to keep, 0 disables the cache
+   * @param offHeap keep the (encoded) tiles in direct buffers instead of decoded on the heap
+   * @param readAhead on a miss, also read the tiles up to this many tiles away from the one asked for
+   * @param expireSeconds drop tiles this long after they were read, so changes to an image made by
+   *                      another process are eventually seen, 0 keeps them until they're evicted
+   */
+  public MrsImageTileCache(final long maxBytes, final boolean offHeap, final int readAhead,
+      final long expireSeconds)
+  {
+    this.offHeap = offHeap;
+    this.readAhead = Math.max(0, readAhead);
+
+    if (maxBytes > 0)
+    {
+      CacheBuilder<Key, Object> builder = CacheBuilder.newBuilder()
+          .maximumWeight(maxBytes)
+          .weigher(new Weigher<Key, Object>()
+          {
+            @Override
+            public int weigh(final Key key, final Object value)
+            {
+              return ENTRY_OVERHEAD + bytes(value);
+            }
+          })
+          .recordStats();
+      if (expireSeconds > 0)
+      {
+        builder = builder.expireAfterWrite(expireSeconds, TimeUnit.SECONDS);
+      }
+      cache = builder.build();
+    }
+    else
+    {
+      cache = null;
+    }
+  }
+
+  private static MrsImageTileCache create(final Properties props)
+  {
+    final long mb = Long.parseLong(props.getProperty(MrGeoConstants.MRGEO_READER_TILE_CACHE_MB,
+        MrGeoConstants.MRGEO_READER_TILE_CACHE_MB_DEFAULT));
+    final boolean offHeap = Boolean.parseBoolean(props.getProperty(MrGeoConstants.MRGEO_READER_TILE_CACHE_OFFHEAP,
+        MrGeoConstants.MRGEO_READER_TILE_CACHE_OFFHEAP_DEFAULT));
+    final int readAhead = Integer.parseInt(props.getProperty(MrGeoConstants.MRGEO_READER_TILE_CACHE_READAHEAD,
+        MrGeoConstants.MRGEO_READER_TILE_CACHE_READAHEAD_DEFAULT));
+    final long expire = Long.parseLong(props.getProperty(MrGeoConstants.MRGEO_READER_TILE_CACHE_EXPIRE,
+        MrGeoConstants.MRGEO_READER_TILE_CACHE_EXPIRE_DEFAULT));
+
+    log.debug("Reader tile cache: " + mb + "mb, off-heap: " + offHeap + ", read-ahead: " + readAhead);
+    return new MrsImageTileCache(mb * 1024 * 1024, offHeap, readAhead, expire);
+  }
+
+  /**
+   * The name tiles from the provider are cached under
+   */
+  public static String cacheName(final MrsImageDataProvider provider)
+  {
+    return provider.getClass().getName() + ":" + provider.getResourceName();
+  }
+
+  /**
+   * The scope tiles from the provider are cached in, the user name and (sorted) roles of its
+   * ProviderProperties, so readers that may see different tiles never share them
+   */
+  public static String cacheScope(final MrsImageDataProvider provider)
+  {
+    final ProviderProperties properties = provider.getProviderProperties();
+    if (properties == null)
+    {
+      return "";
+    }
+
+    final List<String> roles = new ArrayList<>();
+    if (properties.getRoles() != null)
+    {
+      for (final String role : properties.getRoles())
+      {
+        if (role != null && !role.trim().isEmpty())
+        {
+          roles.add(role.trim());
+        }
+      }
+    }
+    Collections.sort(roles);
+
+    final StringBuilder scope = new StringBuilder();
+    scope.append(properties.getUserName() == null ? "" : properties.getUserName());
+    for (final String role : roles)
+    {
+      scope.append("||").append(role);
+    }
+    return scope.toString();
+  }
+
+  public boolean isEnabled()
+  {
+    return cache != null;
+  }
+
+  public boolean isOffHeap()
+  {
+    return offHeap;
+  }
+
+  public int getReadAhead()
+  {
+    return readAhead;
+  }
+
+  /**
+   * A reader that reads single tiles through this cache, or the reader itself if the cache is
+   * disabled
+   */
+  public MrsImageReader wrap(final MrsImageDataProvider provider, final MrsImageReader reader)
+  {
+    if (!isEnabled() || reader == null || reader instanceof CachingMrsImageReader)
+    {
+      return reader;
+    }
+    return new CachingMrsImageReader(this, cacheName(provider), cacheScope(provider), reader);
+  }
+
+  /**
+   * @return true if the cache knows whether the tile exists.  Use it after get() returns null to
+   * tell a tile that doesn't exist from one that isn't cached; it isn't counted as a hit or miss.
+   */
+  public boolean contains(final String name, final int zoom, final long tileid)
+  {
+    return contains(name, "", zoom, tileid);
+  }
+
+  public boolean contains(final String name, final String scope, final int zoom, final long tileid)
+  {
+    return cache != null && cache.asMap().containsKey(new Key(name, scope, zoom, tileid));
+  }
+
+  /**
+   * @return a copy of the cached tile, or null if it isn't cached or doesn't exist (use
+   * contains() to tell the two apart)
+   */
+  public Raster get(final String name, final int zoom, final long tileid)
+  {
+    return get(name, "", zoom, tileid);
+  }
+
+  /**
+   * @return a copy of the tile cached in the scope, or null if it isn't cached or doesn't exist
+   */
+  public Raster get(final String name, final String scope, final int zoom, final long tileid)
+  {
+    if (cache == null)
+    {
+      return null;
+    }
+
+    final Object value = cache.getIfPresent(new Key(name, scope, zoom, tileid));
+    if (value == null || value == MISSING)
+    {
+      return null;
+    }
+
+    try
+    {
+      if (value instanceof ByteBuffer)
+      {
+        final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return RasterWritable.toRaster(new RasterWritable(bytes));
+      }
+      return copy((Raster) value);
+    }
+    catch (IOException e)
+    {
+      log.warn("Can't decode a cached tile, dropping it", e);
+      cache.invalidate(new Key(name, scope, zoom, tileid));
+      return null;
+    }
+  }
+
+  /**
+   * Cache a tile, a null raster records that the tile doesn't exist.  The cache keeps its own copy.
+   */
+  public void put(final String name, final int zoom, final long tileid, final Raster raster)
+  {
+    put(name, "", zoom, tileid, raster);
+  }
+
+  /**
+   * Cache a tile read in the scope
+   */
+  public void put(final String name, final String scope, final int zoom, final long tileid,
+      final Raster raster)
+  {
+    if (cache == null)
+    {
+      return;
+    }
+
+    Object value = MISSING;
+    if (raster != null)
+    {
+      if (offHeap)
+      {
+        try
+        {
+          final RasterWritable writable = RasterWritable.toWritable(raster);
+          final ByteBuffer buffer = ByteBuffer.allocateDirect(writable.getLength());
+          buffer.put(writable.getBytes(), 0, writable.getLength());
+          buffer.flip();
+          value = buffer;
+        }
+        catch (IOException e)
+        {
+          log.warn("Can't encode a tile for the cache", e);
+          return;
+        }
+      }
+      else
+      {
+        value = copy(raster);
+      }
+    }
+    cache.put(new Key(name, scope, zoom, tileid), value);
+  }
+
+  void countReadAhead(final long tiles)
+  {
+    readAheads.addAndGet(tiles);
+  }
+
+  /**
+   * Drop all the cached tiles of a provider, in every scope, e.g. when it is rewritten
+   */
+  public void invalidate(final MrsImageDataProvider provider)
+  {
+    invalidate(cacheName(provider));
+  }
+
+  public void invalidate(final String name)
+  {
+    if (cache == null)
+    {
+      return;
+    }
+
+    invalidations.incrementAndGet();
+    for (final Key key : cache.asMap().keySet())
+    {
+      if (key.name.equals(name))
+      {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  public void invalidateAll()
+  {
+    if (cache != null)
+    {
+      invalidations.incrementAndGet();
+      cache.invalidateAll();
+    }
+  }
+
+  /**
+   * @return a snapshot of the cache counters: "hits", "misses", "hitRate", "readAheads" (tiles
+   * read ahead of being asked for), "evictions", "invalidations", "tiles" and "bytes" (an
+   * estimate of the memory used)
+   */
+  public Map<String, Number> getStats()
+  {
+    final Map<String, Number> stats = new LinkedHashMap<>();
+    final CacheStats cs = (cache == null) ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+
+    stats.put("hits", cs.hitCount());
+    stats.put("misses", cs.missCount());
+    stats.put("hitRate", cs.hitRate());
+    stats.put("readAheads", readAheads.get());
+    stats.put("evictions", cs.evictionCount());
+    stats.put("invalidations", invalidations.get());
+
+    long tiles = 0;
+    long bytes = 0;
+    if (cache != null)
+    {
+      for (final Object value : cache.asMap().values())
+      {
+        tiles++;
+        bytes += ENTRY_OVERHEAD + bytes(value);
+      }
+    }
+    stats.put("tiles", tiles);
+    stats.put("bytes", bytes);
+
+    return stats;
+  }
+
+  private static int bytes(final Object value)
+  {
+    if (value instanceof ByteBuffer)
+    {
+      return ((ByteBuffer) value).capacity();
+    }
+    if (value instanceof Raster)
+    {
+      final DataBuffer data = ((Raster) value).getDataBuffer();
+      return data.getSize() * data.getNumBanks() * (DataBuffer.getDataTypeSize(data.getDataType()) / 8);
+    }
+    return 0;
+  }
+
+  // copy the pixels of a raster, a bank at a time
+  private static WritableRaster copy(final Raster raster)
+  {
+    if (raster.getParent() != null || raster.getSampleModelTranslateX() != -raster.getMinX() ||
+        raster.getSampleModelTranslateY() != -raster.getMinY())
+    {
+      // a child raster only uses part of its data buffer, copy its pixels
+      final WritableRaster result = raster.createCompatibleWritableRaster();
+      result.setRect(raster);
+      return result;
+    }
+
+    final DataBuffer src = raster.getDataBuffer();
+    final int banks = src.getNumBanks();
+    final int size = src.getSize();
+    final int[] offsets = src.getOffsets();
+
+    final DataBuffer dst;
+    switch (src.getDataType())
+    {
+    case DataBuffer.TYPE_BYTE:
+    {
+      final byte[][] data = new byte[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferByte) src).getData(b).clone();
+      }
+      dst = new DataBufferByte(data, size, offsets);
+      break;
+    }
+    case DataBuffer.TYPE_SHORT:
+    {
+      final short[][] data = new short[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferShort) src).getData(b).clone();
+      }
+      dst = new DataBufferShort(data, size, offsets);
+      break;
+    }
+    case DataBuffer.TYPE_USHORT:
+    {
+      final short[][] data = new short[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferUShort) src).getData(b).clone();
+      }
+      dst = new DataBufferUShort(data, size, offsets);
+      break;
+    }
+    case DataBuffer.TYPE_INT:
+    {
+      final int[][] data = new int[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferInt) src).getData(b).clone();
+      }
+      dst = new DataBufferInt(data, size, offsets);
+      break;
+    }
+    case DataBuffer.TYPE_FLOAT:
+    {
+      final float[][] data = new float[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferFloat) src).getData(b).clone();
+      }
+      dst = new DataBufferFloat(data, size, offsets);
+      break;
+    }
+    case DataBuffer.TYPE_DOUBLE:
+    {
+      final double[][] data = new double[banks][];
+      for (int b = 0; b < banks; b++)
+      {
+        data[b] = ((DataBufferDouble) src).getData(b).clone();
+      }
+      dst = new DataBufferDouble(data, size, offsets);
+      break;
+    }
+    default:
+      throw new MrsImageException("Unknown data type " + src.getDataType());
+    }
+
+    return Raster.createWritableRaster(raster.getSampleModel(), dst,
+        new Point(raster.getMinX(), raster.getMinY()));
+  }
+}
@@ -0,0 +1,627 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes the pixels of a tile (in the RasterWritable layout) for storage.  The header and any
+ * payload are kept as they are, only the pixels are encoded:
+ *
+ *  - a tile where every pixel is the same (e.g. all nodata) is stored as that one pixel
+ *  - otherwise the pixels can be delta predicted (each sample less the one to its left, in the
+ *    same band), byte shuffled (the first byte of every sample, then the second, ...), which
+ *    turns the slowly changing high bytes of short and float data into long runs, then compressed
+ *
+ * An encoded tile starts with a marker that can't start a plain RasterWritable and the id of
+ * its codec, so encoded and plain tiles can be mixed and are decoded without knowing the codec.
+ * A tile that doesn't get smaller is stored plain.
+ *
+ * Constant tiles are also how RasterWritable keeps such tiles in memory (see
+ * RasterWritable.createConstant()), so they're only expanded when their pixels are needed.
+ *
+ * Codecs are looked up by name (the name is kept in the pyramid's metadata); new ones can be
+ * added with register().
+ */
+public abstract class RasterCodec
+{
+// the first int of an encoded tile.  It's negative, so it can't be the header size that a plain
+// RasterWritable starts with.
+static final int MAGIC = 0xC0DEC0DE;
+
+public static final String NONE = "none";
+
+private static final byte CONSTANT = 0;
+
+// marker, codec id, raw length, header length
+private static final int PREFIX_BYTES = 4 + 1 + 4 + 4;
+
+private static final Map<String, RasterCodec> byName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+private static final RasterCodec[] byId = new RasterCodec[128];
+
+static
+{
+  register(new Lz4Codec((byte) 1, "lz4", false));
+  register(new Lz4Codec((byte) 2, "lz4-delta", true));
+  register(new DeflateCodec((byte) 3, "deflate", false));
+  register(new DeflateCodec((byte) 4, "deflate-delta", true));
+}
+
+private final byte id;
+private final String name;
+private final boolean predict;
+
+protected RasterCodec(final byte id, final String name, final boolean predict)
+{
+  this.id = id;
+  this.name = name;
+  this.predict = predict;
+}
+
+public static synchronized void register(final RasterCodec codec)
+{
+  if (codec.id <= CONSTANT)
+  {
+    throw new IllegalArgumentException("Raster codec ids must be between 1 and 127: " + codec.name);
+  }
+  if (byId[codec.id] != null && byId[codec.id] != codec)
+  {
+    throw new IllegalArgumentException("Raster codec id " + codec.id + " is already used by " +
+        byId[codec.id].name);
+  }
+  byId[codec.id] = codec;
+  byName.put(codec.name, codec);
+}
+
+/**
+ * The codec with the name, or null for tiles that are stored plain ("none", empty or null)
+ */
+public static synchronized RasterCodec get(final String name)
+{
+  if (name == null || name.isEmpty() || NONE.equalsIgnoreCase(name))
+  {
+    return null;
+  }
+
+  final RasterCodec codec = byName.get(name.trim());
+  if (codec == null)
+  {
+    throw new IllegalArgumentException("Unknown raster codec: " + name + " (known codecs: " + NONE + ", " +
+        byName.keySet() + ")");
+  }
+  return codec;
+}
+
+public String getName()
+{
+  return name;
+}
+
+public byte getId()
+{
+  return id;
+}
+
+// the most bytes compress() can write for length bytes
+protected abstract int maxCompressedLength(int length);
+
+// compress the bytes into dst, returning the number of bytes written
+protected abstract int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+// decompress exactly dstLen bytes into dst
+protected abstract void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+    throws IOException;
+
+public static boolean isEncoded(final byte[] bytes, final int length)
+{
+  return length >= PREFIX_BYTES && ByteBuffer.wrap(bytes, 0, 4).getInt() == MAGIC;
+}
+
+// an encoded tile kept as one pixel
+static boolean isConstant(final byte[] bytes, final int length)
+{
+  return isEncoded(bytes, length) && bytes[4] == CONSTANT;
+}
+
+/**
+ * The encoded tile, or the tile itself if encoding it wouldn't make it smaller
+ */
+public RasterWritable encode(final RasterWritable writable)
+{
+  final byte[] bytes = writable.getBytes();
+  final int length = writable.getLength();
+
+  if (isEncoded(bytes, length))
+  {
+    return writable;
+  }
+
+  final RasterTile tile = RasterTile.fromWritable(writable);
+  final int headerLength = tile.getDataOffset();
+  final int pixelBytes = RasterUtils.getElementSize(tile.getDatatype()) * tile.getNumBands();
+  final int dataLength = tile.getNumSamples() * RasterUtils.getElementSize(tile.getDatatype());
+  final int payloadLength = length - headerLength - dataLength;
+
+  if (isConstant(bytes, headerLength, dataLength, pixelBytes))
+  {
+    return constant(bytes, length, headerLength, dataLength, pixelBytes);
+  }
+
+  final byte[] encoded = new byte[PREFIX_BYTES + headerLength + 4 + payloadLength + 4 +
+      maxCompressedLength(dataLength)];
+
+  final ByteBuffer out = ByteBuffer.wrap(encoded);
+  writePrefix(out, id, bytes, length, headerLength, dataLength);
+
+  final byte[] filtered = filter(bytes, headerLength, tile);
+  final int start = out.position() + 4;
+  final int compressed = compress(filtered, 0, dataLength, encoded, start);
+  if (compressed >= dataLength)
+  {
+    return writable;
+  }
+  out.putInt(compressed);
+  out.position(start + compressed);
+
+  final RasterWritable result = new RasterWritable();
+  result.set(encoded, 0, out.position());
+  return result;
+}
+
+/**
+ * The tile in the plain RasterWritable layout, for writing where no codec is used.  An encoded tile
+ * (e.g. a constant tile) is decoded, a plain one is returned as it is.
+ */
+public static RasterWritable plain(final RasterWritable writable) throws IOException
+{
+  final byte[] bytes = writable.getBytes();
+  final int length = writable.getLength();
+
+  if (!isEncoded(bytes, length))
+  {
+    return writable;
+  }
+  return new RasterWritable(decode(bytes, length));
+}
+
+/**
+ * The tile as a constant tile if every pixel is the same, otherwise the tile itself
+ */
+static RasterWritable compact(final RasterWritable writable)
+{
+  final byte[] bytes = writable.getBytes();
+  final int length = writable.getLength();
+
+  if (isEncoded(bytes, length))
+  {
+    return writable;
+  }
+
+  final RasterTile tile = RasterTile.fromWritable(writable);
+  final int headerLength = tile.getDataOffset();
+  final int pixelBytes = RasterUtils.getElementSize(tile.getDatatype()) * tile.getNumBands();
+  final int dataLength = tile.getNumSamples() * RasterUtils.getElementSize(tile.getDatatype());
+
+  if (dataLength > pixelBytes && isConstant(bytes, headerLength, dataLength, pixelBytes))
+  {
+    return constant(bytes, length, headerLength, dataLength, pixelBytes);
+  }
+  return writable;
+}
+
+/**
+ * A constant tile, without making the pixels
+ */
+static RasterWritable constant(final int width, final int height, final int bands, final int datatype,
+    final double[] values)
+{
+  // a single pixel, with the tile's real size in its header
+  final RasterTile pixel = RasterTile.createEmptyTile(1, 1, bands, datatype, values);
+  final byte[] bytes = pixel.getBytes();
+  final ByteBuffer header = ByteBuffer.wrap(bytes);
+  header.putInt(4, height);
+  header.putInt(8, width);
+
+  final int pixelBytes = RasterUtils.getElementSize(datatype) * bands;
+  final int headerLength = pixel.getDataOffset();
+  final int dataLength = width * height * pixelBytes;
+
+  return constant(bytes, headerLength + dataLength, headerLength, dataLength, pixelBytes);
+}
+
+/**
+ * The value of each band of a constant tile, or null if the tile isn't stored as a constant tile
+ */
+static double[] constantValues(final RasterWritable writable)
+{
+  final byte[] bytes = writable.getBytes();
+  if (!isConstant(bytes, writable.getLength()))
+  {
+    return null;
+  }
+
+  final ByteBuffer in = ByteBuffer.wrap(bytes);
+  final int headerLength = in.getInt(9);
+  final int bands = in.getInt(PREFIX_BYTES + 12);
+  final int datatype = in.getInt(PREFIX_BYTES + 16);
+  final int payloadLength = in.getInt(PREFIX_BYTES + headerLength);
+  final int pixelOffset = PREFIX_BYTES + headerLength + 4 + payloadLength + 4;
+
+  final RasterTile pixel = RasterTile.createEmptyTile(1, 1, bands, datatype);
+  System.arraycopy(bytes, pixelOffset, pixel.getBytes(), pixel.getDataOffset(),
+      RasterUtils.getElementSize(datatype) * bands);
+
+  final double[] values = new double[bands];
+  for (int b = 0; b < bands; b++)
+  {
+    values[b] = pixel.getDouble(b);
+  }
+  return values;
+}
+
+// the tile, stored as its header, payload and one pixel
+private static RasterWritable constant(final byte[] bytes, final int length, final int headerLength,
+    final int dataLength, final int pixelBytes)
+{
+  final int payloadLength = length - headerLength - dataLength;
+  final byte[] encoded = new byte[PREFIX_BYTES + headerLength + 4 + payloadLength + 4 + pixelBytes];
+
+  final ByteBuffer out = ByteBuffer.wrap(encoded);
+  writePrefix(out, CONSTANT, bytes, length, headerLength, dataLength);
+  out.putInt(pixelBytes);
+  out.put(bytes, headerLength, pixelBytes);
+
+  return new RasterWritable(encoded);
+}
+
+// marker, codec, lengths, header and payload
+private static void writePrefix(final ByteBuffer out, final byte codecId, final byte[] bytes, final int length,
+    final int headerLength, final int dataLength)
+{
+  final int payloadLength = length - headerLength - dataLength;
+
+  out.putInt(MAGIC);
+  out.put(codecId);
+  out.putInt(length);
+  out.putInt(headerLength);
+  out.put(bytes, 0, headerLength);
+  out.putInt(payloadLength);
+  if (payloadLength > 0)
+  {
+    out.put(bytes, headerLength + dataLength, payloadLength);
+  }
+}
+
+/**
+ * Decode an encoded tile into a new array
+ */
+static byte[] decode(final byte[] bytes, final int length) throws IOException
+{
+  final byte[] decoded = new byte[decodedLength(bytes)];
+  decode(bytes, length, decoded);
+  return decoded;
+}
+
+// the length of the tile once it's decoded
+static int decodedLength(final byte[] bytes)
+{
+  return ByteBuffer.wrap(bytes, 5, 4).getInt();
+}
+
+/**
+ * Decode an encoded tile into dst, which must hold at least decodedLength() bytes
+ */
+static void decode(final byte[] bytes, final int length, final byte[] dst) throws IOException
+{
+  final ByteBuffer in = ByteBuffer.wrap(bytes, 0, length);
+  in.getInt();
+  final byte codecId = in.get();
+  final int rawLength = in.getInt();
+  final int headerLength = in.getInt();
+  in.get(dst, 0, headerLength);
+
+  final RasterTile header = RasterTile.fromBytes(dst);
+  final int elementSize = RasterUtils.getElementSize(header.getDatatype());
+  final int dataLength = header.getNumSamples() * elementSize;
+
+  final int payloadLength = in.getInt();
+  in.get(dst, headerLength + dataLength, payloadLength);
+
+  final int bodyLength = in.getInt();
+  if (rawLength != headerLength + dataLength + payloadLength || in.remaining() < bodyLength)
+  {
+    throw new IOException("Corrupt encoded tile");
+  }
+
+  if (codecId == CONSTANT)
+  {
+    for (int offset = headerLength; offset < headerLength + dataLength; offset += bodyLength)
+    {
+      System.arraycopy(bytes, in.position(), dst, offset, bodyLength);
+    }
+    return;
+  }
+
+  final RasterCodec codec = (codecId > 0) ? byId[codecId] : null;
+  if (codec == null)
+  {
+    throw new IOException("Unknown raster codec id: " + codecId);
+  }
+
+  final byte[] filtered = new byte[dataLength];
+  codec.decompress(bytes, in.position(), bodyLength, filtered, 0, dataLength);
+  codec.unfilter(filtered, dst, headerLength, header);
+}
+
+private static boolean isConstant(final byte[] bytes, final int offset, final int length, final int pixelBytes)
+{
+  for (int i = offset + pixelBytes; i < offset + length; i++)
+  {
+    if (bytes[i] != bytes[offset + ((i - offset) % pixelBytes)])
+    {
+      return false;
+    }
+  }
+  return true;
+}
+
+// predict (optionally) and shuffle the pixels into a new array
+private byte[] filter(final byte[] bytes, final int offset, final RasterTile tile)
+{
+  final int elementSize = RasterUtils.getElementSize(tile.getDatatype());
+  final int samples = tile.getNumSamples();
+
+  byte[] src = bytes;
+  int srcOffset = offset;
+  if (predict)
+  {
+    src = new byte[samples * elementSize];
+    System.arraycopy(bytes, offset, src, 0, src.length);
+    srcOffset = 0;
+    delta(src, 0, elementSize, tile.getWidth(), tile.getHeight(), tile.getNumBands());
+  }
+
+  final byte[] shuffled = new byte[samples * elementSize];
+  if (elementSize == 1)
+  {
+    System.arraycopy(src, srcOffset, shuffled, 0, samples);
+  }
+  else
+  {
+    for (int i = 0; i < samples; i++)
+    {
+      final int s = srcOffset + i * elementSize;
+      for (int b = 0; b < elementSize; b++)
+      {
+        shuffled[b * samples + i] = src[s + b];
+      }
+    }
+  }
+  return shuffled;
+}
+
+// unshuffle the pixels into dst, then undo the prediction
+private void unfilter(final byte[] shuffled, final byte[] dst, final int offset, final RasterTile header)
+{
+  final int elementSize = RasterUtils.getElementSize(header.getDatatype());
+  final int samples = header.getNumSamples();
+
+  if (elementSize == 1)
+  {
+    System.arraycopy(shuffled, 0, dst, offset, samples);
+  }
+  else
+  {
+    for (int i = 0; i < samples; i++)
+    {
+      final int d = offset + i * elementSize;
+      for (int b = 0; b < elementSize; b++)
+      {
+        dst[d + b] = shuffled[b * samples + i];
+      }
+    }
+  }
+
+  if (predict)
+  {
+    undelta(dst, offset, elementSize, header.getWidth(), header.getHeight(), header.getNumBands());
+  }
+}
+
+// Replace each sample with the difference from the sample of the same band to its left.  The
+// samples are treated as (big-endian) integers of their size, so float and double samples are
+// predicted by their bits, and it's exactly reversible.
+private static void delta(final byte[] data, final int offset, final int elementSize,
+    final int width, final int height, final int bands)
+{
+  final ByteBuffer buf = ByteBuffer.wrap(data);
+  final int row = width * bands;
+  for (int y = 0; y < height; y++)
+  {
+    final int start = y * row;
+    for (int i = start + row - 1; i >= start + bands; i--)
+    {
+      final int o = offset + i * elementSize;
+      final int p = o - bands * elementSize;
+      switch (elementSize)
+      {
+      case 1:
+        data[o] = (byte) (data[o] - data[p]);
+        break;
+      case 2:
+        buf.putShort(o, (short) (buf.getShort(o) - buf.getShort(p)));
+        break;
+      case 4:
+        buf.putInt(o, buf.getInt(o) - buf.getInt(p));
+        break;
+      default:
+        buf.putLong(o, buf.getLong(o) - buf.getLong(p));
+        break;
+      }
+    }
+  }
+}
+
+private static void undelta(final byte[] data, final int offset, final int elementSize,
+    final int width, final int height, final int bands)
+{
+  final ByteBuffer buf = ByteBuffer.wrap(data);
+  final int row = width * bands;
+  for (int y = 0; y < height; y++)
+  {
+    final int start = y * row;
+    for (int i = start + bands; i < start + row; i++)
+    {
+      final int o = offset + i * elementSize;
+      final int p = o - bands * elementSize;
+      switch (elementSize)
+      {
+      case 1:
+        data[o] = (byte) (data[o] + data[p]);
+        break;
+      case 2:
+        buf.putShort(o, (short) (buf.getShort(o) + buf.getShort(p)));
+        break;
+      case 4:
+        buf.putInt(o, buf.getInt(o) + buf.getInt(p));
+        break;
+      default:
+        buf.putLong(o, buf.getLong(o) + buf.getLong(p));
+        break;
+      }
+    }
+  }
+}
+
+// LZ4, fast to compress and very fast to decompress, for tiles that are read often
+private static class Lz4Codec extends RasterCodec
+{
+  // the factory (which may load LZ4's native library) is only created once an lz4 tile is encoded or
+  // decoded, so registering the codec doesn't need LZ4 at all
+  private static class Holder
+  {
+    static final LZ4Factory factory = LZ4Factory.fastestInstance();
+  }
+
+  Lz4Codec(final byte id, final String name, final boolean predict)
+  {
+    super(id, name, predict);
+  }
+
+  @Override
+  protected int maxCompressedLength(final int length)
+  {
+    return Holder.factory.fastCompressor().maxCompressedLength(length);
+  }
+
+  @Override
+  protected int compress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff)
+  {
+    final LZ4Compressor compressor = Holder.factory.fastCompressor();
+    return compressor.compress(src, srcOff, srcLen, dst, dstOff, compressor.maxCompressedLength(srcLen));
+  }
+
+  @Override
+  protected void decompress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst,
+      final int dstOff, final int dstLen)
+  {
+    final LZ4FastDecompressor decompressor = Holder.factory.fastDecompressor();
+    decompressor.decompress(src, srcOff, dst, dstOff, dstLen);
+  }
+}
+
+// zlib deflate, smaller than LZ4 but slower, for tiles that are mostly stored
+private static class DeflateCodec extends RasterCodec
+{
+  DeflateCodec(final byte id, final String name, final boolean predict)
+  {
+    super(id, name, predict);
+  }
+
+  @Override
+  protected int maxCompressedLength(final int length)
+  {
+    // zlib's bound, plus the header and checksum
+    return length + (length >> 12) + (length >> 14) + (length >> 25) + 13 + 6;
+  }
+
+  @Override
+  protected int compress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst, final int dstOff)
+  {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try
+    {
+      deflater.setInput(src, srcOff, srcLen);
+      deflater.finish();
+      int written = 0;
+      final int max = maxCompressedLength(srcLen);
+      while (!deflater.finished() && written < max)
+      {
+        written += deflater.deflate(dst, dstOff + written, max - written);
+      }
+      return written;
+    }
+    finally
+    {
+      deflater.end();
+    }
+  }
+
+  @Override
+  protected void decompress(final byte[] src, final int srcOff, final int srcLen, final byte[] dst,
+      final int dstOff, final int dstLen) throws IOException
+  {
+    final Inflater inflater = new Inflater();
+    try
+    {
+      inflater.setInput(src, srcOff, srcLen);
+      int read = 0;
+      while (read < dstLen && !inflater.finished())
+      {
+        final int n = inflater.inflate(dst, dstOff + read, dstLen - read);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+        {
+          break;
+        }
+        read += n;
+      }
+      if (read != dstLen)
+      {
+        throw new IOException("Corrupt deflated tile");
+      }
+    }
+    catch (DataFormatException e)
+    {
+      throw new IOException("Corrupt deflated tile", e);
+    }
+    finally
+    {
+      inflater.end();
+    }
+  }
+}
+}
@@ -0,0 +1,492 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import org.apache.commons.lang3.NotImplementedException;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A primitive view of a tile stored in the RasterWritable byte layout.  The header is parsed
+ * once, and the pixels are read and written in place, so a tile can go from a RasterWritable,
+ * through a map op, and back to a RasterWritable without ever building an AWT Raster.
+ *
+ * Pixels are stored in the same order RasterWritable uses on disk, pixel-interleaved
+ * (all the bands for a pixel are adjacent) and big-endian.  The band accessors are strided
+ * views over that layout; for single band tiles they are a plain contiguous scan.
+ */
+public class RasterTile implements Serializable
+{
+private static final long serialVersionUID = 1L;
+
+// header ints: headersize, height, width, bands, datatype, sample model type
+private static final int BANDED_HEADER_BYTES = 6 * RasterUtils.INT_BYTES;
+
+private byte[] bytes;
+private int length;
+
+private int width;
+private int height;
+private int bands;
+private int datatype;
+private int elementSize;
+private int dataOffset;
+
+private transient ByteBuffer buffer;
+
+private RasterTile(final byte[] bytes, final int length)
+{
+  this.bytes = bytes;
+  this.length = length;
+
+  parseHeader();
+}
+
+/**
+ * Wrap the bytes of a RasterWritable.  No pixel data is copied, changes to the tile
+ * are made directly in the writable's backing array.
+ *
+ * The exception is an encoded writable, usually a constant tile (see RasterWritable.createConstant()).
+ * Its pixels are decoded into a new array on every call, which costs one tile sized allocation, and
+ * changes to the tile don't reach the writable.  Code that changes a tile should use the tile
+ * (e.g. toWritable()) afterwards, not the writable it came from.
+ */
+public static RasterTile fromWritable(final RasterWritable writable)
+{
+  return wrap(writable.getBytes(), writable.getLength());
+}
+
+public static RasterTile fromBytes(final byte[] bytes)
+{
+  return wrap(bytes, bytes.length);
+}
+
+private static RasterTile wrap(final byte[] bytes, final int length)
+{
+  if (RasterCodec.isEncoded(bytes, length))
+  {
+    try
+    {
+      final byte[] decoded = RasterCodec.decode(bytes, length);
+      return new RasterTile(decoded, decoded.length);
+    }
+    catch (IOException e)
+    {
+      throw new RasterWritable.RasterWritableException(e);
+    }
+  }
+  return new RasterTile(bytes, length);
+}
+
+/**
+ * Compatibility path for code that still produces AWT Rasters.  This does copy the pixels.
+ */
+public static RasterTile fromRaster(final Raster raster) throws IOException
+{
+  return fromWritable(RasterWritable.toWritable(raster));
+}
+
+public static RasterTile createEmptyTile(final int width, final int height, final int bands,
+    final int datatype)
+{
+  final int elementSize = RasterUtils.getElementSize(datatype);
+  final byte[] bytes = new byte[BANDED_HEADER_BYTES + (width * height * bands * elementSize)];
+
+  final ByteBuffer header = ByteBuffer.wrap(bytes);
+  header.putInt(RasterWritable.HEADERSIZE);
+  header.putInt(height);
+  header.putInt(width);
+  header.putInt(bands);
+  header.putInt(datatype);
+  header.putInt(RasterWritable.SampleModelType.BANDED.ordinal());
+
+  return new RasterTile(bytes, bytes.length);
+}
+
+public static RasterTile createEmptyTile(final int width, final int height, final int bands,
+    final int datatype, final double[] nodatas)
+{
+  final RasterTile tile = createEmptyTile(width, height, bands, datatype);
+  tile.fill(nodatas);
+  return tile;
+}
+
+public static RasterTile createEmptyTile(final int width, final int height, final int bands,
+    final int datatype, final double nodata)
+{
+  final RasterTile tile = createEmptyTile(width, height, bands, datatype);
+  final double[] nodatas = new double[bands];
+  Arrays.fill(nodatas, nodata);
+  tile.fill(nodatas);
+  return tile;
+}
+
+public static RasterTile createCompatibleEmptyTile(final RasterTile src)
+{
+  return createEmptyTile(src.width, src.height, src.bands, src.datatype);
+}
+
+/**
+ * Wrap the tile back up as a writable.  When the tile owns its whole backing array
+ * (the normal case) no bytes are copied.
+ */
+public RasterWritable toWritable()
+{
+  if (length == bytes.length)
+  {
+    return new RasterWritable(bytes);
+  }
+
+  final RasterWritable writable = new RasterWritable();
+  writable.set(bytes, 0, length);
+  return writable;
+}
+
+/**
+ * Compatibility path for code that still needs an AWT Raster.  This copies the pixels.
+ */
+public Raster toRaster() throws IOException
+{
+  return RasterWritable.toRaster(toWritable());
+}
+
+/**
+ * The backing array, header included.  Only the first getLength() bytes are valid.
+ */
+public byte[] getBytes()
+{
+  return bytes;
+}
+
+public int getLength()
+{
+  return length;
+}
+
+public int getWidth()
+{
+  return width;
+}
+
+public int getHeight()
+{
+  return height;
+}
+
+public int getNumBands()
+{
+  return bands;
+}
+
+public int getDatatype()
+{
+  return datatype;
+}
+
+public int getNumSamples()
+{
+  return width * height * bands;
+}
+
+// offset of the first pixel in the backing array
+int getDataOffset()
+{
+  return dataOffset;
+}
+
+/**
+ * A big-endian buffer over just the pixel data of the tile.  The buffer shares the tile's
+ * backing array.
+ */
+public ByteBuffer getDataBuffer()
+{
+  final ByteBuffer dup = buffer().duplicate();
+  dup.position(dataOffset);
+  dup.limit(dataOffset + (getNumSamples() * elementSize));
+  return dup.slice();
+}
+
+public int getSampleIndex(final int x, final int y, final int b)
+{
+  return ((y * width + x) * bands) + b;
+}
+
+public double getSampleDouble(final int x, final int y, final int b)
+{
+  return getDouble(getSampleIndex(x, y, b));
+}
+
+public float getSampleFloat(final int x, final int y, final int b)
+{
+  return (float) getDouble(getSampleIndex(x, y, b));
+}
+
+public int getSample(final int x, final int y, final int b)
+{
+  return (int) getDouble(getSampleIndex(x, y, b));
+}
+
+public void setSample(final int x, final int y, final int b, final double value)
+{
+  setDouble(getSampleIndex(x, y, b), value);
+}
+
+/**
+ * Read a sample by its raw index into the pixel-interleaved data (see getSampleIndex).
+ * Byte and unsigned short samples are returned unsigned, matching Raster.getSample().
+ */
+public double getDouble(final int index)
+{
+  final ByteBuffer buf = buffer();
+  final int offset = dataOffset + (index * elementSize);
+
+  switch (datatype)
+  {
+  case DataBuffer.TYPE_BYTE:
+    return buf.get(offset) & 0xff;
+  case DataBuffer.TYPE_SHORT:
+    return buf.getShort(offset);
+  case DataBuffer.TYPE_USHORT:
+    return buf.getShort(offset) & 0xffff;
+  case DataBuffer.TYPE_INT:
+    return buf.getInt(offset);
+  case DataBuffer.TYPE_FLOAT:
+    return buf.getFloat(offset);
+  case DataBuffer.TYPE_DOUBLE:
+    return buf.getDouble(offset);
+  default:
+    throw new RasterWritable.RasterWritableException("Error trying to read tile.  Bad raster data type");
+  }
+}
+
+/**
+ * Write a sample by its raw index.  Values are narrowed the same way
+ * WritableRaster.setSample(x, y, b, double) does.
+ */
+public void setDouble(final int index, final double value)
+{
+  final ByteBuffer buf = buffer();
+  final int offset = dataOffset + (index * elementSize);
+
+  switch (datatype)
+  {
+  case DataBuffer.TYPE_BYTE:
+    buf.put(offset, (byte) (int) value);
+    break;
+  case DataBuffer.TYPE_SHORT:
+  case DataBuffer.TYPE_USHORT:
+    buf.putShort(offset, (short) (int) value);
+    break;
+  case DataBuffer.TYPE_INT:
+    buf.putInt(offset, (int) value);
+    break;
+  case DataBuffer.TYPE_FLOAT:
+    buf.putFloat(offset, (float) value);
+    break;
+  case DataBuffer.TYPE_DOUBLE:
+    buf.putDouble(offset, value);
+    break;
+  default:
+    throw new RasterWritable.RasterWritableException("Error trying to write tile.  Bad raster data type");
+  }
+}
+
+/**
+ * Copy a single band into a primitive array, in row-major order.  If samples is null, or too
+ * small, a new array is allocated.
+ */
+public double[] getSamples(final int b, double[] samples)
+{
+  final int pixels = width * height;
+  if (samples == null || samples.length < pixels)
+  {
+    samples = new double[pixels];
+  }
+
+  final ByteBuffer buf = buffer();
+  final int stride = bands * elementSize;
+  int offset = dataOffset + (b * elementSize);
+
+  switch (datatype)
+  {
+  case DataBuffer.TYPE_BYTE:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.get(offset) & 0xff;
+    }
+    break;
+  case DataBuffer.TYPE_SHORT:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.getShort(offset);
+    }
+    break;
+  case DataBuffer.TYPE_USHORT:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.getShort(offset) & 0xffff;
+    }
+    break;
+  case DataBuffer.TYPE_INT:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.getInt(offset);
+    }
+    break;
+  case DataBuffer.TYPE_FLOAT:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.getFloat(offset);
+    }
+    break;
+  case DataBuffer.TYPE_DOUBLE:
+    for (int i = 0; i < pixels; i++, offset += stride)
+    {
+      samples[i] = buf.getDouble(offset);
+    }
+    break;
+  default:
+    throw new RasterWritable.RasterWritableException("Error trying to read tile.  Bad raster data type");
+  }
+
+  return samples;
+}
+
+/**
+ * Write a single band from a row-major primitive array.
+ */
+public void setSamples(final int b, final double[] samples)
+{
+  final int pixels = width * height;
+  final int stride = bands;
+  int index = b;
+  for (int i = 0; i < pixels; i++, index += stride)
+  {
+    setDouble(index, samples[i]);
+  }
+}
+
+/**
+ * Copy a rectangle of pixels from another tile, a row at a time.  The tiles must have the same
+ * datatype and number of bands.
+ */
+public void copyRect(final RasterTile src, final int srcX, final int srcY, final int w, final int h,
+    final int dstX, final int dstY)
+{
+  if (src.datatype != datatype || src.bands != bands)
+  {
+    throw new RasterWritable.RasterWritableException(
+        "Error - cannot copy pixels between tiles with different datatypes or bands");
+  }
+
+  final int pixelBytes = bands * elementSize;
+  final int rowBytes = w * pixelBytes;
+
+  int srcOffset = src.dataOffset + (((srcY * src.width) + srcX) * pixelBytes);
+  int dstOffset = dataOffset + (((dstY * width) + dstX) * pixelBytes);
+  for (int y = 0; y < h; y++)
+  {
+    System.arraycopy(src.bytes, srcOffset, bytes, dstOffset, rowBytes);
+    srcOffset += src.width * pixelBytes;
+    dstOffset += width * pixelBytes;
+  }
+}
+
+public void fill(final double[] values)
+{
+  if (values.length != bands)
+  {
+    throw new RasterWritable.RasterWritableException(
+        "Error - cannot fill " + bands + " band tile with array containing " + values.length + " values");
+  }
+
+  final int samples = getNumSamples();
+  for (int i = 0; i < samples; i++)
+  {
+    setDouble(i, values[i % bands]);
+  }
+}
+
+private ByteBuffer buffer()
+{
+  if (buffer == null)
+  {
+    buffer = ByteBuffer.wrap(bytes, 0, length);
+  }
+  return buffer;
+}
+
+private void parseHeader()
+{
+  final ByteBuffer header = ByteBuffer.wrap(bytes, 0, length);
+
+  header.getInt(); // headersize, not used
+  height = header.getInt();
+  width = header.getInt();
+  bands = header.getInt();
+  datatype = header.getInt();
+
+  final RasterWritable.SampleModelType modelType = RasterWritable.SampleModelType.values()[header.getInt()];
+  switch (modelType)
+  {
+  case BANDED:
+    break;
+  case PIXELINTERLEAVED:
+  case COMPONENT:
+  {
+    header.getInt(); // pixel stride
+    header.getInt(); // scanline stride
+    final int bandcnt = header.getInt();
+    header.position(header.position() + (bandcnt * RasterUtils.INT_BYTES));
+    break;
+  }
+  case MULTIPIXELPACKED:
+    throw new NotImplementedException("MultiPixelPackedSampleModel not implemented yet");
+  case SINGLEPIXELPACKED:
+    throw new NotImplementedException("SinglePixelPackedSampleModel not implemented yet");
+  default:
+    throw new RasterWritable.RasterWritableException("Unknown RasterSampleModel type");
+  }
+
+  dataOffset = header.position();
+  elementSize = RasterUtils.getElementSize(datatype);
+  buffer = null;
+}
+
+// we could use the default serializations here, but instead we'll just do it manually
+private synchronized void writeObject(ObjectOutputStream stream) throws IOException
+{
+  stream.writeInt(length);
+  stream.write(bytes, 0, length);
+}
+
+private synchronized void readObject(ObjectInputStream stream) throws IOException
+{
+  length = stream.readInt();
+  bytes = new byte[length];
+  stream.readFully(bytes, 0, length);
+
+  parseHeader();
+}
+}
@@ -1089,49 +1089,7 @@ public static void fillWithNodata(final WritableRaster raster, final MrsPyramidM
 public static void decimate(final Raster parent, final WritableRaster child, final Aggregator aggregator,
     final MrsPyramidMetadata metadata)
 {
-  final int w = parent.getWidth();
-  final int h = parent.getHeight();
-
-  for (int y = 0; y < h; y += 2)
-  {
-    for (int x = 0; x < w; x += 2)
-    {
-
-      for (int b = 0; b < child.getNumBands(); b++)
-      {
-        switch (child.getTransferType())
-        {
-        case DataBuffer.TYPE_BYTE:
-        case DataBuffer.TYPE_INT:
-        case DataBuffer.TYPE_SHORT:
-        case DataBuffer.TYPE_USHORT:
-          final int[] intsamples = new int[4];
-          parent.getSamples(x, y, 2, 2, b, intsamples);
-          int intSample = aggregator.aggregate(intsamples, metadata.getDefaultValueInt(b));
-          //      ImageStats.updateStats(stats[b],intSample, metadata.getDefaultValue(b));
-          child.setSample(x / 2, y / 2, b, intSample);
-          break;
-        case DataBuffer.TYPE_FLOAT:
-          final float[] floatsamples = new float[4];
-          parent.getSamples(x, y, 2, 2, b, floatsamples);
-          float floatSample = aggregator.aggregate(floatsamples, metadata.getDefaultValueFloat(b));
-          //      ImageStats.updateStats(stats[b], floatSample, metadata.getDefaultValue(b));
-          child.setSample(x / 2, y / 2, b, floatSample);
-          break;
-        case DataBuffer.TYPE_DOUBLE:
-          final double[] doublesamples = new double[4];
-          parent.getSamples(x, y, 2, 2, b, doublesamples);
-          double doubleSample = aggregator.aggregate(doublesamples, metadata.getDefaultValueDouble(b));
-          //      ImageStats.updateStats(stats[b], doubleSample, metadata.getDefaultValue(b));
-          child.setSample(x / 2, y / 2, b, doubleSample);
-          break;
-        default:
-          throw new RasterWritable.RasterWritableException(
-              "Error trying to get decimate pixels in the raster. Bad raster data type");
-        }
-      }
-    }
-  }
+  TileDecimator.decimate(parent, child, 0, 0, aggregator, metadata.getDefaultValues());
 }
 
 public static void decimate(final Raster parent, final WritableRaster child,
@@ -1142,45 +1100,13 @@ public static void decimate(final Raster parent, final WritableRaster child,
 
 public static void decimate(final Raster parent, final WritableRaster child, final int startX, final int startY, final Aggregator aggregator, final Number[] nodatas)
 {
-  final int w = parent.getWidth();
-  final int h = parent.getHeight();
-
-  for (int y = 0; y < h; y += 2)
+  final double[] nd = new double[nodatas.length];
+  for (int b = 0; b < nodatas.length; b++)
   {
-    for (int x = 0; x < w; x += 2)
-    {
-      for (int b = 0; b < child.getNumBands(); b++)
-      {
-        switch (child.getTransferType())
-        {
-        case DataBuffer.TYPE_BYTE:
-        case DataBuffer.TYPE_INT:
-        case DataBuffer.TYPE_SHORT:
-        case DataBuffer.TYPE_USHORT:
-          final int[] intsamples = new int[4];
-          parent.getSamples(x, y, 2, 2, b, intsamples);
-          int intSample = aggregator.aggregate(intsamples, nodatas[b].intValue());
-          child.setSample(startX + (x / 2), startY + (y / 2), b, intSample);
-          break;
-        case DataBuffer.TYPE_FLOAT:
-          final float[] floatsamples = new float[4];
-          parent.getSamples(x, y, 2, 2, b, floatsamples);
-          float floatSample = aggregator.aggregate(floatsamples, nodatas[b].floatValue());
-          child.setSample(startX + (x / 2), startY + (y / 2), b, floatSample);
-          break;
-        case DataBuffer.TYPE_DOUBLE:
-          final double[] doublesamples = new double[4];
-          parent.getSamples(x, y, 2, 2, b, doublesamples);
-          double doubleSample = aggregator.aggregate(doublesamples, nodatas[b].doubleValue());
-          child.setSample(startX + (x / 2), startY + (y / 2), b, doubleSample);
-          break;
-        default:
-          throw new RasterWritable.RasterWritableException(
-              "Error trying to get decimate pixels in the raster. Bad raster data type");
-        }
-      }
-    }
+    nd[b] = nodatas[b].doubleValue();
   }
+
+  TileDecimator.decimate(parent, child, startX, startY, aggregator, nd);
 }
 
 public static int getElementSize(final int rasterDataType)
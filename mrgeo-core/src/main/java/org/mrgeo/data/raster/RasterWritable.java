@@ -28,7 +28,7 @@ import java.nio.*;
 
 public class RasterWritable extends BytesWritable implements Serializable
 {
-private static int HEADERSIZE = 5;
+static final int HEADERSIZE = 5;
 
 public static class RasterWritableException extends RuntimeException
 {
@@ -89,6 +89,25 @@ private synchronized void readObject(ObjectInputStream stream) throws IOExceptio
   set(bytes, 0, size);
 }
 
+// tiles written with a RasterCodec are decoded as they're read, so nothing downstream needs to
+// know how the pyramid was stored.  Constant tiles are left as they are, until their pixels are read.
+@Override
+public void readFields(final DataInput in) throws IOException
+{
+  super.readFields(in);
+
+  final int length = getLength();
+  if (RasterCodec.isEncoded(getBytes(), length) && !RasterCodec.isConstant(getBytes(), length))
+  {
+    final byte[] encoded = new byte[length];
+    System.arraycopy(getBytes(), 0, encoded, 0, length);
+
+    setSize(0);
+    setSize(RasterCodec.decodedLength(encoded));
+    RasterCodec.decode(encoded, length, getBytes());
+  }
+}
+
 public byte[] copyBytes()
 {
   return getBytes().clone();
@@ -122,6 +141,65 @@ public static Raster toRaster(final RasterWritable writable,
   return read(baos.toByteArray(), payload);
 }
 
+/**
+ * A tile where every pixel has the same value, kept as a single pixel until its pixels are read
+ * (by toRaster() or RasterTile.fromWritable()).  Masks, rasterized vectors and the nodata around
+ * the edges of an image are mostly made of these.
+ */
+public static RasterWritable createConstant(final int width, final int height, final int bands,
+    final int datatype, final double[] values)
+{
+  return RasterCodec.constant(width, height, bands, datatype, values);
+}
+
+/**
+ * The tile as a constant tile if every pixel is the same, otherwise the tile itself.  A tile
+ * that isn't constant is usually rejected within its first few pixels.
+ */
+public static RasterWritable compact(final RasterWritable writable)
+{
+  return RasterCodec.compact(writable);
+}
+
+/**
+ * The value of each band of a constant tile, or null if the tile isn't kept as one
+ */
+public static double[] getConstantValues(final RasterWritable writable)
+{
+  return RasterCodec.constantValues(writable);
+}
+
+/**
+ * True if the tile is kept as a constant tile, and every band is its nodata value
+ */
+public static boolean isNodata(final RasterWritable writable, final double[] nodatas)
+{
+  final double[] values = RasterCodec.constantValues(writable);
+  if (values == null)
+  {
+    return false;
+  }
+  for (int b = 0; b < values.length; b++)
+  {
+    final double nodata = (b < nodatas.length) ? nodatas[b] : Double.NaN;
+    if (!(Double.isNaN(nodata) ? Double.isNaN(values[b]) : values[b] == nodata))
+    {
+      return false;
+    }
+  }
+  return true;
+}
+
+public static RasterTile toTile(final RasterWritable writable)
+{
+  return RasterTile.fromWritable(writable);
+}
+
+public static RasterWritable toWritable(final RasterTile tile)
+{
+  return tile.toWritable();
+}
+
 public static SampleModelType toSampleModelType(final SampleModel model)
 {
   if (model instanceof PixelInterleavedSampleModel)
@@ -303,11 +381,13 @@ public static Raster toRaster(final byte[] rasterBytes, Writable payload) throws
   return read(rasterBytes, payload);
 }
 
-private static Raster read(final byte[] rasterBytes, Writable payload)
+private static Raster read(final byte[] bytes, Writable payload)
     throws IOException
 {
   WritableRaster raster;
 
+  final byte[] rasterBytes = RasterCodec.isEncoded(bytes, bytes.length) ?
+      RasterCodec.decode(bytes, bytes.length) : bytes;
   final ByteBuffer rasterBuffer = ByteBuffer.wrap(rasterBytes);
 
   @SuppressWarnings("unused")
@@ -0,0 +1,553 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import org.mrgeo.aggregators.*;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Decimates (2x2 -> 1) tiles for building pyramids.  Each band is read into a primitive
+ * array once, then reduced with a loop specialized for the aggregator, so no arrays are
+ * allocated, and no SampleModel calls are made, per pixel.
+ *
+ * The built-in aggregators (mean, min, max, nearest, mode, sum) have specialized loops, any
+ * other aggregator is called through the Aggregator interface, with its 4 sample array reused.
+ *
+ * The 2x2 block is ordered the same as Raster.getSamples(x, y, 2, 2, ...): upper-left,
+ * upper-right, lower-left, lower-right.
+ */
+public class TileDecimator
+{
+private enum Kernel
+{
+  MEAN, MIN, MAX, NEAREST, MODE, SUM, GENERIC
+}
+
+private TileDecimator()
+{
+}
+
+/**
+ * Decimate a tile into a new tile half its width and height.
+ */
+public static RasterTile decimate(final RasterTile tile, final Aggregator aggregator, final double[] nodatas)
+{
+  final int width = tile.getWidth();
+  final int height = tile.getHeight();
+  final int bands = tile.getNumBands();
+
+  final RasterTile output = RasterTile.createEmptyTile(width / 2, height / 2, bands, tile.getDatatype());
+
+  final double[] src = new double[width * height];
+  final double[] dst = new double[(width / 2) * (height / 2)];
+
+  for (int b = 0; b < bands; b++)
+  {
+    tile.getSamples(b, src);
+    decimate(src, width, height, dst, tile.getDatatype(), aggregator, nodatas[b]);
+    output.setSamples(b, dst);
+  }
+
+  return output;
+}
+
+/**
+ * Merge the 4 decimated children of a tile into the parent tile, in a single pass.  The
+ * quadrants are ordered NW, NE, SW, SE, missing children are null, and those areas of the
+ * parent are filled with nodata.  The rows of the children are copied directly, since the
+ * children are the same datatype and layout as the parent.
+ */
+public static RasterTile merge(final RasterTile[] quadrants, final int tilesize, final int bands,
+    final int datatype, final double[] nodatas)
+{
+  boolean missing = false;
+  for (final RasterTile quadrant : quadrants)
+  {
+    if (quadrant == null)
+    {
+      missing = true;
+      break;
+    }
+  }
+
+  final RasterTile parent = missing ?
+      RasterTile.createEmptyTile(tilesize, tilesize, bands, datatype, nodatas) :
+      RasterTile.createEmptyTile(tilesize, tilesize, bands, datatype);
+
+  final int half = tilesize / 2;
+  final int pixelBytes = bands * RasterUtils.getElementSize(datatype);
+  final int rowBytes = half * pixelBytes;
+
+  final byte[] dst = parent.getBytes();
+  for (int q = 0; q < quadrants.length; q++)
+  {
+    final RasterTile quadrant = quadrants[q];
+    if (quadrant != null)
+    {
+      final byte[] src = quadrant.getBytes();
+      final int xoff = (q % 2) * half;
+      final int yoff = (q / 2) * half;
+
+      int srcOffset = quadrant.getDataOffset();
+      int dstOffset = parent.getDataOffset() + (((yoff * tilesize) + xoff) * pixelBytes);
+      for (int y = 0; y < half; y++)
+      {
+        System.arraycopy(src, srcOffset, dst, dstOffset, rowBytes);
+        srcOffset += rowBytes;
+        dstOffset += tilesize * pixelBytes;
+      }
+    }
+  }
+
+  return parent;
+}
+
+/**
+ * Decimate the parent raster into the child, with the upper-left of the result at startX, startY
+ */
+public static void decimate(final Raster parent, final WritableRaster child, final int startX, final int startY,
+    final Aggregator aggregator, final double[] nodatas)
+{
+  final int w = parent.getWidth();
+  final int h = parent.getHeight();
+
+  final double[] src = new double[w * h];
+  final double[] dst = new double[(w / 2) * (h / 2)];
+
+  for (int b = 0; b < child.getNumBands(); b++)
+  {
+    parent.getSamples(0, 0, w, h, b, src);
+    decimate(src, w, h, dst, child.getTransferType(), aggregator, nodatas[b]);
+    child.setSamples(startX, startY, w / 2, h / 2, b, dst);
+  }
+}
+
+/**
+ * Decimate a single band, stored row-major in src, into dst (width / 2 x height / 2).
+ * Values are kept in doubles, but integer datatypes follow the integer semantics of the
+ * aggregators (e.g. integer division for the mean).
+ */
+public static void decimate(final double[] src, final int width, final int height, final double[] dst,
+    final int datatype, final Aggregator aggregator, final double nodata)
+{
+  // compare against the nodata as it is actually stored in the datatype
+  final double nd;
+  final boolean integer;
+  switch (datatype)
+  {
+  case DataBuffer.TYPE_BYTE:
+  case DataBuffer.TYPE_SHORT:
+  case DataBuffer.TYPE_USHORT:
+  case DataBuffer.TYPE_INT:
+    nd = (int) nodata;
+    integer = true;
+    break;
+  case DataBuffer.TYPE_FLOAT:
+    nd = (float) nodata;
+    integer = false;
+    break;
+  case DataBuffer.TYPE_DOUBLE:
+    nd = nodata;
+    integer = false;
+    break;
+  default:
+    throw new RasterWritable.RasterWritableException(
+        "Error trying to get decimate pixels in the raster. Bad raster data type");
+  }
+
+  switch (kernel(aggregator))
+  {
+  case MEAN:
+    mean(src, width, height, dst, nd, integer);
+    break;
+  case MIN:
+    min(src, width, height, dst, nd);
+    break;
+  case MAX:
+    max(src, width, height, dst, nd);
+    break;
+  case NEAREST:
+    nearest(src, width, height, dst, nd);
+    break;
+  case MODE:
+    mode(src, width, height, dst, nd);
+    break;
+  case SUM:
+    sum(src, width, height, dst, nd);
+    break;
+  default:
+    generic(src, width, height, dst, datatype, aggregator, nd);
+    break;
+  }
+}
+
+private static Kernel kernel(final Aggregator aggregator)
+{
+  // exact class matches only, a subclass may have changed the behavior
+  final Class<?> clazz = aggregator.getClass();
+  if (clazz == MeanAggregator.class)
+  {
+    return Kernel.MEAN;
+  }
+  if (clazz == MinAggregator.class)
+  {
+    return Kernel.MIN;
+  }
+  if (clazz == MaxAggregator.class)
+  {
+    return Kernel.MAX;
+  }
+  if (clazz == NearestAggregator.class)
+  {
+    return Kernel.NEAREST;
+  }
+  if (clazz == ModeAggregator.class)
+  {
+    return Kernel.MODE;
+  }
+  if (clazz == SumAggregator.class)
+  {
+    return Kernel.SUM;
+  }
+  return Kernel.GENERIC;
+}
+
+private static boolean isNodata(final double value, final double nodata)
+{
+  return Double.compare(value, nodata) == 0;
+}
+
+private static void mean(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata, final boolean integer)
+{
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      double sum = 0;
+      int count = 0;
+
+      double v = src[ul];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        count++;
+      }
+      v = src[ul + 1];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        count++;
+      }
+      v = src[ll];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        count++;
+      }
+      v = src[ll + 1];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        count++;
+      }
+
+      if (count == 0)
+      {
+        dst[d] = nodata;
+      }
+      else if (integer)
+      {
+        dst[d] = (long) sum / count;
+      }
+      else
+      {
+        dst[d] = sum / count;
+      }
+    }
+  }
+}
+
+private static void min(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata)
+{
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      double min = Double.POSITIVE_INFINITY;
+      boolean found = false;
+
+      double v = src[ul];
+      if (!isNodata(v, nodata))
+      {
+        min = Math.min(min, v);
+        found = true;
+      }
+      v = src[ul + 1];
+      if (!isNodata(v, nodata))
+      {
+        min = Math.min(min, v);
+        found = true;
+      }
+      v = src[ll];
+      if (!isNodata(v, nodata))
+      {
+        min = Math.min(min, v);
+        found = true;
+      }
+      v = src[ll + 1];
+      if (!isNodata(v, nodata))
+      {
+        min = Math.min(min, v);
+        found = true;
+      }
+
+      dst[d] = found ? min : nodata;
+    }
+  }
+}
+
+private static void max(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata)
+{
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      double max = Double.NEGATIVE_INFINITY;
+      boolean found = false;
+
+      double v = src[ul];
+      if (!isNodata(v, nodata))
+      {
+        max = Math.max(max, v);
+        found = true;
+      }
+      v = src[ul + 1];
+      if (!isNodata(v, nodata))
+      {
+        max = Math.max(max, v);
+        found = true;
+      }
+      v = src[ll];
+      if (!isNodata(v, nodata))
+      {
+        max = Math.max(max, v);
+        found = true;
+      }
+      v = src[ll + 1];
+      if (!isNodata(v, nodata))
+      {
+        max = Math.max(max, v);
+        found = true;
+      }
+
+      dst[d] = found ? max : nodata;
+    }
+  }
+}
+
+private static void nearest(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata)
+{
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      // same preference as NearestAggregator: UL, UR, LR, LL
+      if (!isNodata(src[ul], nodata))
+      {
+        dst[d] = src[ul];
+      }
+      else if (!isNodata(src[ul + 1], nodata))
+      {
+        dst[d] = src[ul + 1];
+      }
+      else if (!isNodata(src[ll + 1], nodata))
+      {
+        dst[d] = src[ll + 1];
+      }
+      else
+      {
+        dst[d] = src[ll];
+      }
+    }
+  }
+}
+
+private static void mode(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata)
+{
+  final double[] values = new double[4];
+
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      values[0] = src[ul];
+      values[1] = src[ul + 1];
+      values[2] = src[ll];
+      values[3] = src[ll + 1];
+
+      // with only 4 values, counting by comparison is much cheaper than a map.  Ties go to
+      // the value seen first.
+      double mode = nodata;
+      int maxFreq = 0;
+      for (int i = 0; i < 4; i++)
+      {
+        final double v = values[i];
+        if (!isNodata(v, nodata))
+        {
+          int freq = 1;
+          for (int j = i + 1; j < 4; j++)
+          {
+            if (Double.compare(v, values[j]) == 0)
+            {
+              freq++;
+            }
+          }
+          if (freq > maxFreq)
+          {
+            maxFreq = freq;
+            mode = v;
+          }
+        }
+      }
+
+      dst[d] = mode;
+    }
+  }
+}
+
+private static void sum(final double[] src, final int width, final int height, final double[] dst,
+    final double nodata)
+{
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      double sum = 0;
+      boolean found = false;
+
+      double v = src[ul];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        found = true;
+      }
+      v = src[ul + 1];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        found = true;
+      }
+      v = src[ll];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        found = true;
+      }
+      v = src[ll + 1];
+      if (!isNodata(v, nodata))
+      {
+        sum += v;
+        found = true;
+      }
+
+      dst[d] = found ? sum : nodata;
+    }
+  }
+}
+
+private static void generic(final double[] src, final int width, final int height, final double[] dst,
+    final int datatype, final Aggregator aggregator, final double nodata)
+{
+  final int[] ints = new int[4];
+  final float[] floats = new float[4];
+  final double[] doubles = new double[4];
+
+  final int dw = width / 2;
+  final int dh = height / 2;
+  for (int y = 0; y < dh; y++)
+  {
+    int ul = (y * 2) * width;
+    int ll = ul + width;
+    int d = y * dw;
+    for (int x = 0; x < dw; x++, ul += 2, ll += 2, d++)
+    {
+      switch (datatype)
+      {
+      case DataBuffer.TYPE_FLOAT:
+        floats[0] = (float) src[ul];
+        floats[1] = (float) src[ul + 1];
+        floats[2] = (float) src[ll];
+        floats[3] = (float) src[ll + 1];
+        dst[d] = aggregator.aggregate(floats, (float) nodata);
+        break;
+      case DataBuffer.TYPE_DOUBLE:
+        doubles[0] = src[ul];
+        doubles[1] = src[ul + 1];
+        doubles[2] = src[ll];
+        doubles[3] = src[ll + 1];
+        dst[d] = aggregator.aggregate(doubles, nodata);
+        break;
+      default:
+        ints[0] = (int) src[ul];
+        ints[1] = (int) src[ul + 1];
+        ints[2] = (int) src[ll];
+        ints[3] = (int) src[ll + 1];
+        dst[d] = aggregator.aggregate(ints, (int) nodata);
+        break;
+      }
+    }
+  }
+}
+}
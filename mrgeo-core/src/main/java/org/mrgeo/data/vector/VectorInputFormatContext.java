@@ -18,6 +18,7 @@ package org.mrgeo.data.vector;
 
 import org.apache.hadoop.conf.Configuration;
 import org.mrgeo.data.ProviderProperties;
+import org.mrgeo.utils.tms.Bounds;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -30,9 +31,10 @@ public class VectorInputFormatContext
   private static final String FEATURE_COUNT_KEY = className + ".featureCount";
   private static final String MIN_FEATURES_PER_SPLIT_KEY = className + ".minFeaturesPerSplit";
   private static final String PROVIDER_PROPERTY_KEY = className + ".provProps";
+  private static final String BOUNDS_KEY = className + ".bounds";
 
-  // TODO: Might need to include properties for spatial filtering
-  // here - like a geometry collection. We could also add a flag for
+  // TODO: The bounds is the only spatial filtering for now. Might need to include
+  // more here - like a geometry collection. We could also add a flag for
   // inclusive/exclusive. Or we could make this extensive to support
   // lots of different spatial filtering, like intersects, colinear,
   // touches, disjoint, overlaps, contains, etc... Searching wikipedia
@@ -44,6 +46,7 @@ public class VectorInputFormatContext
   private ProviderProperties inputProviderProperties = new ProviderProperties();
   private long featureCount = -1L;
   private int minFeaturesPerSplit = -1;
+  private Bounds bounds = null;
 
   public VectorInputFormatContext(final Set<String> inputs,
       final ProviderProperties inputProviderProperties)
@@ -84,6 +87,20 @@ public class VectorInputFormatContext
     return minFeaturesPerSplit;
   }
 
+  /**
+   * Only the features that intersect the bounds are read, or all of them when it's null.
+   * Input formats with a spatial index use it to skip the splits with none of them.
+   */
+  public Bounds getBounds()
+  {
+    return bounds;
+  }
+
+  public void setBounds(final Bounds bounds)
+  {
+    this.bounds = bounds;
+  }
+
   public void save(final Configuration conf)
   {
     conf.setInt(INPUTS_COUNT, inputs.size());
@@ -96,6 +113,14 @@ public class VectorInputFormatContext
     conf.setLong(FEATURE_COUNT_KEY, featureCount);
     conf.setInt(MIN_FEATURES_PER_SPLIT_KEY, minFeaturesPerSplit);
     conf.set(PROVIDER_PROPERTY_KEY, ProviderProperties.toDelimitedString(inputProviderProperties));
+    if (bounds != null)
+    {
+      conf.set(BOUNDS_KEY, bounds.toCommaString());
+    }
+    else
+    {
+      conf.unset(BOUNDS_KEY);
+    }
   }
 
   public static VectorInputFormatContext load(final Configuration conf)
@@ -110,6 +135,11 @@ public class VectorInputFormatContext
       String input = conf.get(INPUTS_PREFIX + inputIndex);
       context.inputs.add(input);
     }
+    String strBounds = conf.get(BOUNDS_KEY);
+    if (strBounds != null)
+    {
+      context.bounds = Bounds.fromCommaString(strBounds);
+    }
     String strProviderProperties = conf.get(PROVIDER_PROPERTY_KEY);
     if (strProviderProperties != null)
     {
@@ -30,6 +30,9 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.data.raster.RasterCodec;
+import org.mrgeo.data.raster.RasterWritable;
 import org.mrgeo.data.tile.TileIdWritable;
 import org.mrgeo.hdfs.output.MapFileOutputFormat;
 import org.slf4j.Logger;
@@ -50,7 +53,12 @@ public class HdfsMrsPyramidOutputFormat extends MapFileOutputFormat
     Configuration conf = context.getConfiguration();
     CompressionCodec codec = null;
     SequenceFile.CompressionType compressionType = SequenceFile.CompressionType.NONE;
-    if (getCompressOutput(context)) {
+
+    // tiles encoded with a raster codec are already compressed, compressing them again only
+    // costs time
+    final RasterCodec tileCodec = RasterCodec.get(conf.get(MrGeoConstants.MRGEO_TILE_CODEC,
+        MrGeoConstants.MRGEO_TILE_CODEC_DEFAULT));
+    if (tileCodec == null && getCompressOutput(context)) {
       // find the kind of compression to do
       compressionType = SequenceFileOutputFormat.getOutputCompressionType(context);
 
@@ -68,17 +76,23 @@ public class HdfsMrsPyramidOutputFormat extends MapFileOutputFormat
         MapFile.Writer.compression(compressionType, codec),
         MapFile.Writer.progressable(context));
 
-    return new Writer(out);
+    if (tileCodec != null)
+    {
+      log.debug("Encoding tiles with the " + tileCodec.getName() + " raster codec");
+    }
+    return new Writer(out, tileCodec);
   }
 
   private static class Writer extends RecordWriter<WritableComparable<?>, Writable>
   {
     private final MapFile.Writer out;
+    private final RasterCodec codec;
     private TileIdWritable tileid;
 
-    public Writer(MapFile.Writer out)
+    public Writer(MapFile.Writer out, RasterCodec codec)
     {
       this.out = out;
+      this.codec = codec;
       tileid = new TileIdWritable();
     }
 
@@ -86,6 +100,11 @@ public class HdfsMrsPyramidOutputFormat extends MapFileOutputFormat
     public void write(WritableComparable<?> key, Writable value)
         throws IOException
     {
+      if (codec != null && value instanceof RasterWritable)
+      {
+        value = codec.encode((RasterWritable) value);
+      }
+
       // there may ba a case or two where an extended TileIdWritable is written as the key
       // (buildpyramid does it).  So we strip out any of that information when we write the
       // actual key.
@@ -17,17 +17,22 @@
 package org.mrgeo.hdfs.vector;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.RecordWriter;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.StringUtils;
+import org.mrgeo.core.MrGeoConstants;
 import org.mrgeo.data.vector.FeatureIdWritable;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.hdfs.utils.HadoopFileUtils;
 import org.mrgeo.utils.LeakChecker;
+import org.mrgeo.utils.tms.Bounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +41,7 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
 
@@ -51,6 +57,9 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
 
   private static final long serialVersionUID = 1L;
 
+  // the attribute columns every part file is written with, when they're known before the job runs
+  public static final String COLUMNS = "csv.output.columns";
+
   static public class CsvRecordWriter extends RecordWriter<FeatureIdWritable, Geometry>
   {
     // we initialize to avoid a bunch of if (reader != null) code. It will be
@@ -72,6 +81,10 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
     private List<String> attributes;
     final private boolean  profile;
 
+    // when indexing, the bounds of each feature written, in order
+    private Configuration indexConf = null;
+    private List<Bounds> written = null;
+
     public CsvRecordWriter(Path columnsOutput, Path output) throws IOException
     {
       if (System.getProperty("mrgeo.profile", "false").compareToIgnoreCase("true") == 0)
@@ -136,6 +149,16 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
       this.writer = new PrintWriter(os);
     }
 
+    /**
+     * Write a spatial index of the output when the writer is closed.  Only used when
+     * writing to a path.
+     */
+    public void setIndexed(Configuration conf)
+    {
+      indexConf = conf;
+      written = new ArrayList<>();
+    }
+
     @Override
     public void close(TaskAttemptContext context) throws IOException
     {
@@ -148,6 +171,20 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
         output = null;
       }
 
+      if (indexConf != null && _outputPath != null)
+      {
+        final List<Bounds> bounds = written;
+        VectorIndex.indexLines(indexConf, _outputPath, writeHeader, new VectorIndex.LineBounds()
+        {
+          @Override
+          public Bounds bounds(long record, Text line)
+          {
+            return record < bounds.size() ? bounds.get((int) record) : null;
+          }
+        });
+        written = null;
+      }
+
       if (profile)
       {
         LeakChecker.instance().remove(this);
@@ -159,6 +196,20 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
       delimiter = d;
     }
 
+    /**
+     * Write the given attribute columns instead of taking them from the first feature,
+     * and don't write a column definition file.  Used when many writers write parts
+     * of the same output, so they all agree on the columns.
+     *
+     * @param attributes the sorted attribute names
+     */
+    public void setColumns(List<String> attributes)
+    {
+      this.attributes = new ArrayList<>(attributes);
+      writeGeometry = writesGeometry(attributes);
+      first = false;
+    }
+
     @Override
     public void write(FeatureIdWritable key, Geometry value) throws IOException
     {
@@ -178,6 +229,10 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
         }
         useDelim = true;
       }
+      if (written != null)
+      {
+        written.add(VectorIndex.boundsOf(value));
+      }
 
       for (String attribute : attributes)
       {
@@ -200,28 +255,7 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
     {
 
       attributes = new ArrayList<>(sample.getAllAttributesSorted().keySet());
-
-
-      boolean hasX = false;
-      boolean hasY = false;
-      for (String key: attributes)
-      {
-        if (key.equals("GEOMETRY"))
-        {
-          writeGeometry = false;
-          break;
-        }
-        if (key.compareToIgnoreCase("x") == 0)
-        {
-          hasX = true;
-        }
-        if (key.compareToIgnoreCase("y") == 0)
-        {
-          hasY = true;
-        }
-      }
-
-      writeGeometry = !(hasX && hasY);
+      writeGeometry = writesGeometry(attributes);
 
       String delim = "";
       if (writeHeader)
@@ -329,6 +363,18 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
     Path output = getDefaultWorkFile(context, extension);
 
     CsvRecordWriter result = new CsvRecordWriter(new Path(baseOut + ".columns"), output);
+
+    Configuration conf = context.getConfiguration();
+    List<String> columns = getColumns(conf);
+    if (columns != null)
+    {
+      result.setColumns(columns);
+    }
+    if (conf.getBoolean(MrGeoConstants.MRGEO_VECTOR_INDEX,
+        Boolean.parseBoolean(MrGeoConstants.MRGEO_VECTOR_INDEX_DEFAULT)))
+    {
+      result.setIndexed(conf);
+    }
     return result;
   }
 
@@ -336,4 +382,95 @@ public class CsvOutputFormat extends FileOutputFormat<FeatureIdWritable, Geometr
   {
     FileOutputFormat.setOutputPath(job, outputPath);
   }
+
+  /**
+   * Set the attribute columns all the record writers of the job write.  Without them, each
+   * writer uses the attributes of the first feature it sees.
+   */
+  public static void setColumns(Job job, Collection<String> attributes)
+  {
+    String[] escaped = new String[attributes.size()];
+    int i = 0;
+    for (String attribute : attributes)
+    {
+      escaped[i++] = StringUtils.escapeString(attribute);
+    }
+    job.getConfiguration().set(COLUMNS, StringUtils.join(",", escaped));
+  }
+
+  public static List<String> getColumns(Configuration conf)
+  {
+    String columns = conf.get(COLUMNS);
+    if (columns == null)
+    {
+      return null;
+    }
+    if (columns.isEmpty())
+    {
+      return new ArrayList<>();
+    }
+
+    List<String> attributes = new ArrayList<>();
+    for (String attribute : StringUtils.split(columns))
+    {
+      attributes.add(StringUtils.unEscapeString(attribute));
+    }
+    return attributes;
+  }
+
+  // points stored as x and y attributes don't need a geometry column
+  static boolean writesGeometry(Collection<String> attributes)
+  {
+    boolean hasX = false;
+    boolean hasY = false;
+    for (String key : attributes)
+    {
+      if (key.compareToIgnoreCase("x") == 0)
+      {
+        hasX = true;
+      }
+      if (key.compareToIgnoreCase("y") == 0)
+      {
+        hasY = true;
+      }
+    }
+    return !(hasX && hasY);
+  }
+
+  /**
+   * Write the column definition file for the attribute columns.  It is written to a
+   * temporary file and renamed into place, so a reader never sees a partial file.
+   */
+  public static void writeColumnsFile(Path columnsPath, List<String> attributes, Configuration conf)
+      throws IOException
+  {
+    List<String> columns = new ArrayList<>();
+    if (writesGeometry(attributes))
+    {
+      columns.add("GEOMETRY");
+    }
+    columns.addAll(attributes);
+
+    ColumnDefinitionFile cdf = new ColumnDefinitionFile();
+    cdf.setColumns(columns);
+    cdf.setFirstLineHeader(false);
+
+    FileSystem fs = HadoopFileUtils.getFileSystem(conf, columnsPath);
+    Path tmp = new Path(columnsPath.getParent(), "_" + columnsPath.getName() + ".tmp");
+    OutputStream os = fs.create(tmp, true);
+    try
+    {
+      cdf.store(os);
+    }
+    finally
+    {
+      os.close();
+    }
+
+    fs.delete(columnsPath, false);
+    if (!fs.rename(tmp, columnsPath))
+    {
+      throw new IOException("Unable to move " + tmp + " to " + columnsPath);
+    }
+  }
 }
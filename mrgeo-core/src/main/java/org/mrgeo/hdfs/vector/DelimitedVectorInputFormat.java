@@ -16,18 +16,25 @@
 
 package org.mrgeo.hdfs.vector;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.*;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.NLineInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorInputFormatContext;
 import org.mrgeo.geometry.Geometry;
+import org.mrgeo.utils.tms.Bounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DelimitedVectorInputFormat extends InputFormat<FeatureIdWritable, Geometry> implements Serializable
 {
@@ -110,12 +117,57 @@ public class DelimitedVectorInputFormat extends InputFormat<FeatureIdWritable, G
           }
         }
       }
-      return splits;
+      return pruneSplits(context, splits);
     }
     else
     {
       List<InputSplit> splits = new TextInputFormat().getSplits(context);
+      return pruneSplits(context, splits);
+    }
+  }
+
+  // for a bounded read, drop the splits the spatial index says have no features in the bounds
+  private static List<InputSplit> pruneSplits(JobContext context, List<InputSplit> splits)
+      throws IOException
+  {
+    Configuration conf = context.getConfiguration();
+    Bounds bounds = VectorInputFormatContext.load(conf).getBounds();
+    if (bounds == null)
+    {
       return splits;
     }
+
+    Map<Path, VectorIndex> indexes = new HashMap<>();
+    try
+    {
+      List<InputSplit> result = new ArrayList<>(splits.size());
+      for (InputSplit split : splits)
+      {
+        FileSplit fsplit = (FileSplit) split;
+        if (!indexes.containsKey(fsplit.getPath()))
+        {
+          indexes.put(fsplit.getPath(), VectorIndex.open(conf, fsplit.getPath()));
+        }
+
+        VectorIndex index = indexes.get(fsplit.getPath());
+        if (index == null ||
+            index.intersects(bounds, fsplit.getStart(), fsplit.getStart() + fsplit.getLength()))
+        {
+          result.add(split);
+        }
+      }
+      log.info("Reading " + result.size() + " of " + splits.size() + " splits for " + bounds);
+      return result;
+    }
+    finally
+    {
+      for (VectorIndex index : indexes.values())
+      {
+        if (index != null)
+        {
+          index.close();
+        }
+      }
+    }
   }
 }
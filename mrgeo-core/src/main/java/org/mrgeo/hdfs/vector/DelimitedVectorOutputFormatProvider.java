@@ -16,16 +16,23 @@
 
 package org.mrgeo.hdfs.vector;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.core.MrGeoProperties;
 import org.mrgeo.data.DataProviderException;
 import org.mrgeo.data.vector.FeatureIdWritable;
 import org.mrgeo.data.vector.VectorOutputFormatContext;
 import org.mrgeo.data.vector.VectorOutputFormatProvider;
 import org.mrgeo.geometry.Geometry;
+import org.mrgeo.hdfs.utils.HadoopFileUtils;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
 
 public class DelimitedVectorOutputFormatProvider implements VectorOutputFormatProvider
 {
@@ -51,11 +58,55 @@ public class DelimitedVectorOutputFormatProvider implements VectorOutputFormatPr
     job.setOutputKeyClass(FeatureIdWritable.class);
     job.setOutputValueClass(Geometry.class);
     job.setOutputFormatClass(CsvOutputFormat.class);
-    CsvOutputFormat.setup(new Path(provider.getResolvedResourceName(false)), job);
+
+    // The parts are written to a new directory next to the output, and swapped in for
+    // anything already there in teardown, so the existing output stays readable while the
+    // job runs, and is untouched if it fails.  The name keeps the extension, the writers
+    // use it to pick the delimiter.
+    Path output = new Path(provider.getResolvedResourceName(false));
+    Path working = new Path(output.getParent(),
+        "_" + UUID.randomUUID().toString() + "_" + output.getName());
+
+    CsvOutputFormat.setup(working, job);
+
+    job.getConfiguration().setBoolean(MrGeoConstants.MRGEO_VECTOR_INDEX, Boolean.parseBoolean(
+        MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_VECTOR_INDEX,
+            MrGeoConstants.MRGEO_VECTOR_INDEX_DEFAULT)));
   }
 
   @Override
   public void teardown(Job job) throws DataProviderException
   {
+    Configuration conf = job.getConfiguration();
+    try
+    {
+      Path output = new Path(provider.getResolvedResourceName(false));
+      Path working = FileOutputFormat.getOutputPath(job);
+      Path columnsPath = new Path(output.toString() + ".columns");
+      Path workingColumns = new Path(working.toString() + ".columns");
+
+      // replace the old output (and its columns and index) with the parts just committed
+      HadoopFileUtils.delete(conf, output);
+      HadoopFileUtils.delete(conf, columnsPath);
+      HadoopFileUtils.delete(conf, VectorIndex.indexPath(output));
+      HadoopFileUtils.move(conf, working, output);
+
+      // the columns are known up front when the job was given them, so they're written once,
+      // here, after all the parts have been committed.  Otherwise the first writer wrote them.
+      List<String> columns = CsvOutputFormat.getColumns(conf);
+      if (columns != null)
+      {
+        CsvOutputFormat.writeColumnsFile(columnsPath, columns, conf);
+      }
+      else if (HadoopFileUtils.exists(conf, workingColumns))
+      {
+        HadoopFileUtils.move(conf, workingColumns, columnsPath);
+      }
+    }
+    catch (IOException e)
+    {
+      throw new DataProviderException("Unable to move the output into place for " +
+          context.getOutput(), e);
+    }
   }
 }
@@ -17,6 +17,7 @@
 package org.mrgeo.hdfs.vector;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.mrgeo.data.CloseableKVIterator;
@@ -32,7 +33,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class DelimitedVectorReader implements VectorReader
 {
@@ -44,12 +47,49 @@ public class DelimitedVectorReader implements VectorReader
   {
     private BufferedReader reader;
     private Path sourcePath;
+    private Configuration conf;
+    private List<Path> parts;
+    private int part;
+    private boolean skipHeaders;
 
     public void initialize(Configuration conf, Path p) throws IOException
     {
-      this.sourcePath = p;
-      InputStream is = HadoopFileUtils.open(conf, p);
+      initialize(conf, Collections.singletonList(p), false);
+    }
+
+    /**
+     * Read the lines of each part in turn, as though they were one file.
+     *
+     * @param skipHeaders the first line of each part is a header.  The reader of the lines
+     *                    skips the first part's, the others are skipped here.
+     */
+    public void initialize(Configuration conf, List<Path> parts, boolean skipHeaders) throws IOException
+    {
+      this.conf = conf;
+      this.parts = parts;
+      this.skipHeaders = skipHeaders;
+      part = -1;
+      openNext();
+    }
+
+    private boolean openNext() throws IOException
+    {
+      close();
+      reader = null;
+      part++;
+      if (part >= parts.size())
+      {
+        return false;
+      }
+
+      sourcePath = parts.get(part);
+      InputStream is = HadoopFileUtils.open(conf, sourcePath);
       reader = new BufferedReader(new InputStreamReader(is));
+      if (skipHeaders && part > 0)
+      {
+        reader.readLine();
+      }
+      return true;
     }
 
     @Override
@@ -64,7 +104,16 @@ public class DelimitedVectorReader implements VectorReader
     @Override
     public String nextLine() throws IOException
     {
-      return reader.readLine();
+      while (reader != null)
+      {
+        String line = reader.readLine();
+        if (line != null)
+        {
+          return line;
+        }
+        openNext();
+      }
+      return null;
     }
     
     public String toString()
@@ -157,7 +206,7 @@ public class DelimitedVectorReader implements VectorReader
   {
   }
 
-  private DelimitedParser getDelimitedParser() throws IOException
+  DelimitedParser getDelimitedParser() throws IOException
   {
     char delimiter = ',';
     if (provider.getResourceName().toLowerCase().endsWith(".tsv"))
@@ -232,7 +281,12 @@ public class DelimitedVectorReader implements VectorReader
       InputStream in = null;
       try
       {
-        in = HadoopFileUtils.open(conf, new Path(fileName)); // fs.open(columnPath);
+        List<Path> parts = dataFiles(conf, new Path(fileName));
+        if (parts.isEmpty())
+        {
+          throw new IOException("No delimited files found in " + fileName);
+        }
+        in = HadoopFileUtils.open(conf, parts.get(0)); // fs.open(columnPath);
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
         String line = reader.readLine();
         String[] columnNames = line.split(Character.toString(delimiter));
@@ -267,13 +321,75 @@ public class DelimitedVectorReader implements VectorReader
         xCol, yCol, geometryCol, delimiter, '\"', skipFirstLine);
   }
 
+  /**
+   * The files holding the features of a delimited source.  That's the source itself, or,
+   * when it's the directory written by a job, its part files, in order.  The part files
+   * are the ones whose names don't start with "_" or ".".
+   */
+  static List<Path> dataFiles(Configuration conf, Path path) throws IOException
+  {
+    FileSystem fs = HadoopFileUtils.getFileSystem(conf, path);
+    if (!fs.getFileStatus(path).isDirectory())
+    {
+      return Collections.singletonList(path);
+    }
+
+    List<Path> parts = new ArrayList<>();
+    for (FileStatus status : fs.listStatus(path))
+    {
+      String name = status.getPath().getName();
+      if (status.isFile() && !name.startsWith("_") && !name.startsWith("."))
+      {
+        parts.add(status.getPath());
+      }
+    }
+    Collections.sort(parts);
+    return parts;
+  }
+
+  private List<Path> dataFiles() throws IOException
+  {
+    return dataFiles(conf, new Path(provider.getResolvedResourceName(true)));
+  }
+
+  private HdfsFileReader openLines(List<Path> parts, DelimitedParser delimitedParser)
+      throws IOException
+  {
+    HdfsFileReader fileReader = new HdfsFileReader();
+    fileReader.initialize(conf, parts, delimitedParser.getSkipFirstLine());
+    return fileReader;
+  }
+
+  // The index of each part, or null if any of them isn't indexed
+  private List<VectorIndex> openIndexes(List<Path> parts) throws IOException
+  {
+    List<VectorIndex> indexes = new ArrayList<>();
+    for (Path part : parts)
+    {
+      VectorIndex index = VectorIndex.open(conf, part);
+      if (index == null)
+      {
+        closeIndexes(indexes);
+        return null;
+      }
+      indexes.add(index);
+    }
+    return indexes;
+  }
+
+  private static void closeIndexes(List<VectorIndex> indexes) throws IOException
+  {
+    for (VectorIndex index : indexes)
+    {
+      index.close();
+    }
+  }
+
   @Override
   public CloseableKVIterator<FeatureIdWritable, Geometry> get() throws IOException
   {
-    HdfsFileReader fileReader = new HdfsFileReader();
-    fileReader.initialize(conf, new Path(provider.getResolvedResourceName(true)));
     DelimitedParser delimitedParser = getDelimitedParser();
-    return new DelimitedReader(fileReader, delimitedParser);
+    return new DelimitedReader(openLines(dataFiles(), delimitedParser), delimitedParser);
   }
 
   @Override
@@ -286,31 +402,78 @@ public class DelimitedVectorReader implements VectorReader
   @Override
   public Geometry get(FeatureIdWritable featureId) throws IOException
   {
-    HdfsFileReader fileReader = new HdfsFileReader();
-    fileReader.initialize(conf, new Path(provider.getResolvedResourceName(true)));
     DelimitedParser delimitedParser = getDelimitedParser();
     FeatureIdRangeVisitor visitor = new FeatureIdRangeVisitor(featureId.get(), featureId.get());
-    DelimitedReader reader = new DelimitedReader(fileReader, delimitedParser, visitor);
-    if (reader.hasNext())
+    DelimitedReader reader = new DelimitedReader(openLines(dataFiles(), delimitedParser),
+        delimitedParser, visitor);
+    try
+    {
+      if (reader.hasNext())
+      {
+        return reader.next();
+      }
+      return null;
+    }
+    finally
     {
-      return reader.next();
+      reader.close();
     }
-    return null;
   }
 
   @Override
   public CloseableKVIterator<FeatureIdWritable, Geometry> get(Bounds bounds) throws IOException
   {
-    HdfsFileReader fileReader = new HdfsFileReader();
-    fileReader.initialize(conf, new Path(provider.getResolvedResourceName(true)));
+    List<Path> parts = dataFiles();
+    List<VectorIndex> indexes = openIndexes(parts);
+    if (indexes != null)
+    {
+      // read only the lines of the features in the bounds.  The ids in each part's index
+      // start over, so they're offset by the features in the parts before it.
+      List<List<VectorIndex.Entry>> entries = new ArrayList<>();
+      long[] offsets = new long[parts.size()];
+      try
+      {
+        long offset = 0;
+        for (int i = 0; i < indexes.size(); i++)
+        {
+          entries.add(indexes.get(i).query(bounds));
+          offsets[i] = offset;
+          offset += indexes.get(i).getFeatureCount();
+        }
+      }
+      finally
+      {
+        closeIndexes(indexes);
+      }
+      return new IndexedPartsReader(parts, entries, offsets, getDelimitedParser());
+    }
+
     DelimitedParser delimitedParser = getDelimitedParser();
     BoundsVisitor visitor = new BoundsVisitor(bounds);
-    return new DelimitedReader(fileReader, delimitedParser, visitor);
+    return new DelimitedReader(openLines(parts, delimitedParser), delimitedParser, visitor);
   }
 
   @Override
   public long count() throws IOException
   {
+    List<VectorIndex> indexes = openIndexes(dataFiles());
+    if (indexes != null)
+    {
+      try
+      {
+        long featureCount = 0L;
+        for (VectorIndex index : indexes)
+        {
+          featureCount += index.getFeatureCount();
+        }
+        return featureCount;
+      }
+      finally
+      {
+        closeIndexes(indexes);
+      }
+    }
+
     long featureCount = 0L;
     try (CloseableKVIterator<FeatureIdWritable, Geometry> iter = get())
     {
@@ -324,4 +487,90 @@ public class DelimitedVectorReader implements VectorReader
     }
     return featureCount;
   }
+
+  // Reads the indexed features of each part in turn, opening one part at a time
+  private class IndexedPartsReader implements CloseableKVIterator<FeatureIdWritable, Geometry>
+  {
+    private final List<Path> parts;
+    private final List<List<VectorIndex.Entry>> entries;
+    private final long[] offsets;
+    private final DelimitedParser delimitedParser;
+    private int part = -1;
+    private IndexedDelimitedReader current;
+
+    IndexedPartsReader(List<Path> parts, List<List<VectorIndex.Entry>> entries, long[] offsets,
+        DelimitedParser delimitedParser)
+    {
+      this.parts = parts;
+      this.entries = entries;
+      this.offsets = offsets;
+      this.delimitedParser = delimitedParser;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      try
+      {
+        while (current == null || !current.hasNext())
+        {
+          close();
+          part++;
+          if (part >= parts.size())
+          {
+            return false;
+          }
+          if (!entries.get(part).isEmpty())
+          {
+            Path path = parts.get(part);
+            current = new IndexedDelimitedReader(HadoopFileUtils.getFileSystem(conf, path).open(path),
+                entries.get(part), delimitedParser, offsets[part]);
+          }
+        }
+        return true;
+      }
+      catch (IOException e)
+      {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    @Override
+    public Geometry next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+
+    @Override
+    public FeatureIdWritable currentKey()
+    {
+      return (current != null) ? current.currentKey() : null;
+    }
+
+    @Override
+    public Geometry currentValue()
+    {
+      return (current != null) ? current.currentValue() : null;
+    }
+
+    @Override
+    public void remove()
+    {
+      // Not supported
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      if (current != null)
+      {
+        current.close();
+        current = null;
+      }
+    }
+  }
 }
@@ -26,8 +26,10 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorInputFormatContext;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.hdfs.utils.HadoopFileUtils;
+import org.mrgeo.utils.tms.Bounds;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,6 +40,9 @@ public class DelimitedVectorRecordReader extends RecordReader<FeatureIdWritable,
 {
   private DelimitedParser delimitedParser;
   private LineRecordReader recordReader;
+  // for a bounded read, the bounds and the current feature, which is parsed to check it
+  private Bounds bounds;
+  private Geometry current;
 
   public class VectorLineProducer implements LineProducer
   {
@@ -87,6 +92,7 @@ public class DelimitedVectorRecordReader extends RecordReader<FeatureIdWritable,
         nextKeyValue();
       }
     }
+    bounds = VectorInputFormatContext.load(context.getConfiguration()).getBounds();
   }
 
   public static DelimitedParser getDelimitedParser(String input, Configuration conf) throws IOException
@@ -168,7 +174,22 @@ public class DelimitedVectorRecordReader extends RecordReader<FeatureIdWritable,
   @Override
   public boolean nextKeyValue() throws IOException, InterruptedException
   {
-    return recordReader.nextKeyValue();
+    if (bounds == null)
+    {
+      return recordReader.nextKeyValue();
+    }
+
+    while (recordReader.nextKeyValue())
+    {
+      current = delimitedParser.parse(recordReader.getCurrentValue().toString());
+      Bounds geomBounds = VectorIndex.boundsOf(current);
+      if (geomBounds != null && geomBounds.intersects(bounds))
+      {
+        return true;
+      }
+    }
+    current = null;
+    return false;
   }
 
   @Override
@@ -181,6 +202,10 @@ public class DelimitedVectorRecordReader extends RecordReader<FeatureIdWritable,
   @Override
   public Geometry getCurrentValue() throws IOException, InterruptedException
   {
+    if (bounds != null)
+    {
+      return current;
+    }
     Text rawValue = recordReader.getCurrentValue();
     if (rawValue == null)
     {
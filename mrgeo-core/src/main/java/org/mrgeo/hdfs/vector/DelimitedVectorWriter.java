@@ -19,15 +19,21 @@ package org.mrgeo.hdfs.vector;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.core.MrGeoProperties;
 import org.mrgeo.data.vector.FeatureIdWritable;
 import org.mrgeo.data.vector.VectorWriter;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.geometry.WktConverter;
 import org.mrgeo.hdfs.utils.HadoopFileUtils;
+import org.mrgeo.utils.tms.Bounds;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
 
 public class DelimitedVectorWriter implements VectorWriter
@@ -40,6 +46,9 @@ public class DelimitedVectorWriter implements VectorWriter
   // The string to use for encapsulating field values. This allows fields to
   // contain embedded delimiter characters.
   private String encapsulator = "\"";
+  private Path outputPath;
+  // the bounds of each feature written, in order, for the spatial index
+  private List<Bounds> written = new ArrayList<>();
 
   public DelimitedVectorWriter(HdfsVectorDataProvider provider, Configuration conf)
   {
@@ -55,7 +64,7 @@ public class DelimitedVectorWriter implements VectorWriter
     if (out == null)
     {
       String resolvedName = provider.getResolvedResourceName(false);
-      Path outputPath = new Path(resolvedName);
+      outputPath = new Path(resolvedName);
       if (resolvedName.toLowerCase().endsWith(".tsv"))
       {
         delimiter = "\t";
@@ -125,6 +134,7 @@ public class DelimitedVectorWriter implements VectorWriter
       }
     }
     out.println(strFeature.toString());
+    written.add(VectorIndex.boundsOf(value));
   }
 
   @Override
@@ -133,6 +143,23 @@ public class DelimitedVectorWriter implements VectorWriter
     if (out != null)
     {
       out.close();
+      out = null;
+
+      if (Boolean.parseBoolean(MrGeoProperties.getInstance().getProperty(
+          MrGeoConstants.MRGEO_VECTOR_INDEX, MrGeoConstants.MRGEO_VECTOR_INDEX_DEFAULT)))
+      {
+        // the first line is the header
+        final List<Bounds> bounds = written;
+        VectorIndex.indexLines(conf, outputPath, true, new VectorIndex.LineBounds()
+        {
+          @Override
+          public Bounds bounds(long record, Text line)
+          {
+            return record < bounds.size() ? bounds.get((int) record) : null;
+          }
+        });
+      }
+      written = null;
     }
   }
 }
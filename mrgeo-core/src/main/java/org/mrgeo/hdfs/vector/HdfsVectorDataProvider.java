@@ -17,8 +17,10 @@
 package org.mrgeo.hdfs.vector;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.RecordWriter;
 import org.mrgeo.core.MrGeoConstants;
@@ -27,6 +29,7 @@ import org.mrgeo.data.ProviderProperties;
 import org.mrgeo.data.vector.*;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.hdfs.utils.HadoopFileUtils;
+import org.mrgeo.utils.tms.Bounds;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -185,6 +188,71 @@ public class HdfsVectorDataProvider extends VectorDataProvider
     throw new IOException("Unable to create vector output format provider for " + resourceName);
   }
 
+  /**
+   * Build the spatial index of a delimited file, the part files of a delimited directory,
+   * or a shapefile, for data that wasn't written with one (see the indexvector command).
+   * Bounded reads and queries use the index once it's there, reads never build one, without
+   * an index they scan all of the data.
+   */
+  public void buildIndex() throws IOException
+  {
+    Path path = new Path(getResolvedResourceName(true));
+    FileSystem fs = HadoopFileUtils.getFileSystem(conf, path);
+
+    if (isSourceShapefile(path))
+    {
+      indexShapefile(conf, path);
+    }
+    else if (fs.getFileStatus(path).isDirectory())
+    {
+      for (FileStatus part : fs.listStatus(path))
+      {
+        String name = part.getPath().getName();
+        if (part.isFile() && !name.startsWith("_") && !name.startsWith("."))
+        {
+          indexDelimited(conf, part.getPath(),
+              DelimitedVectorRecordReader.getDelimitedParser(part.getPath().toString(), conf));
+        }
+      }
+    }
+    else
+    {
+      indexDelimited(conf, path,
+          new DelimitedVectorReader(this, new VectorReaderContext(), conf).getDelimitedParser());
+    }
+  }
+
+  private static void indexShapefile(Configuration conf, Path path) throws IOException
+  {
+    VectorIndex.Builder builder = new VectorIndex.Builder();
+    ShapefileGeometryCollection gc = ShpInputFormat.openGeometryCollection(path);
+    try
+    {
+      for (int i = 0; i < gc.size(); i++)
+      {
+        builder.add(VectorIndex.boundsOf(gc.get(i)), i, 0, i);
+      }
+    }
+    finally
+    {
+      gc.close();
+    }
+    builder.write(conf, path, HadoopFileUtils.getFileSystem(conf, path).getFileStatus(path).getLen());
+  }
+
+  private static void indexDelimited(Configuration conf, Path path, final DelimitedParser parser)
+      throws IOException
+  {
+    VectorIndex.indexLines(conf, path, parser.getSkipFirstLine(), new VectorIndex.LineBounds()
+    {
+      @Override
+      public Bounds bounds(long record, Text line)
+      {
+        return VectorIndex.boundsOf(parser.parse(line.toString()));
+      }
+    });
+  }
+
   @Override
   public void delete() throws IOException
   {
@@ -273,6 +341,7 @@ public class HdfsVectorDataProvider extends VectorDataProvider
         {
           HadoopFileUtils.delete(conf, columns);
         }
+        HadoopFileUtils.delete(conf, VectorIndex.indexPath(p));
       }
       else if (isSourceShapefile(p))
       {
@@ -289,6 +358,7 @@ public class HdfsVectorDataProvider extends VectorDataProvider
             HadoopFileUtils.delete(conf, subFile);
           }
         }
+        HadoopFileUtils.delete(conf, VectorIndex.indexPath(p));
       }
     }
   }
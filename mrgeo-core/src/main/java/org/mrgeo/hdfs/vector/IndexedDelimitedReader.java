@@ -0,0 +1,113 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.io.Text;
+import org.mrgeo.data.CloseableKVIterator;
+import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.geometry.Geometry;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterates the features of a delimited file found in its spatial index, reading only the
+ * lines of those features.
+ */
+public class IndexedDelimitedReader implements CloseableKVIterator<FeatureIdWritable, Geometry>
+{
+  private FSDataInputStream in;
+  private Iterator<VectorIndex.Entry> entries;
+  private DelimitedParser delimitedParser;
+  private FeatureIdWritable key = new FeatureIdWritable(-1);
+  private Geometry feature;
+  private byte[] buffer = new byte[1024];
+  private long idOffset;
+
+  public IndexedDelimitedReader(FSDataInputStream in, List<VectorIndex.Entry> entries,
+      DelimitedParser delimitedParser)
+  {
+    this(in, entries, delimitedParser, 0);
+  }
+
+  /**
+   * @param idOffset added to the feature ids in the index, for a file that is one part of
+   *                 a larger source
+   */
+  public IndexedDelimitedReader(FSDataInputStream in, List<VectorIndex.Entry> entries,
+      DelimitedParser delimitedParser, long idOffset)
+  {
+    this.in = in;
+    this.entries = entries.iterator();
+    this.delimitedParser = delimitedParser;
+    this.idOffset = idOffset;
+  }
+
+  @Override
+  public boolean hasNext()
+  {
+    return entries.hasNext();
+  }
+
+  @Override
+  public Geometry next()
+  {
+    VectorIndex.Entry entry = entries.next();
+    if (buffer.length < entry.length)
+    {
+      buffer = new byte[entry.length];
+    }
+
+    try
+    {
+      in.readFully(entry.position, buffer, 0, entry.length);
+      feature = delimitedParser.parse(Text.decode(buffer, 0, entry.length));
+    }
+    catch (IOException e)
+    {
+      throw new IllegalArgumentException(e);
+    }
+    key.set(entry.id + idOffset);
+    return feature;
+  }
+
+  @Override
+  public FeatureIdWritable currentKey()
+  {
+    return key;
+  }
+
+  @Override
+  public Geometry currentValue()
+  {
+    return feature;
+  }
+
+  @Override
+  public void remove()
+  {
+    // Not supported
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    in.close();
+  }
+}
@@ -17,6 +17,7 @@
 package org.mrgeo.hdfs.vector;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.mrgeo.data.CloseableKVIterator;
 import org.mrgeo.data.vector.FeatureIdWritable;
 import org.mrgeo.data.vector.VectorDataProvider;
@@ -26,11 +27,112 @@ import org.mrgeo.geometry.Geometry;
 import org.mrgeo.utils.tms.Bounds;
 
 import java.io.IOException;
+import java.util.List;
 
 public class ShapefileVectorReader implements VectorReader
 {
+  private VectorDataProvider provider;
+  private Configuration conf;
+
+  /**
+   * Iterates records of a shapefile, either all of them, the ones the spatial index
+   * found, or the ones that intersect a bounds.  The feature id is the record number.
+   */
+  private static class RecordIterator implements CloseableKVIterator<FeatureIdWritable, Geometry>
+  {
+    private ShapefileGeometryCollection gc;
+    private List<VectorIndex.Entry> records;
+    private Bounds bounds;
+    private int size;
+
+    private int index = 0;
+    private int nextIndex = -1;
+    private Geometry next;
+
+    private FeatureIdWritable key = new FeatureIdWritable(-1);
+    private Geometry feature;
+
+    RecordIterator(ShapefileGeometryCollection gc, List<VectorIndex.Entry> records, Bounds bounds)
+    {
+      this.gc = gc;
+      this.records = records;
+      this.bounds = bounds;
+      size = (records != null) ? records.size() : gc.size();
+    }
+
+    private void advance()
+    {
+      while (next == null && index < size)
+      {
+        int record = (records != null) ? (int) records.get(index).position : index;
+        index++;
+
+        Geometry geometry = gc.get(record);
+        if (records != null || bounds == null || intersects(geometry, bounds))
+        {
+          next = geometry;
+          nextIndex = record;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      advance();
+      return next != null;
+    }
+
+    @Override
+    public Geometry next()
+    {
+      advance();
+      feature = next;
+      key.set(nextIndex);
+      next = null;
+      return feature;
+    }
+
+    @Override
+    public FeatureIdWritable currentKey()
+    {
+      return key;
+    }
+
+    @Override
+    public Geometry currentValue()
+    {
+      return feature;
+    }
+
+    @Override
+    public void remove()
+    {
+      // Not supported
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      gc.close();
+    }
+  }
+
   public ShapefileVectorReader(VectorDataProvider provider, VectorReaderContext context, Configuration conf)
   {
+    this.provider = provider;
+    this.conf = conf;
+  }
+
+  static boolean intersects(Geometry geometry, Bounds bounds)
+  {
+    Bounds geomBounds = VectorIndex.boundsOf(geometry);
+    return geomBounds != null && geomBounds.intersects(bounds);
+  }
+
+  private Path getPath() throws IOException
+  {
+    return new Path(((HdfsVectorDataProvider) provider).getResolvedResourceName(true));
   }
 
   @Override
@@ -41,30 +143,82 @@ public class ShapefileVectorReader implements VectorReader
   @Override
   public CloseableKVIterator<FeatureIdWritable, Geometry> get() throws IOException
   {
-    return null;
+    return new RecordIterator(ShpInputFormat.openGeometryCollection(getPath()), null, null);
   }
 
   @Override
   public boolean exists(FeatureIdWritable featureId) throws IOException
   {
-    return false;
+    return get(featureId) != null;
   }
 
   @Override
   public Geometry get(FeatureIdWritable featureId) throws IOException
   {
-    return null;
+    ShapefileGeometryCollection gc = ShpInputFormat.openGeometryCollection(getPath());
+    try
+    {
+      long id = featureId.get();
+      if (id >= 0 && id < gc.size())
+      {
+        return gc.get((int) id);
+      }
+      return null;
+    }
+    finally
+    {
+      gc.close();
+    }
   }
 
   @Override
   public CloseableKVIterator<FeatureIdWritable, Geometry> get(Bounds bounds) throws IOException
   {
-    return null;
+    Path path = getPath();
+    List<VectorIndex.Entry> records = null;
+
+    VectorIndex index = VectorIndex.open(conf, path);
+    if (index != null)
+    {
+      try
+      {
+        records = index.query(bounds);
+      }
+      finally
+      {
+        index.close();
+      }
+    }
+
+    // without an index, every record is read and checked
+    return new RecordIterator(ShpInputFormat.openGeometryCollection(path), records, bounds);
   }
 
   @Override
   public long count() throws IOException
   {
-    return 0;
+    Path path = getPath();
+    VectorIndex index = VectorIndex.open(conf, path);
+    if (index != null)
+    {
+      try
+      {
+        return index.getFeatureCount();
+      }
+      finally
+      {
+        index.close();
+      }
+    }
+
+    ShapefileGeometryCollection gc = ShpInputFormat.openGeometryCollection(path);
+    try
+    {
+      return gc.size();
+    }
+    finally
+    {
+      gc.close();
+    }
   }
 }
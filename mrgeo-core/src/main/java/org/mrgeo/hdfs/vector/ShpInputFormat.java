@@ -21,13 +21,16 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.*;
 import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorInputFormatContext;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.hdfs.vector.shp.ShapefileReader;
 import org.mrgeo.utils.GDALUtils;
+import org.mrgeo.utils.tms.Bounds;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -102,6 +105,10 @@ public class ShpInputFormat extends InputFormat<FeatureIdWritable, Geometry>
     private int start;
     private FeatureIdWritable key = new FeatureIdWritable();
     private Geometry value = null;
+    // for a bounded read, the bounds, and the records in the split the index found, if any
+    private Bounds bounds;
+    private List<VectorIndex.Entry> records;
+    private int recordIndex = 0;
 
     ShpRecordReader()
     {
@@ -146,17 +153,60 @@ public class ShpInputFormat extends InputFormat<FeatureIdWritable, Geometry>
       this.start = gis.startIndex;
       this.end = gis.endIndex;
       currentIndex = start - 1;
+
+      Configuration conf = context.getConfiguration();
+      bounds = VectorInputFormatContext.load(conf).getBounds();
+      Path path = getInputPath(conf);
+      if (bounds != null && path != null)
+      {
+        VectorIndex index = VectorIndex.open(conf, path);
+        if (index != null)
+        {
+          try
+          {
+            records = new ArrayList<>();
+            for (VectorIndex.Entry entry : index.query(bounds))
+            {
+              if (entry.position >= start && entry.position < end)
+              {
+                records.add(entry);
+              }
+            }
+          }
+          finally
+          {
+            index.close();
+          }
+        }
+      }
     }
 
     @Override
     public boolean nextKeyValue() throws IOException, InterruptedException
     {
+      if (records != null)
+      {
+        // go straight to the records the index found
+        if (recordIndex < records.size())
+        {
+          currentIndex = (int) records.get(recordIndex++).position;
+          key.set(currentIndex);
+          value = gc.get(currentIndex);
+          return true;
+        }
+        return false;
+      }
+
       currentIndex++;
-      if (currentIndex < end)
+      while (currentIndex < end)
       {
-        key.set(currentIndex);
         value = gc.get(currentIndex);
-        return true;
+        if (bounds == null || ShapefileVectorReader.intersects(value, bounds))
+        {
+          key.set(currentIndex);
+          return true;
+        }
+        currentIndex++;
       }
         
       return false;
@@ -168,22 +218,37 @@ public class ShpInputFormat extends InputFormat<FeatureIdWritable, Geometry>
   }
 
   private static ShapefileGeometryCollection loadGeometryCollection(Configuration conf) throws IOException
+  {
+    Path path = getInputPath(conf);
+    if (path != null)
+    {
+      return openGeometryCollection(path);
+    }
+    throw new IllegalArgumentException("Neither a geometry collection or filename was set.");
+  }
+
+  private static Path getInputPath(Configuration conf)
   {
     if (conf.get("mapred.input.dir") != null)
     {
       Path path = new Path(conf.get("mapred.input.dir"));
       if (path.toString().toLowerCase().endsWith(".shp"))
       {
-        ShapefileReader sr = new ShapefileReader(path);
-
-        // reproject into WGS84
-        ReprojectedShapefileGeometryCollection rgc =
-                new ReprojectedShapefileGeometryCollection(sr, GDALUtils.EPSG4326());
-
-        return rgc;
+        return path;
       }
     }
-    throw new IllegalArgumentException("Neither a geometry collection or filename was set.");
+    return null;
+  }
+
+  static ShapefileGeometryCollection openGeometryCollection(Path path) throws IOException
+  {
+    ShapefileReader sr = new ShapefileReader(path);
+
+    // reproject into WGS84
+    ReprojectedShapefileGeometryCollection rgc =
+            new ReprojectedShapefileGeometryCollection(sr, GDALUtils.EPSG4326());
+
+    return rgc;
   }
 
   @Override
@@ -211,11 +276,27 @@ public class ShpInputFormat extends InputFormat<FeatureIdWritable, Geometry>
 
       List<InputSplit> result = new LinkedList<InputSplit>();
 
-      for (int i = 0; i < numSplits; i++)
+      // for a bounded read, skip the splits the spatial index has nothing in the bounds for
+      Bounds bounds = VectorInputFormatContext.load(conf).getBounds();
+      VectorIndex index = (bounds != null) ? VectorIndex.open(conf, getInputPath(conf)) : null;
+      try
+      {
+        for (int i = 0; i < numSplits; i++)
+        {
+          int start = (int) Math.round((double) i * (double) gc.size() / numSplits);
+          int end = (int) Math.round((double) (i + 1) * (double) gc.size() / numSplits);
+          if (index == null || index.intersects(bounds, start, end - 1))
+          {
+            result.add(new GeometryInputSplit(start, end));
+          }
+        }
+      }
+      finally
       {
-        int start = (int) Math.round((double) i * (double) gc.size() / numSplits);
-        int end = (int) Math.round((double) (i + 1) * (double) gc.size() / numSplits);
-        result.add(new GeometryInputSplit(start, end));
+        if (index != null)
+        {
+          index.close();
+        }
       }
 
       return result;
@@ -0,0 +1,565 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.mrgeo.geometry.Geometry;
+import org.mrgeo.hdfs.utils.HadoopFileUtils;
+import org.mrgeo.utils.tms.Bounds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A spatial index stored next to a vector data file, so bounded queries can go straight
+ * to the features they need instead of reading the whole file.
+ *
+ * The index is a packed Hilbert R-tree with a single level of nodes.  The bounds of the
+ * features are sorted along a Hilbert curve and packed into fixed size blocks, and the
+ * bounds of each block, with the range of file positions of its features, are kept in a
+ * table at the front of the file.  Opening an index reads only that table, a query reads
+ * the blocks that intersect it.
+ *
+ * For delimited files the position of a feature is the byte offset of its line, for
+ * shapefiles it's the record number.  The index is ignored once the data file no longer
+ * has the length it was built for.
+ */
+public class VectorIndex implements Closeable
+{
+  private static final Logger log = LoggerFactory.getLogger(VectorIndex.class);
+
+  private static final int MAGIC = 0x56494458; // "VIDX"
+  private static final int VERSION = 1;
+  private static final int BLOCK_SIZE = 64;
+
+  // magic, version, data length, feature count, entry count, block count, block size, bounds
+  private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 * 8;
+  // bounds, first and last position
+  private static final int BLOCK_BYTES = 4 * 8 + 8 + 8;
+  // bounds, position, length, id
+  private static final int ENTRY_BYTES = 4 * 8 + 8 + 4 + 8;
+
+  private static final int HILBERT_ORDER = 16;
+
+  /**
+   * A feature found in the index.
+   */
+  public static class Entry
+  {
+    public final long position;
+    public final int length;
+    public final long id;
+
+    Entry(long position, int length, long id)
+    {
+      this.position = position;
+      this.length = length;
+      this.id = id;
+    }
+  }
+
+  /**
+   * Gives the bounds of the feature on a line of a delimited file, or null if it has none.
+   */
+  public interface LineBounds
+  {
+    Bounds bounds(long record, Text line) throws IOException;
+  }
+
+  /**
+   * Collects the bounds and positions of the features of a data file, and writes them
+   * as its index.
+   */
+  public static class Builder
+  {
+    private double[] bounds = new double[4 * 1024];
+    private long[] positions = new long[1024];
+    private int[] lengths = new int[1024];
+    private long[] ids = new long[1024];
+    private int size = 0;
+    private long featureCount = 0;
+
+    private double w = Double.POSITIVE_INFINITY;
+    private double s = Double.POSITIVE_INFINITY;
+    private double e = Double.NEGATIVE_INFINITY;
+    private double n = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Add a feature.  Features without bounds are counted, but can't be found by a bounded
+     * query.
+     */
+    public void add(Bounds b, long position, int length, long id)
+    {
+      featureCount++;
+      if (b == null)
+      {
+        return;
+      }
+
+      if (size == positions.length)
+      {
+        int capacity = size * 2;
+        bounds = Arrays.copyOf(bounds, capacity * 4);
+        positions = Arrays.copyOf(positions, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+      }
+
+      bounds[size * 4] = b.w;
+      bounds[size * 4 + 1] = b.s;
+      bounds[size * 4 + 2] = b.e;
+      bounds[size * 4 + 3] = b.n;
+      positions[size] = position;
+      lengths[size] = length;
+      ids[size] = id;
+      size++;
+
+      w = Math.min(w, b.w);
+      s = Math.min(s, b.s);
+      e = Math.max(e, b.e);
+      n = Math.max(n, b.n);
+    }
+
+    public long getFeatureCount()
+    {
+      return featureCount;
+    }
+
+    /**
+     * Write the index of the data file.  It is written to a temporary file and renamed into
+     * place, so a reader never sees a partial index.
+     */
+    public void write(Configuration conf, Path data, long dataLength) throws IOException
+    {
+      // sort by the Hilbert value of the center of each feature, packed with its index
+      long[] order = new long[size];
+      double width = e - w;
+      double height = n - s;
+      for (int i = 0; i < size; i++)
+      {
+        double cx = (bounds[i * 4] + bounds[i * 4 + 2]) / 2.0;
+        double cy = (bounds[i * 4 + 1] + bounds[i * 4 + 3]) / 2.0;
+        order[i] = (hilbert(grid(cx, w, width), grid(cy, s, height)) << 31) | i;
+      }
+      Arrays.sort(order);
+
+      int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + blocks * BLOCK_BYTES);
+      header.putInt(MAGIC);
+      header.putInt(VERSION);
+      header.putLong(dataLength);
+      header.putLong(featureCount);
+      header.putInt(size);
+      header.putInt(blocks);
+      header.putInt(BLOCK_SIZE);
+      header.putDouble(w);
+      header.putDouble(s);
+      header.putDouble(e);
+      header.putDouble(n);
+
+      ByteBuffer entries = ByteBuffer.allocate(size * ENTRY_BYTES);
+      for (int block = 0; block < blocks; block++)
+      {
+        double bw = Double.POSITIVE_INFINITY;
+        double bs = Double.POSITIVE_INFINITY;
+        double be = Double.NEGATIVE_INFINITY;
+        double bn = Double.NEGATIVE_INFINITY;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+
+        int end = Math.min(size, (block + 1) * BLOCK_SIZE);
+        for (int j = block * BLOCK_SIZE; j < end; j++)
+        {
+          int i = (int) (order[j] & 0x7fffffffL);
+
+          bw = Math.min(bw, bounds[i * 4]);
+          bs = Math.min(bs, bounds[i * 4 + 1]);
+          be = Math.max(be, bounds[i * 4 + 2]);
+          bn = Math.max(bn, bounds[i * 4 + 3]);
+          first = Math.min(first, positions[i]);
+          last = Math.max(last, positions[i]);
+
+          entries.putDouble(bounds[i * 4]);
+          entries.putDouble(bounds[i * 4 + 1]);
+          entries.putDouble(bounds[i * 4 + 2]);
+          entries.putDouble(bounds[i * 4 + 3]);
+          entries.putLong(positions[i]);
+          entries.putInt(lengths[i]);
+          entries.putLong(ids[i]);
+        }
+
+        header.putDouble(bw);
+        header.putDouble(bs);
+        header.putDouble(be);
+        header.putDouble(bn);
+        header.putLong(first);
+        header.putLong(last);
+      }
+
+      Path index = indexPath(data);
+      Path tmp = new Path(index.getParent(), index.getName() + ".tmp");
+      FileSystem fs = HadoopFileUtils.getFileSystem(conf, index);
+      FSDataOutputStream out = fs.create(tmp, true);
+      try
+      {
+        out.write(header.array(), 0, header.position());
+        out.write(entries.array(), 0, entries.position());
+      }
+      finally
+      {
+        out.close();
+      }
+
+      fs.delete(index, false);
+      if (!fs.rename(tmp, index))
+      {
+        throw new IOException("Unable to move " + tmp + " to " + index);
+      }
+      log.debug("Indexed " + featureCount + " features of " + data + " in " + blocks + " blocks");
+    }
+  }
+
+  private final FSDataInputStream in;
+  private final long featureCount;
+  private final int entryCount;
+  private final int blockSize;
+  private final Bounds bounds;
+  private final double[] blockBounds;
+  private final long[] blockPositions;
+  private final long entriesOffset;
+
+  private VectorIndex(FSDataInputStream in, ByteBuffer header, int blocks, long featureCount,
+      int entryCount, int blockSize, Bounds bounds)
+  {
+    this.in = in;
+    this.featureCount = featureCount;
+    this.entryCount = entryCount;
+    this.blockSize = blockSize;
+    this.bounds = bounds;
+
+    blockBounds = new double[blocks * 4];
+    blockPositions = new long[blocks * 2];
+    for (int i = 0; i < blocks; i++)
+    {
+      blockBounds[i * 4] = header.getDouble();
+      blockBounds[i * 4 + 1] = header.getDouble();
+      blockBounds[i * 4 + 2] = header.getDouble();
+      blockBounds[i * 4 + 3] = header.getDouble();
+      blockPositions[i * 2] = header.getLong();
+      blockPositions[i * 2 + 1] = header.getLong();
+    }
+    entriesOffset = HEADER_BYTES + (long) blocks * BLOCK_BYTES;
+  }
+
+  /**
+   * The bounds a feature is indexed with, or null if it has no geometry.
+   */
+  public static Bounds boundsOf(Geometry geometry)
+  {
+    if (geometry == null || !geometry.isValid() || geometry.isEmpty())
+    {
+      return null;
+    }
+    return geometry.getBounds();
+  }
+
+  /**
+   * The index file of a data file.  The name starts with an underscore so input formats
+   * reading a directory of data files skip it.
+   */
+  public static Path indexPath(Path data)
+  {
+    return new Path(data.getParent(), "_" + data.getName() + ".idx");
+  }
+
+  /**
+   * Open the index of a data file.
+   *
+   * @return the index, or null if there isn't one, or the data has changed since it was built
+   */
+  public static VectorIndex open(Configuration conf, Path data) throws IOException
+  {
+    Path index = indexPath(data);
+    FileSystem fs = HadoopFileUtils.getFileSystem(conf, index);
+    if (!fs.exists(index) || !fs.exists(data))
+    {
+      return null;
+    }
+
+    FSDataInputStream in = fs.open(index);
+    boolean opened = false;
+    try
+    {
+      byte[] bytes = new byte[HEADER_BYTES];
+      in.readFully(0, bytes);
+      ByteBuffer header = ByteBuffer.wrap(bytes);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+      {
+        log.warn("Ignoring " + index + ", it isn't a vector index this version can read");
+        return null;
+      }
+
+      long dataLength = header.getLong();
+      FileStatus status = fs.getFileStatus(data);
+      if (status.isDirectory() || status.getLen() != dataLength)
+      {
+        log.info("Ignoring " + index + ", " + data + " has changed since it was indexed");
+        return null;
+      }
+
+      long featureCount = header.getLong();
+      int entryCount = header.getInt();
+      int blocks = header.getInt();
+      int blockSize = header.getInt();
+      Bounds bounds = entryCount > 0 ?
+          new Bounds(header.getDouble(), header.getDouble(), header.getDouble(), header.getDouble()) :
+          null;
+
+      byte[] table = new byte[blocks * BLOCK_BYTES];
+      in.readFully(HEADER_BYTES, table);
+
+      VectorIndex result = new VectorIndex(in, ByteBuffer.wrap(table), blocks, featureCount,
+          entryCount, blockSize, bounds);
+      opened = true;
+      return result;
+    }
+    finally
+    {
+      if (!opened)
+      {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Index a delimited file, one feature per non-empty line.
+   *
+   * @param skipFirstLine the first line is a header
+   * @param lineBounds    gives the bounds of the feature on each line, by its record number
+   *                      (counting empty lines), starting at 0
+   */
+  public static void indexLines(Configuration conf, Path data, boolean skipFirstLine,
+      LineBounds lineBounds) throws IOException
+  {
+    Builder builder = new Builder();
+
+    FileSystem fs = HadoopFileUtils.getFileSystem(conf, data);
+    long dataLength = fs.getFileStatus(data).getLen();
+
+    InputStream is = fs.open(data);
+    try
+    {
+      LineReader reader = new LineReader(is, conf);
+      Text line = new Text();
+      long position = 0;
+      long record = 0;
+      // feature ids are counted the way the DelimitedReader counts them
+      long id = 0;
+
+      int read;
+      if (skipFirstLine)
+      {
+        position += reader.readLine(line);
+      }
+      while ((read = reader.readLine(line)) > 0)
+      {
+        if (line.getLength() > 0)
+        {
+          id++;
+          builder.add(lineBounds.bounds(record, line), position, line.getLength(), id);
+        }
+        record++;
+        position += read;
+      }
+    }
+    finally
+    {
+      is.close();
+    }
+
+    builder.write(conf, data, dataLength);
+  }
+
+  public long getFeatureCount()
+  {
+    return featureCount;
+  }
+
+  /**
+   * The bounds of all the features, or null if none of them have any.
+   */
+  public Bounds getBounds()
+  {
+    return bounds;
+  }
+
+  /**
+   * Find the features that intersect the bounds.
+   *
+   * @return the features, in the order they are in the data file
+   */
+  public List<Entry> query(Bounds query) throws IOException
+  {
+    List<Entry> result = new ArrayList<>();
+    if (bounds == null || !bounds.intersects(query))
+    {
+      return result;
+    }
+
+    int blocks = blockPositions.length / 2;
+    for (int block = 0; block < blocks; block++)
+    {
+      if (blockIntersects(block, query))
+      {
+        ByteBuffer entries = readBlock(block);
+        while (entries.hasRemaining())
+        {
+          boolean hit = query.intersects(entries.getDouble(), entries.getDouble(),
+              entries.getDouble(), entries.getDouble());
+          long position = entries.getLong();
+          int length = entries.getInt();
+          long id = entries.getLong();
+          if (hit)
+          {
+            result.add(new Entry(position, length, id));
+          }
+        }
+      }
+    }
+
+    Collections.sort(result, new Comparator<Entry>()
+    {
+      @Override
+      public int compare(Entry e1, Entry e2)
+      {
+        return Long.compare(e1.position, e2.position);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Check whether any feature between two positions (both inclusive) intersects the bounds.
+   * Used to skip the input splits that have nothing a bounded query needs.
+   */
+  public boolean intersects(Bounds query, long first, long last) throws IOException
+  {
+    if (bounds == null || !bounds.intersects(query))
+    {
+      return false;
+    }
+
+    int blocks = blockPositions.length / 2;
+    for (int block = 0; block < blocks; block++)
+    {
+      if (blockPositions[block * 2] <= last && blockPositions[block * 2 + 1] >= first &&
+          blockIntersects(block, query))
+      {
+        ByteBuffer entries = readBlock(block);
+        while (entries.hasRemaining())
+        {
+          boolean hit = query.intersects(entries.getDouble(), entries.getDouble(),
+              entries.getDouble(), entries.getDouble());
+          long position = entries.getLong();
+          entries.position(entries.position() + 4 + 8);
+          if (hit && position >= first && position <= last)
+          {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    in.close();
+  }
+
+  private boolean blockIntersects(int block, Bounds query)
+  {
+    return query.intersects(blockBounds[block * 4], blockBounds[block * 4 + 1],
+        blockBounds[block * 4 + 2], blockBounds[block * 4 + 3]);
+  }
+
+  private ByteBuffer readBlock(int block) throws IOException
+  {
+    int first = block * blockSize;
+    int count = Math.min(blockSize, entryCount - first);
+    byte[] bytes = new byte[count * ENTRY_BYTES];
+    in.readFully(entriesOffset + (long) first * ENTRY_BYTES, bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  // the cell of the Hilbert grid a coordinate is in
+  private static int grid(double v, double min, double range)
+  {
+    if (range <= 0.0)
+    {
+      return 0;
+    }
+    int max = (1 << HILBERT_ORDER) - 1;
+    return (int) Math.max(0, Math.min(max, Math.floor((v - min) / range * max)));
+  }
+
+  // the distance of a grid cell along the Hilbert curve
+  private static long hilbert(int x, int y)
+  {
+    int n = 1 << HILBERT_ORDER;
+    long d = 0;
+    for (int s = n / 2; s > 0; s >>= 1)
+    {
+      int rx = (x & s) > 0 ? 1 : 0;
+      int ry = (y & s) > 0 ? 1 : 0;
+      d += (long) s * s * ((3 * rx) ^ ry);
+
+      // rotate the quadrant
+      if (ry == 0)
+      {
+        if (rx == 1)
+        {
+          x = n - 1 - x;
+          y = n - 1 - y;
+        }
+        int t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+}
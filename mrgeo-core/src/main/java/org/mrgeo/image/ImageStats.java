@@ -122,36 +122,23 @@ public class ImageStats implements Cloneable, Serializable
     final double[] nodata) throws RasterWritableException
   {
     final int type = raster.getTransferType();
-    Number sample;
-    for (int y = 0; y < raster.getHeight(); y++)
+    switch (type)
     {
-      for (int x = 0; x < raster.getWidth(); x++)
-      {
-        for (int b = 0; b < raster.getNumBands(); b++)
-        {
-          switch (type)
-          {
-          case DataBuffer.TYPE_BYTE:
-          case DataBuffer.TYPE_INT:
-          case DataBuffer.TYPE_SHORT:
-          case DataBuffer.TYPE_USHORT:
-            sample = raster.getSample(x, y, b);
-            break;
-          case DataBuffer.TYPE_FLOAT:
-            sample = raster.getSampleFloat(x, y, b);
-            break;
-          case DataBuffer.TYPE_DOUBLE:
-            sample = raster.getSampleDouble(x, y, b);
-            break;
-          default:
-            throw new RasterWritableException(
-              "Error computing tile statistics. Unsupported raster data type");
-          }
-          updateStats(tileStats[b], sample, nodata[b]);
-        }
-      }
+    case DataBuffer.TYPE_BYTE:
+    case DataBuffer.TYPE_INT:
+    case DataBuffer.TYPE_SHORT:
+    case DataBuffer.TYPE_USHORT:
+    case DataBuffer.TYPE_FLOAT:
+    case DataBuffer.TYPE_DOUBLE:
+      break;
+    default:
+      throw new RasterWritableException(
+        "Error computing tile statistics. Unsupported raster data type");
     }
 
+    final ImageStatsAccumulator accumulator = new ImageStatsAccumulator(raster.getNumBands(), nodata);
+    accumulator.add(raster);
+    accumulator.updateStats(tileStats);
   }
 
   /**
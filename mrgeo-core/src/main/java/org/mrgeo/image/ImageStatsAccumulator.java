@@ -0,0 +1,406 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.image;
+
+import org.mrgeo.data.raster.RasterTile;
+import org.mrgeo.data.raster.RasterWritable;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Accumulates per-band pixel statistics (count, min, max, sum, sum of squares and, optionally, a
+ * histogram) over any number of tiles, and merges with other accumulators.  This is the kernel
+ * behind every ImageStats calculation.
+ *
+ * Each band of a tile is read once into a primitive array, then summed by a loop chosen up front
+ * for the kind of nodata (NaN or a value) and whether the data type can hold NaNs at all, so the
+ * inner loops only test what they must.  Byte tiles are tallied into 256 counts and summed from
+ * those.  NaN samples are never counted.
+ */
+public class ImageStatsAccumulator implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  private final int bands;
+  private final double[] nodatas;
+
+  private final long[] count;
+  private final double[] min;
+  private final double[] max;
+  private final double[] sum;
+  private final double[] sumsq;
+
+  // optional fixed-range histograms, values outside the range go in the end bins
+  private final long[][] histograms;
+  private final double[] histogramMin;
+  private final double[] histogramScale;
+
+  private transient double[] samples;
+  private transient long[] byteCounts;
+
+  public ImageStatsAccumulator(final int bands, final double[] nodatas)
+  {
+    this(bands, nodatas, 0, null, null);
+  }
+
+  /**
+   * Also keep a histogram of each band, of bins equal bins from histogramMin[b] to histogramMax[b]
+   */
+  public ImageStatsAccumulator(final int bands, final double[] nodatas, final int bins,
+      final double[] histogramMin, final double[] histogramMax)
+  {
+    this.bands = bands;
+    this.nodatas = nodatas.clone();
+
+    count = new long[bands];
+    min = new double[bands];
+    max = new double[bands];
+    sum = new double[bands];
+    sumsq = new double[bands];
+    for (int b = 0; b < bands; b++)
+    {
+      min[b] = Double.MAX_VALUE;
+      max[b] = -Double.MAX_VALUE;
+    }
+
+    if (bins > 0)
+    {
+      histograms = new long[bands][bins];
+      this.histogramMin = histogramMin.clone();
+      histogramScale = new double[bands];
+      for (int b = 0; b < bands; b++)
+      {
+        histogramScale[b] = bins / (histogramMax[b] - histogramMin[b]);
+      }
+    }
+    else
+    {
+      histograms = null;
+      this.histogramMin = null;
+      histogramScale = null;
+    }
+  }
+
+  public static ImageStatsAccumulator fromNumbers(final int bands, final Number[] nodatas)
+  {
+    final double[] values = new double[nodatas.length];
+    for (int b = 0; b < nodatas.length; b++)
+    {
+      values[b] = nodatas[b].doubleValue();
+    }
+    return new ImageStatsAccumulator(bands, values);
+  }
+
+  public void add(final RasterWritable writable)
+  {
+    add(RasterTile.fromWritable(writable));
+  }
+
+  public void add(final RasterTile tile)
+  {
+    final int tilebands = Math.min(bands, tile.getNumBands());
+    final int pixels = tile.getWidth() * tile.getHeight();
+
+    if (tile.getDatatype() == DataBuffer.TYPE_BYTE)
+    {
+      final ByteBuffer data = tile.getDataBuffer();
+      final int stride = tile.getNumBands();
+      for (int b = 0; b < tilebands; b++)
+      {
+        if (byteCounts == null)
+        {
+          byteCounts = new long[256];
+        }
+        else
+        {
+          Arrays.fill(byteCounts, 0);
+        }
+
+        for (int i = 0, ndx = b; i < pixels; i++, ndx += stride)
+        {
+          byteCounts[data.get(ndx) & 0xff]++;
+        }
+        addCounts(b, byteCounts);
+      }
+    }
+    else
+    {
+      final boolean integral = isIntegral(tile.getDatatype());
+      for (int b = 0; b < tilebands; b++)
+      {
+        samples = tile.getSamples(b, samples);
+        addSamples(b, samples, pixels, integral);
+      }
+    }
+  }
+
+  public void add(final Raster raster)
+  {
+    final int tilebands = Math.min(bands, raster.getNumBands());
+    final int pixels = raster.getWidth() * raster.getHeight();
+    final boolean integral = isIntegral(raster.getTransferType());
+
+    if (samples == null || samples.length < pixels)
+    {
+      samples = new double[pixels];
+    }
+
+    for (int b = 0; b < tilebands; b++)
+    {
+      raster.getSamples(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), b, samples);
+      addSamples(b, samples, pixels, integral);
+    }
+  }
+
+  /**
+   * Add the statistics of another accumulator, with the same bands and histogram ranges, to this one
+   */
+  public ImageStatsAccumulator merge(final ImageStatsAccumulator other)
+  {
+    for (int b = 0; b < Math.min(bands, other.bands); b++)
+    {
+      count[b] += other.count[b];
+      sum[b] += other.sum[b];
+      sumsq[b] += other.sumsq[b];
+      if (other.min[b] < min[b])
+      {
+        min[b] = other.min[b];
+      }
+      if (other.max[b] > max[b])
+      {
+        max[b] = other.max[b];
+      }
+
+      if (histograms != null && other.histograms != null)
+      {
+        final long[] hist = histograms[b];
+        final long[] otherHist = other.histograms[b];
+        for (int i = 0; i < hist.length; i++)
+        {
+          hist[i] += otherHist[i];
+        }
+      }
+    }
+    return this;
+  }
+
+  /**
+   * The statistics as ImageStats, one per band.  Bands without data have a NaN mean.
+   */
+  public ImageStats[] toImageStats()
+  {
+    final ImageStats[] stats = new ImageStats[bands];
+    for (int b = 0; b < bands; b++)
+    {
+      stats[b] = new ImageStats(min[b], max[b], sum[b], count[b]);
+    }
+    return stats;
+  }
+
+  /**
+   * Fold these statistics into existing ImageStats
+   */
+  public void updateStats(final ImageStats[] stats)
+  {
+    for (int b = 0; b < Math.min(bands, stats.length); b++)
+    {
+      final ImageStats s = stats[b];
+      s.min = Math.min(s.min, min[b]);
+      s.max = Math.max(s.max, max[b]);
+      s.sum += sum[b];
+      s.count += count[b];
+      if (s.count > 0)
+      {
+        s.mean = s.sum / s.count;
+      }
+    }
+  }
+
+  public int getBands()
+  {
+    return bands;
+  }
+
+  public long getCount(final int band)
+  {
+    return count[band];
+  }
+
+  public double getMin(final int band)
+  {
+    return min[band];
+  }
+
+  public double getMax(final int band)
+  {
+    return max[band];
+  }
+
+  public double getSum(final int band)
+  {
+    return sum[band];
+  }
+
+  public double getSumOfSquares(final int band)
+  {
+    return sumsq[band];
+  }
+
+  public double getMean(final int band)
+  {
+    return sum[band] / count[band];
+  }
+
+  /**
+   * The population standard deviation of the band
+   */
+  public double getStdDev(final int band)
+  {
+    final double mean = getMean(band);
+    return Math.sqrt(Math.max(0.0, sumsq[band] / count[band] - mean * mean));
+  }
+
+  /**
+   * The histogram of the band, or null if the accumulator isn't keeping histograms
+   */
+  public long[] getHistogram(final int band)
+  {
+    return (histograms == null) ? null : histograms[band];
+  }
+
+  private static boolean isIntegral(final int datatype)
+  {
+    return datatype == DataBuffer.TYPE_BYTE || datatype == DataBuffer.TYPE_SHORT ||
+        datatype == DataBuffer.TYPE_USHORT || datatype == DataBuffer.TYPE_INT;
+  }
+
+  private void addSamples(final int b, final double[] values, final int pixels, final boolean integral)
+  {
+    final double nodata = nodatas[b];
+
+    long n = 0;
+    double s = 0.0;
+    double ss = 0.0;
+    double lo = min[b];
+    double hi = max[b];
+
+    if (Double.isNaN(nodata) && integral)
+    {
+      // nothing to skip
+      for (int i = 0; i < pixels; i++)
+      {
+        final double v = values[i];
+        s += v;
+        ss += v * v;
+        lo = (v < lo) ? v : lo;
+        hi = (v > hi) ? v : hi;
+      }
+      n = pixels;
+    }
+    else if (Double.isNaN(nodata) || integral)
+    {
+      // skip either NaNs, or the nodata value of a type that can't be NaN
+      final boolean nan = Double.isNaN(nodata);
+      for (int i = 0; i < pixels; i++)
+      {
+        final double v = values[i];
+        if (nan ? (v == v) : (v != nodata))
+        {
+          n++;
+          s += v;
+          ss += v * v;
+          lo = (v < lo) ? v : lo;
+          hi = (v > hi) ? v : hi;
+        }
+      }
+    }
+    else
+    {
+      for (int i = 0; i < pixels; i++)
+      {
+        final double v = values[i];
+        if (v != nodata && v == v)
+        {
+          n++;
+          s += v;
+          ss += v * v;
+          lo = (v < lo) ? v : lo;
+          hi = (v > hi) ? v : hi;
+        }
+      }
+    }
+
+    count[b] += n;
+    sum[b] += s;
+    sumsq[b] += ss;
+    min[b] = lo;
+    max[b] = hi;
+
+    if (histograms != null)
+    {
+      final long[] hist = histograms[b];
+      final double base = histogramMin[b];
+      final double scale = histogramScale[b];
+      final int last = hist.length - 1;
+      for (int i = 0; i < pixels; i++)
+      {
+        final double v = values[i];
+        if (v == v && v != nodata)
+        {
+          final int bin = (int) ((v - base) * scale);
+          hist[bin < 0 ? 0 : (bin > last ? last : bin)]++;
+        }
+      }
+    }
+  }
+
+  // fold the tallies of a byte band into the statistics
+  private void addCounts(final int b, final long[] counts)
+  {
+    final double nodata = nodatas[b];
+    final long[] hist = (histograms == null) ? null : histograms[b];
+
+    for (int v = 0; v < counts.length; v++)
+    {
+      final long n = counts[v];
+      if (n > 0 && v != nodata)
+      {
+        count[b] += n;
+        sum[b] += (double) v * n;
+        sumsq[b] += (double) v * v * n;
+        if (v < min[b])
+        {
+          min[b] = v;
+        }
+        if (v > max[b])
+        {
+          max[b] = v;
+        }
+
+        if (hist != null)
+        {
+          final int bin = (int) ((v - histogramMin[b]) * histogramScale[b]);
+          hist[bin < 0 ? 0 : (bin > hist.length - 1 ? hist.length - 1 : bin)] += n;
+        }
+      }
+    }
+  }
+}
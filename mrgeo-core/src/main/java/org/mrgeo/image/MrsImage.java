@@ -26,6 +26,7 @@ import org.mrgeo.data.image.MrsImageDataProvider;
 import org.mrgeo.data.image.MrsPyramidReaderContext;
 import org.mrgeo.data.raster.RasterUtils;
 import org.mrgeo.data.image.MrsImageReader;
+import org.mrgeo.data.image.MrsImageTileCache;
 import org.mrgeo.data.tile.TileIdWritable;
 import org.mrgeo.data.tile.TileNotFoundException;
 import org.mrgeo.utils.*;
@@ -548,6 +549,7 @@ private void openReader()
     {
       throw new MrsImageException("Error Reading Image");
     }
+    reader = MrsImageTileCache.getInstance().wrap(provider, reader);
   }
   catch (IOException e)
   {
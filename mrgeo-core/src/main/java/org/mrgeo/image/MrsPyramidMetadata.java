@@ -21,6 +21,7 @@ import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.codehaus.jackson.util.DefaultPrettyPrinter;
 import org.mrgeo.data.raster.RasterUtils;
 import org.mrgeo.utils.LongRectangle;
@@ -130,8 +131,25 @@ public MrsPyramidMetadata(MrsPyramidMetadata copy) {
     }
   }
 
+  if (copy.quantileSketches == null)
+  {
+    this.quantileSketches = null;
+  }
+  else
+  {
+    quantileSketches = new QuantileSketch[copy.quantileSketches.length];
+    for (int b=0; b < copy.quantileSketches.length; b++)
+    {
+      if (copy.quantileSketches[b] != null)
+      {
+        this.quantileSketches[b] = new QuantileSketch(copy.quantileSketches[b]);
+      }
+    }
+  }
+
   this.classification = copy.classification;
   this.resamplingMethod = copy.resamplingMethod;
+  this.tileCodec = copy.tileCodec;
 
   this.imageData = new ImageMetadata[copy.imageData.length];
   for (int i = 0; i < copy.imageData.length; i++)
@@ -144,6 +162,7 @@ public MrsPyramidMetadata(MrsPyramidMetadata copy) {
       {
         this.imageData[i].stats = ArrayUtils.clone(copy.imageData[i].stats);
       }
+      this.imageData[i].nodataTilesDropped = copy.imageData[i].nodataTilesDropped;
       if (copy.imageData[i].pixelBounds != null)
       {
         this.imageData[i].pixelBounds = new LongRectangle(copy.imageData[i].pixelBounds);
@@ -257,6 +276,42 @@ public String getProtectionLevel()
     return quantiles;
   }
 
+  /**
+   * Returns the quantile sketch for the specified band, from which any quantile of the image
+   * (e.g. the ends of a percent clip stretch) can be looked up. Note that the return value
+   * can be null.
+   */
+  @JsonIgnore
+  public QuantileSketch getQuantileSketch(int band)
+  {
+    if (quantileSketches != null && band < quantileSketches.length)
+    {
+      return quantileSketches[band];
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value at the fraction (0.0 - 1.0) through the sorted pixel values of the band,
+   * from the band's quantile sketch, or NaN if there is no sketch.
+   */
+  @JsonIgnore
+  public double getQuantile(int band, double fraction)
+  {
+    QuantileSketch sketch = getQuantileSketch(band);
+    if (sketch != null)
+    {
+      return sketch.quantile(fraction);
+    }
+    return Double.NaN;
+  }
+
+  @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+  public QuantileSketch[] getQuantileSketches()
+  {
+    return quantileSketches;
+  }
+
   /*
    * end get section
    */
@@ -329,6 +384,20 @@ public void setProtectionLevel(final String protectionLevel)
     }
     this.quantiles[band] = quantiles.clone();
   }
+
+  public void setQuantileSketches(QuantileSketch[] sketches)
+  {
+    this.quantileSketches = sketches;
+  }
+
+  @JsonIgnore
+  public void setQuantileSketch(final int band, final QuantileSketch sketch)
+  {
+    if (this.quantileSketches == null) {
+      this.quantileSketches = new QuantileSketch[getBands()];
+    }
+    this.quantileSketches[band] = sketch;
+  }
   /*
    * end set section
    */
@@ -366,6 +435,10 @@ public boolean hasPyramids()
     // statistics of the image
     public ImageStats[] stats = null;
 
+    // the number of tiles that were entirely nodata, and weren't written (null if none were dropped)
+    @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+    public Long nodataTilesDropped = null;
+
     // basic constructor
     public ImageMetadata()
     {
@@ -390,6 +463,7 @@ public boolean hasPyramids()
 
   private int bands = 0; // number of bands in the image
   private double[][] quantiles; // quantiles computed in each band for the entire image pyramid
+  private QuantileSketch[] quantileSketches; // the sketches, by band, the quantiles came from
 
   // default (pixel) value, by band. Geotools calls these defaults, but they are
 // really
@@ -403,6 +477,8 @@ public boolean hasPyramids()
 
   private String resamplingMethod;
 
+  private String tileCodec; // the RasterCodec the tiles are stored with, null if they're stored plain
+
 
   /*
    * end globals section
@@ -896,6 +972,19 @@ public boolean hasPyramids()
   }
 
 
+  @JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+  public String getTileCodec()
+  {
+    return tileCodec;
+  }
+
+
+  public void setTileCodec(String tileCodec)
+  {
+    this.tileCodec = tileCodec;
+  }
+
+
 
   public void save(final OutputStream stream) throws IOException
   {
@@ -1032,6 +1121,29 @@ public boolean hasPyramids()
   }
 
 
+  /**
+   * Record that the level's nodata tiles weren't written, so its missing tiles are nodata
+   */
+  public void setNodataTilesDropped(final int zoomlevel, final long count)
+  {
+    if (imageData == null || zoomlevel > maxZoomLevel)
+    {
+      setMaxZoomLevel(zoomlevel);
+    }
+    imageData[zoomlevel].nodataTilesDropped = count;
+  }
+
+
+  public long getNodataTilesDropped(final int zoomlevel)
+  {
+    if (imageData != null && zoomlevel < imageData.length && imageData[zoomlevel].nodataTilesDropped != null)
+    {
+      return imageData[zoomlevel].nodataTilesDropped;
+    }
+    return 0;
+  }
+
+
   public void setStats(final ImageStats[] stats)
   {
     this.stats = stats;
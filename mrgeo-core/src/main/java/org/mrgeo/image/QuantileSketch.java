@@ -0,0 +1,478 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.image;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A streaming, mergeable quantile sketch (the KLL sketch of Karnin, Lang &amp; Liberty).
+ *
+ * Values are kept in a stack of compactors.  Each value at level h stands for 2^h of the values
+ * added.  When the sketch is full, the lowest full level is sorted and every other value (starting
+ * at a pseudo-random offset) is promoted to the next level.  The sketch keeps O(k log(n/k)) values
+ * however many are added, and sketches built over different data can be merged into a sketch of
+ * all of it, so they can be built per tile and combined in any order.
+ *
+ * The normalized rank error of a quantile is about 2.3 / k^0.97, i.e. about 1.3% for the default
+ * k of 200.  Use {@link #kForError(double)} to size a sketch for a given error.
+ */
+public class QuantileSketch implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_K = 200;
+
+  // smallest capacity of any level
+  private static final int MIN_CAPACITY = 8;
+
+  // each level is this fraction of the size of the level above it
+  private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+  private int k;
+  private long count = 0;
+  private double min = Double.NaN;
+  private double max = Double.NaN;
+
+  private double[][] levels;
+  private int[] sizes;
+
+  private int retained = 0;
+  private int capacity = 0;
+
+  // xorshift state for choosing which half of a level to promote
+  private long seed = 0x2545F4914F6CDD1DL;
+
+  public QuantileSketch()
+  {
+    this(DEFAULT_K);
+  }
+
+  public QuantileSketch(final int k)
+  {
+    if (k < MIN_CAPACITY)
+    {
+      throw new IllegalArgumentException("k must be at least " + MIN_CAPACITY + " (" + k + ")");
+    }
+
+    this.k = k;
+    levels = new double[1][];
+    levels[0] = new double[k];
+    sizes = new int[1];
+    capacity = totalCapacity();
+  }
+
+  public QuantileSketch(final QuantileSketch copy)
+  {
+    k = copy.k;
+    count = copy.count;
+    min = copy.min;
+    max = copy.max;
+    retained = copy.retained;
+    capacity = copy.capacity;
+    seed = copy.seed;
+
+    sizes = copy.sizes.clone();
+    levels = new double[copy.levels.length][];
+    for (int h = 0; h < levels.length; h++)
+    {
+      levels[h] = copy.levels[h].clone();
+    }
+  }
+
+  /**
+   * The k that keeps the normalized rank error of a sketch to about epsilon
+   */
+  public static int kForError(final double epsilon)
+  {
+    if (epsilon <= 0.0 || epsilon >= 1.0)
+    {
+      throw new IllegalArgumentException("The quantile error must be between 0.0 and 1.0 (" + epsilon + ")");
+    }
+    return Math.max(MIN_CAPACITY, (int) Math.ceil(Math.pow(2.296 / epsilon, 1.0 / 0.9723)));
+  }
+
+  /**
+   * The approximate normalized rank error of the quantiles from this sketch
+   */
+  @JsonIgnore
+  public double getError()
+  {
+    return 2.296 / Math.pow(k, 0.9723);
+  }
+
+  /**
+   * Add a value to the sketch.  NaNs are ignored.
+   */
+  public void add(final double value)
+  {
+    if (Double.isNaN(value))
+    {
+      return;
+    }
+
+    addExtrema(value);
+    count++;
+
+    append(0, value);
+    if (retained >= capacity)
+    {
+      compress();
+    }
+  }
+
+  /**
+   * Add length values from the array, starting at offset.  NaNs are ignored.
+   */
+  public void add(final double[] values, final int offset, final int length)
+  {
+    final int end = offset + length;
+    int ndx = offset;
+    while (ndx < end)
+    {
+      // copy as many values as will fit before the sketch needs compressing
+      final int room = Math.min(end - ndx, Math.max(1, capacity - retained));
+      ensureRoom(0, room);
+
+      final double[] level = levels[0];
+      int size = sizes[0];
+      final int stop = ndx + room;
+      while (ndx < stop)
+      {
+        final double value = values[ndx++];
+        if (!Double.isNaN(value))
+        {
+          addExtrema(value);
+          level[size++] = value;
+        }
+      }
+
+      final int added = size - sizes[0];
+      sizes[0] = size;
+      retained += added;
+      count += added;
+
+      if (retained >= capacity)
+      {
+        compress();
+      }
+    }
+  }
+
+  /**
+   * Merge the values from another sketch into this one.  The other sketch isn't changed.  If the
+   * sketches were made with different k's, the result has the smaller.
+   */
+  public void merge(final QuantileSketch other)
+  {
+    if (other == null || other.count == 0)
+    {
+      return;
+    }
+
+    addExtrema(other.min);
+    addExtrema(other.max);
+    count += other.count;
+
+    if (other.k < k)
+    {
+      k = other.k;
+    }
+
+    while (levels.length < other.levels.length)
+    {
+      addLevel();
+    }
+
+    for (int h = 0; h < other.levels.length; h++)
+    {
+      final int size = other.sizes[h];
+      if (size > 0)
+      {
+        ensureRoom(h, size);
+        System.arraycopy(other.levels[h], 0, levels[h], sizes[h], size);
+        sizes[h] += size;
+        retained += size;
+      }
+    }
+
+    capacity = totalCapacity();
+    compress();
+  }
+
+  /**
+   * The approximate value at the fraction (0.0 - 1.0) through the sorted values, i.e. the value
+   * at index ceil(fraction * count) of the sorted values.  NaN if the sketch is empty.
+   */
+  public double quantile(final double fraction)
+  {
+    return quantiles(new double[]{fraction})[0];
+  }
+
+  /**
+   * The approximate values at each of the fractions through the sorted values
+   */
+  public double[] quantiles(final double[] fractions)
+  {
+    final double[] result = new double[fractions.length];
+    if (count == 0)
+    {
+      Arrays.fill(result, Double.NaN);
+      return result;
+    }
+
+    // merge the (sorted) levels into a single list of values and their cumulative weights
+    double[] values = new double[0];
+    long[] weights = new long[0];
+    for (int h = 0; h < levels.length; h++)
+    {
+      final int size = sizes[h];
+      if (size > 0)
+      {
+        final double[] level = Arrays.copyOf(levels[h], size);
+        Arrays.sort(level);
+
+        final double[] mv = new double[values.length + size];
+        final long[] mw = new long[values.length + size];
+        final long weight = 1L << h;
+
+        int a = 0;
+        int b = 0;
+        int m = 0;
+        while (a < values.length || b < size)
+        {
+          if (b >= size || (a < values.length && values[a] <= level[b]))
+          {
+            mv[m] = values[a];
+            mw[m++] = weights[a++];
+          }
+          else
+          {
+            mv[m] = level[b++];
+            mw[m++] = weight;
+          }
+        }
+        values = mv;
+        weights = mw;
+      }
+    }
+
+    for (int i = 1; i < weights.length; i++)
+    {
+      weights[i] += weights[i - 1];
+    }
+
+    for (int q = 0; q < fractions.length; q++)
+    {
+      final double fraction = fractions[q];
+      if (fraction <= 0.0)
+      {
+        result[q] = min;
+      }
+      else if (fraction >= 1.0)
+      {
+        result[q] = max;
+      }
+      else
+      {
+        // the first value whose cumulative weight passes the rank
+        final long rank = (long) Math.ceil(fraction * count);
+        int ndx = Arrays.binarySearch(weights, rank + 1);
+        if (ndx < 0)
+        {
+          ndx = -ndx - 1;
+        }
+        result[q] = (ndx < values.length) ? values[ndx] : max;
+      }
+    }
+
+    return result;
+  }
+
+  public int getK()
+  {
+    return k;
+  }
+
+  public void setK(final int k)
+  {
+    this.k = k;
+    capacity = totalCapacity();
+  }
+
+  public long getCount()
+  {
+    return count;
+  }
+
+  public void setCount(final long count)
+  {
+    this.count = count;
+  }
+
+  public double getMin()
+  {
+    return min;
+  }
+
+  public void setMin(final double min)
+  {
+    this.min = min;
+  }
+
+  public double getMax()
+  {
+    return max;
+  }
+
+  public void setMax(final double max)
+  {
+    this.max = max;
+  }
+
+  /**
+   * The values kept at each level, a value at level h stands for 2^h of the values added
+   */
+  public double[][] getLevels()
+  {
+    final double[][] result = new double[levels.length][];
+    for (int h = 0; h < levels.length; h++)
+    {
+      result[h] = Arrays.copyOf(levels[h], sizes[h]);
+    }
+    return result;
+  }
+
+  public void setLevels(final double[][] levels)
+  {
+    this.levels = new double[Math.max(1, levels.length)][];
+    sizes = new int[this.levels.length];
+    retained = 0;
+    for (int h = 0; h < this.levels.length; h++)
+    {
+      this.levels[h] = (h < levels.length) ? levels[h].clone() : new double[MIN_CAPACITY];
+      sizes[h] = (h < levels.length) ? levels[h].length : 0;
+      retained += sizes[h];
+    }
+    capacity = totalCapacity();
+  }
+
+  private void addExtrema(final double value)
+  {
+    if (Double.isNaN(min) || value < min)
+    {
+      min = value;
+    }
+    if (Double.isNaN(max) || value > max)
+    {
+      max = value;
+    }
+  }
+
+  private void append(final int h, final double value)
+  {
+    ensureRoom(h, 1);
+    levels[h][sizes[h]++] = value;
+    retained++;
+  }
+
+  private void ensureRoom(final int h, final int room)
+  {
+    final int needed = sizes[h] + room;
+    if (needed > levels[h].length)
+    {
+      levels[h] = Arrays.copyOf(levels[h], Math.max(needed, levels[h].length * 2));
+    }
+  }
+
+  private void addLevel()
+  {
+    levels = Arrays.copyOf(levels, levels.length + 1);
+    levels[levels.length - 1] = new double[MIN_CAPACITY];
+    sizes = Arrays.copyOf(sizes, sizes.length + 1);
+    capacity = totalCapacity();
+  }
+
+  private int levelCapacity(final int h)
+  {
+    final int depth = levels.length - h - 1;
+    return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+  }
+
+  private int totalCapacity()
+  {
+    int total = 0;
+    for (int h = 0; h < levels.length; h++)
+    {
+      total += levelCapacity(h);
+    }
+    return total;
+  }
+
+  // compact the lowest full level until the sketch is under capacity
+  private void compress()
+  {
+    while (retained >= capacity)
+    {
+      int h = 0;
+      while (sizes[h] < levelCapacity(h))
+      {
+        h++;
+      }
+      compact(h);
+    }
+  }
+
+  // sort level h and promote every other value to level h + 1.  An odd value out stays at level h,
+  // so the total weight of the sketch doesn't change.
+  private void compact(final int h)
+  {
+    if (h + 1 == levels.length)
+    {
+      addLevel();
+    }
+
+    final double[] level = levels[h];
+    final int size = sizes[h];
+    Arrays.sort(level, 0, size);
+
+    final int start = size & 1;
+    final int promoted = (size - start) / 2;
+    ensureRoom(h + 1, promoted);
+
+    final double[] above = levels[h + 1];
+    int ndx = sizes[h + 1];
+    for (int i = start + nextBit(); i < size; i += 2)
+    {
+      above[ndx++] = level[i];
+    }
+    sizes[h + 1] = ndx;
+
+    sizes[h] = start;
+    retained -= promoted;
+  }
+
+  private int nextBit()
+  {
+    seed ^= seed << 13;
+    seed ^= seed >>> 7;
+    seed ^= seed << 17;
+    return (int) (seed & 1);
+  }
+}
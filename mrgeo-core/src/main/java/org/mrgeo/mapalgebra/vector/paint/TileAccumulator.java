@@ -0,0 +1,336 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra.vector.paint;
+
+import org.mrgeo.data.raster.RasterUtils;
+import org.mrgeo.data.raster.RasterWritable;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Paints the TileShapes of one tile straight into a primitive buffer, aggregating them the
+ * way the VectorPainter composites do (SUM, MASK, MIN, MAX and AVERAGE).  Two accumulators
+ * of the same tile can be merged, so tiles can be built with aggregateByKey instead of
+ * grouping every feature of a tile together first.
+ *
+ * Polygons are filled even-odd at the pixel centers, so holes are never painted, lines are
+ * painted in every pixel they pass through, and each feature is counted at most once in a
+ * pixel.
+ */
+public final class TileAccumulator implements Serializable
+{
+private static final long serialVersionUID = 1L;
+
+private VectorPainter.AggregationType aggregationType;
+private int tilesize;
+
+// allocated when the first feature is painted
+private double[] values;
+// the number of features painted in each pixel, for AVERAGE
+private double[] counts;
+
+// the feature that last painted each pixel, so overlapping parts of a feature count once
+private transient int[] stamps;
+private transient int serial;
+
+// the crossings of the polygon being filled, bucketed by row
+private transient int[] rowStarts;
+private transient double[] crossings;
+
+public TileAccumulator()
+{
+}
+
+public TileAccumulator(VectorPainter.AggregationType aggregationType, int tilesize)
+{
+  this.aggregationType = aggregationType;
+  this.tilesize = tilesize;
+}
+
+public TileAccumulator add(TileShape shape)
+{
+  double weight = shape.weight;
+  if (aggregationType == VectorPainter.AggregationType.MASK)
+  {
+    weight = 0.0;
+  }
+  else if (Double.isNaN(weight))
+  {
+    return this;
+  }
+
+  allocate();
+  if (stamps == null)
+  {
+    stamps = new int[tilesize * tilesize];
+    serial = 0;
+  }
+  serial++;
+
+  for (int p = 0; p < shape.polygons.length - 1; p++)
+  {
+    fillPolygon(shape, shape.polygons[p], shape.polygons[p + 1], weight);
+  }
+
+  double[] segments = shape.segments;
+  for (int s = 0; s < segments.length; s += 4)
+  {
+    paintSegment(segments[s], segments[s + 1], segments[s + 2], segments[s + 3], weight);
+  }
+
+  double[] points = shape.points;
+  for (int p = 0; p < points.length; p += 2)
+  {
+    paintPixel(clamp((int) Math.floor(points[p])), clamp((int) Math.floor(points[p + 1])), weight);
+  }
+
+  return this;
+}
+
+public TileAccumulator merge(TileAccumulator other)
+{
+  if (other.values == null)
+  {
+    return this;
+  }
+  if (values == null)
+  {
+    return other;
+  }
+
+  for (int i = 0; i < values.length; i++)
+  {
+    double v = other.values[i];
+    if (!Double.isNaN(v))
+    {
+      values[i] = aggregate(values[i], v);
+    }
+  }
+  if (counts != null)
+  {
+    for (int i = 0; i < counts.length; i++)
+    {
+      counts[i] += other.counts[i];
+    }
+  }
+
+  return this;
+}
+
+public RasterWritable toWritable() throws IOException
+{
+  if (values == null)
+  {
+    return RasterWritable.createConstant(tilesize, tilesize, 1, DataBuffer.TYPE_DOUBLE,
+        new double[]{Double.NaN});
+  }
+
+  if (counts != null)
+  {
+    for (int i = 0; i < values.length; i++)
+    {
+      if (!Double.isNaN(values[i]))
+      {
+        values[i] = (counts[i] == 0.0) ? Double.NaN : values[i] / counts[i];
+      }
+    }
+    counts = null;
+  }
+
+  WritableRaster raster = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, DataBuffer.TYPE_DOUBLE);
+  raster.setSamples(0, 0, tilesize, tilesize, 0, values);
+  return RasterWritable.compact(RasterWritable.toWritable(raster));
+}
+
+private void allocate()
+{
+  if (values == null)
+  {
+    values = new double[tilesize * tilesize];
+    Arrays.fill(values, Double.NaN);
+    if (aggregationType == VectorPainter.AggregationType.AVERAGE)
+    {
+      counts = new double[tilesize * tilesize];
+    }
+  }
+}
+
+private double aggregate(double current, double v)
+{
+  if (Double.isNaN(current))
+  {
+    return v;
+  }
+
+  switch (aggregationType)
+  {
+  case MASK:
+    return current;
+  case MIN:
+    return Math.min(current, v);
+  case MAX:
+    return Math.max(current, v);
+  default:
+    return current + v;
+  }
+}
+
+private void paintPixel(int x, int y, double weight)
+{
+  int ndx = y * tilesize + x;
+  if (stamps[ndx] == serial)
+  {
+    return;
+  }
+  stamps[ndx] = serial;
+
+  values[ndx] = aggregate(values[ndx], weight);
+  if (counts != null)
+  {
+    counts[ndx]++;
+  }
+}
+
+private void paintRun(int y, int x0, int x1, double weight)
+{
+  for (int x = Math.max(x0, 0); x <= Math.min(x1, tilesize - 1); x++)
+  {
+    paintPixel(x, y, weight);
+  }
+}
+
+private int clamp(int v)
+{
+  return Math.min(Math.max(v, 0), tilesize - 1);
+}
+
+// the first row whose center is at or below y
+private static int firstRow(double y)
+{
+  return (int) Math.ceil(y - 0.5);
+}
+
+private void fillPolygon(TileShape shape, int firstRing, int lastRing, double weight)
+{
+  double[] coords = shape.ringCoords;
+  int[] rings = shape.rings;
+
+  if (rowStarts == null)
+  {
+    rowStarts = new int[tilesize + 1];
+  }
+  Arrays.fill(rowStarts, 0);
+
+  // count the crossings of each row center...
+  int total = 0;
+  for (int r = firstRing; r < lastRing; r++)
+  {
+    int start = rings[r];
+    int end = rings[r + 1];
+    for (int i = start; i < end; i++)
+    {
+      int j = (i + 1 < end) ? i + 1 : start;
+      double y0 = coords[i * 2 + 1];
+      double y1 = coords[j * 2 + 1];
+      int r0 = Math.max(firstRow(Math.min(y0, y1)), 0);
+      int r1 = Math.min(firstRow(Math.max(y0, y1)), tilesize);
+      for (int row = r0; row < r1; row++)
+      {
+        rowStarts[row + 1]++;
+        total++;
+      }
+    }
+  }
+  if (total == 0)
+  {
+    return;
+  }
+
+  // ...turn the counts into where each row's crossings start...
+  for (int row = 0; row < tilesize; row++)
+  {
+    rowStarts[row + 1] += rowStarts[row];
+  }
+  if (crossings == null || crossings.length < total)
+  {
+    crossings = new double[Math.max(total, tilesize * 4)];
+  }
+
+  // ...and fill them in
+  int[] fill = Arrays.copyOf(rowStarts, tilesize);
+  for (int r = firstRing; r < lastRing; r++)
+  {
+    int start = rings[r];
+    int end = rings[r + 1];
+    for (int i = start; i < end; i++)
+    {
+      int j = (i + 1 < end) ? i + 1 : start;
+      double x0 = coords[i * 2];
+      double y0 = coords[i * 2 + 1];
+      double x1 = coords[j * 2];
+      double y1 = coords[j * 2 + 1];
+      int r0 = Math.max(firstRow(Math.min(y0, y1)), 0);
+      int r1 = Math.min(firstRow(Math.max(y0, y1)), tilesize);
+      for (int row = r0; row < r1; row++)
+      {
+        double yc = row + 0.5;
+        crossings[fill[row]++] = x0 + (x1 - x0) * (yc - y0) / (y1 - y0);
+      }
+    }
+  }
+
+  for (int row = 0; row < tilesize; row++)
+  {
+    int start = rowStarts[row];
+    int end = rowStarts[row + 1];
+    if (end - start < 2)
+    {
+      continue;
+    }
+    Arrays.sort(crossings, start, end);
+    for (int c = start; c + 1 < end; c += 2)
+    {
+      // the pixels whose centers are between the two crossings
+      paintRun(row, firstRow(crossings[c]), firstRow(crossings[c + 1]) - 1, weight);
+    }
+  }
+}
+
+private void paintSegment(double x0, double y0, double x1, double y1, double weight)
+{
+  double dx = x1 - x0;
+  double dy = y1 - y0;
+  int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)) * 2.0);
+  for (int i = 0; i <= steps; i++)
+  {
+    double t = (steps == 0) ? 0.0 : (double) i / steps;
+    int x = (int) Math.floor(x0 + t * dx);
+    int y = (int) Math.floor(y0 + t * dy);
+
+    // half-open, a point on the right or bottom edge is in the next tile's first column or row.
+    // The segment is clipped to the tile, so anything below 0 is only rounding.
+    if (x < tilesize && y < tilesize)
+    {
+      paintPixel(Math.max(x, 0), Math.max(y, 0), weight);
+    }
+  }
+}
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra.vector.paint;
+
+import org.mrgeo.geometry.*;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The part of a feature that falls in one tile, in the pixel coordinates of that tile,
+ * ready to be painted by a TileAccumulator.  Polygon rings are clipped to the tile (plus a
+ * pixel all around, so the clipped edges never cross a pixel center), lines are clipped to
+ * segments in the tile, and points outside the tile are dropped.  Only the coordinates are
+ * kept, in primitive arrays, so a feature that covers many tiles is never copied whole to
+ * each of them.
+ */
+public final class TileShape implements Serializable
+{
+private static final long serialVersionUID = 1L;
+
+// the value painted (the column value, or 1)
+double weight;
+
+// x, y pairs of all the polygon ring vertices
+double[] ringCoords;
+// the start (in points) of each ring in ringCoords, and the end of the last
+int[] rings;
+// the first ring of each polygon, and the end of the last polygon's rings
+int[] polygons;
+
+// x0, y0, x1, y1 of each line segment
+double[] segments;
+// x, y of each point
+double[] points;
+
+// sizes used while building
+private transient int ringCoordCount;
+private transient int ringCount;
+private transient int polygonCount;
+private transient int segmentCount;
+private transient int pointCount;
+
+private transient int tilesize;
+private transient double w;
+private transient double n;
+private transient double resX;
+private transient double resY;
+
+public TileShape()
+{
+}
+
+/**
+ * Clip a feature to a tile.
+ *
+ * @param geometry  the feature
+ * @param tile      the bounds of the tile
+ * @param tilesize  the width and height of the tile, in pixels
+ * @param weight    the value the feature is painted with
+ * @return the part of the feature in the tile, or null if none of it is
+ */
+public static TileShape clip(Geometry geometry, Bounds tile, int tilesize, double weight)
+{
+  TileShape shape = new TileShape();
+  shape.weight = weight;
+  shape.tilesize = tilesize;
+  shape.w = tile.w;
+  shape.n = tile.n;
+  shape.resX = tile.width() / tilesize;
+  shape.resY = tile.height() / tilesize;
+
+  shape.ringCoords = new double[64];
+  shape.rings = new int[8];
+  shape.polygons = new int[4];
+  shape.segments = new double[16];
+  shape.points = new double[4];
+
+  shape.add(geometry);
+  return shape.finish();
+}
+
+public double getWeight()
+{
+  return weight;
+}
+
+private void add(Geometry g)
+{
+  if (g instanceof Polygon)
+  {
+    addPolygon((Polygon) g);
+  }
+  else if (g instanceof Point)
+  {
+    addPoint((Point) g);
+  }
+  else if (g instanceof LineString)
+  {
+    addLine((LineString) g);
+  }
+  else if (g instanceof GeometryCollection)
+  {
+    GeometryCollection gc = (GeometryCollection) g;
+    for (int i = 0; i < gc.getNumGeometries(); i++)
+    {
+      add(gc.getGeometry(i));
+    }
+  }
+  else
+  {
+    throw new IllegalArgumentException("Geometry type not implemented " + g.getClass().toString());
+  }
+}
+
+private TileShape finish()
+{
+  if (polygonCount == 0 && segmentCount == 0 && pointCount == 0)
+  {
+    return null;
+  }
+
+  ringCoords = Arrays.copyOf(ringCoords, ringCoordCount * 2);
+  rings = Arrays.copyOf(rings, ringCount + 1);
+  rings[ringCount] = ringCoordCount;
+  polygons = Arrays.copyOf(polygons, polygonCount + 1);
+  polygons[polygonCount] = ringCount;
+  segments = Arrays.copyOf(segments, segmentCount * 4);
+  points = Arrays.copyOf(points, pointCount * 2);
+  return this;
+}
+
+private double px(double x)
+{
+  return (x - w) / resX;
+}
+
+private double py(double y)
+{
+  return (n - y) / resY;
+}
+
+private void addPoint(Point p)
+{
+  double x = px(p.getX());
+  double y = py(p.getY());
+  if (x >= 0 && x < tilesize && y >= 0 && y < tilesize)
+  {
+    if ((pointCount + 1) * 2 > points.length)
+    {
+      points = Arrays.copyOf(points, points.length * 2);
+    }
+    points[pointCount * 2] = x;
+    points[pointCount * 2 + 1] = y;
+    pointCount++;
+  }
+}
+
+private void addLine(LineString line)
+{
+  int count = line.getNumPoints();
+  if (count == 1)
+  {
+    addPoint(line.getPoint(0));
+    return;
+  }
+
+  double x0 = px(line.getPoint(0).getX());
+  double y0 = py(line.getPoint(0).getY());
+  for (int i = 1; i < count; i++)
+  {
+    double x1 = px(line.getPoint(i).getX());
+    double y1 = py(line.getPoint(i).getY());
+    addSegment(x0, y0, x1, y1);
+    x0 = x1;
+    y0 = y1;
+  }
+}
+
+// Liang-Barsky, clip the segment to the tile
+private void addSegment(double x0, double y0, double x1, double y1)
+{
+  double dx = x1 - x0;
+  double dy = y1 - y0;
+  double t0 = 0.0;
+  double t1 = 1.0;
+
+  double[] p = {-dx, dx, -dy, dy};
+  double[] q = {x0, tilesize - x0, y0, tilesize - y0};
+  for (int i = 0; i < 4; i++)
+  {
+    if (p[i] == 0.0)
+    {
+      if (q[i] < 0.0)
+      {
+        return;
+      }
+    }
+    else
+    {
+      double t = q[i] / p[i];
+      if (p[i] < 0.0)
+      {
+        t0 = Math.max(t0, t);
+      }
+      else
+      {
+        t1 = Math.min(t1, t);
+      }
+    }
+  }
+  if (t0 > t1)
+  {
+    return;
+  }
+
+  double cx0 = x0 + t0 * dx;
+  double cy0 = y0 + t0 * dy;
+  double cx1 = x0 + t1 * dx;
+  double cy1 = y0 + t1 * dy;
+
+  // like points, the right and bottom edges belong to the next tile, so a segment lying along
+  // one of them is only painted there
+  if ((cx0 >= tilesize && cx1 >= tilesize) || (cy0 >= tilesize && cy1 >= tilesize))
+  {
+    return;
+  }
+
+  if ((segmentCount + 1) * 4 > segments.length)
+  {
+    segments = Arrays.copyOf(segments, segments.length * 2);
+  }
+  segments[segmentCount * 4] = cx0;
+  segments[segmentCount * 4 + 1] = cy0;
+  segments[segmentCount * 4 + 2] = cx1;
+  segments[segmentCount * 4 + 3] = cy1;
+  segmentCount++;
+}
+
+private void addPolygon(Polygon polygon)
+{
+  int firstRing = ringCount;
+  addRing(polygon.getExteriorRing());
+  if (ringCount == firstRing)
+  {
+    // the outside of the polygon isn't in the tile, so neither are its holes
+    return;
+  }
+  for (int r = 0; r < polygon.getNumInteriorRings(); r++)
+  {
+    addRing(polygon.getInteriorRing(r));
+  }
+
+  if (polygonCount + 1 > polygons.length)
+  {
+    polygons = Arrays.copyOf(polygons, polygons.length * 2);
+  }
+  polygons[polygonCount++] = firstRing;
+}
+
+// Sutherland-Hodgman, clip the ring to the tile plus a pixel all around
+private void addRing(LineString ring)
+{
+  int count = ring.getNumPoints();
+  double[] xs = new double[count];
+  double[] ys = new double[count];
+  for (int i = 0; i < count; i++)
+  {
+    Point p = ring.getPoint(i);
+    xs[i] = px(p.getX());
+    ys[i] = py(p.getY());
+  }
+
+  double min = -1.0;
+  double max = tilesize + 1.0;
+  for (int edge = 0; edge < 4 && count > 0; edge++)
+  {
+    double[] ox = new double[count * 2];
+    double[] oy = new double[count * 2];
+    int out = 0;
+
+    for (int i = 0; i < count; i++)
+    {
+      double cx = xs[i];
+      double cy = ys[i];
+      double lx = xs[(i + count - 1) % count];
+      double ly = ys[(i + count - 1) % count];
+
+      boolean cin = inside(edge, cx, cy, min, max);
+      boolean lin = inside(edge, lx, ly, min, max);
+      if (cin != lin)
+      {
+        // add where the edge crosses the clip line
+        double bound = (edge == 0 || edge == 2) ? min : max;
+        if (edge < 2)
+        {
+          ox[out] = bound;
+          oy[out] = ly + (cy - ly) * (bound - lx) / (cx - lx);
+        }
+        else
+        {
+          ox[out] = lx + (cx - lx) * (bound - ly) / (cy - ly);
+          oy[out] = bound;
+        }
+        out++;
+      }
+      if (cin)
+      {
+        ox[out] = cx;
+        oy[out] = cy;
+        out++;
+      }
+    }
+
+    xs = ox;
+    ys = oy;
+    count = out;
+  }
+
+  if (count < 3)
+  {
+    return;
+  }
+
+  if ((ringCoordCount + count) * 2 > ringCoords.length)
+  {
+    ringCoords = Arrays.copyOf(ringCoords, Math.max(ringCoords.length * 2, (ringCoordCount + count) * 2));
+  }
+  if (ringCount + 1 > rings.length)
+  {
+    rings = Arrays.copyOf(rings, rings.length * 2);
+  }
+
+  rings[ringCount++] = ringCoordCount;
+  for (int i = 0; i < count; i++)
+  {
+    ringCoords[ringCoordCount * 2] = xs[i];
+    ringCoords[ringCoordCount * 2 + 1] = ys[i];
+    ringCoordCount++;
+  }
+}
+
+private static boolean inside(int edge, double x, double y, double min, double max)
+{
+  switch (edge)
+  {
+  case 0:
+    return x >= min;
+  case 1:
+    return x <= max;
+  case 2:
+    return y >= min;
+  default:
+    return y <= max;
+  }
+}
+}
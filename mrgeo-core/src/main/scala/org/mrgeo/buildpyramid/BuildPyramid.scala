@@ -26,11 +26,12 @@ import org.apache.hadoop.conf.Configuration
 import org.apache.spark.rdd.{PairRDDFunctions, RDD}
 import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.aggregators.{Aggregator, AggregatorRegistry, MeanAggregator}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
 import org.mrgeo.data
 import org.mrgeo.data.DataProviderFactory.AccessMode
 import org.mrgeo.data.image.{ImageOutputFormatContext, MrsImageDataProvider, MrsImageReader, MrsImageWriter}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.raster.{RasterTile, RasterUtils, RasterWritable, TileDecimator}
+import org.mrgeo.data.rdd.{AutoPersister, RasterRDD}
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.data.{CloseableKVIterator, DataProviderFactory, KVIterator, ProviderProperties}
 import org.mrgeo.image.{MrsPyramidMetadata, ImageStats, MrsPyramid}
@@ -162,12 +163,16 @@ class BuildPyramid extends MrGeoJob with Externalizable {
 
     val tilesize: Int = metadata.getTilesize
 
-    val nodatas:Array[Number] = Array.ofDim[Number](metadata.getBands)
-    for (i <- nodatas.indices) {
-      nodatas(i) = metadata.getDefaultValueDouble(i)
-    }
-
     DataProviderFactory.saveProviderPropertiesToConfig(providerproperties, context.hadoopConfiguration)
+
+    // in multi-level mode, each level is kept (persisted, spilling to disk if needed) and the next level
+    // is built from it, instead of reloading the level we just wrote.  The base level is only read once.
+    val multilevel = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_BUILDPYRAMID_MULTILEVEL,
+      MrGeoConstants.MRGEO_BUILDPYRAMID_MULTILEVEL_DEFAULT).toBoolean
+
+    // the last level built in spark, if we're keeping it
+    var previous: Option[RasterRDD] = None
+
     // build the levels
     for (level <- maxLevel until 1 by -1) {
       val fromlevel = level
@@ -178,76 +183,95 @@ class BuildPyramid extends MrGeoJob with Externalizable {
 
       // if we have less than 1000 tiles total, we'll use the local buildpyramid
       if (tb.getWidth * tb.getHeight > BuildPyramid.MIN_TILES_FOR_SPARK) {
-        val pyramid = SparkUtils.loadMrsPyramid(provider, fromlevel, context)
+        val pyramid = previous getOrElse SparkUtils.loadMrsPyramid(provider, fromlevel, context)
 
-        val decimated: RDD[(TileIdWritable, RasterWritable)] = pyramid.map(tile => {
-          val fromkey = tile._1
-          val fromraster = RasterWritable.toRaster(tile._2)
+        val mergedTiles = RasterRDD(buildlevel(pyramid, fromlevel, tilesize, metadata.getDefaultValues))
 
-          val fromtile: Tile = TMSUtils.tileid(fromkey.get, fromlevel)
-          val frombounds: Bounds = TMSUtils.tileBounds(fromtile.tx, fromtile.ty, fromlevel, tilesize)
+        if (multilevel) {
+          AutoPersister.persist(mergedTiles)
+        }
 
-          // calculate the starting pixel for the from-tile (make sure to use the NW coordinate)
-          val fromcorner: Pixel = TMSUtils.latLonToPixelsUL(frombounds.n, frombounds.w, fromlevel, tilesize)
+        // while we were running, there is chance the pyramid was removed from the cache and
+        // reopened by another process. Re-opening it here will avoid some potential conflicts.
+        metadata = MrsPyramid.open(provider).getMetadata
 
-          val totile: Tile = TMSUtils.latLonToTile(frombounds.s, frombounds.w, tolevel, tilesize)
-          val tobounds: Bounds = TMSUtils.tileBounds(totile.tx, totile.ty, tolevel, tilesize)
+        // make sure the level is deleted
+        deletelevel(tolevel, metadata, provider)
 
-          // calculate the starting pixel for the to-tile (make sure to use the NW coordinate) in the from-tile's pixel space
-          val tocorner: Pixel = TMSUtils.latLonToPixelsUL(tobounds.n, tobounds.w, fromlevel, tilesize)
+        SparkUtils.saveMrsPyramid(mergedTiles, provider, tolevel,
+          context.hadoopConfiguration, providerproperties = this.providerproperties)
 
-          val tokey = new TileIdWritable(TMSUtils.tileid(totile.tx, totile.ty, tolevel))
+        previous.foreach(AutoPersister.unpersist)
+        previous = if (multilevel) Some(mergedTiles) else None
 
-          // create a compatible writable raster
-          val toraster: WritableRaster =
-            RasterUtils.createCompatibleEmptyRaster(fromraster, tilesize, tilesize, nodatas)
+        if (!multilevel) {
+          //TODO: Fix this in S3
+          // in S3, sometimes the just-written data isn't available to read yet.  This sleep just gives
+          // S3 a chance to catch up...
+          Thread.sleep(5000)
+        }
+      }
+      else {
+        previous match {
+        case Some(rdd) =>
+          // the local build reads the level we just wrote, give S3 a chance to catch up (see above)
+          AutoPersister.unpersist(rdd)
+          previous = None
+          Thread.sleep(5000)
+        case _ =>
+        }
 
-          logDebug("from  tx: " + fromtile.tx + " ty: " + fromtile.ty + " (" + fromlevel + ") to tx: " + totile.tx +
-              " ty: " + totile.ty + " (" + tolevel + ") x: "
-              + ((fromcorner.px - tocorner.px) / 2) + " y: " + ((fromcorner.py - tocorner.py) / 2) +
-              " w: " + fromraster.getWidth + " h: " + fromraster.getHeight)
+        buildlevellocal(provider, fromlevel)
+      }
+    }
 
-          RasterUtils.decimate(fromraster, toraster,
-            (fromcorner.px - tocorner.px).toInt / 2, (fromcorner.py - tocorner.py).toInt / 2,
-            aggregator, nodatas)
+    previous.foreach(AutoPersister.unpersist)
 
-          (tokey, RasterWritable.toWritable(toraster))
-        })
+    true
+  }
 
+  // decimate each tile of the level into the next level down
+  private def buildlevel(pyramid: RasterRDD, fromlevel: Int, tilesize: Int,
+      nodatavals: Array[Double]): RDD[(TileIdWritable, RasterWritable)] = {
+    val tolevel = fromlevel - 1
 
-        val tileBounds = TMSUtils.boundsToTile(metadata.getBounds, tolevel, tilesize)
+    // decimate each tile into its quadrant (a half-sized tile) of the parent tile, this makes
+    // the shuffle a quarter of the size of the input level
+    val decimated: RDD[(TileIdWritable, (Int, RasterWritable))] = pyramid.map(tile => {
+      val fromkey = tile._1
+      val fromtile: Tile = TMSUtils.tileid(fromkey.get, fromlevel)
+      val frombounds: Bounds = TMSUtils.tileBounds(fromtile.tx, fromtile.ty, fromlevel, tilesize)
 
-        val wrappedDecimated = new PairRDDFunctions(decimated)
-        val mergedTiles = wrappedDecimated.reduceByKey((r1, r2) => {
-          val src = RasterWritable.toRaster(r1)
-          val dst = RasterUtils.makeRasterWritable(RasterWritable.toRaster(r2))
+      // calculate the starting pixel for the from-tile (make sure to use the NW coordinate)
+      val fromcorner: Pixel = TMSUtils.latLonToPixelsUL(frombounds.n, frombounds.w, fromlevel, tilesize)
 
-          RasterUtils.mosaicTile(src, dst, metadata.getDefaultValues)
+      val totile: Tile = TMSUtils.latLonToTile(frombounds.s, frombounds.w, tolevel, tilesize)
+      val tobounds: Bounds = TMSUtils.tileBounds(totile.tx, totile.ty, tolevel, tilesize)
 
-          RasterWritable.toWritable(dst)
-        })
+      // calculate the starting pixel for the to-tile (make sure to use the NW coordinate) in the from-tile's pixel space
+      val tocorner: Pixel = TMSUtils.latLonToPixelsUL(tobounds.n, tobounds.w, fromlevel, tilesize)
 
-        // while we were running, there is chance the pyramid was removed from the cache and
-        // reopened by another process. Re-opening it here will avoid some potential conflicts.
-        metadata = MrsPyramid.open(provider).getMetadata
+      val tokey = new TileIdWritable(TMSUtils.tileid(totile.tx, totile.ty, tolevel))
 
-        // make sure the level is deleted
-        deletelevel(tolevel, metadata, provider)
+      // quadrants are NW, NE, SW, SE
+      val quadrant = (if (fromcorner.px > tocorner.px) 1 else 0) + (if (fromcorner.py > tocorner.py) 2 else 0)
 
-        SparkUtils.saveMrsPyramid(RasterRDD(mergedTiles), provider, tolevel,
-          context.hadoopConfiguration, providerproperties = this.providerproperties)
+      logDebug("from  tx: " + fromtile.tx + " ty: " + fromtile.ty + " (" + fromlevel + ") to tx: " + totile.tx +
+          " ty: " + totile.ty + " (" + tolevel + ") quadrant: " + quadrant)
 
-        //TODO: Fix this in S3
-        // in S3, sometimes the just-written data isn't available to read yet.  This sleep just gives
-        // S3 a chance to catch up...
-        Thread.sleep(5000)
-      }
-      else {
-        buildlevellocal(provider, fromlevel)
-      }
-    }
+      val child = TileDecimator.decimate(RasterTile.fromWritable(tile._2), aggregator, nodatavals)
 
-    true
+      (tokey, (quadrant, child.toWritable))
+    })
+
+    // there are at most 4 children for each tile, merge them into the parent in one pass
+    new PairRDDFunctions(decimated).groupByKey().mapValues(children => {
+      val quadrants = Array.ofDim[RasterTile](4)
+      children.foreach(child => quadrants(child._1) = RasterTile.fromWritable(child._2))
+
+      val sample = quadrants.find(_ != null).get
+      TileDecimator.merge(quadrants, tilesize, sample.getNumBands, sample.getDatatype, nodatavals).toWritable
+    })
   }
 
   private def deletelevel(level: Int, metadata: MrsPyramidMetadata, provider: MrsImageDataProvider) {
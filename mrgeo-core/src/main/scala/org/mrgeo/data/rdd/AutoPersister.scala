@@ -22,35 +22,63 @@ import org.apache.spark.storage.StorageLevel
 
 import scala.collection.mutable
 
+// Reference counts the rdds built on each other (see MrGeoRDD), and persists an rdd once it is
+// used twice.  A persistence plan (see PersistencePlanner) can choose the storage level of an rdd
+// up front instead; planned rdds are persisted (or not) by the plan and released by it.
+// The counts are shared by every thread using the SparkContext, so access is synchronized.
 object AutoPersister extends Logging {
 
   val references = mutable.Map.empty[Int, Int]
 
+  // storage levels chosen by a persistence plan, by rdd id
+  private val planned = mutable.Map.empty[Int, StorageLevel]
+
   val defaultStorageLevel = StorageLevel.MEMORY_AND_DISK_SER
 
-  def getRef(rdd:RDD[_]): Int = {
+  def getRef(rdd:RDD[_]): Int = synchronized {
     references.getOrElse(rdd.id, 0)
   }
 
   // force a persist
-  def persist(rdd:RDD[_], storageLevel: StorageLevel = defaultStorageLevel) = {
+  def persist(rdd:RDD[_], storageLevel: StorageLevel = defaultStorageLevel) = synchronized {
     rdd.persist(storageLevel)
     incrementRef(rdd)
   }
 
   // force an unpersist
-  def unpersist(rdd:RDD[_]) = {
+  def unpersist(rdd:RDD[_]) = synchronized {
     rdd.unpersist()
     references.remove(rdd.id)
+    planned.remove(rdd.id)
+  }
+
+  // persist an rdd at the level chosen by a persistence plan (NONE leaves it to be recomputed),
+  // the reference counts no longer change how it is kept
+  def plan(rdd:RDD[_], storageLevel: StorageLevel) = synchronized {
+    planned.put(rdd.id, storageLevel)
+    if (storageLevel != StorageLevel.NONE && rdd.getStorageLevel == StorageLevel.NONE) {
+      rdd.persist(storageLevel)
+    }
+  }
+
+  // forget the level a persistence plan chose, without unpersisting.  Ids are reused by later
+  // SparkContexts, so every planned rdd is unplanned (or unpersisted) when the plan is done.
+  def unplan(rdd:RDD[_]) = synchronized {
+    planned.remove(rdd.id)
+  }
+
+  def isPlanned(rdd:RDD[_]): Boolean = synchronized {
+    planned.contains(rdd.id)
   }
 
   // decrement the ref count, unpersist if needed
-  def decrementRef(rdd:RDD[_]):Int = {
+  def decrementRef(rdd:RDD[_]):Int = synchronized {
     val cnt = references.getOrElse(rdd.id, return 0) - 1
-    logInfo("decrement ref: " + rdd.id + " from: " + (cnt + 1) + " to: " + cnt + (if (cnt <= 0) " unpersisting" else ""))
+    val unpersist = cnt <= 0 && !planned.contains(rdd.id)
+    logInfo("decrement ref: " + rdd.id + " from: " + (cnt + 1) + " to: " + cnt + (if (unpersist) " unpersisting" else ""))
 
     references.put(rdd.id, cnt)
-    if (cnt <= 0 && rdd.getStorageLevel != StorageLevel.NONE) {
+    if (unpersist && rdd.getStorageLevel != StorageLevel.NONE) {
       rdd.unpersist()
       references.remove(rdd.id)
     }
@@ -59,14 +87,15 @@ object AutoPersister extends Logging {
   }
 
   // increment the ref count, persist when the count hits 2 (no need to persist over that)
-  def incrementRef(rdd:RDD[_], storageLevel: StorageLevel = defaultStorageLevel):Int = {
+  def incrementRef(rdd:RDD[_], storageLevel: StorageLevel = defaultStorageLevel):Int = synchronized {
 
     val cnt = references.getOrElseUpdate(rdd.id, 0) + 1
+    val persist = cnt == 2 && !planned.contains(rdd.id)
 
-    logInfo("increment ref: " + rdd.id + " from: " + (cnt - 1) + " to: " + cnt + (if (cnt == 2) " persisting" else ""))
+    logInfo("increment ref: " + rdd.id + " from: " + (cnt - 1) + " to: " + cnt + (if (persist) " persisting" else ""))
     references.put(rdd.id, cnt)
 
-    if (cnt == 2 && rdd.getStorageLevel == StorageLevel.NONE) {
+    if (persist && rdd.getStorageLevel == StorageLevel.NONE) {
       rdd.persist(storageLevel)
     }
     cnt
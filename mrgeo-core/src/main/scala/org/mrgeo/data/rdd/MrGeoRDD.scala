@@ -19,11 +19,16 @@ package org.mrgeo.data.rdd
 import org.apache.spark.annotation.DeveloperApi
 import org.apache.spark.rdd.RDD
 import org.apache.spark.storage.StorageLevel
-import org.apache.spark.{Partition, TaskContext}
+import org.apache.spark.{Partition, Partitioner, TaskContext}
 
 import scala.reflect.ClassTag
 
-class MrGeoRDD[K:ClassTag, V:ClassTag](parent: RDD[(K, V)])  extends RDD[(K, V)](parent) {
+class MrGeoRDD[K:ClassTag, V:ClassTag](parent: RDD[(K, V)], part: Option[Partitioner] = None)
+    extends RDD[(K, V)](parent) {
+
+  // we have the same partitions as our parent, so keep its partitioner unless we've been told
+  // how the parent is laid out (e.g. by the splits of a pyramid)
+  @transient override val partitioner: Option[Partitioner] = part orElse parent.partitioner
 
   AutoPersister.incrementRef(this)
   walkTree(this)
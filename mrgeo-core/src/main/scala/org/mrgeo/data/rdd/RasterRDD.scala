@@ -16,8 +16,9 @@
 
 package org.mrgeo.data.rdd
 
+import org.apache.spark.Partitioner
 import org.apache.spark.rdd.RDD
-import org.mrgeo.data.raster.RasterWritable
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
 import org.mrgeo.data.tile.TileIdWritable
 
 object RasterRDD {
@@ -27,8 +28,45 @@ object RasterRDD {
   def apply(parent: RDD[(TileIdWritable, RasterWritable)]): RasterRDD = {
     new RasterRDD(parent)
   }
+  def apply(parent: RDD[(TileIdWritable, RasterWritable)], partitioner: Partitioner): RasterRDD = {
+    new RasterRDD(parent, Some(partitioner))
+  }
+
+  // build a RasterRDD from primitive tiles, the tile bytes are handed to the writable without a copy,
+  // except for tiles of a single value, which are kept as constant tiles
+  def fromTiles(parent: RDD[(TileIdWritable, RasterTile)]): RasterRDD = {
+    new RasterRDD(parent.mapPartitions(_.map(tile => (tile._1, RasterWritable.compact(tile._2.toWritable))),
+      preservesPartitioning = true))
+  }
 }
 
-class RasterRDD(parent: RDD[(TileIdWritable, RasterWritable)]) extends MrGeoRDD[TileIdWritable, RasterWritable](parent) {
+class RasterRDD(parent: RDD[(TileIdWritable, RasterWritable)], part: Option[Partitioner] = None)
+    extends MrGeoRDD[TileIdWritable, RasterWritable](parent, part) {
+
+  // the bands, type, size and nodata of the tiles, if they are known without reading one
+  private var tileSchema:Option[TileSchema] = None
+
+  def schema():Option[TileSchema] = tileSchema
+
+  def withSchema(schema:TileSchema):RasterRDD = {
+    tileSchema = Option(schema)
+    this
+  }
+
+  def withSchema(schema:Option[TileSchema]):RasterRDD = {
+    tileSchema = schema
+    this
+  }
 
+  // primitive (zero-copy, except for constant tiles) views of the tiles, no AWT Raster is created.
+  // The keys are untouched, so any partitioner is kept.
+  def tiles(): RDD[(TileIdWritable, RasterTile)] = {
+    mapPartitions(_.map(tile => (tile._1, RasterTile.fromWritable(tile._2))), preservesPartitioning = true)
+  }
+
+  def mapTiles(fn: (TileIdWritable, RasterTile) => RasterTile): RasterRDD = {
+    RasterRDD(mapPartitions(_.map(tile => (tile._1,
+        RasterWritable.compact(fn(tile._1, RasterTile.fromWritable(tile._2)).toWritable))),
+      preservesPartitioning = true))
+  }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.rdd
+
+import java.io.{Externalizable, ObjectInput, ObjectOutput}
+import java.util
+
+import org.apache.spark.Partitioner
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.mapreduce.splitters.TiledInputSplit
+
+object TileRangePartitioner {
+
+  // Build a partitioner that matches the input splits of a pyramid, partition i holds the tiles
+  // of split i.  The splits need to be in tile id order, and not overlap, otherwise the tiles in a
+  // partition wouldn't line up with the partitioner, and None is returned.
+  def fromSplits(splits:Seq[TiledInputSplit]):Option[TileRangePartitioner] = {
+    if (splits.isEmpty) {
+      return None
+    }
+
+    var last = Long.MinValue
+    splits.foreach(split => {
+      if (split.getStartTileId > split.getEndTileId || split.getStartTileId <= last) {
+        return None
+      }
+      last = split.getEndTileId
+    })
+
+    Some(new TileRangePartitioner(splits.map(_.getEndTileId).toArray))
+  }
+}
+
+// A partitioner over contiguous tile id ranges, where each partition is identified by the last
+// tile id in it.  Pyramids written with the same splits get equal partitioners, so Spark can join
+// them partition by partition instead of shuffling.
+@SerialVersionUID(-1)
+class TileRangePartitioner() extends Partitioner with Externalizable {
+  private var endIds:Array[Long] = null
+
+  def this(endIds:Array[Long]) = {
+    this()
+    this.endIds = endIds
+  }
+
+  override def numPartitions:Int = endIds.length
+
+  override def getPartition(key:Any):Int = {
+    key match {
+    case id:TileIdWritable =>
+      val ndx = util.Arrays.binarySearch(endIds, id.get())
+      if (ndx >= 0) {
+        ndx
+      }
+      else {
+        // tiles past the last split go into the last partition
+        Math.min(-(ndx + 1), endIds.length - 1)
+      }
+    case _ => throw new RuntimeException("Bad type sent into TileRangePartitioner.getPartition(): " +
+        key.getClass + ". Expected org.mrgeo.data.tile.TileIdWritable or a subclass.")
+    }
+  }
+
+  override def equals(other:Any):Boolean = {
+    other match {
+    case p:TileRangePartitioner => util.Arrays.equals(endIds, p.endIds)
+    case _ => false
+    }
+  }
+
+  override def hashCode():Int = util.Arrays.hashCode(endIds)
+
+  override def readExternal(in:ObjectInput):Unit = {
+    endIds = Array.ofDim[Long](in.readInt())
+    var i:Int = 0
+    while (i < endIds.length) {
+      endIds(i) = in.readLong()
+      i += 1
+    }
+  }
+
+  override def writeExternal(out:ObjectOutput):Unit = {
+    out.writeInt(endIds.length)
+    endIds.foreach(out.writeLong)
+  }
+}
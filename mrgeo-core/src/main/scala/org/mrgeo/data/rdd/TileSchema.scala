@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.rdd
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.spark.Logging
+import org.apache.spark.rdd.RDD
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.image.MrsPyramidMetadata
+
+/**
+  * The layout every tile of a raster rdd shares: the number of bands, the data type, the (square)
+  * tile size and the nodata value of each band.  It travels with the RasterRDD (and is kept in the
+  * MrsPyramidMetadata), so map ops don't have to read a tile (run a Spark job) to learn it.
+  */
+case class TileSchema(bands:Int, datatype:Int, tilesize:Int, nodatas:Array[Double]) {
+  def this(bands:Int, datatype:Int, tilesize:Int, nodata:Double) =
+    this(bands, datatype, tilesize, Array.fill[Double](bands)(nodata))
+
+  override def toString:String = "TileSchema(bands: " + bands + ", datatype: " + datatype +
+      ", tilesize: " + tilesize + ", nodata: " + nodatas.mkString(",") + ")"
+}
+
+object TileSchema extends Logging {
+  private val discoveries = new AtomicInteger()
+
+  // the schema in the metadata, if it has one
+  def fromMetadata(meta:MrsPyramidMetadata):Option[TileSchema] = {
+    if (meta != null && meta.getBands > 0 && meta.getTileType >= 0 && meta.getTilesize > 0) {
+      val nodatas = meta.getDefaultValues
+      Some(TileSchema(meta.getBands, meta.getTileType, meta.getTilesize,
+        if (nodatas != null && nodatas.length == meta.getBands) nodatas else Array.fill[Double](meta.getBands)(Double.NaN)))
+    }
+    else {
+      None
+    }
+  }
+
+  /**
+    * The schema of the rdd: the one it carries, otherwise the one in the metadata, and only if
+    * neither has one, the schema of its first tile (which runs a Spark job).
+    */
+  def of(rdd:RasterRDD, meta:Option[MrsPyramidMetadata] = None):TileSchema = {
+    rdd.schema() orElse meta.flatMap(fromMetadata) getOrElse {
+      val schema = discover(rdd)
+      rdd.withSchema(schema)
+      schema
+    }
+  }
+
+  // the schema of a plain rdd of tiles, only a RasterRDD can carry one
+  def of(rdd:RDD[(TileIdWritable, RasterWritable)]):TileSchema = {
+    rdd match {
+    case raster:RasterRDD => of(raster)
+    case _ => discover(rdd)
+    }
+  }
+
+  /**
+    * Read the first tile to learn the schema.  The tiles don't know their nodata, so the nodata
+    * values are NaN.  Every call is counted, and logged (with where it was called from) in debug mode.
+    */
+  def discover(rdd:RDD[(TileIdWritable, RasterWritable)]):TileSchema = {
+    discoveries.incrementAndGet()
+
+    if (debug) {
+      logWarning("Schema discovery job for rdd " + rdd.id + " (" + rdd.name + ")",
+        new Throwable("called from"))
+    }
+    else {
+      logDebug("Schema discovery job for rdd " + rdd.id)
+    }
+
+    val tile = RasterTile.fromWritable(rdd.first()._2)
+    new TileSchema(tile.getNumBands, tile.getDatatype, tile.getWidth, Double.NaN)
+  }
+
+  // the number of schema discoveries so far
+  def discoveryCount():Int = discoveries.get()
+
+  // reset the count, returning the discoveries since the last reset
+  def resetDiscoveryCount():Int = discoveries.getAndSet(0)
+
+  def debug:Boolean = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_SCHEMA_DEBUG,
+    MrGeoConstants.MRGEO_SCHEMA_DEBUG_DEFAULT).toBoolean
+}
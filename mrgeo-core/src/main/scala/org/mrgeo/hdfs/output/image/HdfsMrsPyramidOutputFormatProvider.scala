@@ -32,6 +32,7 @@ import org.mrgeo.hdfs.image.HdfsMrsImageDataProvider
 import org.mrgeo.hdfs.partitioners.{RowPartitioner, BlockSizePartitioner, FileSplitPartitioner}
 import org.mrgeo.hdfs.tile.FileSplit
 import org.mrgeo.hdfs.utils.HadoopFileUtils
+import org.mrgeo.utils.PartitionSummary
 
 
 class HdfsMrsPyramidOutputFormatProvider(context: ImageOutputFormatContext) extends MrsImageOutputFormatProvider(context) {
@@ -113,19 +114,31 @@ class HdfsMrsPyramidOutputFormatProvider(context: ImageOutputFormatContext) exte
         raster.sortByKey()
       }
       else if (sparkPartitioner.hasFixedPartitions) {
-        raster.sortByKey(numPartitions = sparkPartitioner.calculateNumPartitions(raster, outputWithZoom))
+        // a range partitioner from the context saves the passes over the data that sizing
+        // (first() and count()) and sampling (sortByKey()) the partitions would take
+        sparkPartitioner.rangePartitioner(context, outputWithZoom) match {
+        case Some(ranges) => raster.repartitionAndSortWithinPartitions(ranges)
+        case _ => raster.sortByKey(numPartitions = sparkPartitioner.calculateNumPartitions(raster, outputWithZoom))
+        }
       }
       else {
         raster.repartitionAndSortWithinPartitions(sparkPartitioner)
       })
 
+    // pick up the splits while writing, instead of reading the output again afterwards
+    val (summarized, summaries) = PartitionSummary.summarize(sorted)
 
-    val wrappedForSave = new PairRDDFunctions(sorted)
+    val wrappedForSave = new PairRDDFunctions(summarized)
     wrappedForSave.saveAsNewAPIHadoopDataset(jobconf)
 
     if (sparkPartitioner != null)
     {
-      sparkPartitioner.writeSplits(sorted, context.getOutput, context.getZoomlevel, jobconf)
+      PartitionSummary.collect(summaries, summarized.partitions.length) match {
+      case Some(parts) =>
+        sparkPartitioner.writeSplits(PartitionSummary.splits(parts), context.getOutput, context.getZoomlevel, jobconf)
+      case _ =>
+        sparkPartitioner.writeSplits(sorted, context.getOutput, context.getZoomlevel, jobconf)
+      }
     }
 
   }
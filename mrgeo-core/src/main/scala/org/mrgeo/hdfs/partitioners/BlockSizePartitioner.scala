@@ -19,9 +19,11 @@ package org.mrgeo.hdfs.partitioners
 import java.io.{Externalizable, ObjectInput, ObjectOutput}
 
 import org.apache.hadoop.fs.Path
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.image.ImageOutputFormatContext
+import org.mrgeo.data.raster.RasterUtils
+import org.mrgeo.data.rdd.{RasterRDD, TileRangePartitioner, TileSchema}
 import org.mrgeo.hdfs.utils.HadoopFileUtils
+import org.mrgeo.utils.tms.TMSUtils
 
 
 class BlockSizePartitioner() extends FileSplitPartitioner() with Externalizable {
@@ -38,19 +40,47 @@ class BlockSizePartitioner() extends FileSplitPartitioner() with Externalizable
   def hasFixedPartitions:Boolean = true
 
   override def calculateNumPartitions(raster:RasterRDD, output:String):Int = {
-    val path = new Path(output)
-    val fs = HadoopFileUtils.getFileSystem(path)
-    val blocksize = fs.getDefaultBlockSize(path)
+    val schema = TileSchema.of(raster)
 
-    val tile = RasterWritable.toRaster(raster.first()._2)
+    val pixelbytes = RasterUtils.getElementSize(schema.datatype) * schema.bands
+    val imagebytes = pixelbytes * schema.tilesize * schema.tilesize
 
-    val pixelbytes = RasterUtils.getElementSize(tile.getSampleModel.getDataType) * tile.getNumBands
-    val imagebytes = pixelbytes * tile.getWidth * tile.getHeight
+    partitions = Math.ceil(raster.count() / tilesPerBlock(output, imagebytes).toDouble).toInt
 
-    val tilesperblock = (blocksize / imagebytes) - 1  // subtract 1 for the 0-based counting
+    partitions
+  }
 
-    partitions = Math.ceil(raster.count() / tilesperblock.toDouble).toInt
+  // Contiguous bands of rows of the tiles in the bounds, each sized to fit in a block if the
+  // raster fills its bounds.  Unlike calculateNumPartitions(), this doesn't look at the data.
+  override def rangePartitioner(context:ImageOutputFormatContext, output:String):Option[TileRangePartitioner] = {
+    if (context.getBounds == null || context.getBands <= 0 || context.getTiletype < 0) {
+      return None
+    }
 
-    partitions
+    val zoom = context.getZoomlevel
+    val tilesize = context.getTilesize
+    val tb = TMSUtils.boundsToTile(context.getBounds, zoom, tilesize)
+
+    val rows = tb.n - tb.s + 1
+    val cols = tb.e - tb.w + 1
+
+    val imagebytes = RasterUtils.getElementSize(context.getTiletype).toLong * context.getBands * tilesize * tilesize
+    val count = Math.max(1L, Math.ceil(rows * cols / tilesPerBlock(output, imagebytes).toDouble).toLong)
+    val rowsPerPartition = Math.ceil(rows / count.toDouble).toLong
+
+    val endIds = (tb.s to tb.n by rowsPerPartition).map(row =>
+      TMSUtils.tileid(tb.e, Math.min(row + rowsPerPartition - 1, tb.n), zoom)).toArray
+
+    partitions = endIds.length
+
+    Some(new TileRangePartitioner(endIds))
+  }
+
+  private def tilesPerBlock(output:String, imagebytes:Long):Long = {
+    val path = new Path(output)
+    val fs = HadoopFileUtils.getFileSystem(path)
+    val blocksize = fs.getDefaultBlockSize(path)
+
+    Math.max(1L, (blocksize / imagebytes) - 1)  // subtract 1 for the 0-based counting
   }
 }
@@ -21,9 +21,11 @@ import java.io._
 import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.fs.Path
 import org.apache.spark.Partitioner
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.image.ImageOutputFormatContext
+import org.mrgeo.data.rdd.{RasterRDD, TileRangePartitioner}
 import org.mrgeo.hdfs.image.HdfsMrsImageDataProvider
 import org.mrgeo.hdfs.tile.FileSplit
+import org.mrgeo.hdfs.tile.FileSplit.FileSplitInfo
 import org.mrgeo.utils.SparkUtils
 
 abstract class FileSplitPartitioner() extends Partitioner with Externalizable
@@ -31,10 +33,18 @@ abstract class FileSplitPartitioner() extends Partitioner with Externalizable
   def hasFixedPartitions:Boolean
   def calculateNumPartitions(raster:RasterRDD, output:String):Int = 1
 
-  def writeSplits(rdd:RasterRDD, pyramid:String, zoom:Int, conf:Configuration) = {
+  // A partitioner over tile id ranges, worked out from the context alone, that can be used in
+  // place of sorting by key with calculateNumPartitions() partitions.  None if there isn't enough
+  // information in the context.
+  def rangePartitioner(context:ImageOutputFormatContext, output:String):Option[TileRangePartitioner] = None
+
+  def writeSplits(rdd:RasterRDD, pyramid:String, zoom:Int, conf:Configuration):Unit = {
+    writeSplits(SparkUtils.calculateSplitData(rdd), pyramid, zoom, conf)
+  }
+
+  def writeSplits(splitinfo:Array[FileSplitInfo], pyramid:String, zoom:Int, conf:Configuration):Unit = {
     val fileSplits = new FileSplit
 
-    val splitinfo = SparkUtils.calculateSplitData(rdd)
     fileSplits.generateSplits(splitinfo)
 
     val dp: HdfsMrsImageDataProvider = new HdfsMrsImageDataProvider(conf, pyramid, null)
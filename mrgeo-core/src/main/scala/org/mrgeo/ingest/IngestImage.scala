@@ -23,8 +23,9 @@ import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.io.SequenceFile
 import org.apache.spark.rdd.PairRDDFunctions
 import org.apache.spark.{SparkConf, SparkContext}
-import org.gdal.gdal.gdal
+import org.gdal.gdal.{Dataset, gdal}
 import org.gdal.gdalconst.gdalconstConstants
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
 import org.mrgeo.data
 import org.mrgeo.data.DataProviderFactory.AccessMode
 import org.mrgeo.data.image.MrsImageDataProvider
@@ -35,13 +36,15 @@ import org.mrgeo.data.{DataProviderFactory, ProtectionLevelUtils, ProviderProper
 import org.mrgeo.hdfs.utils.HadoopFileUtils
 import org.mrgeo.job.{JobArguments, MrGeoDriver, MrGeoJob}
 import org.mrgeo.utils._
-import org.mrgeo.utils.tms.{Bounds, TMSUtils}
+import org.mrgeo.utils.tms.{Bounds, TMSUtils, TileBounds}
 
 import scala.collection.JavaConversions._
 import scala.collection.mutable
-import scala.collection.mutable.ListBuffer
 
 
+// a block of whole tiles within an image, as offsets from its top left tile
+case class IngestWindow(image: String, left: Int, top: Int, width: Int, height: Int)
+
 object IngestImage extends MrGeoDriver with Externalizable {
 
   final private val Inputs = "inputs"
@@ -75,13 +78,21 @@ object IngestImage extends MrGeoDriver with Externalizable {
   }
 
   def ingest(context: SparkContext, inputs:Array[String], zoom:Int, tilesize:Int, categorical:Boolean, nodata: Array[Number]) = {
-    // force 1 partition per file, this will keep the size of each ingest task as small as possible, so we
-    // won't eat up too much memory
-    val in = context.parallelize(inputs, inputs.length)
+    // planning only reads the image headers, spread it out with one partition per file
+    val windowbytes = windowBytes()
+    val windows = context.parallelize(inputs, inputs.length).flatMap(input => {
+      IngestImage.planWindows(input, zoom, tilesize, windowbytes)
+    }).collect()
+
+    logInfo("Ingesting " + inputs.length + " images in " + windows.length + " windows")
 
-    val rawtiles = new PairRDDFunctions(in.flatMap(input => {
-      IngestImage.makeTiles(input, zoom, tilesize, categorical)
-    }))
+    // one window per partition, so a large image is reprojected by many tasks, and each task only holds
+    // a single window in memory
+    val in = context.parallelize(windows, Math.max(1, windows.length))
+
+    val rawtiles = new PairRDDFunctions(in.mapPartitions(_.flatMap(window => {
+      new IngestImage.WindowTiles(window, zoom, tilesize, categorical)
+    })))
 
     val tiles = rawtiles.reduceByKey((r1, r2) => {
       val src = RasterWritable.toRaster(r1)
@@ -197,157 +208,210 @@ object IngestImage extends MrGeoDriver with Externalizable {
     true
   }
 
+  // tiles come from the image in windows of whole tiles, each reprojected on its own, so the memory
+  // an ingest task needs is bounded by the window size rather than the size of the image
   private def makeTiles(image: String, zoom: Int, tilesize: Int,
-      categorical: Boolean): TraversableOnce[(TileIdWritable, RasterWritable)] = {
-
-    val result = ListBuffer[(TileIdWritable, RasterWritable)]()
+      categorical: Boolean): Iterator[(TileIdWritable, RasterWritable)] = {
+    val windows = planWindows(image, zoom, tilesize, windowBytes())
+    windows.iterator.flatMap(window => new WindowTiles(window, zoom, tilesize, categorical))
+  }
 
-    //val start = System.currentTimeMillis()
+  private def windowBytes(): Long = {
+    MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_INGEST_WINDOW_MB,
+      MrGeoConstants.MRGEO_INGEST_WINDOW_MB_DEFAULT).toLong * 1024 * 1024
+  }
 
-    // open the image
+  // split the tiles covering an image into windows of at most windowbytes of reprojected pixels.  Windows
+  // are whole rows of tiles unless a single row is larger than that, then rows are split across columns.
+  private[ingest] def planWindows(image: String, zoom: Int, tilesize: Int, windowbytes: Long): Array[IngestWindow] = {
     try {
-      val src = GDALUtils.open(image)
+      val src = GDALUtils.openRanged(image)
 
       if (src != null) {
-        val datatype = src.GetRasterBand(1).getDataType
-        val datasize = gdal.GetDataTypeSize(datatype) / 8
-
-        val bands = src.GetRasterCount()
-
-        val imageBounds = GDALUtils.getBounds(src)
-        val tiles = TMSUtils.boundsToTile(imageBounds, zoom, tilesize)
-        val tileBounds = TMSUtils.tileBounds(imageBounds, zoom, tilesize)
-
-        val w = tiles.width() * tilesize
-        val h = tiles.height() * tilesize
+        try {
+          val datasize = gdal.GetDataTypeSize(src.GetRasterBand(1).getDataType) / 8
+          val bands = src.GetRasterCount()
+
+          val tiles = TMSUtils.boundsToTile(GDALUtils.getBounds(src), zoom, tilesize)
+          val width = tiles.width().toInt
+          val height = tiles.height().toInt
+
+          val tilebytes = tilesize.toLong * tilesize * bands * datasize
+          val maxtiles = Math.max(1L, windowbytes / tilebytes)
+
+          val cols = Math.min(width.toLong, maxtiles).toInt
+          val rows = Math.max(1L, Math.min(height.toLong, maxtiles / cols)).toInt
+
+          val windows = Array.newBuilder[IngestWindow]
+          var top: Int = 0
+          while (top < height) {
+            var left: Int = 0
+            while (left < width) {
+              windows += IngestWindow(image, left, top, Math.min(cols, width - left), Math.min(rows, height - top))
+              left += cols
+            }
+            top += rows
+          }
 
-        val res = TMSUtils.resolution(zoom, tilesize)
+          val result = windows.result()
+          if (log.isDebugEnabled) {
+            logDebug("Image " + image + " (" + width + "x" + height + " tiles) split into " + result.length +
+                " windows of up to " + cols + "x" + rows + " tiles")
+          }
+          return result
+        }
+        finally {
+          GDALUtils.close(src)
+        }
+      }
+      else {
+        if (log.isDebugEnabled) {
+          logDebug("Could not open " + image)
+        }
+      }
+    }
+    catch {
+      case ioe: IOException =>
+        // this can happen in "skip preprocessing" mode
+        logWarning("Could not read " + image + ", skipping it", ioe)
+    }
 
-        //val scaledsize = w * h * bands * datasize
+    Array.empty[IngestWindow]
+  }
 
-        if (log.isDebugEnabled) {
-          logDebug("Image info:  " + image)
-          logDebug("  bands:  " + bands)
-          logDebug("  data type:  " + datatype)
-          logDebug("  width:  " + src.getRasterXSize)
-          logDebug("  height:  " + src.getRasterYSize)
-          logDebug("  bounds:  " + imageBounds)
-          logDebug("  tiles:  " + tiles)
-          logDebug("  tile width:  " + w)
-          logDebug("  tile height:  " + h)
+  private def resampling(categorical: Boolean): Int = {
+    var resample: Int = gdalconstConstants.GRA_Bilinear
+    if (categorical) {
+      // use gdalconstConstants.GRA_Mode for categorical, which may not exist in earlier versions of gdal,
+      // in which case we will use GRA_NearestNeighbour
+      try {
+        val mode = classOf[gdalconstConstants].getDeclaredField("GRA_Mode")
+        if (mode != null) {
+          resample = mode.getInt()
         }
+      }
+      catch {
+        case e: Exception => resample = gdalconstConstants.GRA_NearestNeighbour
+      }
+    }
+    resample
+  }
 
-        // TODO:  Figure out chunking...
-        val scaled = GDALUtils.createEmptyMemoryRaster(src, w.toInt, h.toInt)
+  // The tiles of a single window.  The window is reprojected from the source image when the first tile
+  // is asked for; GDAL's warper only reads the part of the source that covers the window.  The reprojected
+  // window is released once its last tile has been cut.
+  private[ingest] class WindowTiles(window: IngestWindow, zoom: Int, tilesize: Int, categorical: Boolean)
+      extends Iterator[(TileIdWritable, RasterWritable)] {
 
-        val xform = Array.ofDim[Double](6)
+    private val count = window.width * window.height
 
-        xform(0) = tileBounds.w /* top left x */
-        xform(1) = res /* w-e pixel resolution */
-        xform(2) = 0 /* 0 */
-        xform(3) = tileBounds.n /* top left y */
-        xform(4) = 0 /* 0 */
-        xform(5) = -res /* n-s pixel resolution (negative value) */
+    private var opened = false
+    private var scaled: Dataset = null
+    private var datatype: Int = 0
+    private var bands: Int = 0
+    private var tiles: TileBounds = null
+    private var buffer: Array[Byte] = null
 
-        scaled.SetGeoTransform(xform)
-        scaled.SetProjection(GDALUtils.EPSG4326)
+    private var tile: Int = 0
 
+    override def hasNext: Boolean = {
+      if (!opened) {
+        open()
+      }
 
-        var resample: Int = gdalconstConstants.GRA_Bilinear
-        if (categorical) {
-          // use gdalconstConstants.GRA_Mode for categorical, which may not exist in earlier versions of gdal,
-          // in which case we will use GRA_NearestNeighbour
-          try {
-            val mode = classOf[gdalconstConstants].getDeclaredField("GRA_Mode")
-            if (mode != null) {
-              resample = mode.getInt()
-            }
-          }
-          catch {
-            case e: Exception => resample = gdalconstConstants.GRA_NearestNeighbour
-          }
+      if (scaled != null && tile >= count) {
+        GDALUtils.close(scaled)
+        scaled = null
+
+        if (log.isDebugEnabled) {
+          logDebug("Ingested " + count + " tiles from " + window)
         }
+      }
 
-        gdal.ReprojectImage(src, scaled, src.GetProjection(), GDALUtils.EPSG4326, resample)
+      scaled != null
+    }
 
-        //    val time = System.currentTimeMillis() - start
-        //    println("scale: " + time)
+    override def next(): (TileIdWritable, RasterWritable) = {
+      if (!hasNext) {
+        throw new NoSuchElementException("No more tiles in " + window)
+      }
 
-        //    val band = scaled.GetRasterBand(1)
-        //    val minmax = Array.ofDim[Double](2)
-        //    band.ComputeRasterMinMax(minmax, 0)
+      val dtx = tile % window.width
+      val dty = tile / window.width
+      tile += 1
 
-        //GDALUtils.saveRaster(scaled, "/data/export/scaled.tif")
+      val success = scaled.ReadRaster(dtx * tilesize, dty * tilesize, tilesize, tilesize, tilesize, tilesize,
+        datatype, buffer, null)
 
-        // close the image
-        GDALUtils.close(src)
+      if (success != gdalconstConstants.CE_None) {
+        logError("Failed reading tile " + dtx + ", " + dty + " of " + window + " (GDAL error " + success + ")")
+      }
 
-        val bandlist = Array.ofDim[Int](bands)
-        var x: Int = 0
-        while (x < bands) {
-          bandlist(x) = x + 1 // bands are ones based
-          x += 1
-        }
+      // switch the byte order...
+      GDALUtils.swapBytes(buffer, datatype)
 
+      val writable = RasterWritable.toWritable(buffer, tilesize, tilesize,
+        bands, GDALUtils.toRasterDataBufferType(datatype))
 
-        val buffer = Array.ofDim[Byte](datasize * tilesize * tilesize * bands)
+      val tx: Long = tiles.w + window.left + dtx
+      val ty: Long = tiles.n - (window.top + dty)
 
-        var dty: Int = 0
-        while (dty < tiles.height.toInt) {
-          var dtx: Int = 0
-          while (dtx < tiles.width.toInt) {
+      (new TileIdWritable(TMSUtils.tileid(tx, ty, zoom)), writable)
+    }
 
-            //val start = System.currentTimeMillis()
+    private def open(): Unit = {
+      opened = true
 
-            val tx: Long = dtx + tiles.w
-            val ty: Long = tiles.n - dty
+      try {
+        val src = GDALUtils.openRanged(window.image)
 
-            val x: Int = dtx * tilesize
-            val y: Int = dty * tilesize
+        if (src != null) {
+          try {
+            datatype = src.GetRasterBand(1).getDataType
+            bands = src.GetRasterCount()
 
-            val success = scaled.ReadRaster(x, y, tilesize, tilesize, tilesize, tilesize, datatype, buffer, null)
+            val imageBounds = GDALUtils.getBounds(src)
+            tiles = TMSUtils.boundsToTile(imageBounds, zoom, tilesize)
+            val tileBounds = TMSUtils.tileBounds(imageBounds, zoom, tilesize)
 
-            if (success != gdalconstConstants.CE_None) {
-              println("Failed reading raster" + success)
-            }
+            val res = TMSUtils.resolution(zoom, tilesize)
 
-            // switch the byte order...
-            GDALUtils.swapBytes(buffer, datatype)
+            val raster = GDALUtils.createEmptyMemoryRaster(src, window.width * tilesize, window.height * tilesize)
 
-            val writable = RasterWritable.toWritable(buffer, tilesize, tilesize,
-              bands, GDALUtils.toRasterDataBufferType(datatype))
+            val xform = Array.ofDim[Double](6)
 
-            // save the tile...
-            //        GDALUtils.saveRaster(RasterWritable.toRaster(writable),
-            //          "/data/export/tiles/tile-" + ty + "-" + tx, tx, ty, zoom, tilesize, GDALUtils.getnodata(scaled))
+            xform(0) = tileBounds.w + window.left * tilesize * res /* top left x */
+            xform(1) = res /* w-e pixel resolution */
+            xform(2) = 0 /* 0 */
+            xform(3) = tileBounds.n - window.top * tilesize * res /* top left y */
+            xform(4) = 0 /* 0 */
+            xform(5) = -res /* n-s pixel resolution (negative value) */
 
-            result.append((new TileIdWritable(TMSUtils.tileid(tx, ty, zoom)), writable))
+            raster.SetGeoTransform(xform)
+            raster.SetProjection(GDALUtils.EPSG4326)
 
+            gdal.ReprojectImage(src, raster, src.GetProjection(), GDALUtils.EPSG4326, resampling(categorical))
 
-            //val time = System.currentTimeMillis() - start
-            //println(tx + ", " + ty + ", " + time)
-            dtx += 1
+            buffer = Array.ofDim[Byte](gdal.GetDataTypeSize(datatype) / 8 * tilesize * tilesize * bands)
+            scaled = raster
+          }
+          finally {
+            // close the image
+            GDALUtils.close(src)
           }
-          dty += 1
         }
-
-        GDALUtils.close(scaled)
-      }
-      else {
-        if (log.isDebugEnabled) {
-          logDebug("Could not open " + image)
+        else {
+          if (log.isDebugEnabled) {
+            logDebug("Could not open " + window.image)
+          }
         }
       }
+      catch {
+        case ioe: IOException =>
+          // this can happen in "skip preprocessing" mode
+          logWarning("Could not read " + window + ", skipping its tiles", ioe)
+      }
     }
-    catch {
-      case ioe: IOException =>
-       ioe.printStackTrace()  // no op, this can happen in "skip preprocessing" mode
-    }
-
-    if (log.isDebugEnabled) {
-      logDebug("Ingested " + result.length + " tiles from " + image)
-    }
-    result.iterator
   }
 
 
@@ -497,6 +561,8 @@ class IngestImage extends MrGeoJob with Externalizable {
     classes += classOf[RasterWritable]
 
     classes += classOf[Array[String]]
+    classes += classOf[IngestWindow]
+    classes += classOf[Array[IngestWindow]]
 
     classes.result()
   }
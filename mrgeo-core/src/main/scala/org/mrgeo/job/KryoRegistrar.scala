@@ -18,9 +18,9 @@ package org.mrgeo.job
 
 import com.esotericsoftware.kryo.Kryo
 import org.apache.spark.serializer.KryoRegistrator
-import org.mrgeo.data.raster.RasterWritable
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
 import org.mrgeo.data.tile.TileIdWritable
-import org.mrgeo.job.serializers.{PixelSerializer, BoundsSerializer, RasterWritableSerializer}
+import org.mrgeo.job.serializers.{PixelSerializer, BoundsSerializer, RasterTileSerializer, RasterWritableSerializer}
 import org.mrgeo.utils.tms.{Pixel, Bounds}
 
 class KryoRegistrar extends KryoRegistrator
@@ -30,6 +30,7 @@ class KryoRegistrar extends KryoRegistrator
 
     kryo.register(classOf[TileIdWritable])
     kryo.register(classOf[RasterWritable], new RasterWritableSerializer)
+    kryo.register(classOf[RasterTile], new RasterTileSerializer)
 
     kryo.register(classOf[Bounds], new BoundsSerializer)
     kryo.register(classOf[Pixel], new PixelSerializer)
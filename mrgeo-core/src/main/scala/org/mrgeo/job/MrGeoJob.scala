@@ -23,7 +23,7 @@ import org.mrgeo.data.raster.RasterWritable
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.hdfs.tile.FileSplit.FileSplitInfo
 import org.mrgeo.hdfs.utils.HadoopFileUtils
-import org.mrgeo.image.ImageStats
+import org.mrgeo.image.{ImageStats, ImageStatsAccumulator}
 import org.mrgeo.utils.tms.Bounds
 
 import scala.collection.mutable
@@ -44,6 +44,7 @@ object MrGeoJob extends Logging {
 
       classes += classOf[ImageStats]
       classes += classOf[Array[ImageStats]]
+      classes += classOf[ImageStatsAccumulator]
 
       // include the old TileIdWritable & RasterWritable
       classes += classOf[org.mrgeo.core.mapreduce.formats.TileIdWritable]
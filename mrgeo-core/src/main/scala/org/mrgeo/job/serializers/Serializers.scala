@@ -18,7 +18,7 @@ package org.mrgeo.job.serializers
 
 import com.esotericsoftware.kryo.io.{Input, Output}
 import com.esotericsoftware.kryo.{Kryo, Serializer}
-import org.mrgeo.data.raster.RasterWritable
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
 import org.mrgeo.utils.tms.{Pixel, Bounds}
 
 class Serializers {}
@@ -61,3 +61,16 @@ class PixelSerializer extends Serializer[Pixel] {
     new Pixel(input.readLong(), input.readLong())
   }
 }
+
+class RasterTileSerializer extends Serializer[RasterTile] {
+  override def write(kryo: Kryo, output: Output, tile: RasterTile) = {
+    output.writeInt(tile.getLength)
+    output.writeBytes(tile.getBytes, 0, tile.getLength)
+  }
+
+  override def read(kryo: Kryo, input: Input, `type`: Class[RasterTile]): RasterTile = {
+
+    val length = input.readInt()
+    RasterTile.fromBytes(input.readBytes(length))
+  }
+}
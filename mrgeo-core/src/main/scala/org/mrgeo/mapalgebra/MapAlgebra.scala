@@ -25,9 +25,11 @@ import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data
 import org.mrgeo.data.DataProviderFactory.AccessMode
 import org.mrgeo.data.{DataProviderFactory, DataProviderNotFound, ProviderProperties}
+import org.mrgeo.data.rdd.TileSchema
 import org.mrgeo.job.{JobArguments, MrGeoDriver, MrGeoJob}
 import org.mrgeo.mapalgebra.parser._
-import org.mrgeo.mapalgebra.raster.{MrsPyramidMapOp, RasterMapOp}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.mapalgebra.raster.{MrsPyramidMapOp, PixelMapOp, RasterMapOp}
 import org.mrgeo.mapalgebra.vector.{VectorDataMapOp, VectorMapOp}
 import org.mrgeo.utils.StringUtils
 
@@ -348,6 +350,13 @@ class MapAlgebra() extends MrGeoJob with Externalizable {
 
   var nodes: Array[ParserNode] = null
 
+  // pixel map ops that are the root of a fused kernel, and the ones evaluated inside those kernels
+  private val fusedMapOps = mutable.Set.empty[PixelMapOp]
+  private val absorbedMapOps = mutable.Set.empty[RasterMapOp]
+
+  // chooses how intermediate rdds are kept while the script runs
+  private var planner:Option[PersistencePlanner] = None
+
   override def setup(job: JobArguments, conf: SparkConf): Boolean = {
     expression = job.getSetting(MapAlgebra.MapAlgebra)
     output = job.getSetting(MapAlgebra.Output)
@@ -362,6 +371,11 @@ class MapAlgebra() extends MrGeoJob with Externalizable {
 
     nodes = parse(expression)
 
+    if (MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_FUSE_PIXEL_MAPOPS,
+      MrGeoConstants.MRGEO_FUSE_PIXEL_MAPOPS_DEFAULT).toBoolean) {
+      nodes.foreach(node => fuse(node, absorbing = false))
+    }
+
     val classes = Array.newBuilder[Class[_]]
 
     nodes.foreach(node => {
@@ -424,6 +438,38 @@ class MapAlgebra() extends MrGeoJob with Externalizable {
   }
 
 
+  // Find chains of pixel (elementwise) map ops that can be evaluated in a single pass.  Only map ops
+  // that are direct children of another pixel map op are absorbed into a chain, anything reached
+  // through a variable is left alone, since it may be used elsewhere.  Returns the number of pixel
+  // map ops in the chain rooted at this node.
+  private def fuse(node: ParserNode, absorbing: Boolean): Int = {
+    node match {
+    case function: ParserFunctionNode if function.getName != "=" =>
+      function.getMapOp match {
+      case pixel: PixelMapOp if absorbing && pixel.pixelFusable() && pixel.pixelDropsNodataTiles() =>
+        // can't be absorbed, but it can still be the root of its own chain
+        fuse(node, absorbing = false)
+        0
+      case pixel: PixelMapOp if pixel.pixelFusable() =>
+        if (absorbing) {
+          absorbedMapOps += pixel
+        }
+
+        val count = 1 + function.getChildren.map(child => fuse(child, absorbing = true)).sum
+        if (!absorbing && count > 1) {
+          fusedMapOps += pixel
+        }
+        count
+      case _ =>
+        function.getChildren.foreach(child => fuse(child, absorbing = false))
+        0
+      }
+    case _ =>
+      node.getChildren.foreach(child => fuse(child, absorbing = false))
+      0
+    }
+  }
+
   override def execute(context: SparkContext): Boolean = {
 
     // we need to run through each variable and make sure the context is set.  Input files are
@@ -437,19 +483,42 @@ class MapAlgebra() extends MrGeoJob with Externalizable {
       case _ =>
     }
 
-    // execute the mapalgebra
-    nodes.foreach(node => {
-      execute(node, context)
-    })
+    if (MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_PERSIST_PLAN,
+      MrGeoConstants.MRGEO_PERSIST_PLAN_DEFAULT).toBoolean) {
+      planner = Some(new PersistencePlanner(context))
+      planner.get.plan(nodes, findVariable)
+    }
 
-    // now take the last RDD created and save it
-    nodes.reverseIterator.foreach { node =>
-      if (save(node, output, providerproperties, context)) {
-        return true
+    TileSchema.resetDiscoveryCount()
+
+    try {
+      // execute the mapalgebra
+      nodes.foreach(node => {
+        execute(node, context)
+      })
+
+      // now take the last RDD created and save it
+      nodes.reverseIterator.foreach { node =>
+        if (save(node, output, providerproperties, context)) {
+          return true
+        }
       }
-    }
 
-    false
+      false
+    }
+    finally {
+      planner.foreach(_.release())
+      planner = None
+
+      // jobs run just to learn the bands, type or size of a map op's tiles
+      val discoveries = TileSchema.resetDiscoveryCount()
+      if (TileSchema.debug) {
+        logWarning(discoveries + " schema discovery job(s) for expression: " + expression)
+      }
+      else if (discoveries > 0) {
+        logDebug(discoveries + " schema discovery job(s) for expression: " + expression)
+      }
+    }
   }
 
 
@@ -506,10 +575,15 @@ class MapAlgebra() extends MrGeoJob with Externalizable {
       function.getName match {
       case "=" => // ignore assignments...
       case _ =>
-        val mapop = function.getMapOp
-
-        if (mapop != null) {
+        function.getMapOp match {
+        case null =>
+        case pixel: PixelMapOp if fusedMapOps.contains(pixel) =>
+          PixelMapOp.execute(pixel, absorbedMapOps.contains, context)
+          planner.foreach(_.executed(pixel))
+        case pixel: PixelMapOp if absorbedMapOps.contains(pixel) => // evaluated by the fused kernel
+        case mapop =>
           mapop.execute(context)
+          planner.foreach(_.executed(mapop))
         }
       }
     case _ => // no op, nothing to do if we're not a function (MapOp)
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+import org.apache.spark.{Logging, ShuffleDependency, SparkContext, SparkEnv}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.data.raster.RasterUtils
+import org.mrgeo.data.rdd.AutoPersister
+import org.mrgeo.mapalgebra.parser.{ParserFunctionNode, ParserNode, ParserVariableNode}
+import org.mrgeo.mapalgebra.raster.{MrsPyramidMapOp, RasterMapOp}
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+object PersistencePlanner extends Logging {
+  // relative cost of reading a tile from a pyramid, of a narrow (tile by tile) step, and of a shuffle
+  val ReadCost = 1.0
+  val NarrowCost = 0.25
+  val ShuffleCost = 4.0
+
+  // an rdd that costs at least this much to make again is worth spilling to disk
+  val ExpensiveCost = ShuffleCost
+
+  // the fraction of the budget that cheap rdds may use, the rest is kept for expensive ones
+  val CheapShare = 0.5
+
+  /**
+    * Choose how to keep an rdd that's used more than once.
+    *
+    * @param consumers the number of times the rdd is used
+    * @param cost the cost of making the rdd again
+    * @param bytes the estimated (serialized) size of the rdd, or < 0 if it isn't known
+    * @param remaining the bytes of the memory budget that are left
+    * @param cheapRemaining the bytes of the memory budget cheap rdds may still use
+    */
+  def chooseLevel(consumers:Int, cost:Double, bytes:Long, remaining:Long, cheapRemaining:Long):StorageLevel = {
+    val expensive = cost >= ExpensiveCost
+
+    if (consumers < 2) {
+      StorageLevel.NONE
+    }
+    else if (bytes < 0) {
+      // don't know, do what we've always done
+      AutoPersister.defaultStorageLevel
+    }
+    else if (expensive) {
+      // keep it in memory if there's room, otherwise on disk, so it doesn't push out other rdds
+      if (bytes <= remaining) StorageLevel.MEMORY_AND_DISK_SER else StorageLevel.DISK_ONLY
+    }
+    else if (bytes <= cheapRemaining) {
+      // if it is evicted, making it again is cheaper than reading it from disk
+      StorageLevel.MEMORY_ONLY_SER
+    }
+    else {
+      StorageLevel.NONE
+    }
+  }
+
+  // the storage memory left on the executors (or the driver, running locally)
+  def storageBudget(context:SparkContext):Long = {
+    val fraction = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_PERSIST_MEMORY_FRACTION,
+      MrGeoConstants.MRGEO_PERSIST_MEMORY_FRACTION_DEFAULT).toDouble
+
+    val status = context.getExecutorMemoryStatus
+    val driver = Option(SparkEnv.get).map(_.blockManager.blockManagerId.hostPort)
+    val executors = if (status.size > 1) status.filterKeys(hp => !driver.exists(_ == hp)) else status
+
+    (executors.values.map(_._2).sum * fraction).toLong
+  }
+
+  // the estimated size of the image in its metadata, or -1 if there's not enough to tell
+  def estimateBytes(op:RasterMapOp):Long = {
+    try {
+      op.metadata() match {
+      case Some(meta) if meta.getBands > 0 && meta.getTileType >= 0 && meta.getBounds != null =>
+        val tb = meta.getTileBounds(meta.getMaxZoomLevel)
+        tb.getWidth * tb.getHeight * meta.getTilesize.toLong * meta.getTilesize *
+            meta.getBands * RasterUtils.getElementSize(meta.getTileType)
+      case _ => -1
+      }
+    }
+    catch {
+      case e:Exception => -1
+    }
+  }
+
+  // the cost of making an rdd again: the steps back to the rdds whose costs are known (0 for
+  // kept ones), or back to where the data is read.  A shuffle costs more than a narrow step.
+  def lineageCost(rdd:RDD[_], known:collection.Map[Int, Double]):Double = {
+    val visited = mutable.Set.empty[Int]
+
+    def walk(r:RDD[_]):Double = {
+      if (!visited.add(r.id)) {
+        0.0
+      }
+      else if (r.getStorageLevel != StorageLevel.NONE) {
+        0.0
+      }
+      else if (known.contains(r.id)) {
+        known(r.id)
+      }
+      else if (r.dependencies.isEmpty) {
+        ReadCost
+      }
+      else {
+        r.dependencies.map(dep => {
+          (dep match {
+          case _:ShuffleDependency[_, _, _] => ShuffleCost
+          case _ => NarrowCost
+          }) + walk(dep.rdd)
+        }).sum
+      }
+    }
+
+    walk(rdd)
+  }
+
+  private def name(op:MapOp) = op.getClass.getSimpleName
+}
+
+/**
+  * Plans how the raster map ops of a map algebra script keep their rdds.  Before the script runs,
+  * it walks the whole script to count how many times each map op's rdd is used.  As each map op is
+  * executed (still before any of its tiles are made), it estimates the rdd's size from its metadata
+  * and the cost of making it again from its lineage (reads, narrow steps and shuffles, back to
+  * the nearest kept rdds), and picks a storage level against the executors' storage memory:
+  *
+  *  - rdds used once are left to AutoPersister, as before
+  *  - expensive rdds are kept in memory and spilled to disk, or kept only on disk when they don't
+  *    fit, so they don't push out other rdds
+  *  - cheap rdds are kept in memory (not spilled, they're cheaper to make again than to read back)
+  *    while they fit in part of the budget, and are otherwise made again
+  *
+  * Every rdd it planned is released once the script's output has been saved.
+  */
+class PersistencePlanner(context:SparkContext) extends Logging {
+  import PersistencePlanner._
+
+  private val consumers = mutable.Map.empty[RasterMapOp, Int]
+
+  // the cost of making each executed map op's rdd again (by rdd id), 0 for ones that are kept
+  private val costs = mutable.Map.empty[Int, Double]
+  private val kept = mutable.ListBuffer.empty[RDD[_]]
+  // every rdd given to AutoPersister.plan(), kept or not
+  private val planned = mutable.ListBuffer.empty[RDD[_]]
+
+  private var remaining = 0L
+  private var cheapRemaining = 0L
+
+  def plan(nodes:Array[ParserNode], variables: String => Option[ParserNode]):Unit = {
+    consumers.clear()
+
+    nodes.foreach(node => walk(node, variables))
+
+    // the script's output is saved once
+    nodes.reverseIterator.map(n => resolve(n, variables)).find(_.isDefined).flatten.foreach(use)
+
+    remaining = storageBudget(context)
+    cheapRemaining = (remaining * CheapShare).toLong
+
+    logInfo("Persistence plan: " + consumers.count(_._2 > 1) + " of " + consumers.size +
+        " map op(s) are used more than once, storage budget " + (remaining / (1024 * 1024)) + "mb")
+  }
+
+  private def resolve(node:ParserNode, variables: String => Option[ParserNode]):Option[RasterMapOp] = {
+    node match {
+    case function:ParserFunctionNode if function.getName != "=" =>
+      function.getMapOp match {
+      case raster:RasterMapOp => Some(raster)
+      case _ => None
+      }
+    case variable:ParserVariableNode =>
+      MapOp.decodeVariable(variable, variables).flatMap(resolve(_, variables))
+    case _ => None
+    }
+  }
+
+  // the number of times the script uses a map op's rdd
+  private[mapalgebra] def uses(op:RasterMapOp):Int = {
+    consumers.getOrElse(op, 0)
+  }
+
+  private def use(op:RasterMapOp) = {
+    consumers.put(op, consumers.getOrElse(op, 0) + 1)
+  }
+
+  private def walk(node:ParserNode, variables: String => Option[ParserNode]):Unit = {
+    node match {
+    case function:ParserFunctionNode if function.getName == "=" =>
+      // an assignment isn't a use, but what's assigned may use other map ops
+      walk(function.getChild(1), variables)
+    case function:ParserFunctionNode =>
+      function.getChildren.foreach(child => {
+        resolve(child, variables).foreach(use)
+        child match {
+        case _:ParserFunctionNode => walk(child, variables)
+        case _ =>
+        }
+      })
+    case _ =>
+    }
+  }
+
+  /**
+    * Cost, and pick the storage level of, a map op's rdd.  Call right after the map op has executed.
+    */
+  def executed(op:MapOp):Unit = {
+    op match {
+    case raster:RasterMapOp if !(raster.isInstanceOf[MrsPyramidMapOp] && raster.context() == null) =>
+      try {
+        raster.rdd().foreach(rdd => keep(raster, rdd))
+      }
+      catch {
+        case e:Exception => logWarning("Unable to plan the persistence of " + name(op), e)
+      }
+    case _ =>
+    }
+  }
+
+  private def keep(op:RasterMapOp, rdd:RDD[_]):Unit = {
+    val uses = consumers.getOrElse(op, 0)
+    val cost = lineageCost(rdd, costs)
+
+    if (uses < 2) {
+      costs.put(rdd.id, cost)
+      return
+    }
+
+    val bytes = estimateBytes(op)
+
+    if (rdd.getStorageLevel != StorageLevel.NONE) {
+      logInfo("Persistence plan: " + name(op) + " (rdd " + rdd.id + ") is already kept " +
+          rdd.getStorageLevel.description)
+      if (rdd.getStorageLevel.useMemory && bytes > 0) {
+        remaining -= bytes
+      }
+      costs.put(rdd.id, 0.0)
+      return
+    }
+
+    val level = chooseLevel(uses, cost, bytes, remaining, cheapRemaining)
+
+    logInfo("Persistence plan: " + name(op) + " (rdd " + rdd.id + ") used " + uses + " times, cost " +
+        "%.2f".format(cost) + ", ~" + (if (bytes >= 0) (bytes / (1024 * 1024)) + "mb" else "unknown size") +
+        ", " + (remaining / (1024 * 1024)) + "mb of memory left -> " +
+        (if (level == StorageLevel.NONE) "recompute" else level.description))
+
+    AutoPersister.plan(rdd, level)
+    planned += rdd
+    if (level != StorageLevel.NONE) {
+      kept += rdd
+      costs.put(rdd.id, 0.0)
+
+      if (level.useMemory && bytes > 0) {
+        remaining -= bytes
+        if (cost < ExpensiveCost) {
+          cheapRemaining -= bytes
+        }
+      }
+    }
+    else {
+      costs.put(rdd.id, cost)
+    }
+  }
+
+  /**
+    * Release every rdd the plan kept, and forget the ones it chose not to keep, call once the
+    * output is saved.
+    */
+  def release():Unit = {
+    kept.foreach(rdd => {
+      logInfo("Persistence plan: releasing rdd " + rdd.id)
+      AutoPersister.unpersist(rdd)
+    })
+    planned.foreach(AutoPersister.unplan)
+
+    kept.clear()
+    planned.clear()
+    costs.clear()
+    consumers.clear()
+  }
+}
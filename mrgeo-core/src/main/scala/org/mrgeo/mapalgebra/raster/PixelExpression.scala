@@ -0,0 +1,93 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra.raster
+
+// A per-pixel expression tree built from a chain of elementwise map ops.  Inside the tree, nodata
+// is always represented as NaN, the inputs are translated before evaluation, and the result is
+// translated back to the output nodata by the kernel.
+object PixelExpression {
+  def input(index:Int):PixelExpression = new PixelInput(index)
+
+  def constant(value:Double):PixelExpression = new PixelConstant(value)
+
+  def unary(a:PixelExpression, fn:Double => Double):PixelExpression = new PixelUnary(a, fn)
+
+  def binary(a:PixelExpression, b:PixelExpression, fn:(Double, Double) => Double):PixelExpression =
+    new PixelBinary(a, b, fn)
+
+  // con(test, value, [test, value, ...], else)
+  def con(terms:Array[PixelExpression]):PixelExpression = new PixelCon(terms)
+}
+
+abstract class PixelExpression extends Serializable {
+  def eval(values:Array[Double]):Double
+}
+
+class PixelInput(index:Int) extends PixelExpression {
+  override def eval(values:Array[Double]):Double = values(index)
+}
+
+class PixelConstant(value:Double) extends PixelExpression {
+  override def eval(values:Array[Double]):Double = value
+}
+
+class PixelUnary(a:PixelExpression, fn:Double => Double) extends PixelExpression {
+  override def eval(values:Array[Double]):Double = {
+    val v = a.eval(values)
+    if (v.isNaN) {
+      Double.NaN
+    }
+    else {
+      fn(v)
+    }
+  }
+}
+
+class PixelBinary(a:PixelExpression, b:PixelExpression, fn:(Double, Double) => Double) extends PixelExpression {
+  override def eval(values:Array[Double]):Double = {
+    val v1 = a.eval(values)
+    if (v1.isNaN) {
+      Double.NaN
+    }
+    else {
+      val v2 = b.eval(values)
+      if (v2.isNaN) {
+        Double.NaN
+      }
+      else {
+        fn(v1, v2)
+      }
+    }
+  }
+}
+
+class PixelCon(terms:Array[PixelExpression]) extends PixelExpression {
+  override def eval(values:Array[Double]):Double = {
+    var i:Int = 0
+    while (i < terms.length - 1) {
+      val test = terms(i).eval(values)
+      if (test.isNaN) {
+        return Double.NaN
+      }
+      else if (!RasterMapOp.nearZero(test)) {
+        return terms(i + 1).eval(values)
+      }
+      i += 2
+    }
+    terms(terms.length - 1).eval(values)
+  }
+}
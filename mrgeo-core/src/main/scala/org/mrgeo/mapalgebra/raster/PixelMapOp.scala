@@ -0,0 +1,226 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra.raster
+
+import java.io.IOException
+
+import org.apache.spark.rdd.CoGroupedRDD
+import org.apache.spark.{Logging, SparkContext}
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
+import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.utils.MrGeoImplicits._
+import org.mrgeo.utils.SparkUtils
+import org.mrgeo.utils.tms.Bounds
+
+import scala.collection.mutable
+
+// datatype and per-band nodata of a raster flowing through a pixel expression
+case class PixelFormat(datatype:Int, nodatas:Array[Double])
+
+// An elementwise map op; every output pixel depends only on the same pixel of its raster inputs.
+// Chains of these are fused by MapAlgebra into a single kernel (see PixelMapOp.execute) that
+// makes one pass, with one cogroup, over the leaf inputs of the chain.
+trait PixelMapOp extends RasterMapOp {
+
+  // the raster inputs, in the order they are handed to pixelExpression()
+  def pixelInputs():Array[RasterMapOp]
+
+  // build the expression for this op from the expressions of its raster inputs.  Values inside
+  // the expression use NaN for nodata.
+  def pixelExpression(inputs:Array[PixelExpression]):PixelExpression
+
+  // the output datatype and nodata, given the formats of the raster inputs
+  def pixelFormat(inputs:Array[PixelFormat]):PixelFormat
+
+  // ops whose result depends on more than the pixel values (e.g. the nodata values themselves)
+  // can opt out of fusing
+  def pixelFusable():Boolean = true
+
+  // does this op make a tile where only some of its raster inputs have one (an outer join, like
+  // con), rather than only where all of them do (an inner join, like the binary math ops)
+  def pixelOuterJoin():Boolean = false
+
+  // does this op drop tiles that come out all nodata (like con).  These are only fused as the root
+  // of a kernel, dropping a tile inside the kernel would need every intermediate tile.
+  def pixelDropsNodataTiles():Boolean = false
+
+  // take the output of a fused kernel as the result of this map op
+  def fused(rdd:RasterRDD, meta:MrsPyramidMetadata):Unit
+}
+
+object PixelMapOp extends Logging {
+
+  // Which groups of leaf tiles make an output tile, following the same joins as the unfused map
+  // ops, so a fused kernel makes exactly the tiles the chain would have.
+  private abstract class TileJoin extends Serializable {
+    def present(tiles:Array[RasterTile]):Boolean
+  }
+
+  private class TileLeaf(index:Int) extends TileJoin {
+    override def present(tiles:Array[RasterTile]):Boolean = tiles(index) != null
+  }
+
+  private class TileInnerJoin(inputs:Array[TileJoin]) extends TileJoin {
+    override def present(tiles:Array[RasterTile]):Boolean = inputs.forall(_.present(tiles))
+  }
+
+  private class TileOuterJoin(inputs:Array[TileJoin]) extends TileJoin {
+    override def present(tiles:Array[RasterTile]):Boolean = inputs.exists(_.present(tiles))
+  }
+
+  private class Kernel(root:PixelMapOp, absorbed:RasterMapOp => Boolean) {
+    val leaves = mutable.ArrayBuffer.empty[RasterMapOp]
+    var fusedOps = 0
+
+    val expression = build(root)
+    val join = joinOf(root)
+    val format = formatOf(root)
+
+    private def leafIndex(leaf:RasterMapOp):Int = {
+      val ndx = leaves.indexWhere(_ eq leaf)
+      if (ndx >= 0) {
+        ndx
+      }
+      else {
+        leaves += leaf
+        leaves.length - 1
+      }
+    }
+
+    private def build(op:PixelMapOp):PixelExpression = {
+      fusedOps += 1
+      op.pixelExpression(op.pixelInputs().map {
+        case pixel:PixelMapOp if absorbed(pixel) => build(pixel)
+        case leaf => PixelExpression.input(leafIndex(leaf))
+      })
+    }
+
+    private def joinOf(op:PixelMapOp):TileJoin = {
+      val inputs = op.pixelInputs().map {
+        case pixel:PixelMapOp if absorbed(pixel) => joinOf(pixel)
+        case leaf => new TileLeaf(leafIndex(leaf))
+      }
+      if (op.pixelOuterJoin()) new TileOuterJoin(inputs) else new TileInnerJoin(inputs)
+    }
+
+    private def formatOf(op:RasterMapOp):PixelFormat = {
+      op match {
+      case pixel:PixelMapOp if (pixel eq root) || absorbed(pixel) =>
+        pixel.pixelFormat(pixel.pixelInputs().map(formatOf))
+      case leaf =>
+        val meta = leaf.metadata() getOrElse (throw new IOException("Can't load metadata! Ouch! " + leaf.getClass.getName))
+        PixelFormat(meta.getTileType, meta.getDefaultValues)
+      }
+    }
+  }
+
+  // evaluate root, and every input of the chain that passes absorbed(), as a single kernel.  All
+  // other inputs are leaves, and must already have been executed.
+  def execute(root:PixelMapOp, absorbed:RasterMapOp => Boolean, context:SparkContext):Boolean = {
+    val kernel = new Kernel(root, absorbed)
+
+    val leaves = kernel.leaves.toArray
+    val expression = kernel.expression
+    val join = kernel.join
+    val dropNodata = root.pixelDropsNodataTiles()
+    val outputdatatype = kernel.format.datatype
+    val outputnodata = kernel.format.nodatas
+
+    logInfo("Fused " + kernel.fusedOps + " pixel map ops over " + leaves.length + " inputs in " +
+        root.getClass.getSimpleName)
+
+    val metas = leaves.map(leaf => leaf.metadata() getOrElse
+        (throw new IOException("Can't load metadata! Ouch! " + leaf.getClass.getName)))
+    val rdds = leaves.map(leaf => leaf.rdd() getOrElse
+        (throw new IOException("Can't load RDD! Ouch! " + leaf.getClass.getName)))
+
+    // copy these here to avoid serializing the mapops
+    val nodatas = metas.map(_.getDefaultValues)
+    val tilesize = metas.head.getTilesize
+    val bands = metas.head.getBands
+    val zoom = metas.head.getMaxZoomLevel
+
+    val bounds = metas.map(_.getBounds).reduce((b1, b2) => Bounds.combine(b1, b2))
+
+    val grouped = if (rdds.length == 1) {
+      rdds.head.mapPartitions(_.map(tile => (tile._1, Array(Iterable(tile._2)))), preservesPartitioning = true)
+    }
+    else {
+      // if the inputs are co-partitioned this doesn't shuffle
+      new CoGroupedRDD[TileIdWritable](rdds, SparkUtils.joinPartitioner(rdds)).mapPartitions(
+        _.map(group => (group._1, group._2.map(_.asInstanceOf[Iterable[RasterWritable]]))),
+        preservesPartitioning = true)
+    }
+
+    val answer = RasterRDD.fromTiles(grouped.mapPartitions(_.flatMap(group => {
+      val tiles = group._2.map(iter => if (iter.nonEmpty) RasterTile.fromWritable(iter.head) else null)
+
+      if (!join.present(tiles)) {
+        Array.empty[(TileIdWritable, RasterTile)].iterator
+      }
+      else {
+        val output = RasterTile.createEmptyTile(tilesize, tilesize, bands, outputdatatype)
+
+        val values = Array.ofDim[Double](tiles.length)
+        val samples = output.getNumSamples
+        var hasdata = false
+
+        var i:Int = 0
+        while (i < samples) {
+          val b = i % bands
+
+          var t:Int = 0
+          while (t < tiles.length) {
+            val tile = tiles(t)
+            values(t) = if (tile == null) {
+              Double.NaN
+            }
+            else {
+              val v = tile.getDouble(i)
+              if (RasterMapOp.isNodata(v, nodatas(t)(b))) Double.NaN else v
+            }
+            t += 1
+          }
+
+          val result = expression.eval(values)
+          if (result.isNaN) {
+            output.setDouble(i, outputnodata(b))
+          }
+          else {
+            output.setDouble(i, result)
+            hasdata = true
+          }
+          i += 1
+        }
+
+        // tiles that are all nodata are kept, unless the root drops them
+        if (hasdata || !dropNodata) {
+          Array((group._1, output)).iterator
+        }
+        else {
+          Array.empty[(TileIdWritable, RasterTile)].iterator
+        }
+      }
+    }), preservesPartitioning = true))
+
+    root.fused(answer, SparkUtils.calculateMetadata(answer, zoom, outputnodata, bounds = bounds, calcStats = false))
+
+    true
+  }
+}
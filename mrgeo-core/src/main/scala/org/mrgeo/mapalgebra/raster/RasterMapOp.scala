@@ -30,7 +30,7 @@ import org.mrgeo.mapalgebra.MapOp
 import org.mrgeo.mapalgebra.parser.{ParserException, ParserFunctionNode, ParserNode, ParserVariableNode}
 //import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.tms.{TileBounds, TMSUtils}
-import org.mrgeo.utils.{GDALUtils, SparkUtils}
+import org.mrgeo.utils.SparkUtils
 
 object RasterMapOp {
 
@@ -146,9 +146,6 @@ abstract class RasterMapOp extends MapOp {
     val zoom = meta.getMaxZoomLevel
     val tilesize = meta.getTilesize
 
-    val raster = SparkUtils.mergeTiles(rasterrdd, zoom, tilesize, meta.getDefaultValues,
-      if (exact) meta.getBounds else null)
-
     val bounds = if (exact) {
       meta.getBounds
     }
@@ -156,7 +153,8 @@ abstract class RasterMapOp extends MapOp {
       TMSUtils.tileBounds(meta.getBounds, zoom, tilesize)
     }
 
-    GDALUtils.toDataset(raster, meta.getDefaultValue(0), bounds)
+    // the tiles are written straight into the dataset, there's no intermediate raster
+    SparkUtils.exportTiles(rasterrdd, zoom, tilesize, meta.getDefaultValues, bounds)
 
   }
 }
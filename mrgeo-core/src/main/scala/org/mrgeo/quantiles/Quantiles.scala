@@ -16,25 +16,24 @@
 
 package org.mrgeo.quantiles
 
-import java.awt.image.{DataBuffer, Raster}
 import java.io.{Externalizable, ObjectInput, ObjectOutput, PrintWriter}
+import java.util.concurrent.ThreadLocalRandom
 
 import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.fs.Path
-import org.apache.spark.rdd.RDD
 import org.apache.spark.{SparkConf, SparkContext}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
 import org.mrgeo.data
 import org.mrgeo.data.ProviderProperties
-import org.mrgeo.data.raster.RasterWritable
+import org.mrgeo.data.raster.RasterTile
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.hdfs.utils.HadoopFileUtils
-import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.image.{MrsPyramidMetadata, QuantileSketch}
 import org.mrgeo.job.{JobArguments, MrGeoDriver, MrGeoJob}
 import org.mrgeo.mapalgebra.raster.RasterMapOp
 import org.mrgeo.utils.SparkUtils
 
 import scala.collection.mutable
-import scala.collection.mutable.ListBuffer
 
 object Quantiles extends MrGeoDriver with Externalizable {
   final private val Input = "input"
@@ -90,132 +89,70 @@ object Quantiles extends MrGeoDriver with Externalizable {
     args
   }
 
-  def getDoublePixelValues(raster: Raster, band: Int): Array[Double] = {
-    raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + raster.getWidth,
-      raster.getHeight, band, null.asInstanceOf[Array[Double]])
+  // the sketch size for the configured quantile error
+  def defaultK(): Int = {
+    QuantileSketch.kForError(MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_QUANTILES_ERROR,
+      MrGeoConstants.MRGEO_QUANTILES_ERROR_DEFAULT).toDouble)
   }
 
-  def getFloatPixelValues(raster: Raster, band: Int): Array[Float] = {
-    raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + raster.getWidth,
-      raster.getHeight, band, null.asInstanceOf[Array[Float]])
-  }
-
-  def getIntPixelValues(raster: Raster, band: Int): Array[Int] = {
-    raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + raster.getWidth,
-      raster.getHeight, band, null.asInstanceOf[Array[Int]])
-  }
+  // Build a quantile sketch of each band of the image in a single job.  Each tile's pixels are added
+  // straight from the tile, and the per-partition sketches are merged with a tree aggregate.  If fraction
+  // is given, only about that fraction of the pixels are added.
+  def sketch(rdd: RasterRDD, meta: MrsPyramidMetadata, fraction: Option[Float] = None,
+      k: Int = defaultK()): Array[QuantileSketch] = {
+    val bands = meta.getBands
+    val nodatas = meta.getDefaultValues
+    val sample = fraction.getOrElse(1.0f)
+
+    val zero = Array.fill[QuantileSketch](bands)(new QuantileSketch(k))
+
+    rdd.treeAggregate(zero)((sketches, tile) => {
+      val raster = RasterTile.fromWritable(tile._2)
+      val samples = raster.getNumSamples
+      val pixels = samples / bands
+
+      // one band at a time, so each sketch gets its values in bulk
+      val values = Array.ofDim[Double](pixels)
+      val random = ThreadLocalRandom.current()
+
+      var b: Int = 0
+      while (b < bands) {
+        val nodata = nodatas(b)
+        var count: Int = 0
+        var i: Int = b
+        while (i < samples) {
+          val v = raster.getDouble(i)
+          if (!RasterMapOp.isNodata(v, nodata) && (sample >= 1.0f || random.nextFloat() < sample)) {
+            values(count) = v
+            count += 1
+          }
+          i += bands
+        }
+        sketches(b).add(values, 0, count)
+        b += 1
+      }
 
-  def getShortPixelValues(raster: Raster, band: Int): Array[Short] = {
-    val intValues = raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + raster.getWidth,
-      raster.getHeight, band, null.asInstanceOf[Array[Int]])
-    intValues.map(U => {
-      U.toShort
+      sketches
+    }, (s1, s2) => {
+      var b: Int = 0
+      while (b < s1.length) {
+        s1(b).merge(s2(b))
+        b += 1
+      }
+      s1
     })
   }
 
-  def getBytePixelValues(raster: Raster, band: Int): Array[Byte] = {
-    val intValues = raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + raster.getWidth,
-      raster.getHeight, band, null.asInstanceOf[Array[Int]])
-    intValues.map(U => {
-      U.toByte
-    })
+  // the numberOfQuantiles - 1 values that split each band into numberOfQuantiles equal parts
+  def quantiles(sketches: Array[QuantileSketch], numberOfQuantiles: Int): List[Array[Double]] = {
+    val fractions = Array.tabulate[Double](numberOfQuantiles - 1)(i => (i + 1).toDouble / numberOfQuantiles)
+
+    // bands with fewer values than quantiles have none
+    sketches.filter(_.getCount >= fractions.length).map(_.quantiles(fractions)).toList
   }
 
   def compute(rdd: RasterRDD, numberOfQuantiles: Int, fraction: Option[Float], meta: MrsPyramidMetadata) = {
-    val quantiles = new Array[Float](numberOfQuantiles - 1)
-    for (i <- quantiles.indices) {
-      quantiles(i) = 1.0f / numberOfQuantiles.toFloat * (i + 1).toFloat
-    }
-
-    var b: Int = 0
-    val dt = meta.getTileType
-    var result = new ListBuffer[Array[Double]]()
-    while (b < meta.getBands) {
-      val nodata = meta.getDefaultValue(b)
-      val sortedPixelValues: RDD[AnyVal] = meta.getTileType match {
-        case DataBuffer.TYPE_DOUBLE => {
-          var pixelValues = rdd.flatMap(U => {
-            getDoublePixelValues(RasterWritable.toRaster(U._2), b)
-          }).filter(value => {
-            !RasterMapOp.isNodata(value, nodata)
-          })
-          if (fraction.isDefined && fraction.get < 1.0f) {
-            pixelValues = pixelValues.sample(false, fraction.get)
-          }
-          pixelValues.sortBy(x => x).asInstanceOf[RDD[AnyVal]]
-        }
-        case DataBuffer.TYPE_FLOAT => {
-          var pixelValues = rdd.flatMap(U => {
-            getFloatPixelValues(RasterWritable.toRaster(U._2), b)
-          }).filter(value => {
-            !RasterMapOp.isNodata(value, nodata)
-          })
-          if (fraction.isDefined && fraction.get < 1.0f) {
-            pixelValues = pixelValues.sample(false, fraction.get)
-          }
-          pixelValues.sortBy(x => x).asInstanceOf[RDD[AnyVal]]
-        }
-        case (DataBuffer.TYPE_INT | DataBuffer.TYPE_USHORT) => {
-          var pixelValues = rdd.flatMap(U => {
-            getIntPixelValues(RasterWritable.toRaster(U._2), b)
-          }).filter(value => {
-            value != nodata.toInt
-          })
-          if (fraction.isDefined && fraction.get < 1.0f) {
-            pixelValues = pixelValues.sample(false, fraction.get)
-          }
-          pixelValues.sortBy(x => x).asInstanceOf[RDD[AnyVal]]
-        }
-        case DataBuffer.TYPE_SHORT => {
-          var pixelValues = rdd.flatMap(U => {
-            getShortPixelValues(RasterWritable.toRaster(U._2), b)
-          }).filter(value => {
-            value != nodata.toShort
-          })
-          if (fraction.isDefined && fraction.get < 1.0f) {
-            pixelValues = pixelValues.sample(false, fraction.get)
-          }
-          pixelValues.sortBy(x => x).asInstanceOf[RDD[AnyVal]]
-        }
-        case DataBuffer.TYPE_BYTE => {
-          var pixelValues = rdd.flatMap(U => {
-            getBytePixelValues(RasterWritable.toRaster(U._2), b)
-          }).filter(value => {
-            value != nodata.toByte
-          })
-          if (fraction.isDefined && fraction.get < 1.0f) {
-            pixelValues = pixelValues.sample(false, fraction.get)
-          }
-          pixelValues.sortBy(x => x).asInstanceOf[RDD[AnyVal]]
-        }
-      }
-      val count = sortedPixelValues.count()
-      if (count >= quantiles.length) {
-//        log.info("value count is " + count)
-        // Add an index to the sorted pixel values, but we want it as the key instead
-        // of the value.
-        val sortedWithIndexKey = sortedPixelValues.zipWithIndex().map(_.swap)
-        val quantileValues = new Array[Double](quantiles.length)
-        quantiles.zipWithIndex.foreach(q => {
-          val quantileKey: Long = (q._1 * count).ceil.toLong
-          val quantileValue = sortedWithIndexKey.lookup(quantileKey).head.toString.toDouble
-//          log.info("quantile " + q._1 + " is at index " + quantileKey + " and has value " + quantileValue)
-          quantileValues(q._2) = quantileValue
-        })
-//        if (log.isInfoEnabled) {
-//          log.info("Setting quantiles for band " + b + " to:")
-//          quantileValues.foreach(v => {
-//            log.info("  " + v)
-//          })
-//        }
-        result += quantileValues
-      }
-//      else {
-//        log.warn("Unable to compute quantiles because there are only " + count + " values")
-//      }
-      b += 1
-    }
-    result.toList
+    quantiles(sketch(rdd, meta, fraction), numberOfQuantiles)
   }
 
   override def setup(job: JobArguments): Boolean = {
@@ -264,6 +201,8 @@ class Quantiles extends MrGeoJob with Externalizable {
 
     classes += classOf[Array[Float]]
     classes += classOf[Array[Object]]
+    classes += classOf[QuantileSketch]
+    classes += classOf[Array[QuantileSketch]]
 
     classes.result()
   }
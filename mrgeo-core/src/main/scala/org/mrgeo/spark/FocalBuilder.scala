@@ -16,30 +16,141 @@
 
 package org.mrgeo.spark
 
-import java.awt.image.{Raster, WritableRaster}
+import java.awt.image.WritableRaster
 
-import org.apache.spark.rdd.{PairRDDFunctions, RDD}
+import org.apache.spark.rdd.{CoGroupedRDD, PairRDDFunctions, RDD}
 import org.apache.spark.{Logging, SparkContext}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.data.raster.{RasterTile, RasterUtils, RasterWritable}
+import org.mrgeo.data.rdd.TileSchema
 import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.utils.SparkUtils
 import org.mrgeo.utils.tms.{Tile, Bounds, TMSUtils}
 
 import scala.collection.mutable.ListBuffer
 
 object FocalBuilder extends Logging {
 
+  // Build tiles of (tilesize + 2 * bufferX) x (tilesize + 2 * bufferY) pixels, each holding a tile
+  // of the input surrounded by the pixels of its neighbors, filled with nodata where there are none.
   def create(tiles:RDD[(TileIdWritable, RasterWritable)],
       bufferX:Int, bufferY:Int, bounds:Bounds, zoom:Int, nodatas:Array[Number], context:SparkContext):RDD[(TileIdWritable, RasterWritable)] = {
+    val exchange = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_FOCAL_HALO_EXCHANGE,
+      MrGeoConstants.MRGEO_FOCAL_HALO_EXCHANGE_DEFAULT).toBoolean
+
+    if (exchange) {
+      createHalos(tiles, bufferX, bufferY, bounds, zoom, nodatas)
+    }
+    else {
+      createGrouped(tiles, bufferX, bufferY, bounds, zoom, nodatas, context)
+    }
+  }
+
+  // Halo exchange:  each tile only sends the strips of pixels that fall within its neighbors'
+  // halos, those are joined back with the tiles themselves, which, if the input has a partitioner,
+  // stay in place.
+  private def createHalos(tiles:RDD[(TileIdWritable, RasterWritable)],
+      bufferX:Int, bufferY:Int, bounds:Bounds, zoom:Int, nodatas:Array[Number]):RDD[(TileIdWritable, RasterWritable)] = {
+
+    val schema = TileSchema.of(tiles)
+    val tilesize = schema.tilesize
+
+    // number of neighbors on each side that contribute to a halo
+    val offsetX = (bufferX + tilesize - 1) / tilesize
+    val offsetY = (bufferY + tilesize - 1) / tilesize
 
-    val sample:Raster = RasterWritable.toRaster(tiles.first()._2)
+    val dstW = tilesize + bufferX * 2
+    val dstH = tilesize + bufferY * 2
+
+    val tb = TMSUtils.boundsToTile(bounds, zoom, tilesize)
+    val minX = tb.w
+    val minY = tb.s
+    val maxX = tb.e
+    val maxY = tb.n
+
+    val nodata = nodatas.map(_.doubleValue())
+
+    val strips = tiles.flatMap(tile => {
+      val pieces = ListBuffer[(TileIdWritable, (Int, Int, RasterTile))]()
+
+      // a nodata tile has nothing to add to its neighbors' halos, they start out as nodata
+      if (RasterWritable.isNodata(tile._2, nodata)) {
+        pieces.iterator
+      }
+      else {
+        val from = TMSUtils.tileid(tile._1.get(), zoom)
+        val src = RasterTile.fromWritable(tile._2)
+
+        // (dx, dy) is the position of this tile relative to the tile receiving the strip, y is north
+        var dy:Int = -offsetY
+        while (dy <= offsetY) {
+          var dx:Int = -offsetX
+          while (dx <= offsetX) {
+            val to = new Tile(from.tx - dx, from.ty - dy)
+            if ((dx != 0 || dy != 0) && to.ty >= minY && to.ty <= maxY && to.tx >= minX && to.tx <= maxX) {
+              // where this tile lands in the receiving tile, clipped to the halo
+              val left = bufferX + dx * tilesize
+              val top = bufferY - dy * tilesize
+
+              val x1 = Math.max(left, 0)
+              val x2 = Math.min(left + tilesize, dstW)
+              val y1 = Math.max(top, 0)
+              val y2 = Math.min(top + tilesize, dstH)
+
+              if (x1 < x2 && y1 < y2) {
+                val strip = RasterTile.createEmptyTile(x2 - x1, y2 - y1, src.getNumBands, src.getDatatype)
+                strip.copyRect(src, x1 - left, y1 - top, x2 - x1, y2 - y1, 0, 0)
+
+                pieces.append((new TileIdWritable(TMSUtils.tileid(to.tx, to.ty, zoom)), (x1, y1, strip)))
+              }
+            }
+            dx += 1
+          }
+          dy += 1
+        }
+        pieces.iterator
+      }
+    })
+
+    val partitioner = SparkUtils.joinPartitioner(Seq(tiles))
+    new CoGroupedRDD[TileIdWritable](Seq(tiles, strips), partitioner).mapPartitions(_.map(group => {
+      val center = group._2(0).asInstanceOf[Iterable[RasterWritable]]
+      val pieces = group._2(1).asInstanceOf[Iterable[(Int, Int, RasterTile)]]
+
+      if (pieces.isEmpty && RasterWritable.isNodata(center.head, nodata)) {
+        // nodata, with only nodata around it
+        (new TileIdWritable(group._1), RasterWritable.createConstant(dstW, dstH, nodata.length, schema.datatype,
+          nodata))
+      }
+      else {
+        // tiles without data of their own still get built when a neighbor has data
+        val src = if (center.nonEmpty) RasterTile.fromWritable(center.head) else pieces.head._3
+        val dst = RasterTile.createEmptyTile(dstW, dstH, src.getNumBands, src.getDatatype, nodata)
+
+        if (center.nonEmpty) {
+          dst.copyRect(src, 0, 0, tilesize, tilesize, bufferX, bufferY)
+        }
+        pieces.foreach(piece => {
+          val strip = piece._3
+          dst.copyRect(strip, 0, 0, strip.getWidth, strip.getHeight, piece._1, piece._2)
+        })
+
+        (new TileIdWritable(group._1), dst.toWritable)
+      }
+    }), preservesPartitioning = true)
+  }
+
+  // The original builder, every tile (and strip) is sent to each tile that needs it, then grouped
+  private def createGrouped(tiles:RDD[(TileIdWritable, RasterWritable)],
+      bufferX:Int, bufferY:Int, bounds:Bounds, zoom:Int, nodatas:Array[Number], context:SparkContext):RDD[(TileIdWritable, RasterWritable)] = {
 
-    val tilesize = sample.getWidth
+    val tilesize = TileSchema.of(tiles).tilesize
 
     val offsetX = (bufferX / tilesize) + 1
     val offsetY = (bufferY / tilesize) + 1
 
-    val dstW = sample.getWidth + bufferX * 2
-    val dstH = sample.getHeight + bufferY * 2
+    val dstW = tilesize + bufferX * 2
+    val dstH = tilesize + bufferY * 2
 
     val tb = TMSUtils.boundsToTile(bounds, zoom, tilesize)
     val minX = tb.w
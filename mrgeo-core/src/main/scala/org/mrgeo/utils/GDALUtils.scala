@@ -150,33 +150,55 @@ object GDALUtils extends Logging {
     null
   }
 
-  def toDataset(raster: Raster, nodata: Double = Double.NegativeInfinity,
-      bounds:Bounds = null): Dataset = {
-    val nodatas = if (nodata == Double.NegativeInfinity) null else Array.fill[Double](raster.getNumBands)(nodata)
-    toDataset(raster, nodatas, bounds)
-  }
+  // An empty, georeferenced GeoTIFF on disk, tiled in blocks of blocksize pixels so images made of
+  // tiles of that size are written a whole block at a time.  Nothing is held in memory but GDAL's
+  // block cache.
+  def createEmptyDiskRaster(file: String, width: Int, height: Int, bands: Int, datatype: Int,
+      nodatas: Array[Double], bounds: Bounds, blocksize: Int): Dataset = {
+    val driver: Driver = gdal.GetDriverByName("GTiff")
 
-  def toDataset(raster: Raster, nodatas: Array[Double],
-      bounds: Bounds): Dataset = {
-    val datatype = toGDALDataType(raster.getTransferType)
+    val options = Array("TILED=YES", "BLOCKXSIZE=" + blocksize, "BLOCKYSIZE=" + blocksize,
+      "INTERLEAVE=BAND", "COMPRESS=DEFLATE", "PREDICTOR=1", "ZLEVEL=6", "BIGTIFF=IF_SAFER")
 
-    val ds = GDALUtils.createEmptyMemoryRaster(raster.getWidth, raster.getHeight, raster.getNumBands, datatype, nodatas)
+    val pamEnabled = gdal.GetConfigOption(GDAL_PAM_ENABLED)
+    gdal.SetConfigOption(GDAL_PAM_ENABLED, "NO")
 
-    if (ds != null) {
-      copyToDataset(ds, raster)
+    val dataset = driver.Create(file, width, height, bands, datatype, options)
+
+    if (pamEnabled != null) {
+      gdal.SetConfigOption(GDAL_PAM_ENABLED, pamEnabled)
+    }
+
+    if (dataset == null) {
+      throw new GDALException("Error creating raster: " + file + "(" + gdal.GetLastErrorNo + ": " +
+          gdal.GetLastErrorType + ": " + gdal.GetLastErrorMsg + ")")
     }
 
+    if (nodatas != null) {
+      var i: Int = 1
+      while (i <= dataset.getRasterCount) {
+        val band: Band = dataset.GetRasterBand(i)
+        band.Fill(nodatas(i - 1))
+        band.SetNoDataValue(nodatas(i - 1))
+        i += 1
+      }
+    }
+
+    dataset.SetProjection(GDALUtils.EPSG4326)
+    dataset.SetGeoTransform(geoTransform(dataset, bounds))
+
+    dataset
+  }
+
+  def geoTransform(ds: Dataset, bounds: Bounds): Array[Double] = {
     val xform = new Array[Double](6)
     if (bounds != null) {
-
       xform(0) = bounds.w
       xform(1) = bounds.width / ds.getRasterXSize
       xform(2) = 0
       xform(3) = bounds.n
       xform(4) = 0
       xform(5) = -bounds.height / ds.getRasterYSize
-
-      ds.SetProjection(GDALUtils.EPSG4326)
     }
     else
     {
@@ -187,8 +209,30 @@ object GDALUtils extends Logging {
       xform(4) = 0
       xform(5) = -ds.getRasterYSize
     }
+    xform
+  }
+
+  def toDataset(raster: Raster, nodata: Double = Double.NegativeInfinity,
+      bounds:Bounds = null): Dataset = {
+    val nodatas = if (nodata == Double.NegativeInfinity) null else Array.fill[Double](raster.getNumBands)(nodata)
+    toDataset(raster, nodatas, bounds)
+  }
+
+  def toDataset(raster: Raster, nodatas: Array[Double],
+      bounds: Bounds): Dataset = {
+    val datatype = toGDALDataType(raster.getTransferType)
+
+    val ds = GDALUtils.createEmptyMemoryRaster(raster.getWidth, raster.getHeight, raster.getNumBands, datatype, nodatas)
+
+    if (ds != null) {
+      copyToDataset(ds, raster)
+    }
+
+    if (bounds != null) {
+      ds.SetProjection(GDALUtils.EPSG4326)
+    }
 
-    ds.SetGeoTransform(xform)
+    ds.SetGeoTransform(geoTransform(ds, bounds))
 
     ds
   }
@@ -424,6 +468,83 @@ object GDALUtils extends Logging {
     null
   }
 
+  /**
+    * Open an image so GDAL reads only the parts of it that are used, instead of loading the whole file
+    * into memory the way open() does for files that aren't local.  Remote images are read through
+    * GDAL's virtual file systems (/vsicurl/, /vsihdfs/, /vsis3/), which make range requests.  If GDAL
+    * can't read the image that way (e.g. it was built without HDFS support), the image is copied to local
+    * disk once, and every open in this JVM shares the copy.
+    */
+  def openRanged(imagename: String): Dataset = {
+    try {
+      val uri: URI = new URI(imagename)
+      logDebug("Loading image with GDAL (ranged): " + imagename)
+
+      val file: File = new File(uri.getPath)
+      if (uri.getScheme == null || uri.getScheme == "file") {
+        if (file.exists) {
+          val image = gdal.Open(file.getCanonicalPath)
+          if (image != null) {
+            return image
+          }
+        }
+      }
+      else {
+        val vsiname = uri.getScheme.toLowerCase match {
+        case "http" | "https" | "ftp" => Some("/vsicurl/" + imagename)
+        case "hdfs" => Some("/vsihdfs/" + imagename)
+        case "s3" | "s3a" | "s3n" => Some("/vsis3/" + uri.getHost + uri.getPath)
+        case _ => None
+        }
+
+        if (vsiname.isDefined) {
+          val image = gdal.Open(vsiname.get)
+          if (image != null) {
+            logDebug("  Image opened through " + vsiname.get)
+            return image
+          }
+        }
+      }
+
+      val image = gdal.Open(localCopy(new Path(uri)).getCanonicalPath)
+      if (image != null) {
+        return image
+      }
+
+      logInfo(
+        "Image not loaded, but unfortunately no exceptions were thrown, look for a logged explanation somewhere above")
+    }
+    catch {
+      case e: Exception => throw new GDALException("Error opening image file: " + imagename, e)
+    }
+
+    null
+  }
+
+  // local copies of remote images, by path, length and modification time, so a changed image is copied again
+  private val localCopies = collection.mutable.Map.empty[String, File]
+
+  private[utils] def localCopy(path: Path): File = {
+    val fs = HadoopFileUtils.getFileSystem(path)
+    val status = fs.getFileStatus(path)
+    val key = path.toString + ":" + status.getLen + ":" + status.getModificationTime
+
+    localCopies.synchronized {
+      localCopies.get(key) match {
+      case Some(copy) if copy.exists() => copy
+      case _ =>
+        val copy = File.createTempFile("gdal", "-" + path.getName)
+        copy.deleteOnExit()
+
+        logDebug("Copying " + path + " to " + copy + " for GDAL")
+        fs.copyToLocalFile(false, path, new Path(copy.toURI), true)
+
+        localCopies.put(key, copy)
+        copy
+      }
+    }
+  }
+
   def close(image: Dataset) {
     val files = image.GetFileList
 
@@ -509,33 +630,7 @@ object GDALUtils extends Logging {
 
     val dataset = raster match {
     case Left(r) =>
-      val ds = toDataset(r, nodata)
-
-      val xform = new Array[Double](6)
-
-      if (bounds != null) {
-        xform(0) = bounds.w
-        xform(1) = bounds.width / ds.getRasterXSize
-        xform(2) = 0
-        xform(3) = bounds.n
-        xform(4) = 0
-        xform(5) = -bounds.height / ds.getRasterYSize
-
-        ds.SetProjection(GDALUtils.EPSG4326)
-      }
-      else
-      {
-        xform(0) = 0
-        xform(1) = ds.getRasterXSize
-        xform(2) = 0
-        xform(3) = 0
-        xform(4) = 0
-        xform(5) = -ds.getRasterYSize
-      }
-
-      ds.SetGeoTransform(xform)
-
-      ds
+      toDataset(r, nodata, bounds)
     case Right(d) => d
     }
 
@@ -573,6 +668,13 @@ object GDALUtils extends Logging {
   }
 
   private def copyToDataset(ds: Dataset, raster: Raster) {
+    ds.SetProjection(GDALUtils.EPSG4326)
+
+    writeRaster(ds, raster, 0, 0)
+  }
+
+  // write the raster into the dataset, with its upper left pixel at x, y
+  def writeRaster(ds: Dataset, raster: Raster, x: Int, y: Int) {
     val datatype = GDALUtils.toGDALDataType(raster.getTransferType)
     val bands = raster.getNumBands
 
@@ -586,8 +688,6 @@ object GDALUtils extends Logging {
     val linestride = pixelstride * width
     val bandstride = pixelsize
 
-    ds.SetProjection(GDALUtils.EPSG4326)
-
     val imagesize = pixelsize.toLong * linestride * height
     if (imagesize < 2147483648L) {
       val elements = raster.getDataElements(raster.getMinX, raster.getMinY, raster.getWidth, raster.getHeight, null)
@@ -604,16 +704,16 @@ object GDALUtils extends Logging {
       }
 
       bytes.rewind()
-      ds.WriteRaster_Direct(0, 0, width, height, width, height, datatype, bytes, bandlist,
+      ds.WriteRaster_Direct(x, y, width, height, width, height, datatype, bytes, bandlist,
         pixelstride, linestride, bandstride)
     }
     else {
       val bytes: ByteBuffer = ByteBuffer.allocateDirect(linestride.toInt)
       bytes.order(ByteOrder.nativeOrder)
-      var y: Int = 0
-      while (y < height) {
+      var line: Int = 0
+      while (line < height) {
         bytes.rewind()
-        val elements: AnyRef = raster.getDataElements(raster.getMinX, raster.getMinY + y, raster.getWidth, 1, null)
+        val elements: AnyRef = raster.getDataElements(raster.getMinX, raster.getMinY + line, raster.getWidth, 1, null)
         elements match {
         case bb: Array[Byte] => bytes.put(bb)
         case sb: Array[Short] => bytes.asShortBuffer().put(sb)
@@ -621,9 +721,9 @@ object GDALUtils extends Logging {
         case fb: Array[Float] => bytes.asFloatBuffer().put(fb)
         case db: Array[Double] => bytes.asDoubleBuffer().put(db)
         }
-        ds.WriteRaster_Direct(0, y, width, 1, width, 1, datatype, bytes, bandlist, pixelstride, linestride,
+        ds.WriteRaster_Direct(x, y + line, width, 1, width, 1, datatype, bytes, bandlist, pixelstride, linestride,
           bandstride)
-        y += 1
+        line += 1
       }
     }
   }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.utils
+
+import org.apache.spark.{Accumulable, AccumulableParam}
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
+import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.hdfs.tile.FileSplit.FileSplitInfo
+import org.mrgeo.image.{ImageStats, ImageStatsAccumulator}
+
+import scala.collection.mutable
+
+// What one partition of a raster RDD held: tile count, tile id range and (when nodatas are given)
+// per-band stats.  Gathered as the tiles stream past on their way somewhere else (e.g. being
+// written), so a save doesn't need extra passes over the data to find them.
+@SerialVersionUID(-1)
+class PartitionSummary(val partition:Int, nodatas:Array[Double]) extends Serializable {
+  var count:Long = 0
+  var startId:Long = Long.MaxValue
+  var endId:Long = Long.MinValue
+
+  var stats:ImageStatsAccumulator = null
+
+  def add(id:Long, raster:RasterWritable):Unit = {
+    count += 1
+    startId = Math.min(startId, id)
+    endId = Math.max(endId, id)
+
+    if (nodatas != null) {
+      val tile = RasterTile.fromWritable(raster)
+      if (stats == null) {
+        stats = new ImageStatsAccumulator(tile.getNumBands, nodatas)
+      }
+      stats.add(tile)
+    }
+  }
+}
+
+object PartitionSummary {
+  type Summaries = mutable.HashMap[Int, PartitionSummary]
+
+  // Summaries are kept by partition, so a partition that is computed more than once (a retried
+  // task, or a sampling job before the write) is only counted once
+  private class SummaryParam extends AccumulableParam[Summaries, PartitionSummary] {
+    override def addAccumulator(summaries:Summaries, summary:PartitionSummary):Summaries = {
+      summaries.put(summary.partition, summary)
+      summaries
+    }
+
+    override def addInPlace(s1:Summaries, s2:Summaries):Summaries = {
+      s1 ++= s2
+      s1
+    }
+
+    override def zero(initial:Summaries):Summaries = new Summaries
+  }
+
+  // Wrap rdd so each partition reports its summary once it has been read to the end.  Pass
+  // nodatas to also gather the stats.  The summaries are available after an action has read
+  // every partition of the returned RDD.
+  def summarize(rdd:RasterRDD,
+      nodatas:Array[Double] = null):(RasterRDD, Accumulable[Summaries, PartitionSummary]) = {
+    val summaries = rdd.context.accumulable(new Summaries)(new SummaryParam)
+
+    val summarized = rdd.mapPartitionsWithIndex((partition, iter) => {
+      val summary = new PartitionSummary(partition, nodatas)
+      var reported = false
+
+      new Iterator[(TileIdWritable, RasterWritable)] {
+        override def hasNext:Boolean = {
+          val more = iter.hasNext
+          if (!more && !reported) {
+            summaries += summary
+            reported = true
+          }
+          more
+        }
+
+        override def next():(TileIdWritable, RasterWritable) = {
+          val tile = iter.next()
+          summary.add(tile._1.get(), tile._2)
+          tile
+        }
+      }
+    }, preservesPartitioning = true)
+
+    (RasterRDD(summarized), summaries)
+  }
+
+  type Counts = mutable.HashMap[Int, Long]
+
+  // Counts are kept by partition too, for the same reason
+  private class CountParam extends AccumulableParam[Counts, (Int, Long)] {
+    override def addAccumulator(counts:Counts, count:(Int, Long)):Counts = {
+      counts.put(count._1, count._2)
+      counts
+    }
+
+    override def addInPlace(c1:Counts, c2:Counts):Counts = {
+      c1 ++= c2
+      c1
+    }
+
+    override def zero(initial:Counts):Counts = new Counts
+  }
+
+  // Filter rdd, counting the tiles each partition drops.  Like the summaries, a partition's count
+  // is reported once it has been read to the end, and replaces any earlier count, so it's right
+  // however many times the RDD is computed.  See dropped() for the total.
+  def filter(rdd:RasterRDD, keep:RasterWritable => Boolean):(RasterRDD, Accumulable[Counts, (Int, Long)]) = {
+    val counts = rdd.context.accumulable(new Counts)(new CountParam)
+
+    val filtered = rdd.mapPartitionsWithIndex((ndx, iter) => {
+      var dropped = 0L
+      var reported = false
+
+      iter.filter(tile => {
+        val kept = keep(tile._2)
+        if (!kept) {
+          dropped += 1
+        }
+        kept
+      }) ++ new Iterator[(TileIdWritable, RasterWritable)] {
+        // report once the last tile has been filtered
+        override def hasNext:Boolean = {
+          if (!reported) {
+            counts += ((ndx, dropped))
+            reported = true
+          }
+          false
+        }
+
+        override def next():(TileIdWritable, RasterWritable) = throw new NoSuchElementException
+      }
+    }, preservesPartitioning = true)
+
+    (RasterRDD(filtered), counts)
+  }
+
+  // The total count of the tiles filter() dropped
+  def dropped(counts:Accumulable[Counts, (Int, Long)]):Long = {
+    counts.value.values.sum
+  }
+
+  // The summaries in partition order, or None if not every partition has reported (e.g. the
+  // action didn't read all of them)
+  def collect(summaries:Accumulable[Summaries, PartitionSummary], partitions:Int):Option[Array[PartitionSummary]] = {
+    val value = summaries.value
+    if (value.size != partitions || !(0 until partitions).forall(value.contains)) {
+      None
+    }
+    else {
+      Some((0 until partitions).map(value(_)).toArray)
+    }
+  }
+
+  // the combined stats, the same as SparkUtils.calculateStats() would return
+  def combineStats(summaries:Array[PartitionSummary], bands:Int):Array[ImageStats] = {
+    val stats = new ImageStatsAccumulator(bands, Array.fill[Double](bands)(Double.NaN))
+    summaries.foreach(summary => {
+      if (summary.stats != null) {
+        stats.merge(summary.stats)
+      }
+    })
+
+    stats.toImageStats
+  }
+
+  // the split of each partition that has tiles, as FileSplit.generateSplits() finds them in the
+  // written files
+  def splits(summaries:Array[PartitionSummary]):Array[FileSplitInfo] = {
+    summaries.filter(_.count > 0).map(summary => new FileSplitInfo(summary.startId, summary.endId,
+      f"part-r-${summary.partition}%05d", summary.partition))
+  }
+}
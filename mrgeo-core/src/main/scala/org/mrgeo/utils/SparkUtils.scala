@@ -16,7 +16,6 @@
 
 package org.mrgeo.utils
 
-import java.awt.image.Raster
 import java.io.{File, FileInputStream, IOException, InputStreamReader}
 import java.net.URL
 import java.util.Properties
@@ -25,13 +24,16 @@ import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.mapreduce.Job
 import org.apache.spark._
 import org.apache.spark.rdd.RDD
-import org.mrgeo.data.image.{ImageInputFormatContext, ImageOutputFormatContext, MrsImageDataProvider}
-import org.mrgeo.data.raster.RasterWritable
-import org.mrgeo.data.rdd.{AutoPersister, RasterRDD}
+import org.gdal.gdal.Dataset
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.data.image.{ImageInputFormatContext, ImageOutputFormatContext, MrsImageDataProvider, MrsImageTileCache}
+import org.mrgeo.data.raster.{RasterCodec, RasterUtils, RasterWritable}
+import org.mrgeo.data.rdd.{AutoPersister, RasterRDD, TileRangePartitioner, TileSchema}
 import org.mrgeo.data.tile._
 import org.mrgeo.data.{DataProviderFactory, MrsPyramidInputFormat, ProviderProperties}
 import org.mrgeo.hdfs.tile.FileSplit.FileSplitInfo
-import org.mrgeo.image.{ImageStats, MrsPyramid, MrsPyramidMetadata}
+import org.mrgeo.image.{ImageStats, ImageStatsAccumulator, MrsPyramid, MrsPyramidMetadata}
+import org.mrgeo.mapreduce.splitters.{MrsPyramidInputSplit, TiledInputSplit}
 import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.tms.{Pixel, Bounds, TMSUtils}
 
@@ -302,10 +304,7 @@ object SparkUtils extends Logging {
 
     log.info("Loading MrsPyramid " + provider.getResourceName)
 
-    RasterRDD(context.newAPIHadoopRDD(job.getConfiguration,
-      classOf[MrsPyramidInputFormat],
-      classOf[TileIdWritable],
-      classOf[RasterWritable]))
+    loadMrsPyramid(job, context, metadata)
 
     //        FileInputFormat.addInputPath(job, new Path(provider.getResourceName, zoom.toString))
     //        FileInputFormat.setInputPathFilter(job, classOf[MapFileFilter])
@@ -340,10 +339,7 @@ object SparkUtils extends Logging {
 
     //    log.warn("Running loadPyramid with configuration " + job.getConfiguration + " with input format " +
     //      inputFormatClass.getName)
-    RasterRDD(context.newAPIHadoopRDD(job.getConfiguration,
-      classOf[MrsPyramidInputFormat],
-      classOf[TileIdWritable],
-      classOf[RasterWritable]))
+    loadMrsPyramid(job, context, metadata)
 
     //        FileInputFormat.addInputPath(job, new Path(provider.getResourceName, zoom.toString))
     //        FileInputFormat.setInputPathFilter(job, classOf[MapFileFilter])
@@ -354,6 +350,56 @@ object SparkUtils extends Logging {
     //          classOf[RasterWritable])
   }
 
+  // The tiles in each partition of a pyramid are a contiguous tile id range, given by the input
+  // split.  We attach a partitioner describing those ranges, so joining pyramids that were written
+  // with the same splits doesn't need a shuffle.  The tile schema comes from the metadata.
+  private def loadMrsPyramid(job: Job, context: SparkContext, metadata: MrsPyramidMetadata): RasterRDD = {
+    val rdd = context.newAPIHadoopRDD(job.getConfiguration,
+      classOf[MrsPyramidInputFormat],
+      classOf[TileIdWritable],
+      classOf[RasterWritable])
+
+    val loaded = splitPartitioner(job) match {
+    case Some(partitioner) if partitioner.numPartitions == rdd.partitions.length =>
+      RasterRDD(rdd, partitioner)
+    case _ =>
+      RasterRDD(rdd)
+    }
+
+    loaded.withSchema(TileSchema.fromMetadata(metadata))
+  }
+
+  private def splitPartitioner(job: Job): Option[TileRangePartitioner] = {
+    try {
+      // this is the same call the hadoop rdd makes to get its partitions, so the order matches
+      val splits = new MrsPyramidInputFormat().getSplits(job).map {
+        case split: MrsPyramidInputSplit => split.getWrappedSplit
+        case split: TiledInputSplit => split
+        case _ => return None
+      }
+
+      TileRangePartitioner.fromSplits(splits)
+    }
+    catch {
+      case e @ (_: IOException | _: InterruptedException) =>
+        logWarning("Can't calculate the partitioner for the input splits: " + e.getMessage)
+        None
+    }
+  }
+
+  // The partitioner to join (cogroup) the rdds with.  If all the rdds share the same partitioner,
+  // e.g. pyramids written with the same splits, that one is used, which makes the join narrow (no
+  // shuffle).  Otherwise, we use a hash partitioner with the largest number of partitions.
+  def joinPartitioner(rdds: Seq[RDD[_]]): Partitioner = {
+    rdds.head.partitioner match {
+    case Some(partitioner) if rdds.forall(_.partitioner == Some(partitioner)) =>
+      logInfo("Inputs are co-partitioned, joining without a shuffle")
+      partitioner
+    case _ =>
+      new HashPartitioner(rdds.map(_.partitions.length).max)
+    }
+  }
+
   def loadMrsPyramid(imageName: String, context: SparkContext): RasterRDD = {
     val providerProps: ProviderProperties = null
     val dp: MrsImageDataProvider = DataProviderFactory.getMrsImageDataProvider(imageName,
@@ -443,10 +489,10 @@ object SparkUtils extends Logging {
     val bounds = metadata.getBounds
 
     if (metadata.getBands <= 0 || metadata.getTileType <= 0) {
-      val tile = RasterWritable.toRaster(tiles.first()._2)
+      val schema = TileSchema.of(tiles)
 
-      metadata.setBands(tile.getNumBands)
-      metadata.setTileType(tile.getTransferType)
+      metadata.setBands(schema.bands)
+      metadata.setTileType(schema.datatype)
     }
 
     metadata.setName(zoom, zoom.toString)
@@ -454,18 +500,76 @@ object SparkUtils extends Logging {
 
     val bands = metadata.getBands
 
-    val stats = SparkUtils.calculateStats(tiles, bands, metadata.getDefaultValues)
+    // a pyramid keeps the codec it was made with (so the levels of a pyramid match), new ones
+    // use the configured codec
+    val codec = Option(metadata.getTileCodec).getOrElse(MrGeoProperties.getInstance().getProperty(
+      MrGeoConstants.MRGEO_TILE_CODEC, MrGeoConstants.MRGEO_TILE_CODEC_DEFAULT))
+    metadata.setTileCodec(Option(RasterCodec.get(codec)).map(_.getName).orNull)
+
+    val saveconf = new Configuration(conf)
+    saveconf.set(MrGeoConstants.MRGEO_TILE_CODEC, codec)
+
+    // nodata tiles needn't be written, a missing tile reads as nodata
+    val dropNodata = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_SAVE_DROP_NODATA_TILES,
+      MrGeoConstants.MRGEO_SAVE_DROP_NODATA_TILES_DEFAULT).toBoolean
+    val (kept, dropped) = if (dropNodata) {
+      val nodatas = metadata.getDefaultValues
+      // counted by partition, the tiles may be computed more than once (stats, sampling, the write)
+      val (filtered, counts) = PartitionSummary.filter(tiles,
+        tile => !RasterWritable.isNodata(RasterWritable.compact(tile), nodatas))
+      (filtered, Some(counts))
+    }
+    else {
+      (tiles, None)
+    }
+
+    // without a codec, tiles are written in the plain layout, constant tiles included
+    val written = if (RasterCodec.get(codec) == null) {
+      RasterRDD(kept.mapValues(tile => RasterCodec.plain(tile))).withSchema(tiles.schema())
+    }
+    else {
+      kept.withSchema(tiles.schema())
+    }
+
+    val singlepass = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_SAVE_SINGLE_PASS,
+      MrGeoConstants.MRGEO_SAVE_SINGLE_PASS_DEFAULT).toBoolean
 
     val tofc = new ImageOutputFormatContext(output, bounds, zoom, tilesize,
       metadata.getProtectionLevel, metadata.getTileType, bands)
     val tofp = outputProvider.getTiledOutputFormatProvider(tofc)
 
-    tofp.save(tiles, conf)
+    val stats = if (singlepass) {
+      // gather the stats as the tiles are written, instead of in a pass of their own
+      val (summarized, summaries) = PartitionSummary.summarize(written, metadata.getDefaultValues)
+
+      tofp.save(summarized, saveconf)
+
+      PartitionSummary.collect(summaries, summarized.partitions.length) match {
+      case Some(parts) => PartitionSummary.combineStats(parts, bands)
+      case _ =>
+        logInfo("Not every partition was summarized while saving " + output + ", calculating the stats")
+        SparkUtils.calculateStats(written, bands, metadata.getDefaultValues)
+      }
+    }
+    else {
+      val stats = SparkUtils.calculateStats(written, bands, metadata.getDefaultValues)
+      tofp.save(written, saveconf)
+      stats
+    }
+
+    dropped.foreach(counts => {
+      val total = PartitionSummary.dropped(counts)
+      logInfo("Dropped " + total + " nodata tiles while saving " + output)
+      metadata.setNodataTilesDropped(zoom, total)
+    })
 
     // calculate and save metadata
     MrsPyramid.calculateMetadata(zoom, outputProvider, stats,
       metadata)
 
+    // any tiles of an earlier image with this name are stale now
+    MrsImageTileCache.getInstance.invalidate(outputProvider)
+
     AutoPersister.decrementRef(tiles)
   }
 
@@ -479,65 +583,12 @@ object SparkUtils extends Logging {
   def calculateStats(rdd: RasterRDD, bands: Int,
       nodata: Array[Number]): Array[ImageStats] = {
 
-    val zero = Array.ofDim[ImageStats](bands)
-
-    for (i <- zero.indices) {
-      zero(i) = new ImageStats(Double.MaxValue, Double.MinValue, 0, 0)
-    }
-
-    val stats = rdd.aggregate(zero)((stats, t) => {
-      val tile = RasterWritable.toRaster(t._2)
-
-      var y: Int = 0
-      while (y < tile.getHeight) {
-        var x: Int = 0
-        while (x < tile.getWidth) {
-          var b: Int = 0
-          while (b < tile.getNumBands) {
-            val p = tile.getSampleDouble(x, y, b)
-            if (nodata(b).doubleValue().isNaN) {
-              if (!p.isNaN) {
-                stats(b).count += 1
-                stats(b).sum += p
-                stats(b).max = Math.max(stats(b).max, p)
-                stats(b).min = Math.min(stats(b).min, p)
-              }
-            }
-            else if (p != nodata(b).doubleValue()) {
-              stats(b).count += 1
-              stats(b).sum += p
-              stats(b).max = Math.max(stats(b).max, p)
-              stats(b).min = Math.min(stats(b).min, p)
-            }
-            b += 1
-          }
-          x += 1
-        }
-        y += 1
-      }
+    val zero = ImageStatsAccumulator.fromNumbers(bands, nodata)
 
+    rdd.aggregate(zero)((stats, t) => {
+      stats.add(t._2)
       stats
-    },
-      (stat1, stat2) => {
-        val aggstat = stat1.clone()
-
-        for (b <- aggstat.indices) {
-          aggstat(b).count += stat2(b).count
-          aggstat(b).sum += stat2(b).sum
-          aggstat(b).max = Math.max(aggstat(b).max, stat2(b).max)
-          aggstat(b).min = Math.min(aggstat(b).min, stat2(b).min)
-        }
-
-        aggstat
-      })
-
-    for (i <- stats.indices) {
-      if (stats(i).count > 0) {
-        stats(i).mean = stats(i).sum / stats(i).count
-      }
-    }
-
-    stats
+    }, (stat1, stat2) => stat1.merge(stat2)).toImageStats
   }
 
   def calculateBounds(rdd: RasterRDD, zoom: Int, tilesize: Int): Bounds = {
@@ -584,11 +635,9 @@ object SparkUtils extends Logging {
 
     log.debug("w: {} h: {}", width, height)
 
-    val sample = RasterWritable.toRaster(rdd.first()._2)
+    val schema = TileSchema.of(rdd)
 
-    val model = sample.getSampleModel.createCompatibleSampleModel(width, height)
-
-    val merged = Raster.createWritableRaster(model, null)
+    val merged = RasterUtils.createEmptyRaster(width, height, schema.bands, schema.datatype)
 
     // Initialize the full raster to the default values for the image
     if (nodatas != null && nodatas.length > 0)
@@ -646,17 +695,111 @@ object SparkUtils extends Logging {
     }
   }
 
-  def calculateBoundsAndStats(rdd: RasterRDD, bands: Int, zoom: Int, tilesize: Int,
-      nodata: Array[Number]): (Bounds, Array[ImageStats]) = {
-    val zero = Array.ofDim[ImageStats](bands)
+  /**
+    * Export the tiles to an image file.  Instead of merging them into one raster on the driver
+    * (see mergeTiles()), the tiles are written into a GeoTIFF, tiled in blocks of the tile size,
+    * as they arrive on the driver, a partition at a time.  The driver only ever holds a partition
+    * of tiles, no matter how large the image.  Formats GDAL can't write a block at a time (e.g.
+    * png, jpg) are copied, by GDAL, from a temporary GeoTIFF.
+    */
+  def exportTiles(rdd: RasterRDD, zoom:Int, tilesize:Int, nodatas:Array[Double], output:String, format:String,
+      bounds:Bounds = null):Unit = {
+    val bnds = if (bounds != null) bounds else calculateBounds(rdd, zoom, tilesize)
+    val schema = TileSchema.of(rdd)
+
+    val geotiff = format.toLowerCase match {
+    case "tif" | "tiff" | "geotif" | "geotiff" | "gtif" | "gtiff" => true
+    case _ => false
+    }
+
+    val file = if (geotiff) output else File.createTempFile("export", ".tif").getCanonicalPath
 
-    for (i <- zero.indices) {
-      zero(i) = new ImageStats(Double.MaxValue, Double.MinValue, 0, 0)
+    val (ul, width, height) = exportWindow(bnds, zoom, tilesize)
+    val ds = GDALUtils.createEmptyDiskRaster(file, width, height, schema.bands,
+      GDALUtils.toGDALDataType(schema.datatype), nodatas, bnds, tilesize)
+
+    try {
+      streamTiles(rdd, zoom, tilesize, ul, ds)
+
+      if (!geotiff) {
+        GDALUtils.saveRaster(Right(ds), Left(output), format = format)
+      }
+    }
+    finally {
+      ds.delete()
+      if (!geotiff && !new File(file).delete()) {
+        logWarning("Unable to delete temporary export file " + file)
+      }
     }
+  }
+
+  // Export the tiles to an in-memory image, streamed in the same way as exportTiles()
+  def exportTiles(rdd: RasterRDD, zoom:Int, tilesize:Int, nodatas:Array[Double], bounds:Bounds):Dataset = {
+    val bnds = if (bounds != null) bounds else calculateBounds(rdd, zoom, tilesize)
+    val schema = TileSchema.of(rdd)
+
+    val (ul, width, height) = exportWindow(bnds, zoom, tilesize)
+    val ds = GDALUtils.createEmptyMemoryRaster(width, height, schema.bands,
+      GDALUtils.toGDALDataType(schema.datatype), nodatas)
+
+    ds.SetProjection(GDALUtils.EPSG4326)
+    ds.SetGeoTransform(GDALUtils.geoTransform(ds, bnds))
+
+    streamTiles(rdd, zoom, tilesize, ul, ds)
+
+    ds
+  }
+
+  // the upper left pixel and the size of the image covering the bounds
+  private def exportWindow(bounds:Bounds, zoom:Int, tilesize:Int):(Pixel, Int, Int) = {
+    val ul = TMSUtils.latLonToPixelsUL(bounds.n, bounds.w, zoom, tilesize)
+    val lr = TMSUtils.latLonToPixelsUL(bounds.s, bounds.e, zoom, tilesize)
+
+    (ul, (lr.px - ul.px).toInt, (lr.py - ul.py).toInt)
+  }
+
+  // write each tile, clipped to the image, into the dataset as it comes back from the cluster
+  private def streamTiles(rdd: RasterRDD, zoom:Int, tilesize:Int, ul:Pixel, ds:Dataset):Unit = {
+    val width = ds.getRasterXSize
+    val height = ds.getRasterYSize
+
+    var count = 0L
+    rdd.toLocalIterator.foreach(tile => {
+      val id = TMSUtils.tileid(tile._1.get, zoom)
+      val tb = TMSUtils.tileBounds(id.tx, id.ty, zoom, tilesize)
+      val start = TMSUtils.latLonToPixelsUL(tb.n, tb.w, zoom, tilesize)
+
+      val x = (start.px - ul.px).toInt
+      val y = (start.py - ul.py).toInt
+
+      val x1 = Math.max(x, 0)
+      val y1 = Math.max(y, 0)
+      val x2 = Math.min(x + tilesize, width)
+      val y2 = Math.min(y + tilesize, height)
+
+      if (x2 > x1 && y2 > y1) {
+        val raster = RasterWritable.toRaster(tile._2)
+        val clipped = if (x1 == x && y1 == y && x2 - x1 == raster.getWidth && y2 - y1 == raster.getHeight) {
+          raster
+        }
+        else {
+          raster.createChild(x1 - x, y1 - y, x2 - x1, y2 - y1, 0, 0, null)
+        }
+
+        GDALUtils.writeRaster(ds, clipped, x1, y1)
+        count += 1
+      }
+    })
+
+    ds.FlushCache()
+    logInfo("Exported " + count + " tiles into a " + width + "x" + height + " image")
+  }
+
+  def calculateBoundsAndStats(rdd: RasterRDD, bands: Int, zoom: Int, tilesize: Int,
+      nodata: Array[Number]): (Bounds, Array[ImageStats]) = {
+    val zero = ImageStatsAccumulator.fromNumbers(bands, nodata)
 
     val result = rdd.aggregate((null.asInstanceOf[Bounds], zero))((entry, t) => {
-      val bounds = entry._1
-      val stats = entry._2
       val tile = TMSUtils.tileid(t._1.get, zoom)
 
       // Handle the bounds
@@ -668,59 +811,24 @@ object SparkUtils extends Logging {
       }
 
       // Handle the stats
-      val raster = RasterWritable.toRaster(t._2)
-
-      for (y <- 0 until raster.getHeight) {
-        for (x <- 0 until raster.getWidth) {
-          for (b <- 0 until raster.getNumBands) {
-            val p = raster.getSampleDouble(x, y, b)
-            if (nodata(b).doubleValue().isNaN) {
-              if (!p.isNaN) {
-                stats(b).count += 1
-                stats(b).sum += p
-                stats(b).max = Math.max(stats(b).max, p)
-                stats(b).min = Math.min(stats(b).min, p)
-              }
-            }
-            else if (p != nodata(b).doubleValue()) {
-              stats(b).count += 1
-              stats(b).sum += p
-              stats(b).max = Math.max(stats(b).max, p)
-              stats(b).min = Math.min(stats(b).min, p)
-            }
-          }
-        }
-      }
+      entry._2.add(t._2)
 
-      (tb, stats)
+      (tb, entry._2)
     },
       (result1, result2) => {
         // combine the bounds
-        if (result1._1 == null) {
+        val bounds = if (result1._1 == null) {
           result2._1
         }
         else {
           result1._1.expand(result2._1)
         }
-        // combine the stats
-        val aggstat = result1._2.clone()
 
-        for (b <- aggstat.indices) {
-          aggstat(b).count += result2._2(b).count
-          aggstat(b).sum += result2._2(b).sum
-          aggstat(b).max = Math.max(aggstat(b).max, result2._2(b).max)
-          aggstat(b).min = Math.min(aggstat(b).min, result2._2(b).min)
-        }
-
-        result1
+        // combine the stats
+        (bounds, result1._2.merge(result2._2))
       })
-    for (i <- result._2.indices) {
-      if (result._2(i).count > 0) {
-        result._2(i).mean = result._2(i).sum / result._2(i).count
-      }
-    }
 
-    result
+    (result._1, result._2.toImageStats)
   }
 
   @deprecated("Use RasterRDD method instead", "")
@@ -762,10 +870,7 @@ object SparkUtils extends Logging {
   }
 
   def calculateMetadata(rdd:RasterRDD, zoom:Int, nodata:Double, calcStats:Boolean, bounds:Bounds):MrsPyramidMetadata = {
-    val first = rdd.first()
-    val raster = RasterWritable.toRaster(first._2)
-
-    val nodatas = Array.fill[Double](raster.getNumBands)(nodata)
+    val nodatas = Array.fill[Double](TileSchema.of(rdd).bands)(nodata)
     calculateMetadata(rdd, zoom, nodatas, calcStats, bounds)
   }
 
@@ -778,17 +883,20 @@ object SparkUtils extends Logging {
     meta.setName(zoom)
     meta.setMaxZoomLevel(zoom)
 
-    val first = rdd.first()
-    val raster = RasterWritable.toRaster(first._2)
+    // the schema the rdd carries, so only an rdd without one is read
+    val schema = TileSchema.of(rdd)
 
-    meta.setBands(raster.getNumBands)
-    meta.setTileType(raster.getTransferType)
+    meta.setBands(schema.bands)
+    meta.setTileType(schema.datatype)
 
-    val tilesize = raster.getWidth
+    val tilesize = schema.tilesize
     meta.setTilesize(tilesize)
 
     meta.setDefaultValues(nodatas)
 
+    // from here on, the rdd's nodata is the one given
+    rdd.withSchema(TileSchema(schema.bands, schema.datatype, tilesize, meta.getDefaultValues))
+
     val bnds = if (bounds == null) {
       calculateBounds(rdd, zoom, tilesize)
     }
@@ -16,6 +16,8 @@
 
 package org.mrgeo.utils
 
+import java.util
+
 import org.apache.hadoop.mapreduce.Job
 import org.apache.spark.SparkContext
 import org.apache.spark.storage.StorageLevel
@@ -23,6 +25,7 @@ import org.mrgeo.data.rdd.VectorRDD
 import org.mrgeo.data.vector._
 import org.mrgeo.data.{DataProviderFactory, ProviderProperties}
 import org.mrgeo.geometry.Geometry
+import org.mrgeo.hdfs.vector.{CsvOutputFormat, DelimitedVectorOutputFormatProvider}
 import org.mrgeo.utils.tms.Bounds
 
 import scala.collection.JavaConversions._
@@ -38,9 +41,16 @@ object SparkVectorUtils
   }
 
   def loadVectorRDD(provider:VectorDataProvider, context: SparkContext): VectorRDD = {
+    loadVectorRDD(provider, null, context)
+  }
+
+  // only the features that intersect the bounds, a spatial index lets the input format skip
+  // the splits without any
+  def loadVectorRDD(provider:VectorDataProvider, bounds:Bounds, context: SparkContext): VectorRDD = {
     //    val conf1 = provider.setupOutput(context.hadoopConfiguration)
     val inputs = Set(provider.getPrefixedResourceName)
     val vifc = new VectorInputFormatContext(inputs, provider.getProviderProperties)
+    vifc.setBounds(bounds)
     val vfp = provider.getVectorInputFormatProvider(vifc)
     val job = Job.getInstance(context.hadoopConfiguration)
     val conf2 = vfp.setupJob(job, provider.getProviderProperties)
@@ -77,26 +87,49 @@ object SparkVectorUtils
 
     features.persist(StorageLevel.MEMORY_AND_DISK_SER)
 
-    //    val output = outputProvider.getResourceName
-    //    val tofc = new VectorOutputFormatContext(output)
-    //    val tofp = outputProvider.getVectorOutputFormatProvider(tofc)
-    //    val job = Job.getInstance(context.hadoopConfiguration)
-    //    tofp.setupJob(job)
-
-    //    println("Num features: " + features.count())
-    //    features.saveAsNewAPIHadoopDataset(job.getConfiguration)
-    val writer = outputProvider.getVectorWriter
-    try {
-      // TODO: The following call to collect introduces a limitation on how much
-      // vector data can be saved because all the data will have to be brought
-      // back to this node, and thus it must fit into memory. However, for current
-      // requirements regarding vector data output, this is acceptable.
-      features.collect.foreach(U => {
-        writer.append(U._1, U._2)
-      })
-    } finally {
-      writer.close()
+    val tofc = new VectorOutputFormatContext(outputProvider.getResourceName)
+    val tofp = outputProvider.getVectorOutputFormatProvider(tofc)
+
+    if (tofp != null) {
+      // each partition writes its own part, and the output committer moves them all into place
+      // when the job succeeds
+      val job = Job.getInstance(context.hadoopConfiguration)
+      tofp.setupJob(job)
+
+      tofp match {
+      case _:DelimitedVectorOutputFormatProvider =>
+        // every part needs the same columns, in the same order
+        CsvOutputFormat.setColumns(job, attributes(features))
+      case _ =>
+      }
+
+      features.saveAsNewAPIHadoopDataset(job.getConfiguration)
+      tofp.teardown(job)
+    }
+    else {
+      // no output format for this provider, stream the features through this node, a
+      // partition at a time
+      val writer = outputProvider.getVectorWriter
+      try {
+        features.toLocalIterator.foreach(U => {
+          writer.append(U._1, U._2)
+        })
+      } finally {
+        writer.close()
+      }
     }
     features.unpersist()
   }
+
+  // the names of all the attributes of all the features, sorted
+  private def attributes(features: VectorRDD): util.Collection[String] = {
+    features.aggregate(new util.TreeSet[String]())((names, feature) => {
+      names.addAll(feature._2.getAllAttributesSorted.keySet())
+      names
+    },
+      (n1, n2) => {
+        n1.addAll(n2)
+        n1
+      })
+  }
 }
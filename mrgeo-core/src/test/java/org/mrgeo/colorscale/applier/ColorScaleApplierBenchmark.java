@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.colorscale.applier;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.colorscale.ColorScale;
+import org.mrgeo.data.raster.RasterUtils;
+import org.mrgeo.junit.Benchmark;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+/**
+ * Micro-benchmark of the per-tile throughput of ColorScaleApplier.apply(), against a lookup and
+ * setSample() for every pixel.  Not part of the unit tests, run it with the benchmark profile:
+ *
+ *   mvn -Pbenchmark test -Dtest=ColorScaleApplierBenchmark [-Dbenchmark.tilesize=512] [-Dbenchmark.iterations=50]
+ */
+@SuppressWarnings("static-method")
+public class ColorScaleApplierBenchmark
+{
+@Test
+@Category(Benchmark.class)
+public void apply()
+{
+  int tilesize = Integer.getInteger("benchmark.tilesize", 512);
+  int iterations = Integer.getInteger("benchmark.iterations", 50);
+
+  for (int type : new int[]{DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_FLOAT})
+  {
+    Random random = new Random(1);
+    WritableRaster source = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, type);
+    for (int y = 0; y < tilesize; y++)
+    {
+      for (int x = 0; x < tilesize; x++)
+      {
+        source.setSample(x, y, 0, random.nextDouble() * 255);
+      }
+    }
+
+    ColorScale cs = ColorScale.createDefault();
+    cs.setScaleRange(0, 255);
+    cs.setTransparent(-9999);
+
+    WritableRaster dest = RasterUtils.createAGBRRaster(tilesize, tilesize);
+
+    // warm up
+    for (int i = 0; i < 5; i++)
+    {
+      perPixel(source, dest, cs);
+      ColorScaleApplier.apply(source, dest, cs);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      perPixel(source, dest, cs);
+    }
+    long pixel = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      ColorScaleApplier.apply(source, dest, cs);
+    }
+    long applied = System.nanoTime() - start;
+
+    System.out.println(String.format("type %d, %dx%d: per pixel %.2f ms/tile, apply %.2f ms/tile (%.1f Mpixel/s)",
+        type, tilesize, tilesize, pixel / 1e6 / iterations, applied / 1e6 / iterations,
+        (double) tilesize * tilesize * iterations / (applied / 1e9) / 1e6));
+  }
+}
+
+private static void perPixel(WritableRaster source, WritableRaster dest, ColorScale cs)
+{
+  for (int y = 0; y < source.getHeight(); y++)
+  {
+    for (int x = 0; x < source.getWidth(); x++)
+    {
+      int[] color = cs.lookup(source.getSampleDouble(x, y, 0));
+      for (int b = 0; b < 4; b++)
+      {
+        dest.setSample(x, y, b, color[b]);
+      }
+    }
+  }
+}
+}
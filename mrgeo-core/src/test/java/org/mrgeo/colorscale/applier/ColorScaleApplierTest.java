@@ -0,0 +1,146 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.colorscale.applier;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.colorscale.ColorScale;
+import org.mrgeo.data.raster.RasterUtils;
+import org.mrgeo.junit.UnitTest;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+@SuppressWarnings("static-method")
+public class ColorScaleApplierTest
+{
+  private static final int SIZE = 300;
+
+  @Test
+  @Category(UnitTest.class)
+  public void applyByte()
+  {
+    check(DataBuffer.TYPE_BYTE, 0, 255, 10);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void applyShort()
+  {
+    // the table path for signed values
+    check(DataBuffer.TYPE_SHORT, -500, 500, -9999);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void applyUShort()
+  {
+    check(DataBuffer.TYPE_USHORT, 0, 60000, 0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void applyFloat()
+  {
+    check(DataBuffer.TYPE_FLOAT, -1.5, 1.5, Double.NaN);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void applyBanded()
+  {
+    final Raster source = createSource(DataBuffer.TYPE_FLOAT, -1.5, 1.5, Double.NaN);
+    final ColorScale cs = createColorScale(-1.5, 1.5, Double.NaN);
+
+    final WritableRaster banded = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, SIZE, SIZE, 4, null);
+    ColorScaleApplier.apply(source, banded, cs);
+
+    compare(reference(source, cs, 4), banded);
+  }
+
+  private static void check(final int type, final double min, final double max, final double nodata)
+  {
+    final Raster source = createSource(type, min, max, nodata);
+    final ColorScale cs = createColorScale(min, max, nodata);
+
+    final WritableRaster agbr = RasterUtils.createAGBRRaster(SIZE, SIZE);
+    ColorScaleApplier.apply(source, agbr, cs);
+    compare(reference(source, cs, 4), agbr);
+
+    final WritableRaster rgb = RasterUtils.createRGBRaster(SIZE, SIZE);
+    ColorScaleApplier.apply(source, rgb, cs);
+    compare(reference(source, cs, 3), rgb);
+  }
+
+  private static ColorScale createColorScale(final double min, final double max, final double nodata)
+  {
+    final ColorScale cs = ColorScale.createDefault();
+    cs.setScaleRange(min, max);
+    cs.setTransparent(nodata);
+    return cs;
+  }
+
+  private static Raster createSource(final int type, final double min, final double max, final double nodata)
+  {
+    final Random random = new Random(7);
+    final WritableRaster source = RasterUtils.createEmptyRaster(SIZE, SIZE, 1, type);
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        // include some nodata and out of range values
+        final double v = (random.nextInt(20) == 0) ? nodata :
+            min - 10 + random.nextDouble() * (max - min + 20);
+        source.setSample(x, y, 0, v);
+      }
+    }
+    return source;
+  }
+
+  // the colors from a lookup of every pixel
+  private static int[][] reference(final Raster source, final ColorScale cs, final int bands)
+  {
+    final int[][] colors = new int[SIZE * SIZE][];
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        final int[] c = cs.lookup(source.getSampleDouble(x, y, 0));
+        colors[y * SIZE + x] = new int[bands];
+        System.arraycopy(c, 0, colors[y * SIZE + x], 0, bands);
+      }
+    }
+    return colors;
+  }
+
+  private static void compare(final int[][] expected, final Raster colored)
+  {
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        final int[] e = expected[y * SIZE + x];
+        for (int b = 0; b < e.length; b++)
+        {
+          Assert.assertEquals("pixel " + x + ", " + y + " band " + b, e[b], colored.getSample(x, y, b));
+        }
+      }
+    }
+  }
+}
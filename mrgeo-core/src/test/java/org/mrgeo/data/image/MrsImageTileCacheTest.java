@@ -0,0 +1,318 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.image;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.KVIterator;
+import org.mrgeo.data.raster.RasterUtils;
+import org.mrgeo.data.tile.TileIdWritable;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.utils.LongRectangle;
+import org.mrgeo.utils.tms.Bounds;
+import org.mrgeo.utils.tms.TMSUtils;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+@SuppressWarnings("static-method")
+public class MrsImageTileCacheTest
+{
+  private static final int ZOOM = 5;
+  private static final int SIZE = 16;
+
+  // an in-memory reader that counts its reads
+  private static class CountingReader extends MrsImageReader
+  {
+    final TreeMap<Long, Raster> tiles = new TreeMap<>();
+    int gets = 0;
+    int scans = 0;
+
+    CountingReader(final long... tileids)
+    {
+      for (long id : tileids)
+      {
+        tiles.put(id, tile(id));
+      }
+    }
+
+    @Override
+    public Raster get(final TileIdWritable key)
+    {
+      gets++;
+      return tiles.get(key.get());
+    }
+
+    @Override
+    public KVIterator<TileIdWritable, Raster> get(final LongRectangle tileBounds)
+    {
+      scans++;
+      final TreeMap<Long, Raster> found = new TreeMap<>();
+      for (Map.Entry<Long, Raster> entry : tiles.entrySet())
+      {
+        final org.mrgeo.utils.tms.Tile t = TMSUtils.tileid(entry.getKey(), ZOOM);
+        if (t.tx >= tileBounds.getMinX() && t.tx <= tileBounds.getMaxX() &&
+            t.ty >= tileBounds.getMinY() && t.ty <= tileBounds.getMaxY())
+        {
+          found.put(entry.getKey(), entry.getValue());
+        }
+      }
+      final Iterator<Map.Entry<Long, Raster>> it = found.entrySet().iterator();
+      return new KVIterator<TileIdWritable, Raster>()
+      {
+        Map.Entry<Long, Raster> current;
+
+        @Override
+        public TileIdWritable currentKey()
+        {
+          return new TileIdWritable(current.getKey());
+        }
+
+        @Override
+        public Raster currentValue()
+        {
+          return current.getValue();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+          return it.hasNext();
+        }
+
+        @Override
+        public Raster next()
+        {
+          current = it.next();
+          return current.getValue();
+        }
+
+        @Override
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int getZoomlevel()
+    {
+      return ZOOM;
+    }
+
+    @Override
+    public int getTileSize()
+    {
+      return SIZE;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public long calculateTileCount()
+    {
+      return tiles.size();
+    }
+
+    @Override
+    public boolean exists(final TileIdWritable key)
+    {
+      return tiles.containsKey(key.get());
+    }
+
+    @Override
+    public KVIterator<TileIdWritable, Raster> get()
+    {
+      return null;
+    }
+
+    @Override
+    public KVIterator<Bounds, Raster> get(final Bounds bounds)
+    {
+      return null;
+    }
+
+    @Override
+    public KVIterator<TileIdWritable, Raster> get(final TileIdWritable startKey, final TileIdWritable endKey)
+    {
+      return null;
+    }
+
+    @Override
+    public boolean canBeCached()
+    {
+      return true;
+    }
+  }
+
+  private static Raster tile(final long id)
+  {
+    final WritableRaster raster = RasterUtils.createEmptyRaster(SIZE, SIZE, 1, DataBuffer.TYPE_FLOAT);
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        raster.setSample(x, y, 0, id * 1000 + y * SIZE + x);
+      }
+    }
+    return raster;
+  }
+
+  private static void assertTile(final long id, final Raster raster)
+  {
+    Assert.assertNotNull(raster);
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        Assert.assertEquals((float) (id * 1000 + y * SIZE + x), raster.getSampleFloat(x, y, 0), 0.0f);
+      }
+    }
+  }
+
+  private static void checkCopies(final boolean offHeap)
+  {
+    final MrsImageTileCache cache = new MrsImageTileCache(1024 * 1024, offHeap, 0, 0);
+    cache.put("image", ZOOM, 7, tile(7));
+
+    final WritableRaster first = (WritableRaster) cache.get("image", ZOOM, 7);
+    assertTile(7, first);
+
+    // changing a tile handed out doesn't change the cached one
+    first.setSample(0, 0, 0, -1.0);
+    assertTile(7, cache.get("image", ZOOM, 7));
+
+    Assert.assertNull(cache.get("image", ZOOM + 1, 7));
+    Assert.assertNull(cache.get("other", ZOOM, 7));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void onHeap()
+  {
+    checkCopies(false);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void offHeap()
+  {
+    checkCopies(true);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void boundedBySize()
+  {
+    // room for about 4 float tiles
+    final MrsImageTileCache cache = new MrsImageTileCache(4 * (SIZE * SIZE * 4 + 128), false, 0, 0);
+    for (long id = 0; id < 20; id++)
+    {
+      cache.put("image", ZOOM, id, tile(id));
+    }
+
+    final Map<String, Number> stats = cache.getStats();
+    Assert.assertTrue(stats.get("tiles").longValue() <= 4);
+    Assert.assertTrue(stats.get("bytes").longValue() <= 4 * (SIZE * SIZE * 4 + 128));
+    Assert.assertTrue(stats.get("evictions").longValue() >= 16);
+    assertTile(19, cache.get("image", ZOOM, 19));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void readsOnce()
+  {
+    final MrsImageTileCache cache = new MrsImageTileCache(1024 * 1024, false, 0, 0);
+    final long present = TMSUtils.tileid(3, 3, ZOOM);
+    final long missing = TMSUtils.tileid(4, 3, ZOOM);
+    final CountingReader counting = new CountingReader(present);
+    final MrsImageReader reader = new CachingMrsImageReader(cache, "image", counting);
+
+    for (int i = 0; i < 5; i++)
+    {
+      assertTile(present, reader.get(new TileIdWritable(present)));
+      Assert.assertNull(reader.get(new TileIdWritable(missing)));
+    }
+    Assert.assertEquals(2, counting.gets);
+
+    final Map<String, Number> stats = cache.getStats();
+    Assert.assertEquals(8L, stats.get("hits"));
+    Assert.assertEquals(2L, stats.get("misses"));
+    Assert.assertEquals(0.8, stats.get("hitRate").doubleValue(), 1e-9);
+
+    // a rewritten image is read again
+    cache.invalidate("image");
+    reader.get(new TileIdWritable(present));
+    Assert.assertEquals(3, counting.gets);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void scoped()
+  {
+    final MrsImageTileCache cache = new MrsImageTileCache(1024 * 1024, false, 0, 0);
+
+    // a tile one user can see, and that another can't (so it is missing for them)
+    cache.put("image", "alice||secret", ZOOM, 7, tile(7));
+    cache.put("image", "bob", ZOOM, 7, null);
+
+    assertTile(7, cache.get("image", "alice||secret", ZOOM, 7));
+    Assert.assertNull(cache.get("image", "bob", ZOOM, 7));
+    Assert.assertTrue(cache.contains("image", "bob", ZOOM, 7));
+    Assert.assertFalse(cache.contains("image", "carol", ZOOM, 7));
+    Assert.assertNull(cache.get("image", ZOOM, 7));
+
+    // a rewritten image is dropped for everyone
+    cache.invalidate("image");
+    Assert.assertFalse(cache.contains("image", "alice||secret", ZOOM, 7));
+    Assert.assertFalse(cache.contains("image", "bob", ZOOM, 7));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void readAhead()
+  {
+    final MrsImageTileCache cache = new MrsImageTileCache(1024 * 1024, false, 1, 0);
+    final CountingReader counting = new CountingReader(
+        TMSUtils.tileid(10, 10, ZOOM), TMSUtils.tileid(11, 10, ZOOM), TMSUtils.tileid(11, 11, ZOOM),
+        TMSUtils.tileid(12, 12, ZOOM));
+    final MrsImageReader reader = new CachingMrsImageReader(cache, "image", counting);
+
+    assertTile(TMSUtils.tileid(10, 10, ZOOM), reader.get(new TileIdWritable(TMSUtils.tileid(10, 10, ZOOM))));
+    Assert.assertEquals(1, counting.scans);
+    Assert.assertEquals(2L, cache.getStats().get("readAheads"));
+
+    // the neighbors, present or not, come from the cache
+    assertTile(TMSUtils.tileid(11, 11, ZOOM), reader.get(new TileIdWritable(TMSUtils.tileid(11, 11, ZOOM))));
+    Assert.assertNull(reader.get(new TileIdWritable(TMSUtils.tileid(9, 9, ZOOM))));
+    Assert.assertEquals(1, counting.scans);
+
+    // outside the block is another scan
+    assertTile(TMSUtils.tileid(12, 12, ZOOM), reader.get(new TileIdWritable(TMSUtils.tileid(12, 12, ZOOM))));
+    Assert.assertEquals(2, counting.scans);
+    Assert.assertEquals(0, counting.gets);
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import junit.framework.Assert;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.junit.UnitTest;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+
+@SuppressWarnings("static-method")
+public class RasterCodecTest
+{
+private static final int WIDTH = 64;
+private static final int HEIGHT = 48;
+private static final String[] CODECS = {"lz4", "lz4-delta", "deflate", "deflate-delta"};
+
+// a smooth surface, like an elevation, that should compress well
+private static RasterWritable surface(int bands, int datatype) throws IOException
+{
+  WritableRaster raster = RasterUtils.createEmptyRaster(WIDTH, HEIGHT, bands, datatype);
+  for (int y = 0; y < HEIGHT; y++)
+  {
+    for (int x = 0; x < WIDTH; x++)
+    {
+      for (int b = 0; b < bands; b++)
+      {
+        raster.setSample(x, y, b, 100 + (x / 2) + y + b * 10);
+      }
+    }
+  }
+  return RasterWritable.toWritable(raster);
+}
+
+// write the tile the way a pyramid does, and read it back
+private static RasterWritable roundTrip(RasterWritable writable) throws IOException
+{
+  DataOutputBuffer out = new DataOutputBuffer();
+  writable.write(out);
+
+  DataInputBuffer in = new DataInputBuffer();
+  in.reset(out.getData(), out.getLength());
+
+  RasterWritable read = new RasterWritable();
+  read.readFields(in);
+  return read;
+}
+
+private static void assertSame(RasterWritable expected, RasterWritable actual)
+{
+  Assert.assertEquals(expected.getLength(), actual.getLength());
+  Assert.assertTrue(Arrays.equals(Arrays.copyOf(expected.getBytes(), expected.getLength()),
+      Arrays.copyOf(actual.getBytes(), actual.getLength())));
+}
+
+@Test
+@Category(UnitTest.class)
+public void roundTrip() throws IOException
+{
+  int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT,
+      DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE};
+
+  for (String name : CODECS)
+  {
+    RasterCodec codec = RasterCodec.get(name);
+    for (int type : types)
+    {
+      for (int bands = 1; bands <= 3; bands += 2)
+      {
+        RasterWritable raw = surface(bands, type);
+        RasterWritable encoded = codec.encode(raw);
+
+        Assert.assertTrue(name + " " + type, RasterCodec.isEncoded(encoded.getBytes(), encoded.getLength()));
+        Assert.assertTrue(name + " " + type, encoded.getLength() < raw.getLength());
+
+        assertSame(raw, roundTrip(encoded));
+      }
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void constant() throws IOException
+{
+  RasterWritable raw = RasterWritable.toWritable(
+      RasterUtils.createEmptyRaster(WIDTH, HEIGHT, 2, DataBuffer.TYPE_FLOAT, Float.NaN));
+  RasterWritable encoded = RasterCodec.get("lz4").encode(raw);
+
+  // the header, and one pixel, that stays that way until the pixels are read
+  Assert.assertTrue(encoded.getLength() < 100);
+  Assert.assertNotNull(RasterWritable.getConstantValues(roundTrip(encoded)));
+  assertSame(raw, RasterTile.fromWritable(roundTrip(encoded)).toWritable());
+}
+
+@Test
+@Category(UnitTest.class)
+public void createConstant() throws IOException
+{
+  double[] values = {7.0, Double.NaN};
+  RasterWritable constant = RasterWritable.createConstant(WIDTH, HEIGHT, 2, DataBuffer.TYPE_FLOAT, values);
+
+  Assert.assertTrue(constant.getLength() < 100);
+  double[] read = RasterWritable.getConstantValues(constant);
+  Assert.assertEquals(7.0, read[0], 0.0);
+  Assert.assertTrue(Double.isNaN(read[1]));
+  Assert.assertFalse(RasterWritable.isNodata(constant, new double[]{Double.NaN, Double.NaN}));
+  Assert.assertTrue(RasterWritable.isNodata(constant, new double[]{7.0, Double.NaN}));
+
+  // the pixels are there when they're read, and it stays constant through a write and read
+  Raster raster = RasterWritable.toRaster(constant);
+  RasterTile tile = RasterTile.fromWritable(constant);
+  Assert.assertEquals(WIDTH, tile.getWidth());
+  Assert.assertEquals(HEIGHT, tile.getHeight());
+  for (int y = 0; y < HEIGHT; y++)
+  {
+    for (int x = 0; x < WIDTH; x++)
+    {
+      Assert.assertEquals(7.0, raster.getSampleDouble(x, y, 0), 0.0);
+      Assert.assertTrue(Double.isNaN(raster.getSampleDouble(x, y, 1)));
+      Assert.assertEquals(7.0, tile.getSampleDouble(x, y, 0), 0.0);
+    }
+  }
+  Assert.assertNotNull(RasterWritable.getConstantValues(roundTrip(constant)));
+}
+
+@Test
+@Category(UnitTest.class)
+public void compact() throws IOException
+{
+  RasterWritable raw = RasterWritable.toWritable(
+      RasterUtils.createEmptyRaster(WIDTH, HEIGHT, 1, DataBuffer.TYPE_SHORT, -9999));
+  RasterWritable compacted = RasterWritable.compact(raw);
+  Assert.assertTrue(RasterWritable.isNodata(compacted, new double[]{-9999}));
+  assertSame(raw, RasterTile.fromWritable(compacted).toWritable());
+  Assert.assertEquals(-9999.0, RasterTile.fromWritable(compacted).getDouble(WIDTH * HEIGHT - 1), 0.0);
+
+  RasterWritable varied = surface(1, DataBuffer.TYPE_SHORT);
+  Assert.assertSame(varied, RasterWritable.compact(varied));
+  Assert.assertNull(RasterWritable.getConstantValues(varied));
+}
+
+@Test
+@Category(UnitTest.class)
+public void incompressible() throws IOException
+{
+  WritableRaster raster = RasterUtils.createEmptyRaster(WIDTH, HEIGHT, 1, DataBuffer.TYPE_INT);
+  java.util.Random random = new java.util.Random(1);
+  for (int y = 0; y < HEIGHT; y++)
+  {
+    for (int x = 0; x < WIDTH; x++)
+    {
+      raster.setSample(x, y, 0, random.nextInt());
+    }
+  }
+  RasterWritable raw = RasterWritable.toWritable(raster);
+
+  // noise is stored as it is
+  Assert.assertSame(raw, RasterCodec.get("lz4").encode(raw));
+}
+
+@Test
+@Category(UnitTest.class)
+public void plain() throws IOException
+{
+  RasterWritable raw = surface(1, DataBuffer.TYPE_FLOAT);
+  assertSame(raw, roundTrip(raw));
+}
+
+@Test
+@Category(UnitTest.class)
+public void lookup()
+{
+  Assert.assertNull(RasterCodec.get(null));
+  Assert.assertNull(RasterCodec.get(RasterCodec.NONE));
+  Assert.assertEquals("lz4-delta", RasterCodec.get("LZ4-Delta").getName());
+
+  try
+  {
+    RasterCodec.get("zip");
+    Assert.fail("Expected an IllegalArgumentException");
+  }
+  catch (IllegalArgumentException ignored)
+  {
+  }
+}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.test.TestUtils;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+@SuppressWarnings("static-method")
+public class RasterTileTest
+{
+private static final int WIDTH = 13;
+private static final int HEIGHT = 11;
+
+private static WritableRaster numbered(int bands, int datatype)
+{
+  WritableRaster raster = RasterUtils.createEmptyRaster(WIDTH, HEIGHT, bands, datatype);
+  for (int y = 0; y < HEIGHT; y++)
+  {
+    for (int x = 0; x < WIDTH; x++)
+    {
+      for (int b = 0; b < bands; b++)
+      {
+        raster.setSample(x, y, b, ((x + (y * WIDTH)) * (b + 1)) % 200);
+      }
+    }
+  }
+  return raster;
+}
+
+@Test
+@Category(UnitTest.class)
+public void readFromRaster() throws IOException
+{
+  int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_USHORT,
+      DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE};
+
+  for (int type : types)
+  {
+    WritableRaster raster = numbered(3, type);
+    RasterTile tile = RasterTile.fromWritable(RasterWritable.toWritable(raster));
+
+    Assert.assertEquals(WIDTH, tile.getWidth());
+    Assert.assertEquals(HEIGHT, tile.getHeight());
+    Assert.assertEquals(3, tile.getNumBands());
+    Assert.assertEquals(type, tile.getDatatype());
+
+    for (int y = 0; y < HEIGHT; y++)
+    {
+      for (int x = 0; x < WIDTH; x++)
+      {
+        for (int b = 0; b < 3; b++)
+        {
+          Assert.assertEquals(raster.getSampleDouble(x, y, b), tile.getSampleDouble(x, y, b), 0.0);
+        }
+      }
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void readBand() throws IOException
+{
+  WritableRaster raster = numbered(2, DataBuffer.TYPE_FLOAT);
+  RasterTile tile = RasterTile.fromWritable(RasterWritable.toWritable(raster));
+
+  double[] expected = raster.getSamples(0, 0, WIDTH, HEIGHT, 1, (double[]) null);
+  double[] actual = tile.getSamples(1, null);
+
+  Assert.assertEquals(expected.length, actual.length);
+  for (int i = 0; i < expected.length; i++)
+  {
+    Assert.assertEquals(expected[i], actual[i], 0.0);
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void writeToRaster() throws IOException
+{
+  WritableRaster raster = numbered(2, DataBuffer.TYPE_SHORT);
+
+  RasterTile tile = RasterTile.createEmptyTile(WIDTH, HEIGHT, 2, DataBuffer.TYPE_SHORT);
+  for (int y = 0; y < HEIGHT; y++)
+  {
+    for (int x = 0; x < WIDTH; x++)
+    {
+      for (int b = 0; b < 2; b++)
+      {
+        tile.setSample(x, y, b, raster.getSample(x, y, b));
+      }
+    }
+  }
+
+  Raster result = RasterWritable.toRaster(tile.toWritable());
+  TestUtils.compareRasters(raster, result);
+}
+
+@Test
+@Category(UnitTest.class)
+public void fillWithNodata() throws IOException
+{
+  RasterTile tile = RasterTile.createEmptyTile(WIDTH, HEIGHT, 1, DataBuffer.TYPE_FLOAT, Double.NaN);
+  Raster expected = RasterUtils.createEmptyRaster(WIDTH, HEIGHT, 1, DataBuffer.TYPE_FLOAT, Double.NaN);
+
+  TestUtils.compareRasters(expected, tile.toRaster());
+}
+
+@Test
+@Category(UnitTest.class)
+public void sharesWritableBytes() throws IOException
+{
+  RasterWritable writable = RasterWritable.toWritable(numbered(1, DataBuffer.TYPE_INT));
+  RasterTile tile = RasterTile.fromWritable(writable);
+
+  tile.setSample(4, 5, 0, 12345);
+
+  Assert.assertSame(writable.getBytes(), tile.getBytes());
+  Assert.assertEquals(12345, RasterWritable.toRaster(writable).getSample(4, 5, 0));
+}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.aggregators.*;
+import org.mrgeo.junit.Benchmark;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+/**
+ * Micro-benchmark for pyramid decimation, comparing the old per-pixel path (a new 4 sample
+ * array and SampleModel calls for every output pixel) with TileDecimator.  Not part of the unit
+ * tests, run it with the benchmark profile:
+ *
+ *   mvn -Pbenchmark test -Dtest=TileDecimatorBenchmark [-Dbenchmark.tilesize=512] [-Dbenchmark.iterations=50]
+ */
+@SuppressWarnings("static-method")
+public class TileDecimatorBenchmark
+{
+private static final double NODATA = -9999;
+
+@Test
+@Category(Benchmark.class)
+public void decimate() throws Exception
+{
+  int tilesize = Integer.getInteger("benchmark.tilesize", 512);
+  int iterations = Integer.getInteger("benchmark.iterations", 50);
+
+  Aggregator[] aggregators = {new MeanAggregator(), new MinAggregator(), new MaxAggregator(),
+      new NearestAggregator(), new ModeAggregator(), new SumAggregator()};
+  int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_FLOAT};
+
+  for (int type : types)
+  {
+    WritableRaster raster = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, type);
+    Random rand = new Random(0);
+    for (int y = 0; y < tilesize; y++)
+    {
+      for (int x = 0; x < tilesize; x++)
+      {
+        raster.setSample(x, y, 0, rand.nextInt(100));
+      }
+    }
+    RasterWritable writable = RasterWritable.toWritable(raster);
+
+    for (Aggregator aggregator : aggregators)
+    {
+      // warm up both paths before timing
+      for (int i = 0; i < iterations; i++)
+      {
+        legacy(writable, tilesize, aggregator);
+        primitive(writable, aggregator);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++)
+      {
+        legacy(writable, tilesize, aggregator);
+      }
+      double legacyMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++)
+      {
+        primitive(writable, aggregator);
+      }
+      double primitiveMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+      System.out.println(String.format("%-20s type %d: legacy %8.3f ms/tile, primitive %8.3f ms/tile, %5.1fx",
+          aggregator.getClass().getSimpleName(), type, legacyMs, primitiveMs, legacyMs / primitiveMs));
+    }
+  }
+}
+
+private static RasterWritable primitive(RasterWritable writable, Aggregator aggregator)
+{
+  return TileDecimator.decimate(RasterTile.fromWritable(writable), aggregator, new double[]{NODATA}).toWritable();
+}
+
+// the decimation as it was done before TileDecimator
+private static RasterWritable legacy(RasterWritable writable, int tilesize, Aggregator aggregator)
+    throws Exception
+{
+  Raster parent = RasterWritable.toRaster(writable);
+  WritableRaster child = parent.createCompatibleWritableRaster(tilesize / 2, tilesize / 2);
+
+  for (int y = 0; y < tilesize; y += 2)
+  {
+    for (int x = 0; x < tilesize; x += 2)
+    {
+      switch (child.getTransferType())
+      {
+      case DataBuffer.TYPE_FLOAT:
+        final float[] floatsamples = new float[4];
+        parent.getSamples(x, y, 2, 2, 0, floatsamples);
+        child.setSample(x / 2, y / 2, 0, aggregator.aggregate(floatsamples, (float) NODATA));
+        break;
+      case DataBuffer.TYPE_DOUBLE:
+        final double[] doublesamples = new double[4];
+        parent.getSamples(x, y, 2, 2, 0, doublesamples);
+        child.setSample(x / 2, y / 2, 0, aggregator.aggregate(doublesamples, NODATA));
+        break;
+      default:
+        final int[] intsamples = new int[4];
+        parent.getSamples(x, y, 2, 2, 0, intsamples);
+        child.setSample(x / 2, y / 2, 0, aggregator.aggregate(intsamples, (int) NODATA));
+        break;
+      }
+    }
+  }
+
+  return RasterWritable.toWritable(child);
+}
+}
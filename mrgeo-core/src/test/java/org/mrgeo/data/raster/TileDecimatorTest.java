@@ -0,0 +1,165 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.raster;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.aggregators.*;
+import org.mrgeo.junit.UnitTest;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+@SuppressWarnings("static-method")
+public class TileDecimatorTest
+{
+private static final int SIZE = 16;
+private static final double NODATA = 7;
+
+private static WritableRaster random(int datatype, long seed)
+{
+  Random rand = new Random(seed);
+  WritableRaster raster = RasterUtils.createEmptyRaster(SIZE, SIZE, 2, datatype);
+  for (int y = 0; y < SIZE; y++)
+  {
+    for (int x = 0; x < SIZE; x++)
+    {
+      for (int b = 0; b < 2; b++)
+      {
+        // small range, so there are plenty of repeated values and nodata
+        raster.setSample(x, y, b, rand.nextInt(10));
+      }
+    }
+  }
+  return raster;
+}
+
+// the aggregator itself, one 2x2 block at a time
+private static double expected(Raster raster, int x, int y, int b, Aggregator aggregator)
+{
+  switch (raster.getTransferType())
+  {
+  case DataBuffer.TYPE_FLOAT:
+    return aggregator.aggregate(raster.getSamples(x, y, 2, 2, b, new float[4]), (float) NODATA);
+  case DataBuffer.TYPE_DOUBLE:
+    return aggregator.aggregate(raster.getSamples(x, y, 2, 2, b, new double[4]), NODATA);
+  default:
+    return aggregator.aggregate(raster.getSamples(x, y, 2, 2, b, new int[4]), (int) NODATA);
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void matchesAggregators() throws Exception
+{
+  // mode is left out, ties are broken differently
+  Aggregator[] aggregators = {new MeanAggregator(), new MinAggregator(), new MaxAggregator(),
+      new NearestAggregator(), new SumAggregator(), new MinAvgPairAggregator()};
+  int[] types = {DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT,
+      DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE};
+
+  for (Aggregator aggregator : aggregators)
+  {
+    for (int type : types)
+    {
+      WritableRaster raster = random(type, 1234);
+
+      RasterTile tile = TileDecimator.decimate(RasterTile.fromRaster(raster), aggregator,
+          new double[]{NODATA, NODATA});
+
+      for (int y = 0; y < SIZE; y += 2)
+      {
+        for (int x = 0; x < SIZE; x += 2)
+        {
+          for (int b = 0; b < 2; b++)
+          {
+            Assert.assertEquals(aggregator.getClass().getSimpleName() + " type " + type,
+                expected(raster, x, y, b, aggregator), tile.getSampleDouble(x / 2, y / 2, b), 1e-6);
+          }
+        }
+      }
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void mode() throws Exception
+{
+  WritableRaster raster = random(DataBuffer.TYPE_INT, 4321);
+  RasterTile tile = TileDecimator.decimate(RasterTile.fromRaster(raster), new ModeAggregator(),
+      new double[]{NODATA, NODATA});
+
+  for (int y = 0; y < SIZE; y += 2)
+  {
+    for (int x = 0; x < SIZE; x += 2)
+    {
+      int[] values = raster.getSamples(x, y, 2, 2, 0, new int[4]);
+      int mode = tile.getSample(x / 2, y / 2, 0);
+
+      // the mode must be the value with the highest count, the tie-breaker isn't defined
+      int modeCount = 0;
+      int maxCount = 0;
+      for (int v : values)
+      {
+        if (v != NODATA)
+        {
+          int count = 0;
+          for (int w : values)
+          {
+            count += (v == w) ? 1 : 0;
+          }
+          maxCount = Math.max(maxCount, count);
+          modeCount = (v == mode) ? count : modeCount;
+        }
+      }
+
+      if (maxCount == 0)
+      {
+        Assert.assertEquals((int) NODATA, mode);
+      }
+      else
+      {
+        Assert.assertEquals(maxCount, modeCount);
+      }
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void merge() throws Exception
+{
+  RasterTile[] quadrants = new RasterTile[4];
+  for (int q = 0; q < 3; q++)
+  {
+    quadrants[q] = RasterTile.createEmptyTile(SIZE / 2, SIZE / 2, 1, DataBuffer.TYPE_SHORT, q + 1);
+  }
+
+  RasterTile parent = TileDecimator.merge(quadrants, SIZE, 1, DataBuffer.TYPE_SHORT, new double[]{NODATA});
+
+  Assert.assertEquals(1, parent.getSample(0, 0, 0));
+  Assert.assertEquals(2, parent.getSample(SIZE - 1, 0, 0));
+  Assert.assertEquals(3, parent.getSample(0, SIZE - 1, 0));
+  Assert.assertEquals((int) NODATA, parent.getSample(SIZE - 1, SIZE - 1, 0));
+  Assert.assertEquals(1, parent.getSample(SIZE / 2 - 1, SIZE / 2 - 1, 0));
+  Assert.assertEquals(2, parent.getSample(SIZE / 2, SIZE / 2 - 1, 0));
+}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.rdd;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.tile.TileIdWritable;
+import org.mrgeo.junit.UnitTest;
+
+@SuppressWarnings("static-method")
+public class TileRangePartitionerTest
+{
+@Test
+@Category(UnitTest.class)
+public void getPartition()
+{
+  TileRangePartitioner partitioner = new TileRangePartitioner(new long[]{10, 20, 30});
+
+  Assert.assertEquals(3, partitioner.numPartitions());
+  Assert.assertEquals(0, partitioner.getPartition(new TileIdWritable(1)));
+  Assert.assertEquals(0, partitioner.getPartition(new TileIdWritable(10)));
+  Assert.assertEquals(1, partitioner.getPartition(new TileIdWritable(11)));
+  Assert.assertEquals(2, partitioner.getPartition(new TileIdWritable(30)));
+  Assert.assertEquals(2, partitioner.getPartition(new TileIdWritable(1000)));
+}
+
+@Test
+@Category(UnitTest.class)
+public void sameSplitsAreEqual()
+{
+  TileRangePartitioner p1 = new TileRangePartitioner(new long[]{10, 20, 30});
+  TileRangePartitioner p2 = new TileRangePartitioner(new long[]{10, 20, 30});
+  TileRangePartitioner p3 = new TileRangePartitioner(new long[]{10, 25, 30});
+
+  Assert.assertEquals(p1, p2);
+  Assert.assertEquals(p1.hashCode(), p2.hashCode());
+  Assert.assertFalse(p1.equals(p3));
+}
+}
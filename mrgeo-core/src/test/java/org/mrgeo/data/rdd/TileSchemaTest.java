@@ -0,0 +1,74 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.data.rdd;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.image.MrsPyramidMetadata;
+import org.mrgeo.junit.UnitTest;
+import scala.Option;
+
+import java.awt.image.DataBuffer;
+
+@SuppressWarnings("static-method")
+public class TileSchemaTest
+{
+  private static MrsPyramidMetadata metadata(final int bands, final int type, final int tilesize)
+  {
+    final MrsPyramidMetadata meta = new MrsPyramidMetadata();
+    meta.setBands(bands);
+    meta.setTileType(type);
+    meta.setTilesize(tilesize);
+    return meta;
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void fromMetadata()
+  {
+    final MrsPyramidMetadata meta = metadata(3, DataBuffer.TYPE_SHORT, 256);
+    meta.setDefaultValues(new double[]{-1, -2, -3});
+
+    final Option<TileSchema> schema = TileSchema.fromMetadata(meta);
+    Assert.assertTrue(schema.isDefined());
+    Assert.assertEquals(3, schema.get().bands());
+    Assert.assertEquals(DataBuffer.TYPE_SHORT, schema.get().datatype());
+    Assert.assertEquals(256, schema.get().tilesize());
+    Assert.assertEquals(-2.0, schema.get().nodatas()[1], 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void missingNodata()
+  {
+    final Option<TileSchema> schema = TileSchema.fromMetadata(metadata(2, DataBuffer.TYPE_BYTE, 512));
+    Assert.assertTrue(schema.isDefined());
+    Assert.assertEquals(2, schema.get().nodatas().length);
+    Assert.assertTrue(Double.isNaN(schema.get().nodatas()[0]));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void incompleteMetadata()
+  {
+    // without the bands or tile size, the tiles would have to be read
+    Assert.assertTrue(TileSchema.fromMetadata(metadata(0, DataBuffer.TYPE_FLOAT, 512)).isEmpty());
+    Assert.assertTrue(TileSchema.fromMetadata(metadata(1, DataBuffer.TYPE_FLOAT, 0)).isEmpty());
+    Assert.assertTrue(TileSchema.fromMetadata(null).isEmpty());
+  }
+}
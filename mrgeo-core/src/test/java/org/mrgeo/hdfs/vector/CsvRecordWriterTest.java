@@ -0,0 +1,76 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.geometry.GeometryFactory;
+import org.mrgeo.geometry.WritableGeometry;
+import org.mrgeo.junit.UnitTest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public class CsvRecordWriterTest
+{
+  @Test
+  @Category(UnitTest.class)
+  public void columns() throws Exception
+  {
+    Job job = Job.getInstance(new Configuration());
+    Assert.assertNull(CsvOutputFormat.getColumns(job.getConfiguration()));
+
+    List<String> attributes = Arrays.asList("a,b", "c\\d", "x");
+    CsvOutputFormat.setColumns(job, attributes);
+    Assert.assertEquals(attributes, CsvOutputFormat.getColumns(job.getConfiguration()));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void fixedColumns() throws Exception
+  {
+    ByteArrayOutputStream columns = new ByteArrayOutputStream();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    CsvOutputFormat.CsvRecordWriter writer = new CsvOutputFormat.CsvRecordWriter(columns, output);
+    writer.setColumns(Arrays.asList("count", "name", "x", "y"));
+
+    // the features don't all have every attribute, they still line up in the same columns
+    WritableGeometry f = GeometryFactory.createEmptyGeometry();
+    f.setAttribute("name", "foo");
+    f.setAttribute("x", "1");
+    f.setAttribute("y", "2");
+    writer.write(new FeatureIdWritable(0), f);
+
+    f = GeometryFactory.createEmptyGeometry();
+    f.setAttribute("count", "3");
+    f.setAttribute("x", "4");
+    f.setAttribute("y", "5");
+    writer.write(new FeatureIdWritable(1), f);
+
+    writer.close(null);
+
+    Assert.assertEquals(",foo,1,2\n3,,4,5\n", output.toString());
+    Assert.assertEquals(0, columns.size());
+  }
+}
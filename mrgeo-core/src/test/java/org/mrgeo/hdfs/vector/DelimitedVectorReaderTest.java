@@ -0,0 +1,134 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.CloseableKVIterator;
+import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorReaderContext;
+import org.mrgeo.geometry.Geometry;
+import org.mrgeo.geometry.Point;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.test.TestUtils;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+
+@SuppressWarnings("static-method")
+public class DelimitedVectorReaderTest
+{
+  // two parts, of ten points each, along the x axis
+  private static final int PARTS = 2;
+  private static final int SIZE = 10;
+
+  private Configuration conf;
+  private HdfsVectorDataProvider provider;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    conf = new Configuration();
+
+    // the layout a job writes: a directory of parts, a success marker, and the columns next to it
+    File dir = new File(TestUtils.composeOutputDir(DelimitedVectorReaderTest.class), "points.csv");
+    dir.mkdirs();
+    for (int p = 0; p < PARTS; p++)
+    {
+      PrintWriter writer = new PrintWriter(new FileWriter(new File(dir, "part-r-0000" + p + ".csv")));
+      for (int i = 0; i < SIZE; i++)
+      {
+        int x = p * SIZE + i;
+        writer.println("POINT(" + x + " 0)," + x);
+      }
+      writer.close();
+    }
+    new File(dir, "_SUCCESS").createNewFile();
+    CsvOutputFormat.writeColumnsFile(new Path(new File(dir.getPath() + ".columns").toURI()),
+        Collections.singletonList("name"), conf);
+
+    provider = new HdfsVectorDataProvider(conf, "hdfs", dir.getAbsolutePath(), null);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void readParts() throws IOException
+  {
+    DelimitedVectorReader reader = new DelimitedVectorReader(provider, new VectorReaderContext(), conf);
+    Assert.assertEquals(PARTS * SIZE, reader.count());
+
+    // the ids carry on from one part to the next
+    CloseableKVIterator<FeatureIdWritable, Geometry> iter = reader.get();
+    try
+    {
+      long id = 0;
+      while (iter.hasNext())
+      {
+        Point point = (Point) iter.next();
+        Assert.assertEquals(id, (long) point.getX());
+        id++;
+        Assert.assertEquals(id, iter.currentKey().get());
+      }
+      Assert.assertEquals(PARTS * SIZE, id);
+    }
+    finally
+    {
+      iter.close();
+    }
+
+    Point point = (Point) reader.get(new FeatureIdWritable(SIZE + 3));
+    Assert.assertEquals(SIZE + 2, point.getX(), 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void indexedParts() throws IOException
+  {
+    provider.buildIndex();
+
+    DelimitedVectorReader reader = new DelimitedVectorReader(provider, new VectorReaderContext(), conf);
+    Assert.assertEquals(PARTS * SIZE, reader.count());
+
+    // the points on both sides of the split between the parts
+    CloseableKVIterator<FeatureIdWritable, Geometry> iter =
+        reader.get(new Bounds(SIZE - 2.5, -1, SIZE + 1.5, 1));
+    try
+    {
+      int found = 0;
+      while (iter.hasNext())
+      {
+        Point point = (Point) iter.next();
+        Assert.assertTrue(point.getX() >= SIZE - 2 && point.getX() <= SIZE + 1);
+        Assert.assertEquals((long) point.getX() + 1, iter.currentKey().get());
+        found++;
+      }
+      Assert.assertEquals(4, found);
+    }
+    finally
+    {
+      iter.close();
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.core.MrGeoProperties;
+import org.mrgeo.data.CloseableKVIterator;
+import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorReaderContext;
+import org.mrgeo.geometry.Geometry;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.test.TestUtils;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public class ShapefileVectorReaderTest
+{
+  // simple-triangles has 4 polygons, these bounds touch 0 and 2
+  private static final Bounds TRIANGLES_0_2 = new Bounds(-80.0, -10.0, -70.0, 0.0);
+
+  private Configuration conf;
+  private String output;
+  private String indexing;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    conf = new Configuration();
+    output = TestUtils.composeOutputDir(ShapefileVectorReaderTest.class);
+    indexing = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_VECTOR_INDEX);
+  }
+
+  @After
+  public void tearDown()
+  {
+    if (indexing == null)
+    {
+      MrGeoProperties.getInstance().remove(MrGeoConstants.MRGEO_VECTOR_INDEX);
+    }
+    else
+    {
+      MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, indexing);
+    }
+  }
+
+  private ShapefileVectorReader open(String name) throws IOException
+  {
+    Path p = ShpInputFormatTest.copyShapefile(TestUtils.composeInputDir(ShpInputFormatTest.class), output,
+        "simple-triangles", name);
+    HdfsVectorDataProvider provider = new HdfsVectorDataProvider(conf, "hdfs", p.toUri().getPath(), null);
+    return new ShapefileVectorReader(provider, new VectorReaderContext(), conf);
+  }
+
+  private static List<Long> ids(CloseableKVIterator<FeatureIdWritable, Geometry> iter) throws IOException
+  {
+    List<Long> ids = new ArrayList<>();
+    try
+    {
+      while (iter.hasNext())
+      {
+        Geometry geometry = iter.next();
+        Assert.assertSame(geometry, iter.currentValue());
+        ids.add(iter.currentKey().get());
+      }
+    }
+    finally
+    {
+      iter.close();
+    }
+    return ids;
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void read() throws IOException
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "false");
+    ShapefileVectorReader reader = open("all");
+
+    Assert.assertEquals(4, reader.count());
+    Assert.assertEquals(Arrays.asList(0L, 1L, 2L, 3L), ids(reader.get()));
+
+    // the feature id is the record number
+    Geometry third = reader.get(new FeatureIdWritable(2));
+    Assert.assertTrue(third.toString().startsWith("POLYGON((-65.948146606 6.476797114,"));
+    Assert.assertTrue(reader.exists(new FeatureIdWritable(3)));
+    Assert.assertFalse(reader.exists(new FeatureIdWritable(4)));
+    Assert.assertNull(reader.get(new FeatureIdWritable(-1)));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void boundedWithoutIndex() throws IOException
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "false");
+    ShapefileVectorReader reader = open("unindexed");
+
+    Assert.assertEquals(Arrays.asList(0L, 2L), ids(reader.get(TRIANGLES_0_2)));
+    Assert.assertTrue(ids(reader.get(new Bounds(-170.0, -80.0, -160.0, -70.0))).isEmpty());
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void boundedWithIndex() throws IOException
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "true");
+    ShapefileVectorReader reader = open("indexed");
+    Path p = new Path(new File(output, "indexed.shp").toURI());
+
+    // reads never build the index, without one every record is read and checked
+    Assert.assertEquals(Arrays.asList(0L, 2L), ids(reader.get(TRIANGLES_0_2)));
+    Assert.assertNull(VectorIndex.open(conf, p));
+
+    ShpInputFormatTest.buildIndex(p);
+    VectorIndex index = VectorIndex.open(conf, p);
+    Assert.assertNotNull(index);
+    index.close();
+
+    Assert.assertEquals(Arrays.asList(0L, 2L), ids(reader.get(TRIANGLES_0_2)));
+    Assert.assertEquals(Arrays.asList(1L), ids(reader.get(new Bounds(10.0, 0.0, 20.0, 10.0))));
+    Assert.assertEquals(4, reader.count());
+  }
+}
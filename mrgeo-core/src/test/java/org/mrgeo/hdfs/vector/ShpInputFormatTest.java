@@ -22,18 +22,29 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RawLocalFileSystem;
 import org.apache.hadoop.mapreduce.*;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.core.MrGeoProperties;
 import org.mrgeo.data.vector.FeatureIdWritable;
+import org.mrgeo.data.vector.VectorInputFormatContext;
 import org.mrgeo.geometry.Geometry;
 import org.mrgeo.geometry.Point;
 import org.mrgeo.junit.UnitTest;
 import org.mrgeo.test.TestUtils;
 import org.mrgeo.utils.HadoopUtils;
+import org.mrgeo.utils.tms.Bounds;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author jason.surratt
@@ -44,11 +55,79 @@ public class ShpInputFormatTest
 {
 
   private static String input;
+  private static String output;
+
+  private String indexing;
 
   @BeforeClass
-  public static void init()
+  public static void init() throws IOException
   {
     input = TestUtils.composeInputDir(ShpInputFormatTest.class);
+    output = TestUtils.composeOutputDir(ShpInputFormatTest.class);
+  }
+
+  // a copy of a test shapefile, without an index, so the spatial index isn't written next to the input
+  static Path copyShapefile(String in, String out, String name, String copy) throws IOException
+  {
+    for (File file : new File(in).listFiles())
+    {
+      if (file.getName().startsWith(name + "."))
+      {
+        File dst = new File(out, copy + file.getName().substring(name.length()));
+        Files.deleteIfExists(dst.toPath());
+        Files.copy(file.toPath(), dst.toPath());
+      }
+    }
+    Path p = new Path(new File(out, copy + ".shp").toURI());
+    Files.deleteIfExists(new File(VectorIndex.indexPath(p).toUri()).toPath());
+    return p;
+  }
+
+  // the ingest step for a shapefile that was copied in
+  static void buildIndex(Path p) throws IOException
+  {
+    new HdfsVectorDataProvider(new Configuration(), "hdfs", p.toUri().getPath(), null).buildIndex();
+  }
+
+  private static Job boundedJob(Path p, Bounds bounds) throws IOException
+  {
+    Job j = new Job(new Configuration());
+    j.getConfiguration().set("mapred.input.dir", p.toString());
+
+    VectorInputFormatContext context = new VectorInputFormatContext(
+        Collections.singleton(p.toString()), null);
+    context.setBounds(bounds);
+    context.save(j.getConfiguration());
+    return j;
+  }
+
+  // the ids of the records a bounded read returns, from all the splits
+  private static List<Long> readBounded(Path p, Bounds bounds) throws IOException, InterruptedException
+  {
+    Job j = boundedJob(p, bounds);
+    Configuration c = j.getConfiguration();
+    ShpInputFormat format = new ShpInputFormat();
+
+    List<Long> ids = new ArrayList<>();
+    for (InputSplit split : format.getSplits(j))
+    {
+      TaskAttemptContext context = HadoopUtils.createTaskAttemptContext(c, new TaskAttemptID());
+      RecordReader<FeatureIdWritable, Geometry> reader = format.createRecordReader(split, context);
+      reader.initialize(split, context);
+      try
+      {
+        while (reader.nextKeyValue())
+        {
+          Assert.assertTrue(ShapefileVectorReader.intersects(reader.getCurrentValue(), bounds));
+          ids.add(reader.getCurrentKey().get());
+        }
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    return ids;
   }
 
   public void equals(double v1, double v2)
@@ -79,6 +158,86 @@ public class ShpInputFormatTest
 
   @Before public void setUp()
   {
+    indexing = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_VECTOR_INDEX);
+  }
+
+  @After public void tearDown()
+  {
+    if (indexing == null)
+    {
+      MrGeoProperties.getInstance().remove(MrGeoConstants.MRGEO_VECTOR_INDEX);
+    }
+    else
+    {
+      MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, indexing);
+    }
+  }
+
+  // simple-triangles has 4 polygons.  These bounds touch 0 and 2, and miss 1 and 3.
+  private static final Bounds TRIANGLES_0_2 = new Bounds(-80.0, -10.0, -70.0, 0.0);
+  // and these are in the middle of the south pacific, touching none of them
+  private static final Bounds EMPTY = new Bounds(-170.0, -80.0, -160.0, -70.0);
+
+  @Test
+  @Category(UnitTest.class)
+  public void boundedReadWithoutIndex() throws Exception
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "false");
+    Path p = copyShapefile(input, output, "simple-triangles", "unindexed");
+
+    Assert.assertEquals(Arrays.asList(0L, 2L), readBounded(p, TRIANGLES_0_2));
+    Assert.assertNull(VectorIndex.open(new Configuration(), p));
+
+    // nothing to prune with, the split is read and nothing in it matches
+    Assert.assertEquals(1, new ShpInputFormat().getSplits(boundedJob(p, EMPTY)).size());
+    Assert.assertTrue(readBounded(p, EMPTY).isEmpty());
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void boundedReadWithIndex() throws Exception
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "true");
+    Path p = copyShapefile(input, output, "simple-triangles", "indexed");
+
+    // reads never write an index, even with vector.index on (the input may be read-only or
+    // shared), without one the whole split is read
+    Assert.assertEquals(Arrays.asList(0L, 2L), readBounded(p, TRIANGLES_0_2));
+    Assert.assertNull(VectorIndex.open(new Configuration(), p));
+    Assert.assertEquals(1, new ShpInputFormat().getSplits(boundedJob(p, EMPTY)).size());
+
+    // once it's been built, the reads use it
+    buildIndex(p);
+    VectorIndex index = VectorIndex.open(new Configuration(), p);
+    Assert.assertNotNull(index);
+    try
+    {
+      Assert.assertEquals(4, index.getFeatureCount());
+    }
+    finally
+    {
+      index.close();
+    }
+
+    Assert.assertEquals(Arrays.asList(0L, 2L), readBounded(p, TRIANGLES_0_2));
+    Assert.assertEquals(Arrays.asList(1L), readBounded(p, new Bounds(10.0, 0.0, 20.0, 10.0)));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void prunedSplits() throws Exception
+  {
+    MrGeoProperties.getInstance().setProperty(MrGeoConstants.MRGEO_VECTOR_INDEX, "true");
+    Path p = copyShapefile(input, output, "simple-triangles", "pruned");
+    buildIndex(p);
+
+    Assert.assertTrue(new ShpInputFormat().getSplits(boundedJob(p, EMPTY)).isEmpty());
+    Assert.assertEquals(1, new ShpInputFormat().getSplits(boundedJob(p, TRIANGLES_0_2)).size());
+
+    // an unbounded read isn't pruned
+    Job j = new Job(new Configuration());
+    j.getConfiguration().set("mapred.input.dir", p.toString());
+    Assert.assertEquals(1, new ShpInputFormat().getSplits(j).size());
   }
 
   @Test
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.hdfs.vector;
+
+import junit.framework.Assert;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.geometry.Geometry;
+import org.mrgeo.geometry.Point;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.test.TestUtils;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public class VectorIndexTest
+{
+  private static final int SIZE = 20;
+
+  private Configuration conf;
+  private Path data;
+  private DelimitedParser parser;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    conf = new Configuration();
+    File file = new File(TestUtils.composeOutputDir(VectorIndexTest.class), "points.csv");
+    data = new Path(file.toURI());
+
+    // a header, and a grid of points, with an empty line in the middle
+    PrintWriter writer = new PrintWriter(new FileWriter(file));
+    writer.println("GEOMETRY,name");
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        writer.println("POINT(" + x + " " + y + "),\"p," + x + "," + y + "\"");
+      }
+      if (y == SIZE / 2)
+      {
+        writer.println();
+      }
+    }
+    writer.close();
+
+    parser = new DelimitedParser(Arrays.asList("GEOMETRY", "name"), -1, -1, 0, ',', '\"', true);
+    VectorIndex.indexLines(conf, data, true, new VectorIndex.LineBounds()
+    {
+      @Override
+      public Bounds bounds(long record, Text line)
+      {
+        return VectorIndex.boundsOf(parser.parse(line.toString()));
+      }
+    });
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void query() throws IOException
+  {
+    VectorIndex index = VectorIndex.open(conf, data);
+    Assert.assertNotNull(index);
+    try
+    {
+      Assert.assertEquals(SIZE * SIZE, index.getFeatureCount());
+      Assert.assertEquals(new Bounds(0, 0, SIZE - 1, SIZE - 1), index.getBounds());
+
+      List<VectorIndex.Entry> entries = index.query(new Bounds(2.0, 9.5, 4.5, 12.5));
+      Assert.assertEquals(9, entries.size());
+
+      FileSystem fs = data.getFileSystem(conf);
+      IndexedDelimitedReader reader = new IndexedDelimitedReader(fs.open(data), entries, parser);
+      try
+      {
+        int found = 0;
+        while (reader.hasNext())
+        {
+          Geometry geometry = reader.next();
+          Point point = (Point) geometry;
+          Assert.assertTrue(point.getX() >= 2 && point.getX() <= 4);
+          Assert.assertTrue(point.getY() >= 10 && point.getY() <= 12);
+          Assert.assertEquals("p," + (int) point.getX() + "," + (int) point.getY(),
+              geometry.getAttribute("name"));
+
+          // the ids are the ones the delimited reader gives, the empty line isn't counted
+          Assert.assertEquals((long) point.getY() * SIZE + (long) point.getX() + 1,
+              reader.currentKey().get());
+          found++;
+        }
+        Assert.assertEquals(9, found);
+      }
+      finally
+      {
+        reader.close();
+      }
+
+      Assert.assertTrue(index.query(new Bounds(100, 100, 110, 110)).isEmpty());
+    }
+    finally
+    {
+      index.close();
+    }
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void intersects() throws IOException
+  {
+    VectorIndex index = VectorIndex.open(conf, data);
+    try
+    {
+      // the first line is the header, the first row of points follows it
+      long first = "GEOMETRY,name\n".length();
+      Bounds firstRow = new Bounds(0, 0, SIZE, 0.5);
+      Bounds lastRow = new Bounds(0, SIZE - 1.5, SIZE, SIZE);
+
+      Assert.assertTrue(index.intersects(firstRow, first, first + 10));
+      Assert.assertFalse(index.intersects(lastRow, first, first + 10));
+      Assert.assertFalse(index.intersects(firstRow, first + 1000, Long.MAX_VALUE));
+    }
+    finally
+    {
+      index.close();
+    }
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void stale() throws IOException
+  {
+    PrintWriter writer = new PrintWriter(new FileWriter(new File(data.toUri()), true));
+    writer.println("POINT(50 50),new");
+    writer.close();
+
+    Assert.assertNull(VectorIndex.open(conf, data));
+  }
+}
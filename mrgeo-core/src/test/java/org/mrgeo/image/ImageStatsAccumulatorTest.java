@@ -0,0 +1,178 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.image;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.raster.RasterTile;
+import org.mrgeo.junit.UnitTest;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+
+@SuppressWarnings("static-method")
+public class ImageStatsAccumulatorTest
+{
+  private static final int SIZE = 32;
+  private static final int BANDS = 2;
+
+  // a tile with a mix of values, nodatas and (for float types) NaNs
+  private static RasterTile makeTile(int datatype, double nodata, int seed)
+  {
+    final RasterTile tile = RasterTile.createEmptyTile(SIZE, SIZE, BANDS, datatype, nodata);
+    for (int i = 0; i < tile.getNumSamples(); i++)
+    {
+      final int v = (i * 31 + seed * 7) % 200;
+      if (v % 11 == 0)
+      {
+        tile.setDouble(i, nodata);
+      }
+      else if (v % 13 == 0 && (datatype == DataBuffer.TYPE_FLOAT || datatype == DataBuffer.TYPE_DOUBLE))
+      {
+        tile.setDouble(i, Double.NaN);
+      }
+      else
+      {
+        tile.setDouble(i, v);
+      }
+    }
+    return tile;
+  }
+
+  // the stats the way they've always been computed, one sample at a time
+  private static ImageStats[] slowStats(RasterTile[] tiles, double nodata)
+  {
+    final ImageStats[] stats = ImageStats.initializeStatsArray(BANDS);
+    for (RasterTile tile : tiles)
+    {
+      for (int i = 0; i < tile.getNumSamples(); i++)
+      {
+        ImageStats.updateStats(stats[i % BANDS], tile.getDouble(i), nodata);
+      }
+    }
+    return stats;
+  }
+
+  private static void check(int datatype, double nodata) throws IOException
+  {
+    final RasterTile[] tiles = {makeTile(datatype, nodata, 1), makeTile(datatype, nodata, 2)};
+    final ImageStats[] expected = slowStats(tiles, nodata);
+
+    final ImageStatsAccumulator first = new ImageStatsAccumulator(BANDS, new double[]{nodata, nodata});
+    first.add(tiles[0]);
+    final ImageStatsAccumulator second = new ImageStatsAccumulator(BANDS, new double[]{nodata, nodata});
+    second.add(tiles[1].toRaster());
+
+    final ImageStats[] stats = first.merge(second).toImageStats();
+    for (int b = 0; b < BANDS; b++)
+    {
+      Assert.assertTrue(expected[b].count > 0);
+      Assert.assertEquals(expected[b].count, stats[b].count);
+      Assert.assertEquals(expected[b].min, stats[b].min, 0.0);
+      Assert.assertEquals(expected[b].max, stats[b].max, 0.0);
+      Assert.assertEquals(expected[b].sum, stats[b].sum, 1e-9);
+      Assert.assertEquals(expected[b].mean, stats[b].mean, 1e-9);
+    }
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void byteTiles() throws IOException
+  {
+    check(DataBuffer.TYPE_BYTE, 0);
+    check(DataBuffer.TYPE_BYTE, Double.NaN);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void integralTiles() throws IOException
+  {
+    check(DataBuffer.TYPE_SHORT, -9999);
+    check(DataBuffer.TYPE_SHORT, Double.NaN);
+    check(DataBuffer.TYPE_USHORT, 0);
+    check(DataBuffer.TYPE_INT, -1);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void floatTiles() throws IOException
+  {
+    check(DataBuffer.TYPE_FLOAT, Double.NaN);
+    check(DataBuffer.TYPE_FLOAT, -9999);
+    check(DataBuffer.TYPE_DOUBLE, Double.NaN);
+    check(DataBuffer.TYPE_DOUBLE, -9999);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void moments()
+  {
+    final RasterTile tile = RasterTile.createEmptyTile(2, 2, 1, DataBuffer.TYPE_FLOAT, Double.NaN);
+    tile.setDouble(0, 2.0);
+    tile.setDouble(1, 4.0);
+    tile.setDouble(2, 4.0);
+
+    final ImageStatsAccumulator stats = new ImageStatsAccumulator(1, new double[]{Double.NaN});
+    stats.add(tile);
+
+    Assert.assertEquals(3, stats.getCount(0));
+    Assert.assertEquals(36.0, stats.getSumOfSquares(0), 0.0);
+    Assert.assertEquals(10.0 / 3.0, stats.getMean(0), 1e-12);
+    Assert.assertEquals(Math.sqrt(2.0 / 9.0 * 4.0), stats.getStdDev(0), 1e-12);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void histograms()
+  {
+    final RasterTile[] tiles = {makeTile(DataBuffer.TYPE_BYTE, 0, 1), makeTile(DataBuffer.TYPE_FLOAT, 0, 1)};
+    for (RasterTile tile : tiles)
+    {
+      final ImageStatsAccumulator stats = new ImageStatsAccumulator(BANDS, new double[]{0, 0},
+          10, new double[]{0, 0}, new double[]{100, 200});
+      stats.add(tile);
+
+      final long[] expected0 = new long[10];
+      final long[] expected1 = new long[10];
+      for (int i = 0; i < tile.getNumSamples(); i++)
+      {
+        final double v = tile.getDouble(i);
+        if (v != 0 && !Double.isNaN(v))
+        {
+          if (i % BANDS == 0)
+          {
+            expected0[Math.min(9, (int) (v / 10))]++;
+          }
+          else
+          {
+            expected1[(int) (v / 20)]++;
+          }
+        }
+      }
+
+      long total = 0;
+      for (int bin = 0; bin < 10; bin++)
+      {
+        Assert.assertEquals(expected0[bin], stats.getHistogram(0)[bin]);
+        Assert.assertEquals(expected1[bin], stats.getHistogram(1)[bin]);
+        total += stats.getHistogram(0)[bin];
+      }
+      Assert.assertEquals(stats.getCount(0), total);
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.image;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+@SuppressWarnings("static-method")
+public class QuantileSketchTest
+{
+  private static final double[] DECILES = {0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9};
+
+  // 0 .. count-1 in random order, so each value is also its rank
+  private static double[] shuffled(int count)
+  {
+    final double[] values = new double[count];
+    for (int i = 0; i < count; i++)
+    {
+      values[i] = i;
+    }
+
+    final Random random = new Random(42);
+    for (int i = count - 1; i > 0; i--)
+    {
+      final int j = random.nextInt(i + 1);
+      final double tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+    return values;
+  }
+
+  private static void assertRanks(QuantileSketch sketch, int count)
+  {
+    final double[] quantiles = sketch.quantiles(DECILES);
+    for (int q = 0; q < DECILES.length; q++)
+    {
+      final double error = Math.abs(quantiles[q] - DECILES[q] * count) / count;
+      Assert.assertTrue("quantile " + DECILES[q] + " is " + quantiles[q] + ", rank error " + error,
+          error <= 2 * sketch.getError());
+    }
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void exactWhenSmall()
+  {
+    final double[] values = shuffled(100);
+    final QuantileSketch sketch = new QuantileSketch();
+    for (double v : values)
+    {
+      sketch.add(v);
+    }
+
+    Assert.assertEquals(100, sketch.getCount());
+    Assert.assertEquals(0.0, sketch.getMin(), 0.0);
+    Assert.assertEquals(99.0, sketch.getMax(), 0.0);
+
+    // the value at index ceil(fraction * count) of the sorted values
+    Assert.assertEquals(50.0, sketch.quantile(0.5), 0.0);
+    Assert.assertEquals(26.0, sketch.quantile(0.255), 0.0);
+    Assert.assertEquals(0.0, sketch.quantile(0.0), 0.0);
+    Assert.assertEquals(99.0, sketch.quantile(1.0), 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void emptyAndNaN()
+  {
+    final QuantileSketch sketch = new QuantileSketch();
+    Assert.assertTrue(Double.isNaN(sketch.quantile(0.5)));
+
+    sketch.add(new double[]{Double.NaN, 3.0, Double.NaN, 1.0, 2.0}, 0, 5);
+    Assert.assertEquals(3, sketch.getCount());
+    Assert.assertEquals(3.0, sketch.quantile(0.5), 0.0);
+    Assert.assertEquals(1.0, sketch.getMin(), 0.0);
+    Assert.assertEquals(3.0, sketch.getMax(), 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void accuracy()
+  {
+    final int count = 1000000;
+    final double[] values = shuffled(count);
+
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.add(values, 0, count);
+
+    Assert.assertEquals(count, sketch.getCount());
+    Assert.assertEquals(0.0, sketch.getMin(), 0.0);
+    Assert.assertEquals(count - 1, sketch.getMax(), 0.0);
+    assertRanks(sketch, count);
+
+    int retained = 0;
+    for (double[] level : sketch.getLevels())
+    {
+      retained += level.length;
+    }
+    Assert.assertTrue("retained " + retained + " values", retained < 2000);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void merge()
+  {
+    final int count = 1000000;
+    final int parts = 16;
+    final double[] values = shuffled(count);
+
+    final QuantileSketch merged = new QuantileSketch();
+    for (int p = 0; p < parts; p++)
+    {
+      final QuantileSketch part = new QuantileSketch();
+      final int start = p * (count / parts);
+      part.add(values, start, count / parts);
+      merged.merge(part);
+    }
+
+    Assert.assertEquals(count, merged.getCount());
+    Assert.assertEquals(0.0, merged.getMin(), 0.0);
+    Assert.assertEquals(count - 1, merged.getMax(), 0.0);
+    assertRanks(merged, count);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void errorBounds()
+  {
+    final int k = QuantileSketch.kForError(0.005);
+    final QuantileSketch sketch = new QuantileSketch(k);
+    Assert.assertTrue(sketch.getError() <= 0.005);
+    Assert.assertTrue(new QuantileSketch().getError() > sketch.getError());
+
+    final int count = 200000;
+    sketch.add(shuffled(count), 0, count);
+    assertRanks(sketch, count);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void storedInMetadata() throws IOException
+  {
+    final int count = 100000;
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.add(shuffled(count), 0, count);
+
+    final MrsPyramidMetadata meta = new MrsPyramidMetadata();
+    meta.setBounds(new Bounds(-1, -1, 1, 1));
+    meta.setBands(1);
+    meta.setDefaultValues(new double[]{Double.NaN});
+    meta.setMaxZoomLevel(3);
+    meta.setQuantileSketch(0, sketch);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    meta.save(out);
+    final MrsPyramidMetadata loaded = MrsPyramidMetadata.load(new ByteArrayInputStream(out.toByteArray()));
+
+    final QuantileSketch stored = loaded.getQuantileSketch(0);
+    Assert.assertNotNull(stored);
+    Assert.assertEquals(sketch.getCount(), stored.getCount());
+    Assert.assertEquals(sketch.getK(), stored.getK());
+    Assert.assertTrue(Arrays.equals(sketch.quantiles(DECILES), stored.quantiles(DECILES)));
+    Assert.assertEquals(sketch.quantile(0.02), loaded.getQuantile(0, 0.02), 0.0);
+
+    // the copy is a deep copy
+    final MrsPyramidMetadata copy = new MrsPyramidMetadata(loaded);
+    copy.getQuantileSketch(0).add(-1.0);
+    Assert.assertEquals(count, loaded.getQuantileSketch(0).getCount());
+
+    // metadata without sketches doesn't write them
+    final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    final MrsPyramidMetadata unsketched = new MrsPyramidMetadata(meta);
+    unsketched.setQuantileSketches(null);
+    unsketched.save(plain);
+    Assert.assertFalse(plain.toString().contains("quantileSketches"));
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra;
+
+import junit.framework.Assert;
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.raster.RasterWritable;
+import org.mrgeo.data.rdd.AutoPersister;
+import org.mrgeo.data.rdd.RasterRDD;
+import org.mrgeo.data.tile.TileIdWritable;
+import org.mrgeo.image.MrsPyramidMetadata;
+import org.mrgeo.job.JobArguments;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.mapalgebra.parser.ParserFunctionNode;
+import org.mrgeo.mapalgebra.parser.ParserNode;
+import org.mrgeo.mapalgebra.parser.ParserVariableNode;
+import org.mrgeo.mapalgebra.raster.RasterMapOp;
+import org.mrgeo.test.SparkLocalRunnerTest;
+import org.mrgeo.utils.LongRectangle;
+import org.mrgeo.utils.tms.Bounds;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.mutable.HashMap;
+import scala.runtime.AbstractFunction1;
+
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@SuppressWarnings("static-method")
+public class PersistencePlannerTest extends SparkLocalRunnerTest
+{
+  private static final long MB = 1024 * 1024;
+  private static final double CHEAP = PersistencePlanner.NarrowCost() * 2 + PersistencePlanner.ReadCost();
+  private static final double EXPENSIVE = PersistencePlanner.ShuffleCost() + PersistencePlanner.ReadCost();
+
+  @Test
+  @Category(UnitTest.class)
+  public void usedOnce()
+  {
+    Assert.assertEquals(StorageLevel.NONE(), PersistencePlanner.chooseLevel(1, EXPENSIVE, MB, 100 * MB, 50 * MB));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void unknownSize()
+  {
+    Assert.assertEquals(StorageLevel.MEMORY_AND_DISK_SER(),
+        PersistencePlanner.chooseLevel(2, CHEAP, -1, 100 * MB, 50 * MB));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void expensive()
+  {
+    // in memory when it fits, otherwise on disk rather than pushing out other rdds
+    Assert.assertEquals(StorageLevel.MEMORY_AND_DISK_SER(),
+        PersistencePlanner.chooseLevel(3, EXPENSIVE, 80 * MB, 100 * MB, 0));
+    Assert.assertEquals(StorageLevel.DISK_ONLY(),
+        PersistencePlanner.chooseLevel(3, EXPENSIVE, 200 * MB, 100 * MB, 50 * MB));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void cheap()
+  {
+    // only in memory, and only in the cheap share of it, otherwise it is made again
+    Assert.assertEquals(StorageLevel.MEMORY_ONLY_SER(),
+        PersistencePlanner.chooseLevel(2, CHEAP, 40 * MB, 100 * MB, 50 * MB));
+    Assert.assertEquals(StorageLevel.NONE(),
+        PersistencePlanner.chooseLevel(2, CHEAP, 80 * MB, 100 * MB, 50 * MB));
+  }
+
+  // a raster map op with a fixed rdd
+  private static class TestMapOp extends RasterMapOp
+  {
+    private final RasterRDD rdd;
+
+    TestMapOp(RDD<Tuple2<TileIdWritable, RasterWritable>> rdd)
+    {
+      this.rdd = (rdd == null) ? null : RasterRDD.apply(rdd);
+    }
+
+    @Override
+    public Option<RasterRDD> rdd()
+    {
+      return Option.apply(rdd);
+    }
+
+    @Override
+    public boolean setup(JobArguments job, SparkConf conf)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean execute(SparkContext context)
+    {
+      return true;
+    }
+
+    @Override
+    public boolean teardown(JobArguments job, SparkConf conf)
+    {
+      return true;
+    }
+  }
+
+  private static class Identity implements Function<RasterWritable, RasterWritable>
+  {
+    @Override
+    public RasterWritable call(RasterWritable tile)
+    {
+      return tile;
+    }
+  }
+
+  private static class Variables extends AbstractFunction1<String, Option<ParserNode>>
+  {
+    private final Map<String, ParserNode> variables = new java.util.HashMap<>();
+
+    @Override
+    public Option<ParserNode> apply(String name)
+    {
+      return Option.apply(variables.get(name));
+    }
+  }
+
+  private static ParserFunctionNode function(String name, MapOp op, ParserNode... children)
+  {
+    ParserFunctionNode node = new ParserFunctionNode();
+    node.setName(name);
+    node.setMapOp(op);
+    for (ParserNode child : children)
+    {
+      node.addChild(child);
+    }
+    return node;
+  }
+
+  private static ParserVariableNode variable(String name)
+  {
+    ParserVariableNode node = new ParserVariableNode();
+    node.setName(name);
+    return node;
+  }
+
+  private JavaPairRDD<TileIdWritable, RasterWritable> tiles()
+  {
+    List<Tuple2<TileIdWritable, RasterWritable>> tiles = new ArrayList<>();
+    for (long id = 0; id < 4; id++)
+    {
+      tiles.add(new Tuple2<>(new TileIdWritable(id), new RasterWritable()));
+    }
+    return new JavaSparkContext(sparkContext()).parallelizePairs(tiles, 2);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void lineageCost()
+  {
+    JavaPairRDD<TileIdWritable, RasterWritable> read = tiles();
+    JavaPairRDD<TileIdWritable, RasterWritable> narrow = read.mapValues(new Identity());
+    JavaPairRDD<TileIdWritable, RasterWritable> shuffled = narrow.partitionBy(new HashPartitioner(3));
+
+    HashMap<Object, Object> known = new HashMap<>();
+    Assert.assertEquals(PersistencePlanner.ReadCost(), PersistencePlanner.lineageCost(read.rdd(), known), 1e-9);
+    Assert.assertEquals(PersistencePlanner.ReadCost() + PersistencePlanner.NarrowCost(),
+        PersistencePlanner.lineageCost(narrow.rdd(), known), 1e-9);
+    Assert.assertEquals(PersistencePlanner.ReadCost() + PersistencePlanner.NarrowCost() + PersistencePlanner.ShuffleCost(),
+        PersistencePlanner.lineageCost(shuffled.rdd(), known), 1e-9);
+
+    // a shared parent is only counted once
+    JavaPairRDD<TileIdWritable, RasterWritable> other = read.mapValues(new Identity());
+    Assert.assertEquals(PersistencePlanner.ReadCost() + PersistencePlanner.NarrowCost() * 4,
+        PersistencePlanner.lineageCost(narrow.union(other).rdd(), known), 1e-9);
+
+    // the walk stops at rdds whose cost is known, and at kept ones
+    known.put(narrow.rdd().id(), 0.5);
+    Assert.assertEquals(0.5 + PersistencePlanner.ShuffleCost(),
+        PersistencePlanner.lineageCost(shuffled.rdd(), known), 1e-9);
+
+    read.persist(StorageLevel.MEMORY_ONLY());
+    Assert.assertEquals(PersistencePlanner.NarrowCost(),
+        PersistencePlanner.lineageCost(other.rdd(), new HashMap<Object, Object>()), 1e-9);
+  }
+
+  // src = source
+  // a = f(src)
+  // g(a, a, h(src))
+  @Test
+  @Category(UnitTest.class)
+  public void countsUses()
+  {
+    TestMapOp src = new TestMapOp(null);
+    TestMapOp f = new TestMapOp(null);
+    TestMapOp g = new TestMapOp(null);
+    TestMapOp h = new TestMapOp(null);
+
+    Variables variables = new Variables();
+    variables.variables.put("src", function("source", src));
+    variables.variables.put("a", function("f", f, variable("src")));
+
+    ParserNode[] nodes = {
+        function("=", null, variable("src"), variables.variables.get("src")),
+        function("=", null, variable("a"), variables.variables.get("a")),
+        function("g", g, variable("a"), variable("a"), function("h", h, variable("src")))
+    };
+
+    PersistencePlanner planner = new PersistencePlanner(sparkContext());
+    planner.plan(nodes, variables);
+
+    Assert.assertEquals(2, planner.uses(src));
+    Assert.assertEquals(2, planner.uses(f));
+    Assert.assertEquals(1, planner.uses(h));
+    // the output is saved
+    Assert.assertEquals(1, planner.uses(g));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void releasesEveryPlannedRdd()
+  {
+    // kept: used twice, size unknown
+    TestMapOp kept = new TestMapOp(tiles().rdd());
+
+    // planned, but not kept: used twice, cheap, and far too big for the budget
+    TestMapOp recomputed = new TestMapOp(tiles().rdd());
+    MrsPyramidMetadata meta = new MrsPyramidMetadata();
+    meta.setBands(1);
+    meta.setTileType(DataBuffer.TYPE_FLOAT);
+    meta.setTilesize(512);
+    meta.setBounds(new Bounds(-180.0, -90.0, 180.0, 90.0));
+    meta.setMaxZoomLevel(10);
+    meta.setTileBounds(10, new LongRectangle(0, 0, 1023, 511));
+    recomputed.metadata(meta);
+
+    TestMapOp output = new TestMapOp(null);
+
+    Variables variables = new Variables();
+    variables.variables.put("k", function("kept", kept));
+    variables.variables.put("r", function("recomputed", recomputed));
+
+    ParserNode[] nodes = {
+        function("=", null, variable("k"), variables.variables.get("k")),
+        function("=", null, variable("r"), variables.variables.get("r")),
+        function("out", output, variable("k"), variable("k"), variable("r"), variable("r"))
+    };
+
+    PersistencePlanner planner = new PersistencePlanner(sparkContext());
+    planner.plan(nodes, variables);
+    planner.executed(kept);
+    planner.executed(recomputed);
+
+    RDD<?> keptRdd = kept.rdd().get();
+    RDD<?> recomputedRdd = recomputed.rdd().get();
+
+    Assert.assertTrue(AutoPersister.isPlanned(keptRdd));
+    Assert.assertEquals(AutoPersister.defaultStorageLevel(), keptRdd.getStorageLevel());
+    Assert.assertTrue(AutoPersister.isPlanned(recomputedRdd));
+    Assert.assertEquals(StorageLevel.NONE(), recomputedRdd.getStorageLevel());
+
+    planner.release();
+
+    Assert.assertFalse(AutoPersister.isPlanned(keptRdd));
+    Assert.assertEquals(StorageLevel.NONE(), keptRdd.getStorageLevel());
+    Assert.assertFalse(AutoPersister.isPlanned(recomputedRdd));
+  }
+}
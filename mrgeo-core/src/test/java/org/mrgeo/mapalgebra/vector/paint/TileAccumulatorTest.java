@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra.vector.paint;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.raster.RasterWritable;
+import org.mrgeo.geometry.GeometryFactory;
+import org.mrgeo.geometry.LineString;
+import org.mrgeo.geometry.WritablePolygon;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.utils.tms.Bounds;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+
+@SuppressWarnings("static-method")
+public class TileAccumulatorTest
+{
+  // a 10x10 pixel tile, one unit per pixel
+  private static final int SIZE = 10;
+  private static final Bounds TILE = new Bounds(0, 0, SIZE, SIZE);
+
+  private static WritablePolygon square(double w, double s, double e, double n)
+  {
+    return GeometryFactory.createPolygon(GeometryFactory.createPoint(w, s),
+        GeometryFactory.createPoint(e, s), GeometryFactory.createPoint(e, n),
+        GeometryFactory.createPoint(w, n), GeometryFactory.createPoint(w, s));
+  }
+
+  private static int count(Raster raster, double value)
+  {
+    int found = 0;
+    for (int y = 0; y < SIZE; y++)
+    {
+      for (int x = 0; x < SIZE; x++)
+      {
+        double v = raster.getSampleDouble(x, y, 0);
+        if (Double.isNaN(value) ? Double.isNaN(v) : v == value)
+        {
+          found++;
+        }
+      }
+    }
+    return found;
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void maskWithHole() throws IOException
+  {
+    WritablePolygon polygon = square(2, 2, 6, 6);
+    polygon.addInteriorRing(GeometryFactory.createLinearRing(square(3, 3, 5, 5).getExteriorRing()));
+
+    TileAccumulator accumulator = new TileAccumulator(VectorPainter.AggregationType.MASK, SIZE);
+    accumulator.add(TileShape.clip(polygon, TILE, SIZE, 1.0));
+
+    Raster raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(12, count(raster, 0.0));
+
+    // the hole, and the pixel north of the square (the y axis is flipped)
+    Assert.assertTrue(Double.isNaN(raster.getSampleDouble(3, 5, 0)));
+    Assert.assertTrue(Double.isNaN(raster.getSampleDouble(2, 3, 0)));
+    Assert.assertEquals(0.0, raster.getSampleDouble(2, 4, 0), 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void sumMerged() throws IOException
+  {
+    TileAccumulator a1 = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    a1.add(TileShape.clip(square(0, 0, 4, 4), TILE, SIZE, 2.0));
+    TileAccumulator a2 = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    a2.add(TileShape.clip(square(2, 2, 6, 6), TILE, SIZE, 3.0));
+
+    Raster raster = RasterWritable.toRaster(a1.merge(a2).toWritable());
+    Assert.assertEquals(4, count(raster, 5.0));
+    Assert.assertEquals(12, count(raster, 2.0));
+    Assert.assertEquals(12, count(raster, 3.0));
+    Assert.assertEquals(SIZE * SIZE - 28, count(raster, Double.NaN));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void average() throws IOException
+  {
+    TileAccumulator accumulator = new TileAccumulator(VectorPainter.AggregationType.AVERAGE, SIZE);
+    accumulator.add(TileShape.clip(square(0, 0, 4, 4), TILE, SIZE, 2.0));
+    accumulator.merge(new TileAccumulator(VectorPainter.AggregationType.AVERAGE, SIZE)
+        .add(TileShape.clip(square(2, 2, 6, 6), TILE, SIZE, 4.0)));
+
+    Raster raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(4, count(raster, 3.0));
+    Assert.assertEquals(12, count(raster, 2.0));
+    Assert.assertEquals(12, count(raster, 4.0));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void clipped() throws IOException
+  {
+    Assert.assertNull(TileShape.clip(square(20, 20, 30, 30), TILE, SIZE, 1.0));
+
+    TileAccumulator accumulator = new TileAccumulator(VectorPainter.AggregationType.MAX, SIZE);
+    accumulator.add(TileShape.clip(square(-50, -50, 50, 50), TILE, SIZE, 7.0));
+    accumulator.add(TileShape.clip(square(-50, -50, 5, 50), TILE, SIZE, 9.0));
+
+    Raster raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(SIZE * SIZE / 2, count(raster, 9.0));
+    Assert.assertEquals(SIZE * SIZE / 2, count(raster, 7.0));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void line() throws IOException
+  {
+    LineString line = GeometryFactory.createLineString(GeometryFactory.createPoint(-5, 5.5),
+        GeometryFactory.createPoint(15, 5.5));
+
+    TileAccumulator accumulator = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    accumulator.add(TileShape.clip(line, TILE, SIZE, 1.0));
+    accumulator.add(TileShape.clip(GeometryFactory.createPoint(0.5, 0.5), TILE, SIZE, 1.0));
+
+    // each pixel the line passes through is counted once
+    Raster raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(SIZE + 1, count(raster, 1.0));
+    Assert.assertEquals(1.0, raster.getSampleDouble(0, 4, 0), 0.0);
+    Assert.assertEquals(1.0, raster.getSampleDouble(0, 9, 0), 0.0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void lineOnTileEdge() throws IOException
+  {
+    // along the east edge of the tile, which is the west edge of the tile to its east
+    LineString east = GeometryFactory.createLineString(GeometryFactory.createPoint(SIZE, 2.5),
+        GeometryFactory.createPoint(SIZE, 8.5));
+    Assert.assertNull(TileShape.clip(east, TILE, SIZE, 1.0));
+
+    TileAccumulator accumulator = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    accumulator.add(TileShape.clip(east, new Bounds(SIZE, 0, 2 * SIZE, SIZE), SIZE, 1.0));
+    Raster raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(7, count(raster, 1.0));
+    Assert.assertEquals(1.0, raster.getSampleDouble(0, 1, 0), 0.0);
+    Assert.assertEquals(1.0, raster.getSampleDouble(0, 7, 0), 0.0);
+
+    // along the south edge, which is the north edge of the tile below
+    LineString south = GeometryFactory.createLineString(GeometryFactory.createPoint(2.5, 0),
+        GeometryFactory.createPoint(8.5, 0));
+    Assert.assertNull(TileShape.clip(south, TILE, SIZE, 1.0));
+
+    accumulator = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    accumulator.add(TileShape.clip(south, new Bounds(0, -SIZE, SIZE, 0), SIZE, 1.0));
+    raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(7, count(raster, 1.0));
+    Assert.assertEquals(1.0, raster.getSampleDouble(2, 0, 0), 0.0);
+    Assert.assertEquals(1.0, raster.getSampleDouble(8, 0, 0), 0.0);
+
+    // a line crossing the edge is split between the tiles, no pixel is painted in both
+    LineString crossing = GeometryFactory.createLineString(GeometryFactory.createPoint(SIZE - 2.5, 5.5),
+        GeometryFactory.createPoint(SIZE + 2.5, 5.5));
+    accumulator = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    accumulator.add(TileShape.clip(crossing, TILE, SIZE, 1.0));
+    raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(3, count(raster, 1.0));
+    Assert.assertEquals(1.0, raster.getSampleDouble(SIZE - 1, 4, 0), 0.0);
+
+    accumulator = new TileAccumulator(VectorPainter.AggregationType.SUM, SIZE);
+    accumulator.add(TileShape.clip(crossing, new Bounds(SIZE, 0, 2 * SIZE, SIZE), SIZE, 1.0));
+    raster = RasterWritable.toRaster(accumulator.toWritable());
+    Assert.assertEquals(3, count(raster, 1.0));
+    Assert.assertEquals(1.0, raster.getSampleDouble(0, 4, 0), 0.0);
+  }
+}
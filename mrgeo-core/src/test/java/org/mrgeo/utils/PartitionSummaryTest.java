@@ -0,0 +1,141 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.utils;
+
+import junit.framework.Assert;
+import org.apache.spark.Accumulable;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.data.raster.RasterTile;
+import org.mrgeo.data.raster.RasterWritable;
+import org.mrgeo.data.rdd.RasterRDD;
+import org.mrgeo.data.tile.TileIdWritable;
+import org.mrgeo.hdfs.tile.FileSplit;
+import org.mrgeo.image.ImageStats;
+import org.mrgeo.junit.UnitTest;
+import org.mrgeo.test.SparkLocalRunnerTest;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.mutable.HashMap;
+import scala.runtime.AbstractFunction1;
+
+import java.awt.image.DataBuffer;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("static-method")
+public class PartitionSummaryTest extends SparkLocalRunnerTest
+{
+  private static final double NODATA = -9999.0;
+
+  @Test
+  @Category(UnitTest.class)
+  public void summarize()
+  {
+    final List<Tuple2<TileIdWritable, RasterWritable>> tiles = new ArrayList<>();
+    for (long id = 10; id < 30; id++)
+    {
+      final RasterTile tile = RasterTile.createEmptyTile(16, 16, 2, DataBuffer.TYPE_FLOAT, NODATA);
+      for (int i = 0; i < tile.getNumSamples(); i++)
+      {
+        // every 7th sample is nodata
+        tile.setDouble(i, (i % 7 == 0) ? NODATA : id * 1000 + i);
+      }
+      tiles.add(new Tuple2<>(new TileIdWritable(id), tile.toWritable()));
+    }
+
+    final RasterRDD rdd = RasterRDD.apply(new JavaSparkContext(sparkContext()).parallelizePairs(tiles, 4).rdd());
+
+    final double[] nodatas = new double[]{NODATA, NODATA};
+    final Tuple2<RasterRDD, Accumulable<HashMap<Object, PartitionSummary>, PartitionSummary>> summarized =
+        PartitionSummary.summarize(rdd, nodatas);
+
+    // nothing is reported until the partitions are read
+    Assert.assertTrue(PartitionSummary.collect(summarized._2(), 4).isEmpty());
+
+    // reading the partitions more than once doesn't count them twice
+    Assert.assertEquals(20, summarized._1().count());
+    Assert.assertEquals(20, summarized._1().count());
+
+    final Option<PartitionSummary[]> collected = PartitionSummary.collect(summarized._2(), 4);
+    Assert.assertTrue(collected.isDefined());
+    final PartitionSummary[] parts = collected.get();
+
+    long count = 0;
+    for (PartitionSummary part : parts)
+    {
+      count += part.count();
+    }
+    Assert.assertEquals(20, count);
+
+    final ImageStats[] expected = SparkUtils.calculateStats(rdd, 2, new Number[]{NODATA, NODATA});
+    final ImageStats[] stats = PartitionSummary.combineStats(parts, 2);
+    for (int b = 0; b < 2; b++)
+    {
+      Assert.assertEquals(expected[b].count, stats[b].count);
+      Assert.assertEquals(expected[b].min, stats[b].min, 0.0);
+      Assert.assertEquals(expected[b].max, stats[b].max, 0.0);
+      Assert.assertEquals(expected[b].sum, stats[b].sum, 1e-6);
+      Assert.assertEquals(expected[b].mean, stats[b].mean, 1e-9);
+    }
+
+    final FileSplit.FileSplitInfo[] splits = PartitionSummary.splits(parts);
+    final FileSplit.FileSplitInfo[] expectedSplits = SparkUtils.calculateSplitData(rdd);
+    Assert.assertEquals(expectedSplits.length, splits.length);
+    for (int i = 0; i < splits.length; i++)
+    {
+      Assert.assertEquals(expectedSplits[i].getStartId(), splits[i].getStartId());
+      Assert.assertEquals(expectedSplits[i].getEndId(), splits[i].getEndId());
+      Assert.assertEquals(expectedSplits[i].getName(), splits[i].getName());
+    }
+  }
+
+  // keeps the tiles that aren't all nodata
+  private static class KeepData extends AbstractFunction1<RasterWritable, Object> implements Serializable
+  {
+    @Override
+    public Object apply(RasterWritable tile)
+    {
+      return !RasterWritable.isNodata(tile, new double[]{NODATA});
+    }
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void filter()
+  {
+    final List<Tuple2<TileIdWritable, RasterWritable>> tiles = new ArrayList<>();
+    for (long id = 0; id < 20; id++)
+    {
+      // every 4th tile is nodata
+      final double value = (id % 4 == 0) ? NODATA : id;
+      tiles.add(new Tuple2<>(new TileIdWritable(id),
+          RasterWritable.createConstant(16, 16, 1, DataBuffer.TYPE_FLOAT, new double[]{value})));
+    }
+
+    final RasterRDD rdd = RasterRDD.apply(new JavaSparkContext(sparkContext()).parallelizePairs(tiles, 4).rdd());
+    final Tuple2<RasterRDD, Accumulable<HashMap<Object, Object>, Tuple2<Object, Object>>> filtered =
+        PartitionSummary.filter(rdd, new KeepData());
+
+    // reading some, or all, of the partitions more than once doesn't count the dropped tiles twice
+    filtered._1().take(1);
+    Assert.assertEquals(15, filtered._1().count());
+    Assert.assertEquals(15, filtered._1().count());
+    Assert.assertEquals(5L, PartitionSummary.dropped(filtered._2()));
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.ingest
+
+import java.io.File
+
+import junit.framework.Assert
+import org.gdal.gdalconst.gdalconstConstants
+import org.junit.experimental.categories.Category
+import org.junit.{BeforeClass, Test}
+import org.mrgeo.data.raster.RasterWritable
+import org.mrgeo.junit.UnitTest
+import org.mrgeo.test.TestUtils
+import org.mrgeo.utils.GDALUtils
+import org.mrgeo.utils.tms.{Bounds, TMSUtils}
+
+object IngestImageTest
+{
+  val Zoom = 8
+  val Tilesize = 16
+  // bytes in a tile of the image (1 float band)
+  val TileBytes = Tilesize * Tilesize * 4
+
+  val Resolution = TMSUtils.resolution(Zoom, Tilesize)
+
+  // 75 x 45 pixels at the zoom's resolution, not lined up with the tiles, so the edge tiles are partly empty
+  val Width = 75
+  val Height = 45
+  val ImageBounds = new Bounds(10.1, 20.3 - Height * Resolution, 10.1 + Width * Resolution, 20.3)
+
+  var image:String = null
+
+  @BeforeClass
+  def init():Unit =
+  {
+    val file = new File(TestUtils.composeOutputDir(classOf[IngestImageTest]), "image.tif")
+    image = file.getCanonicalPath
+
+    val ds = GDALUtils.createEmptyDiskRaster(image, Width, Height, 1, gdalconstConstants.GDT_Float32,
+      Array(-9999.0), ImageBounds, Tilesize)
+    val values = Array.tabulate[Float](Width * Height)(i => (i % Width + (i / Width) * 100).toFloat)
+    ds.GetRasterBand(1).WriteRaster(0, 0, Width, Height, values)
+    GDALUtils.close(ds)
+  }
+
+  // the tiles covering the image, as (width, height)
+  def tileExtent():(Int, Int) =
+  {
+    val tiles = TMSUtils.boundsToTile(ImageBounds, Zoom, Tilesize)
+    (tiles.width().toInt, tiles.height().toInt)
+  }
+}
+
+class IngestImageTest
+{
+  import IngestImageTest._
+
+  private def tiles(windows:Array[IngestWindow]):Seq[(Long, RasterWritable)] =
+  {
+    windows.toSeq.flatMap(window => new IngestImage.WindowTiles(window, Zoom, Tilesize, false)
+        .map(tile => (tile._1.get(), tile._2)).toList)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def windowsCoverImage():Unit =
+  {
+    val (width, height) = tileExtent()
+    Assert.assertTrue(width > 1 && height > 1)
+
+    // a tile, less than a row, a row and a bit, a few rows, and the whole image
+    for (windowbytes <- Array(TileBytes.toLong, 3L * TileBytes, (width + 1L) * TileBytes, 2L * width * TileBytes + 1,
+      Long.MaxValue))
+    {
+      val windows = IngestImage.planWindows(image, Zoom, Tilesize, windowbytes)
+      val covered = Array.ofDim[Int](height, width)
+      for (window <- windows)
+      {
+        Assert.assertEquals(image, window.image)
+        Assert.assertTrue(window.width * window.height * TileBytes.toLong <= Math.max(windowbytes, TileBytes))
+        for (y <- window.top until window.top + window.height; x <- window.left until window.left + window.width)
+        {
+          covered(y)(x) += 1
+        }
+      }
+
+      // every tile is in exactly one window
+      for (y <- 0 until height; x <- 0 until width)
+      {
+        Assert.assertEquals("window bytes " + windowbytes + " tile " + x + ", " + y, 1, covered(y)(x))
+      }
+    }
+
+    Assert.assertEquals(width * height, IngestImage.planWindows(image, Zoom, Tilesize, TileBytes).length)
+    Assert.assertEquals(1, IngestImage.planWindows(image, Zoom, Tilesize, Long.MaxValue).length)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def missingImageHasNoWindows():Unit =
+  {
+    Assert.assertEquals(0, IngestImage.planWindows(new File(new File(image).getParentFile, "missing.tif").getPath,
+      Zoom, Tilesize, TileBytes).length)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def windowTilesMatchWholeImage():Unit =
+  {
+    val (width, height) = tileExtent()
+    val tb = TMSUtils.boundsToTile(ImageBounds, Zoom, Tilesize)
+
+    val whole = tiles(IngestImage.planWindows(image, Zoom, Tilesize, Long.MaxValue)).toMap
+    Assert.assertEquals(width * height, whole.size)
+    for (ty <- tb.s to tb.n; tx <- tb.w to tb.e)
+    {
+      Assert.assertTrue(whole.contains(TMSUtils.tileid(tx, ty, Zoom)))
+    }
+
+    for (windowbytes <- Array(TileBytes.toLong, 3L * TileBytes, (width + 1L) * TileBytes))
+    {
+      val windowed = tiles(IngestImage.planWindows(image, Zoom, Tilesize, windowbytes))
+
+      // no gaps and no tile twice
+      Assert.assertEquals(whole.size, windowed.size)
+      Assert.assertEquals(whole.keySet, windowed.map(_._1).toSet)
+
+      // the pixels along the window edges are the same as when the image is reprojected whole
+      for ((id, writable) <- windowed)
+      {
+        val expected = RasterWritable.toRaster(whole(id))
+        val actual = RasterWritable.toRaster(writable)
+        for (y <- 0 until Tilesize; x <- 0 until Tilesize)
+        {
+          Assert.assertEquals("window bytes " + windowbytes + " tile " + id + " at " + x + ", " + y,
+            expected.getSampleFloat(x, y, 0), actual.getSampleFloat(x, y, 0), 1e-3f)
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.utils
+
+import java.io.{File, IOException}
+import java.nio.file.{Files, StandardCopyOption, StandardOpenOption}
+import java.util
+
+import junit.framework.Assert
+import org.apache.hadoop.fs.Path
+import org.gdal.gdalconst.gdalconstConstants
+import org.junit.experimental.categories.Category
+import org.junit.{BeforeClass, Test}
+import org.mrgeo.junit.UnitTest
+import org.mrgeo.test.TestUtils
+import org.mrgeo.utils.tms.Bounds
+
+object GDALUtilsTest
+{
+  var outputDir:File = null
+  var image:File = null
+
+  @BeforeClass
+  def init():Unit =
+  {
+    outputDir = new File(TestUtils.composeOutputDir(classOf[GDALUtilsTest]))
+    image = new File(outputDir, "image.tif")
+
+    val ds = GDALUtils.createEmptyDiskRaster(image.getCanonicalPath, 20, 10, 1, gdalconstConstants.GDT_Byte,
+      Array(0.0), new Bounds(10.0, 20.0, 12.0, 21.0), 16)
+    GDALUtils.close(ds)
+  }
+}
+
+class GDALUtilsTest
+{
+  import GDALUtilsTest._
+
+  private def assertOpens(name:String):Unit =
+  {
+    val ds = GDALUtils.openRanged(name)
+    Assert.assertNotNull(ds)
+    try
+    {
+      Assert.assertEquals(20, ds.getRasterXSize)
+      Assert.assertEquals(10, ds.getRasterYSize)
+    }
+    finally
+    {
+      GDALUtils.close(ds)
+    }
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def openRangedLocal():Unit =
+  {
+    assertOpens(image.getCanonicalPath)
+    assertOpens(image.toURI.toString)
+  }
+
+  @Test(expected = classOf[IOException])
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def openRangedMissing():Unit =
+  {
+    GDALUtils.openRanged(new File(outputDir, "missing.tif").toURI.toString)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def localCopy():Unit =
+  {
+    val source = new File(outputDir, "source.tif")
+    Files.copy(image.toPath, source.toPath, StandardCopyOption.REPLACE_EXISTING)
+    val path = new Path(source.toURI)
+
+    val copy = GDALUtils.localCopy(path)
+    Assert.assertFalse(copy.getCanonicalPath == source.getCanonicalPath)
+    Assert.assertTrue(util.Arrays.equals(Files.readAllBytes(source.toPath), Files.readAllBytes(copy.toPath)))
+    assertOpens(copy.getCanonicalPath)
+
+    // every open shares the copy
+    Assert.assertEquals(copy, GDALUtils.localCopy(path))
+
+    // until it is deleted...
+    Assert.assertTrue(copy.delete())
+    val recopied = GDALUtils.localCopy(path)
+    Assert.assertTrue(recopied.exists())
+
+    // ...or the image changes
+    Files.write(source.toPath, Array[Byte](0), StandardOpenOption.APPEND)
+    val changed = GDALUtils.localCopy(path)
+    Assert.assertFalse(changed == recopied)
+    Assert.assertEquals(source.length(), changed.length())
+  }
+}
@@ -22,6 +22,7 @@ import java.text.DecimalFormat
 
 import org.apache.spark.SparkContext
 import org.apache.spark.storage.StorageLevel
+import org.mrgeo.data.image.MrsImageTileCache
 import org.mrgeo.data.raster.RasterWritable
 import org.mrgeo.data.rdd.{RasterRDD, VectorRDD}
 import org.mrgeo.data.vector.FeatureIdWritable
@@ -68,6 +69,8 @@ class LeastCostPathCalculator extends Externalizable
   private val dx: Array[Short] = Array[Short](-1, 0, 1, 1, 1, 0, -1, -1)
   private val dy: Array[Short] = Array[Short](-1, -1, -1, 0, 1, 1, 1, 0)
   private var tilecache = collection.mutable.Map[Long,Raster]()
+  // tiles that fall out of tilecache are also kept in the shared tile cache, under this name
+  private var cacheName: String = null
   private var sparkContext: SparkContext = null
 
   @throws(classOf[IOException])
@@ -86,6 +89,7 @@ class LeastCostPathCalculator extends Externalizable
   {
     try {
       cdrdd.persist(StorageLevel.MEMORY_AND_DISK_SER)
+      cacheName = "rdd:" + cdrdd.id
       val destGeom = pointsrdd.first()._2
       if (!destGeom.isInstanceOf[Point]) {
         throw new IOException("Expected a point to be passed to LeastCostPath, but instead got " + destGeom)
@@ -122,6 +126,7 @@ class LeastCostPathCalculator extends Externalizable
       lcpData += ((new FeatureIdWritable(1), lcp))
       VectorRDD(sparkContext.parallelize(lcpData))
     } finally {
+      MrsImageTileCache.getInstance.invalidate(cacheName)
       cdrdd.unpersist()
     }
   }
@@ -245,20 +250,31 @@ class LeastCostPathCalculator extends Externalizable
     result match {
       case Some(r) => r
       case None =>
-        tilecache.clear()
-        // Each time a tile needs to be loaded into the cache, get a 7 x 7 area
-        // of tiles centered around the requested tile. Because of how LCP works,
-        // it always requests consecutive tiles, so this should limit the number
-        // of times overall that we have to filter the RDD.
-        val filteredRdd = cdrdd.filter(tile => {
-          val checkTile = TMSUtils.tileid(tile._1.get(), zoomLevel)
-          checkTile.tx >= tx - 3 && checkTile.tx <= tx + 3 &&
-            checkTile.ty >= ty - 3 && checkTile.ty <= ty + 3
-        }).collect().foreach(U => {
-          val raster = RasterWritable.toRaster(U._2)
-          tilecache += (U._1.get() -> raster)
-        })
-        tilecache.get(tileid).get
+        // A path that doubles back may find the tile in the shared cache, which
+        // keeps the tiles collected earlier (up to the size of the cache)
+        val cache = MrsImageTileCache.getInstance
+        val cached = cache.get(cacheName, zoomLevel, tileid)
+        if (cached != null) {
+          tilecache += (tileid -> cached)
+          cached
+        }
+        else {
+          tilecache.clear()
+          // Each time a tile needs to be loaded into the cache, get a 7 x 7 area
+          // of tiles centered around the requested tile. Because of how LCP works,
+          // it always requests consecutive tiles, so this should limit the number
+          // of times overall that we have to filter the RDD.
+          cdrdd.filter(tile => {
+            val checkTile = TMSUtils.tileid(tile._1.get(), zoomLevel)
+            checkTile.tx >= tx - 3 && checkTile.tx <= tx + 3 &&
+              checkTile.ty >= ty - 3 && checkTile.ty <= ty + 3
+          }).collect().foreach(U => {
+            val raster = RasterWritable.toRaster(U._2)
+            tilecache += (U._1.get() -> raster)
+            cache.put(cacheName, zoomLevel, U._1.get(), raster)
+          })
+          tilecache.get(tileid).get
+        }
     }
   }
 
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.kernel
+
+// Convolution of a buffered tile (srcW x srcH, the tile plus half a kernel of halo on each side)
+// with a weight kernel, giving a (srcW - kernelW + 1) x (srcH - kernelH + 1) tile.  Weights are
+// row-major, applied as
+//
+//   dst(x, y) = sum(w(kx, ky) * src(x + kx, y + ky)) / sum(w(kx, ky))
+//
+// where both sums only include the source pixels that aren't nodata.  Pixels whose center
+// (src(x + kernelW / 2, y + kernelH / 2)) is nodata, or whose weights sum to 0, are NaN.
+//
+// All the backends give the same answer (within floating point), at different costs per pixel:
+// naive O(kernelW * kernelH), separable O(kernelW + kernelH) and fft O(log(srcW * srcH)).
+object Convolution {
+
+  def naive(src:Array[Double], srcW:Int, srcH:Int, weights:Array[Float], kernelW:Int, kernelH:Int,
+      nodata:Double):Array[Double] = {
+    val dstW = srcW - kernelW + 1
+    val dstH = srcH - kernelH + 1
+    val valid = notNodata(src, nodata)
+    val centerX = kernelW / 2
+    val centerY = kernelH / 2
+
+    val dst = Array.fill[Double](dstW * dstH)(Double.NaN)
+
+    var y:Int = 0
+    while (y < dstH) {
+      var x:Int = 0
+      while (x < dstW) {
+        if (valid((y + centerY) * srcW + x + centerX)) {
+          var result = 0.0
+          var weight = 0.0
+
+          var ky:Int = 0
+          while (ky < kernelH) {
+            val srcOffset = (y + ky) * srcW + x
+            val kernelOffset = ky * kernelW
+            var kx:Int = 0
+            while (kx < kernelW) {
+              val w = weights(kernelOffset + kx)
+              if (w != 0.0 && valid(srcOffset + kx)) {
+                weight += w
+                result += src(srcOffset + kx) * w
+              }
+              kx += 1
+            }
+            ky += 1
+          }
+
+          if (weight != 0.0) {
+            dst(y * dstW + x) = result / weight
+          }
+        }
+        x += 1
+      }
+      y += 1
+    }
+
+    dst
+  }
+
+  // weights(kx, ky) = horizontal(kx) * vertical(ky).  Convolves the rows, then the columns, of the
+  // data and of the nodata mask.
+  def separable(src:Array[Double], srcW:Int, srcH:Int, horizontal:Array[Float], vertical:Array[Float],
+      nodata:Double):Array[Double] = {
+    val kernelW = horizontal.length
+    val kernelH = vertical.length
+    val dstW = srcW - kernelW + 1
+    val dstH = srcH - kernelH + 1
+    val valid = notNodata(src, nodata)
+
+    // horizontal pass, every source row, only the destination columns
+    val rowValues = Array.ofDim[Double](srcH * dstW)
+    val rowWeights = Array.ofDim[Double](srcH * dstW)
+
+    var y:Int = 0
+    while (y < srcH) {
+      var x:Int = 0
+      while (x < dstW) {
+        val srcOffset = y * srcW + x
+        var result = 0.0
+        var weight = 0.0
+        var kx:Int = 0
+        while (kx < kernelW) {
+          if (valid(srcOffset + kx)) {
+            val w = horizontal(kx)
+            weight += w
+            result += src(srcOffset + kx) * w
+          }
+          kx += 1
+        }
+        rowValues(y * dstW + x) = result
+        rowWeights(y * dstW + x) = weight
+        x += 1
+      }
+      y += 1
+    }
+
+    // vertical pass
+    val centerX = kernelW / 2
+    val centerY = kernelH / 2
+    val dst = Array.fill[Double](dstW * dstH)(Double.NaN)
+
+    y = 0
+    while (y < dstH) {
+      var x:Int = 0
+      while (x < dstW) {
+        if (valid((y + centerY) * srcW + x + centerX)) {
+          var result = 0.0
+          var weight = 0.0
+          var ky:Int = 0
+          var offset = y * dstW + x
+          while (ky < kernelH) {
+            val w = vertical(ky)
+            result += rowValues(offset) * w
+            weight += rowWeights(offset) * w
+            offset += dstW
+            ky += 1
+          }
+
+          if (weight != 0.0) {
+            dst(y * dstW + x) = result / weight
+          }
+        }
+        x += 1
+      }
+      y += 1
+    }
+
+    dst
+  }
+
+  def fft(src:Array[Double], srcW:Int, srcH:Int, weights:Array[Float], kernelW:Int, kernelH:Int,
+      nodata:Double):Array[Double] = {
+    new FFTConvolver(weights, kernelW, kernelH, srcW, srcH).convolve(src, nodata)
+  }
+
+  // Split the weights into horizontal and vertical 1-D kernels, if they are separable (the weight
+  // matrix has rank 1)
+  def separate(weights:Array[Float], kernelW:Int, kernelH:Int):Option[(Array[Float], Array[Float])] = {
+    // use the row and column through the largest weight as the 1-D kernels
+    var pivot:Int = 0
+    var i:Int = 1
+    while (i < weights.length) {
+      if (Math.abs(weights(i)) > Math.abs(weights(pivot))) {
+        pivot = i
+      }
+      i += 1
+    }
+
+    val largest = weights(pivot).toDouble
+    if (largest == 0.0) {
+      return None
+    }
+
+    val row = pivot / kernelW
+    val col = pivot % kernelW
+
+    val horizontal = Array.tabulate[Float](kernelW)(kx => weights(row * kernelW + kx))
+    val vertical = Array.tabulate[Float](kernelH)(ky => (weights(ky * kernelW + col) / largest).toFloat)
+
+    val tolerance = Math.abs(largest) * 1e-5
+    var ky:Int = 0
+    while (ky < kernelH) {
+      var kx:Int = 0
+      while (kx < kernelW) {
+        if (Math.abs(weights(ky * kernelW + kx) - horizontal(kx) * vertical(ky)) > tolerance) {
+          return None
+        }
+        kx += 1
+      }
+      ky += 1
+    }
+
+    Some((horizontal, vertical))
+  }
+
+  private[kernel] def notNodata(src:Array[Double], nodata:Double):Array[Boolean] = {
+    val valid = Array.ofDim[Boolean](src.length)
+    var i:Int = 0
+    if (nodata.isNaN) {
+      while (i < src.length) {
+        valid(i) = !src(i).isNaN
+        i += 1
+      }
+    }
+    else {
+      while (i < src.length) {
+        valid(i) = src(i) != nodata
+        i += 1
+      }
+    }
+    valid
+  }
+}
+
+// FFT convolution for large kernels that aren't separable.  The kernel's spectrum is computed once,
+// and reused for every tile of the same size.  Each tile takes one forward and one inverse 2-D FFT:
+// the data (nodata as 0) and the nodata mask are packed as the real and imaginary parts of a single
+// complex image, so the result holds the weighted sums in its real part, and the weights in its
+// imaginary part.
+class FFTConvolver(weights:Array[Float], kernelW:Int, kernelH:Int, srcW:Int, srcH:Int) {
+  // circular convolution of at least the source size doesn't wrap any of the destination pixels
+  private val fftW = FFTConvolver.powerOf2(srcW)
+  private val fftH = FFTConvolver.powerOf2(srcH)
+
+  private val dstW = srcW - kernelW + 1
+  private val dstH = srcH - kernelH + 1
+
+  private val rowTwiddles = FFTConvolver.twiddles(fftW)
+  private val colTwiddles = FFTConvolver.twiddles(fftH)
+
+  // scratch column for the vertical transforms
+  private val columnRe = Array.ofDim[Double](fftH)
+  private val columnIm = Array.ofDim[Double](fftH)
+
+  private val kernelRe = Array.ofDim[Double](fftW * fftH)
+  private val kernelIm = Array.ofDim[Double](fftW * fftH)
+
+  {
+    var ky:Int = 0
+    while (ky < kernelH) {
+      var kx:Int = 0
+      while (kx < kernelW) {
+        kernelRe(ky * fftW + kx) = weights(ky * kernelW + kx)
+        kx += 1
+      }
+      ky += 1
+    }
+    transform(kernelRe, kernelIm, inverse = false)
+  }
+
+  def convolve(src:Array[Double], nodata:Double):Array[Double] = {
+    val valid = Convolution.notNodata(src, nodata)
+
+    val re = Array.ofDim[Double](fftW * fftH)
+    val im = Array.ofDim[Double](fftW * fftH)
+
+    var y:Int = 0
+    while (y < srcH) {
+      var x:Int = 0
+      while (x < srcW) {
+        val ndx = y * srcW + x
+        if (valid(ndx)) {
+          re(y * fftW + x) = src(ndx)
+          im(y * fftW + x) = 1.0
+        }
+        x += 1
+      }
+      y += 1
+    }
+
+    transform(re, im, inverse = false)
+
+    // correlation with the kernel is a multiply by the conjugate of its spectrum
+    var i:Int = 0
+    while (i < re.length) {
+      val r = re(i) * kernelRe(i) + im(i) * kernelIm(i)
+      im(i) = im(i) * kernelRe(i) - re(i) * kernelIm(i)
+      re(i) = r
+      i += 1
+    }
+
+    transform(re, im, inverse = true)
+
+    val centerX = kernelW / 2
+    val centerY = kernelH / 2
+    val scale = 1.0 / (fftW * fftH)
+    // weights that should be 0 come back as rounding noise
+    val epsilon = weights.map(w => Math.abs(w.toDouble)).sum * 1e-9
+
+    val dst = Array.fill[Double](dstW * dstH)(Double.NaN)
+    y = 0
+    while (y < dstH) {
+      var x:Int = 0
+      while (x < dstW) {
+        if (valid((y + centerY) * srcW + x + centerX)) {
+          val weight = im(y * fftW + x) * scale
+          if (Math.abs(weight) > epsilon) {
+            dst(y * dstW + x) = re(y * fftW + x) * scale / weight
+          }
+        }
+        x += 1
+      }
+      y += 1
+    }
+
+    dst
+  }
+
+  // in place 2-D FFT, rows then columns (unscaled in both directions)
+  private def transform(re:Array[Double], im:Array[Double], inverse:Boolean):Unit = {
+    var y:Int = 0
+    while (y < fftH) {
+      FFTConvolver.fft(re, im, y * fftW, fftW, rowTwiddles, inverse)
+      y += 1
+    }
+
+    var x:Int = 0
+    while (x < fftW) {
+      var ndx = x
+      y = 0
+      while (y < fftH) {
+        columnRe(y) = re(ndx)
+        columnIm(y) = im(ndx)
+        ndx += fftW
+        y += 1
+      }
+
+      FFTConvolver.fft(columnRe, columnIm, 0, fftH, colTwiddles, inverse)
+
+      ndx = x
+      y = 0
+      while (y < fftH) {
+        re(ndx) = columnRe(y)
+        im(ndx) = columnIm(y)
+        ndx += fftW
+        y += 1
+      }
+      x += 1
+    }
+  }
+}
+
+object FFTConvolver {
+  def powerOf2(size:Int):Int = {
+    var p:Int = 1
+    while (p < size) {
+      p <<= 1
+    }
+    p
+  }
+
+  // cos and sin of 2 * pi * k / n, for k < n / 2
+  private def twiddles(n:Int):(Array[Double], Array[Double]) = {
+    val half = Math.max(1, n / 2)
+    (Array.tabulate[Double](half)(k => Math.cos(2.0 * Math.PI * k / n)),
+        Array.tabulate[Double](half)(k => Math.sin(2.0 * Math.PI * k / n)))
+  }
+
+  // iterative radix-2 FFT of re/im[offset, offset + n)
+  private def fft(re:Array[Double], im:Array[Double], offset:Int, n:Int, twiddles:(Array[Double], Array[Double]),
+      inverse:Boolean):Unit = {
+    // bit reversal permutation
+    var j:Int = 0
+    var i:Int = 0
+    while (i < n - 1) {
+      if (i < j) {
+        val tr = re(offset + i)
+        re(offset + i) = re(offset + j)
+        re(offset + j) = tr
+        val ti = im(offset + i)
+        im(offset + i) = im(offset + j)
+        im(offset + j) = ti
+      }
+      var bit = n >> 1
+      while ((j & bit) != 0) {
+        j ^= bit
+        bit >>= 1
+      }
+      j |= bit
+      i += 1
+    }
+
+    val cos = twiddles._1
+    val sin = twiddles._2
+    val sign = if (inverse) 1.0 else -1.0
+
+    var size:Int = 2
+    while (size <= n) {
+      val half = size >> 1
+      val step = n / size
+      var start:Int = 0
+      while (start < n) {
+        var k:Int = 0
+        while (k < half) {
+          val wr = cos(k * step)
+          val wi = sign * sin(k * step)
+
+          val a = offset + start + k
+          val b = a + half
+          val tr = re(b) * wr - im(b) * wi
+          val ti = re(b) * wi + im(b) * wr
+          re(b) = re(a) - tr
+          im(b) = im(a) - ti
+          re(a) += tr
+          im(a) += ti
+          k += 1
+        }
+        start += size
+      }
+      size <<= 1
+    }
+  }
+}
@@ -30,6 +30,29 @@ class GaussianGeographicKernel(sigma:Double, zoom:Int, tilesize:Int) extends Gau
     this(0, 0, 0)
   }
 
+  // the same 1-D weights GaussianBlur uses, so KernelMapOp convolves with the separable backend
+  override def getSeparableKernel: Option[(Array[Float], Array[Float])] = {
+    Some((GaussianGeographicKernel.weights(kernelWidth, pixelSigma),
+        GaussianGeographicKernel.weights(kernelHeight, pixelSigma)))
+  }
+
+  override def getKernel: Option[Array[Float]] = {
+    getSeparableKernel.map(separable => {
+      val (horizontal, vertical) = separable
+      val weights = Array.ofDim[Float](kernelWidth * kernelHeight)
+      var ky:Int = 0
+      while (ky < kernelHeight) {
+        var kx:Int = 0
+        while (kx < kernelWidth) {
+          weights(ky * kernelWidth + kx) = horizontal(kx) * vertical(ky)
+          kx += 1
+        }
+        ky += 1
+      }
+      weights
+    })
+  }
+
   override def runKernel(data: Mat): Unit = {
     Imgproc.GaussianBlur(data, data, new Size(kernelWidth, kernelWidth), pixelSigma) // sigma in pixel space
   }
@@ -44,3 +67,23 @@ class GaussianGeographicKernel(sigma:Double, zoom:Int, tilesize:Int) extends Gau
   }
 
 }
+
+object GaussianGeographicKernel {
+  // normalized 1-D gaussian weights, as in OpenCV's getGaussianKernel() (including its default
+  // sigma when sigma isn't positive)
+  def weights(size:Int, sigma:Double):Array[Float] = {
+    val s = if (sigma > 0) sigma else 0.3 * ((size - 1) * 0.5 - 1) + 0.8
+    val center = (size - 1) / 2.0
+
+    val weights = Array.ofDim[Double](size)
+    var i:Int = 0
+    while (i < size) {
+      val d = i - center
+      weights(i) = Math.exp(-(d * d) / (2.0 * s * s))
+      i += 1
+    }
+
+    val sum = weights.sum
+    weights.map(w => (w / sum).toFloat)
+  }
+}
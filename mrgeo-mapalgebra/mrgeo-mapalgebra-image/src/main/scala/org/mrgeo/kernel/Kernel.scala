@@ -29,6 +29,10 @@ abstract class Kernel(var kernelWidth:Int, var kernelHeight:Int) extends Externa
   def getKernel:Option[Array[Float]]
   def get2DKernel:Option[Array[Array[Float]]]
 
+  // the (horizontal, vertical) 1-D kernels whose product is getKernel, if it is separable.  When
+  // this is None, KernelMapOp still tries to separate the weights itself.
+  def getSeparableKernel:Option[(Array[Float], Array[Float])] = None
+
   def calculate(tileId:Long, tile:Raster, nodatas:Array[Double]):Option[Raster]
 
   def this() = {
@@ -28,6 +28,11 @@ class LaplacianGeographicKernel(sigma:Double, zoom:Int, tilesize:Int) extends Ga
     this(0, 0, 0)
   }
 
+  // the laplacian isn't a plain convolution with the gaussian weights, it stays on the OpenCV path
+  override def getSeparableKernel: Option[(Array[Float], Array[Float])] = None
+
+  override def getKernel: Option[Array[Float]] = None
+
   override def runKernel(data: Mat): Unit = {
     // smooth the image 1st.
     Imgproc.GaussianBlur(data, data, new Size(kernelWidth, kernelWidth), pixelSigma) // sigma in pixel space
@@ -19,7 +19,7 @@ package org.mrgeo.mapalgebra
 import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.rdd.CoGroupedRDD
-import org.apache.spark.{HashPartitioner, SparkConf, SparkContext}
+import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.data.tile.TileIdWritable
@@ -148,15 +148,8 @@ class BandCombineMapOp extends RasterMapOp with Externalizable {
 
     val nodata = nodatabuilder.result()
 
-    // cogroup needs a partitioner, so we'll give one here...
-    var maxpartitions = 0
-    val partitions = pyramids.foreach(p => {
-      if (p.partitions.length > maxpartitions) {
-        maxpartitions = p.partitions.length
-      }
-    })
-
-    val groups = new CoGroupedRDD(pyramids, new HashPartitioner(maxpartitions))
+    // cogroup needs a partitioner, if the inputs are co-partitioned we'll use theirs, and won't shuffle
+    val groups = new CoGroupedRDD(pyramids, SparkUtils.joinPartitioner(pyramids))
 
     rasterRDD = Some(RasterRDD(groups.map(group => {
 
@@ -22,7 +22,7 @@ import java.io._
 import org.apache.spark.{Logging, SparkContext, SparkConf}
 import org.gdal.gdal.Dataset
 import org.mrgeo.data.raster.RasterWritable
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.rdd.{RasterRDD, TileSchema}
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.image.MrsPyramidMetadata
 import org.mrgeo.job.JobArguments
@@ -330,15 +330,17 @@ class ExportMapOp extends RasterMapOp with Logging with Externalizable {
         nd(x) = overridenodata.get
       }
     }
-    val bnds = SparkUtils.calculateBounds(RasterRDD(replaced), zoom.get, meta.getTilesize)
-    val image = SparkUtils.mergeTiles(RasterRDD(replaced), zoom.get, meta.getTilesize, nd)
+    // the tiles are streamed into the image, the whole image is never held in memory (unless the
+    // image itself is in memory)
+    val exported = RasterRDD(replaced).withSchema(TileSchema.of(rdd, Some(meta)))
+    val bnds = SparkUtils.calculateBounds(exported, zoom.get, meta.getTilesize)
 
     if (name == ExportMapOp.IN_MEMORY) {
-      mergedimage = Some(GDALUtils.toDataset(image, nd, bnds))
+      mergedimage = Some(SparkUtils.exportTiles(exported, zoom.get, meta.getTilesize, nd, bnds))
     }
     else {
       val output = makeOutputName(name, format.get, replaced.keys.min().get(), zoom.get, meta.getTilesize, reformat)
-      GDALUtils.saveRaster(image, output, bnds, nd(0), format.get)
+      SparkUtils.exportTiles(exported, zoom.get, meta.getTilesize, nd, output, format.get, bnds)
     }
   }
 
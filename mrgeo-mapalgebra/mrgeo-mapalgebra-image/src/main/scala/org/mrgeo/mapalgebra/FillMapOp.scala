@@ -21,7 +21,7 @@ import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 import org.apache.spark.rdd.PairRDDFunctions
 import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.rdd.{RasterRDD, TileSchema}
 import org.mrgeo.image.MrsPyramidMetadata
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser._
@@ -120,11 +120,12 @@ class FillMapOp extends RasterMapOp with Externalizable {
     val tb = TMSUtils.boundsToTile(bounds, zoom, meta.getTilesize)
 
     val test = RasterMapOp.createEmptyRasterRDD(context, tb, zoom)
+    val src = TileSchema.of(rdd, Some(meta))
 
     rasterRDD = Some(RasterRDD(constFill match {
     case Some(const) =>
-      val src = RasterWritable.toRaster(rdd.first()._2)
-      val constRaster = RasterWritable.toWritable(RasterUtils.createCompatibleEmptyRaster(src, const))
+      val constRaster = RasterWritable.toWritable(
+        RasterUtils.createEmptyRaster(src.tilesize, src.tilesize, src.bands, src.datatype, const))
 
       val joined = new PairRDDFunctions(test).leftOuterJoin(rdd)
       joined.map(tile => {
@@ -140,8 +141,8 @@ class FillMapOp extends RasterMapOp with Externalizable {
       val fill:RasterMapOp = fillMapOp getOrElse(throw new IOException("Input MapOp not valid!"))
       val fillrdd = fill.rdd() getOrElse(throw new IOException("Can't load RDD! Ouch! " + inputMapOp.getClass.getName))
 
-      val src = RasterWritable.toRaster(rdd.first()._2)
-      val nodataRaster = RasterWritable.toWritable(RasterUtils.createCompatibleEmptyRaster(src, nodata))
+      val nodataRaster = RasterWritable.toWritable(
+        RasterUtils.createEmptyRaster(src.tilesize, src.tilesize, src.bands, src.datatype, nodata))
 
       val joined = new PairRDDFunctions(test).cogroup(rdd, fillrdd)
       joined.map(tile => {
@@ -159,7 +160,7 @@ class FillMapOp extends RasterMapOp with Externalizable {
           (tile._1, new RasterWritable(nodataRaster))
         }
       })
-    }))
+    }).withSchema(src))
 
     metadata(SparkUtils.calculateMetadata(rasterRDD.get, zoom, meta.getDefaultValues,
       bounds = TMSUtils.tileToBounds(tb, zoom, meta.getTilesize), calcStats = false))
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+/**
+  * A neighborhood that slides along a row of a tile one column at a time, for RawFocalMapOp
+  * subclasses that can keep their result up to date as columns enter and leave it, instead of
+  * walking the whole neighborhood for every pixel (see RawFocalMapOp.createRowSweep).
+  *
+  * At the start of each row reset() is called, and the columns of the first pixel's neighborhood
+  * are added, left to right.  Before each pixel after that, the column that leaves the
+  * neighborhood on the left is removed and the one that enters on the right is added.  A column
+  * is the neighborhoodHeight pixels of x, from row top down, and can include nodata pixels.
+  */
+trait FocalRowSweep {
+  // start a new row, with nothing in the neighborhood
+  def reset():Unit
+
+  def addColumn(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int, x:Int, top:Int):Unit
+
+  def removeColumn(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int, x:Int, top:Int):Unit
+
+  /**
+    * The value of the pixel at processX, processY, from the current neighborhood.  Like
+    * RawFocalMapOp.computePixelValue, it is only called for pixels that are not nodata.
+    */
+  def value(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int,
+      processX:Int, processY:Int, outNoData:Double):Double
+}
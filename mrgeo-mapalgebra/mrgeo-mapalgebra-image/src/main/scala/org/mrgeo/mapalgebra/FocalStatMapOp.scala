@@ -41,13 +41,14 @@ class FocalStatMapOp extends RawFocalMapOp with Externalizable {
   private var ignoreNoData: Boolean = false
   private var outputTileType: Option[Int] = None
   private var outputNoDatas: Option[Array[Number]] = None
-  private var neighborhoodValues: Array[Double] = null
 
   private[mapalgebra] def this(raster:Option[RasterMapOp], stat:String, neighborhoodSize: String,
                                ignoreNoData: Boolean) = {
     this()
     inputMapOp = raster
     this.stat = stat
+    this.neighborhoodSize = neighborhoodSize
+    this.ignoreNoData = ignoreNoData
     init
   }
 
@@ -105,8 +106,6 @@ class FocalStatMapOp extends RawFocalMapOp with Externalizable {
   }
 
   override def beforeExecute(meta: MrsPyramidMetadata): Unit = {
-    // Make sure that neighborhood values is re-initialized at the start of map op execution
-    neighborhoodValues = null
     neighborhoodPixels = neighborhoodSize match {
       case ns if (ns.endsWith("p")) => ns.dropRight(1).toInt
       case ns if (ns.endsWith("m")) => {
@@ -154,131 +153,27 @@ class FocalStatMapOp extends RawFocalMapOp with Externalizable {
     }
   }
 
+  // the statistic is kept up to date as the window slides along each row
+  override protected[mapalgebra] def createRowSweep(rasterWidth: Int, neighborhoodWidth: Int,
+                                                    neighborhoodHeight: Int): Option[FocalRowSweep] = {
+    Some(SlidingFocalStat(stat, neighborhoodWidth, neighborhoodHeight, rasterWidth, ignoreNoData))
+  }
+
   override def computePixelValue(rasterValues: Array[Double], notnodata: Array[Boolean],
                                  outNoData: Double, rasterWidth: Int,
                                  processX: Int, processY: Int,
                                  xLeftOffset: Int, neighborhoodWidth: Int,
                                  yAboveOffset: Int, neighborhoodHeight: Int, tileId: Long): Double = {
-    var x: Int = processX - xLeftOffset
-    val maxX = x + neighborhoodWidth
-    var y: Int = processY - yAboveOffset
-    val maxY = y + neighborhoodHeight
-    val processPixel: Double = rasterValues(calculateRasterIndex(rasterWidth, processX, processY))
-    var sum: Double = 0.0
-    if (neighborhoodValues == null) {
-      neighborhoodValues = Array.ofDim[Double](neighborhoodWidth * neighborhoodHeight)
-    }
-    var neighborhoodValueIndex: Int = 0
-    while (y < maxY) {
-      x = processX - xLeftOffset
-      while (x < maxX) {
-        val index = calculateRasterIndex(rasterWidth, x, y)
-        if (notnodata(index)) {
-          neighborhoodValues(neighborhoodValueIndex) = rasterValues(index)
-          neighborhoodValueIndex += 1
-        }
-        else if (!ignoreNoData) {
-          // If there is a NoData pixel anywhere in the neighborhood, and we're not ignoring
-          // NoData, then just return NoData for the pixel.
-          return outNoData
-        }
-        x += 1
-      }
-      y += 1
-    }
-
-    stat match {
-      case FocalStatMapOp.Count => neighborhoodValueIndex
-      case FocalStatMapOp.Max => computeMax(neighborhoodValues, neighborhoodValueIndex)
-      case FocalStatMapOp.Min => computeMin(neighborhoodValues, neighborhoodValueIndex)
-      case FocalStatMapOp.Mean => computeSum(neighborhoodValues, neighborhoodValueIndex) / neighborhoodValueIndex
-      case FocalStatMapOp.Median => computeMedian(neighborhoodValues, neighborhoodValueIndex)
-      case FocalStatMapOp.Range => computeRange(neighborhoodValues, neighborhoodValueIndex)
-      case FocalStatMapOp.StdDev => {
-        val mean = computeSum(neighborhoodValues, neighborhoodValueIndex) / neighborhoodValueIndex
-        val variance = computeVariance(neighborhoodValues, neighborhoodValueIndex, mean)
-        math.sqrt(variance)
-      }
-      case FocalStatMapOp.Sum => computeSum(neighborhoodValues, neighborhoodValueIndex)
-      case FocalStatMapOp.Variance => {
-        val mean = computeSum(neighborhoodValues, neighborhoodValueIndex) / neighborhoodValueIndex
-        computeVariance(neighborhoodValues, neighborhoodValueIndex, mean)
-      }
+    // only used when a pixel is computed on its own, the whole neighborhood goes in a new window
+    val window = SlidingFocalStat(stat, neighborhoodWidth, neighborhoodHeight, rasterWidth, ignoreNoData)
+    val left = processX - xLeftOffset
+    val top = processY - yAboveOffset
+    var x = left
+    while (x < left + neighborhoodWidth) {
+      window.addColumn(rasterValues, notnodata, rasterWidth, x, top)
+      x += 1
     }
-  }
-
-  private def computeMax(values: Array[Double], maxIndex: Int): Double = {
-    var maxValue: Double = values(0)
-    var index: Int = 1
-    while (index < maxIndex) {
-      maxValue = maxValue.max(values(index))
-      index += 1
-    }
-    maxValue
-  }
-
-  private def computeMin(values: Array[Double], maxIndex: Int): Double = {
-    var minValue: Double = values(0)
-    var index: Int = 1
-    while (index < maxIndex) {
-      minValue = minValue.min(values(index))
-      index += 1
-    }
-    minValue
-  }
-
-  private def computeMedian(values: Array[Double], maxIndex: Int): Double = {
-    // Set the end of the array that we're not interested in to the max double value
-    // so they are sorted at the end. We don't want these values to be considered.
-    var index = maxIndex
-    while (index < values.length) {
-      values(index) = Double.MaxValue
-      index += 1
-    }
-    val sortedValues = values.sorted
-    if ((maxIndex & 1) == 1) {
-      // Odd number of elements, return the one right in the middle
-      sortedValues((maxIndex / 2).toInt)
-    }
-    else {
-      // Even number of elements, return the average of the two in the middle
-      val midIndex = (maxIndex / 2).toInt
-      (sortedValues(midIndex) + sortedValues(midIndex - 1)) / 2.0
-    }
-  }
-
-  private def computeRange(values: Array[Double], maxIndex: Int): Double = {
-    var minValue: Double = values(0)
-    var maxValue: Double = minValue
-    var index: Int = 1
-    while (index < maxIndex) {
-      val v = values(index)
-      minValue = minValue.min(v)
-      maxValue = maxValue.max(v)
-      index += 1
-    }
-    maxValue - minValue
-  }
-
-  private def computeSum(values: Array[Double], maxIndex: Int): Double = {
-    var sumValue: Double = 0.0
-    var index: Int = 0
-    while (index < maxIndex) {
-      sumValue += values(index)
-      index += 1
-    }
-    sumValue
-  }
-
-  private def computeVariance(values: Array[Double], maxIndex: Int, mean: Double): Double = {
-    var variance: Double = 0.0
-    var index: Int = 0
-    while (index < maxIndex) {
-      val delta = values(index) - mean
-      variance += (delta * delta)
-      index += 1
-    }
-    variance
+    window.value(rasterValues, notnodata, rasterWidth, processX, processY, outNoData)
   }
 
   override def setup(job: JobArguments, conf:SparkConf): Boolean = true
@@ -308,17 +203,6 @@ class FocalStatMapOp extends RawFocalMapOp with Externalizable {
     else {
       None
     }
-    val hasNeighborhoodValues = in.readBoolean()
-    if (hasNeighborhoodValues) {
-      val len = in.readInt()
-      neighborhoodValues = Array.ofDim[Double](len)
-      for (i <- 0 until len) {
-        neighborhoodValues(i) = in.readDouble()
-      }
-    }
-    else {
-      neighborhoodValues = null
-    }
   }
 
   override def writeExternal(out: ObjectOutput): Unit = {
@@ -343,14 +227,5 @@ class FocalStatMapOp extends RawFocalMapOp with Externalizable {
         }
       }
     }
-    if (neighborhoodValues == null) {
-      out.writeInt(0)
-    }
-    else {
-      out.writeInt(neighborhoodValues.length)
-      for (v <- neighborhoodValues) {
-        out.writeDouble(v)
-      }
-    }
   }
 }
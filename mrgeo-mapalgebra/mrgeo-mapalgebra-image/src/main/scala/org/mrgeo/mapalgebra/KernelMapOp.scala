@@ -21,11 +21,12 @@ import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.rdd.RDD
 import org.apache.spark.{SparkConf, SparkContext}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
+import org.mrgeo.core.{MrGeoConstants, MrGeoProperties}
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.job.JobArguments
-import org.mrgeo.kernel.{Kernel, LaplacianGeographicKernel, GaussianGeographicKernel}
+import org.mrgeo.kernel._
 import org.mrgeo.mapalgebra.parser.{ParserException, ParserNode}
 import org.mrgeo.mapalgebra.raster.RasterMapOp
 import org.mrgeo.spark.FocalBuilder
@@ -41,6 +42,11 @@ object KernelMapOp extends MapOpRegistrar {
   val Gaussian: String = "gaussian"
   val Laplacian: String = "laplacian"
 
+  // convolution backends for kernels with explicit weights
+  private val Naive = "naive"
+  private val Separable = "separable"
+  private val FFT = "fft"
+
   def create(raster:RasterMapOp, method:String, sigma:Double):MapOp =
     new KernelMapOp(Some(raster), method, sigma)
 
@@ -143,7 +149,7 @@ class KernelMapOp extends RasterMapOp with Externalizable {
 
     rasterRDD = Some(RasterRDD(kernel.getKernel match {
     case Some(kernelData) =>
-      naiveKernel(focal, kernel, nodatas, context)
+      convolve(focal, kernel, nodatas, context)
     case _ =>
       val metersPerPixel = TMSUtils.resolution(zoom, tilesize) * LatLng.METERS_PER_DEGREE
 
@@ -161,142 +167,72 @@ class KernelMapOp extends RasterMapOp with Externalizable {
     true
   }
 
-  def naiveKernel(focal:RDD[(TileIdWritable, RasterWritable)], kernel:Kernel, nodatas:Array[Float],
+  def convolve(focal:RDD[(TileIdWritable, RasterWritable)], kernel:Kernel, nodatas:Array[Number],
       context: SparkContext):RDD[(TileIdWritable, RasterWritable)] = {
 
-    val weights = context.broadcast(kernel.getKernel.get)
-
     val kernelW = kernel.getWidth
     val kernelH = kernel.getHeight
+    val nodata = nodatas(0).doubleValue()
 
-    if (log.isDebugEnabled()) {
-      //          val localWeights = kernel.getKernel
-      //          log.info("Kernel w, h " + kernelW + ", " + kernelH)
-      //          for (ky <- 0 until kernelH) {
-      //            // log.info(ky + ": ")
-      //            val sb = new StringBuffer()
-      //            for (kx <- 0 until kernelW) {
-      //              sb.append(localWeights(ky * kernelW + kx) + "     ")
-      //            }
-      //            log.info(sb.toString)
-      //          }
-    }
-
-    val halfKernelW = kernelW / 2 + 1
-    val halfKernelH = kernelH / 2 + 1
-
-    //val resolution = TMSUtils.resolution(zoom, tilesize)
-
-    val startmaptime = System.currentTimeMillis()
+    val weights = kernel.getKernel.get
+    val separated = kernel.getSeparableKernel orElse Convolution.separate(weights, kernelW, kernelH)
 
-    focal.map(tile => {
-      val startTime = System.currentTimeMillis()
+    val fftArea = MrGeoProperties.getInstance().getProperty(MrGeoConstants.MRGEO_KERNEL_FFT_MIN_AREA,
+      MrGeoConstants.MRGEO_KERNEL_FFT_MIN_AREA_DEFAULT).toInt
 
-      val logging = log.isInfoEnabled
-
-      val nodata = nodatas(0).doubleValue()
-      def isNodata(value: Double): Boolean = {
-        if (nodata.isNaN) {
-          value.isNaN
-        }
-        else {
-          value == nodata
-        }
-      }
-
-      val src = RasterWritable.toRaster(tile._2)
-      val tileWidth = src.getWidth
+    val backend = if (separated.isDefined) {
+      KernelMapOp.Separable
+    }
+    else if (kernelW * kernelH >= fftArea) {
+      KernelMapOp.FFT
+    }
+    else {
+      KernelMapOp.Naive
+    }
 
-      val tilesize = tileWidth - kernelW + 1
+    logInfo("Convolving a " + kernelW + "x" + kernelH + " kernel using the " + backend + " backend")
 
-      val dst = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, DataBuffer.TYPE_FLOAT)
-      val dstValues = Array.fill[Float](tilesize * tilesize)(Float.NaN)
+    val broadcast = context.broadcast(if (backend == KernelMapOp.Separable) {
+      separated.get
+    }
+    else {
+      (weights, Array.empty[Float])
+    })
 
-      val useWeights = weights.value
+    focal.mapPartitions(tiles => {
+      val useWeights = broadcast.value
+      var fft:FFTConvolver = null
 
-      val srcValues = src.getSamples(0, 0, src.getWidth, src.getHeight, 0, null.asInstanceOf[Array[Float]])
-      val notNodataValues = new Array[Boolean](srcValues.length)
+      tiles.map(tile => {
+        val startTime = System.currentTimeMillis()
 
+        val src = RasterTile.fromWritable(tile._2)
+        val srcW = src.getWidth
+        val srcH = src.getHeight
+        val srcValues = src.getSamples(0, null)
 
-      var i: Int = 0
-      while (i < srcValues.length) {
-        if (isNodata(srcValues(i))) {
-          srcValues(i) = 0
-          notNodataValues(i) = false
-        }
-        else {
-          notNodataValues(i) = true
-        }
-        i += 1
-      }
-      val tileStart = System.currentTimeMillis()
-
-      var loopMin: Long = Long.MaxValue
-      var loopMax: Long = Long.MinValue
-      var loopTot: Long = 0
-      var loopRuns: Long = 0
-
-      var y: Int = 0
-      var x: Int = 0
-      var result: Float = 0.0f
-      var weight: Float = 0.0f
-      var kx: Int = 0
-      var ky: Int = 0
-      while (y < tilesize) {
-        x = 0
-        val off = (y + halfKernelH) * tileWidth + halfKernelW
-        while (x < tilesize) {
-          if (notNodataValues(off + x)) {
-            val loopStart = System.currentTimeMillis()
-
-            result = 0.0f
-            weight = 0.0f
-
-            ky = 0
-            while (ky < kernelH) {
-              kx = 0
-              val off2 = (y + ky) * tileWidth + x
-              val off3 = ky * kernelW
-              while (kx < kernelW) {
-                val w = useWeights(off3 + kx)
-                if (w != 0.0) {
-                  weight += w
-                  result += srcValues(off2 + kx) * w
-                }
-                kx += 1
-              }
-              ky += 1
-            }
-            if (logging) {
-              val loopTime = System.currentTimeMillis() - loopStart
-              loopMin = Math.min(loopMin, loopTime)
-              loopMax = Math.max(loopMax, loopTime)
-              loopTot += loopTime
-              loopRuns += 1
-            }
-            if (weight != 0.0) {
-              dstValues(y * tilesize + x) = result / weight
-            }
+        val dstValues = backend match {
+        case KernelMapOp.Separable =>
+          Convolution.separable(srcValues, srcW, srcH, useWeights._1, useWeights._2, nodata)
+        case KernelMapOp.FFT =>
+          if (fft == null) {
+            fft = new FFTConvolver(useWeights._1, kernelW, kernelH, srcW, srcH)
           }
-          x += 1
+          fft.convolve(srcValues, nodata)
+        case _ =>
+          Convolution.naive(srcValues, srcW, srcH, useWeights._1, kernelW, kernelH, nodata)
         }
-        y += 1
-      }
 
-      dst.setSamples(0, 0, tilesize, tilesize, 0, dstValues)
+        val dst = RasterTile.createEmptyTile(srcW - kernelW + 1, srcH - kernelH + 1, 1, DataBuffer.TYPE_FLOAT)
+        dst.setSamples(0, dstValues)
 
-      if (log.isDebugEnabled()) {
-        val endTime = System.currentTimeMillis()
-        logDebug("Time to process tile " + tile._1.get + " is " + (endTime - startTime))
-        logDebug("  prep " + (tileStart - startTime))
-        logDebug("  loop " + loopTot)
-        logDebug("  tile " + (endTime - tileStart - loopTot))
-        logDebug("  loopMin = " + loopMin + ", loopMax = " + loopMax +
-            ", loopAvg = " + (loopTot.toDouble / loopRuns) + ", loopRuns = " + loopRuns)
-      }
+        if (log.isDebugEnabled()) {
+          logDebug("Time to process tile " + tile._1.get + " is " + (System.currentTimeMillis() - startTime))
+        }
 
-      (tile._1, RasterWritable.toWritable(dst))
-    })
+        (tile._1, dst.toWritable)
+      })
+    }, preservesPartitioning = true)
   }
 
   override def setup(job: JobArguments, conf:SparkConf): Boolean = true
@@ -23,7 +23,7 @@ import org.apache.spark.rdd.PairRDDFunctions
 import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data.raster.RasterWritable
 import org.mrgeo.data.rdd.RasterRDD
-import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.image.{MrsPyramidMetadata, QuantileSketch}
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser.{ParserException, ParserNode}
 import org.mrgeo.mapalgebra.raster.RasterMapOp
@@ -98,32 +98,14 @@ class QuantilesMapOp extends RasterMapOp with Externalizable {
       classOf[Array[Int]],
       classOf[Array[Short]],
       classOf[Array[Byte]],
-      classOf[Array[Object]]
+      classOf[Array[Object]],
+      classOf[QuantileSketch],
+      classOf[Array[QuantileSketch]]
     )
   }
 
   override def execute(context: SparkContext): Boolean = {
 
-    implicit val doubleOrdering = new Ordering[Double] {
-      override def compare(x: Double, y: Double): Int = x.compareTo(y)
-    }
-
-    implicit val floatOrdering = new Ordering[Float] {
-      override def compare(x: Float, y: Float): Int = x.compareTo(y)
-    }
-
-    implicit val intOrdering = new Ordering[Int] {
-      override def compare(x: Int, y: Int): Int = x.compareTo(y)
-    }
-
-    implicit val shortOrdering = new Ordering[Short] {
-      override def compare(x: Short, y: Short): Int = x.compareTo(y)
-    }
-
-    implicit val byteOrdering = new Ordering[Byte] {
-      override def compare(x: Byte, y: Byte): Int = x.compareTo(y)
-    }
-
     val input:RasterMapOp = inputMapOp getOrElse(throw new IOException("Input MapOp not valid!"))
     val numberOfQuantiles = numQuantiles getOrElse(throw new IOException("numQuantiles not valid!"))
 
@@ -136,13 +118,15 @@ class QuantilesMapOp extends RasterMapOp with Externalizable {
 //    metadata(SparkUtils.calculateMetadata(rasterRDD.get, meta.getMaxZoomLevel, meta.getDefaultValues,
 //      bounds = meta.getBounds, calcStats = false))
 
-    // Compute the quantile values and save them to metadata
-    val quantiles = Quantiles.compute(rdd, numberOfQuantiles, fraction, meta)
+    // Compute the quantile values and save them, and the sketches they came from, to metadata
+    val sketches = Quantiles.sketch(rdd, meta, fraction)
+    val quantiles = Quantiles.quantiles(sketches, numberOfQuantiles)
     var b: Int = 0
     while (b < quantiles.length) {
       meta.setQuantiles(b, quantiles(b))
       b += 1
     }
+    meta.setQuantileSketches(sketches)
     metadata(meta)
     true
   }
@@ -106,6 +106,22 @@ abstract class RawFocalMapOp extends RasterMapOp with Externalizable {
                                   xLeftOffset: Int, neighborhoodWidth: Int,
                                   yAboveOffset: Int, neighborhoodHeight: Int, tileId: Long): Double
 
+  /**
+    * Sub-classes whose pixel value can be kept up to date as the neighborhood slides along a row
+    * return a FocalRowSweep here, and are told which column enters and which leaves the
+    * neighborhood as each row is computed, left to right, instead of having computePixelValue
+    * called for every pixel.  The default (None) calls computePixelValue.
+    *
+    * This method is called once for each tile, and the sweep is reused for each of its bands.
+    *
+    * @param rasterWidth The width of the source raster, including the neighborhood buffer
+    * @param neighborhoodWidth The width of the neighborhood in pixels.
+    * @param neighborhoodHeight The height of the neighborhood in pixels.
+    * @return
+    */
+  protected[mapalgebra] def createRowSweep(rasterWidth: Int, neighborhoodWidth: Int,
+                                           neighborhoodHeight: Int): Option[FocalRowSweep] = None
+
   /**
     * This method is called at the start of the "execute" method, giving sub-classes an
     * opportunity to perform some processing or initialization prior to executing the
@@ -152,68 +168,75 @@ abstract class RawFocalMapOp extends RasterMapOp with Externalizable {
     y * rasterWidth + x
   }
 
-  private def calculate(tiles:RDD[(TileIdWritable, RasterWritable)],
-                        bufferX: Int, bufferY: Int,
-                        neighborhoodWidth: Int, neighborhoodHeight: Int,
-                        nodatas:Array[Number], zoom:Int, tilesize:Int) =
+  /**
+    * Compute one band of a tile, with the row sweep if there is one, otherwise with
+    * computePixelValue for each pixel.
+    *
+    * @param rasterValues The band of the source raster, including the neighborhood buffer
+    * @param notnodata Whether each pixel of rasterValues is not nodata
+    * @param sweep The tile's row sweep (see createRowSweep), it is reset at the start of each row
+    * @param output The tilesize x tilesize values of the band, row-major
+    */
+  private[mapalgebra] def computeBand(rasterValues: Array[Double], notnodata: Array[Boolean],
+                                      rasterWidth: Int, tilesize: Int, bufferX: Int, bufferY: Int,
+                                      neighborhoodWidth: Int, neighborhoodHeight: Int,
+                                      outNoData: Double, sweep: Option[FocalRowSweep], tileId: Long,
+                                      output: Array[Double]): Unit =
   {
-    val outputNoData = getOutputNoData
-    tiles.map(tile => {
+    // If neighborhoodWidth is an odd value, then the neighborhood has the same number of pixels to the left
+    // and right of the source pixel. If even, then it has one fewer pixels to the left of the
+    // source value than to the right.
+    val xLeftOffset = if ((neighborhoodWidth % 2) == 0) {
+      (neighborhoodWidth / 2).toInt - 1
+    }
+    else {
+      (neighborhoodWidth / 2).toInt
+    }
+    // If neighborhoodHeight is an odd value, then the neighborhood has the same number of pixels above and
+    // below the source pixel. If even, then it has one fewer pixel above than below.
+    val yAboveOffset = if ((neighborhoodHeight % 2) == 0) {
+      (neighborhoodHeight / 2).toInt - 1
+    }
+    else {
+      (neighborhoodHeight / 2).toInt
+    }
 
-      val raster = RasterWritable.toRaster(tile._2)
-      val answer = RasterUtils.createEmptyRaster(tilesize, tilesize, raster.getNumBands,
-        getOutputTileType) // , Float.NaN)
+    sweep match {
+      case Some(rowSweep) =>
+        var y: Int = 0
+        while (y < tilesize) {
+          val srcY = y + bufferY
+          val top = srcY - yAboveOffset
 
-      // If neighborhoodWidth is an odd value, then the neighborhood has the same number of pixels to the left
-      // and right of the source pixel. If even, then it has one fewer pixels to the left of the
-      // source value than to the right.
-      val xLeftOffset = if ((neighborhoodWidth % 2) == 0) {
-        (neighborhoodWidth / 2).toInt - 1
-      }
-      else {
-        (neighborhoodWidth / 2).toInt
-      }
-      // If neighborhoodHeight is an odd value, then the neighborhood has the same number of pixels above and
-      // below the source pixel. If even, then it has one fewer pixel above than below.
-      val yAboveOffset = if ((neighborhoodHeight % 2) == 0) {
-        (neighborhoodHeight / 2).toInt - 1
-      }
-      else {
-        (neighborhoodHeight / 2).toInt
-      }
-      val rasterWidth = raster.getWidth
-      val rasterHeight = raster.getHeight
-      var band: Int = 0
-      while (band < raster.getNumBands) {
-        val outputNoDataForBand = outputNoData(band).doubleValue()
-        val rasterValues = raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + rasterWidth,
-          rasterHeight, band, null.asInstanceOf[Array[Double]])
-        // For performance, construct an array of booleans indicating whether or not each
-        // pixel value in the source raster is nodata or not
-        val notnodata = new Array[Boolean](rasterWidth * rasterHeight)
-        var i: Int = 0
-        while (i < rasterValues.length) {
-          notnodata(i) = !isNoData(rasterValues(i), nodatas(band).doubleValue())
-          i += 1
-        }
-        var py = 0
-        var px = 0
-        while (py < rasterHeight) {
-          px = 0
-          while (px < rasterWidth) {
-            val index = calculateRasterIndex(rasterWidth, px, py)
-            val v = raster.getSampleDouble(px, py, band)
-            rasterValues(index) = v
-            if (!isNoData(v, nodatas(band).doubleValue())) {
-              notnodata(index) = true
+          // the neighborhood of the first pixel in the row
+          rowSweep.reset()
+          var column = bufferX - xLeftOffset
+          while (column < bufferX - xLeftOffset + neighborhoodWidth) {
+            rowSweep.addColumn(rasterValues, notnodata, rasterWidth, column, top)
+            column += 1
+          }
+
+          var x: Int = 0
+          while (x < tilesize) {
+            val srcX = x + bufferX
+            if (x > 0) {
+              // slide one column to the right
+              val left = srcX - xLeftOffset
+              rowSweep.removeColumn(rasterValues, notnodata, rasterWidth, left - 1, top)
+              rowSweep.addColumn(rasterValues, notnodata, rasterWidth, left + neighborhoodWidth - 1, top)
+            }
+            // If the source pixel is nodata, skip it
+            output(y * tilesize + x) = if (notnodata(calculateRasterIndex(rasterWidth, srcX, srcY))) {
+              rowSweep.value(rasterValues, notnodata, rasterWidth, srcX, srcY, outNoData)
             }
             else {
-              notnodata(index) = false
+              outNoData
             }
-            px += 1
+            x += 1
           }
-          py += 1
+          y += 1
         }
+      case None =>
         var y: Int = 0
         var x: Int = 0
         while (y < tilesize) {
@@ -222,22 +245,63 @@ abstract class RawFocalMapOp extends RasterMapOp with Externalizable {
             val srcX = x + bufferX
             val srcY = y + bufferY
             // If the source pixel is nodata, skip it
-            if (notnodata(calculateRasterIndex(rasterWidth, srcX, srcY))) {
-              answer.setSample(x, y, band,
-                computePixelValue(rasterValues, notnodata, outputNoDataForBand,
-                  rasterWidth, srcX, srcY, xLeftOffset, neighborhoodWidth,
-                  yAboveOffset, neighborhoodHeight, tile._1.get()))
+            output(y * tilesize + x) = if (notnodata(calculateRasterIndex(rasterWidth, srcX, srcY))) {
+              computePixelValue(rasterValues, notnodata, outNoData,
+                rasterWidth, srcX, srcY, xLeftOffset, neighborhoodWidth,
+                yAboveOffset, neighborhoodHeight, tileId)
             }
             else {
-              answer.setSample(x, y, band, outputNoDataForBand)
+              outNoData
             }
             x += 1
           }
           y += 1
         }
-        band += 1
+    }
+  }
+
+  private def calculate(tiles:RDD[(TileIdWritable, RasterWritable)],
+                        bufferX: Int, bufferY: Int,
+                        neighborhoodWidth: Int, neighborhoodHeight: Int,
+                        nodatas:Array[Number], zoom:Int, tilesize:Int) =
+  {
+    val outputNoData = getOutputNoData
+    val inputNoData = nodatas.map(_.doubleValue())
+    val outputTileType = getOutputTileType
+    tiles.map(tile => {
+      if (RasterWritable.isNodata(tile._2, inputNoData)) {
+        // every neighborhood is nodata, so is every output pixel
+        (new TileIdWritable(tile._1), RasterWritable.createConstant(tilesize, tilesize, outputNoData.length,
+          outputTileType, outputNoData.map(_.doubleValue())))
+      }
+      else {
+        val raster = RasterWritable.toRaster(tile._2)
+        val answer = RasterUtils.createEmptyRaster(tilesize, tilesize, raster.getNumBands,
+          getOutputTileType) // , Float.NaN)
+
+        val rasterWidth = raster.getWidth
+        val rasterHeight = raster.getHeight
+        val sweep = createRowSweep(rasterWidth, neighborhoodWidth, neighborhoodHeight)
+        val values = new Array[Double](tilesize * tilesize)
+        var band: Int = 0
+        while (band < raster.getNumBands) {
+          val rasterValues = raster.getSamples(raster.getMinX, raster.getMinY, raster.getMinX + rasterWidth,
+            rasterHeight, band, null.asInstanceOf[Array[Double]])
+          // For performance, construct an array of booleans indicating whether or not each
+          // pixel value in the source raster is nodata or not
+          val notnodata = new Array[Boolean](rasterWidth * rasterHeight)
+          var i: Int = 0
+          while (i < rasterValues.length) {
+            notnodata(i) = !isNoData(rasterValues(i), nodatas(band).doubleValue())
+            i += 1
+          }
+          computeBand(rasterValues, notnodata, rasterWidth, tilesize, bufferX, bufferY,
+            neighborhoodWidth, neighborhoodHeight, outputNoData(band).doubleValue(), sweep, tile._1.get(), values)
+          answer.setSamples(0, 0, tilesize, tilesize, band, values)
+          band += 1
+        }
+        (new TileIdWritable(tile._1), RasterWritable.compact(RasterWritable.toWritable(answer)))
       }
-      (new TileIdWritable(tile._1), RasterWritable.toWritable(answer))
     })
   }
 
@@ -0,0 +1,377 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+object SlidingFocalStat {
+  def apply(stat:String, width:Int, height:Int, rasterWidth:Int, ignoreNoData:Boolean):SlidingFocalStat = {
+    val window = stat match {
+    case FocalStatMapOp.Max | FocalStatMapOp.Min | FocalStatMapOp.Range =>
+      new SlidingExtrema(stat, height, rasterWidth)
+    case FocalStatMapOp.Median =>
+      new SlidingMedian(width, height)
+    case _ =>
+      new SlidingMoments(stat, height)
+    }
+    window.ignoreNoData = ignoreNoData
+    window
+  }
+}
+
+// A focal statistic over a window that slides along a row of a raster one column at a time.  Each
+// column entering or leaving the window costs O(height) (O(height * log(window)) for the median),
+// so the cost per pixel doesn't depend on the width of the window.
+abstract class SlidingFocalStat(height:Int) extends FocalRowSweep {
+  // number of data and nodata pixels in the window
+  var count:Int = 0
+  var nodata:Int = 0
+
+  // when false, a window with any nodata in it has a nodata result
+  var ignoreNoData:Boolean = true
+
+  override def reset():Unit = {
+    count = 0
+    nodata = 0
+    clear()
+  }
+
+  // add column x, from row top down, to the window
+  override def addColumn(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int, x:Int, top:Int):Unit = {
+    startColumn(x)
+    var index = top * rasterWidth + x
+    var row:Int = 0
+    while (row < height) {
+      if (notnodata(index)) {
+        count += 1
+        addValue(values(index), x, row)
+      }
+      else {
+        nodata += 1
+      }
+      index += rasterWidth
+      row += 1
+    }
+    endColumn(x)
+  }
+
+  // remove column x, previously added with the same top, from the window
+  override def removeColumn(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int, x:Int, top:Int):Unit = {
+    var index = top * rasterWidth + x
+    var row:Int = 0
+    while (row < height) {
+      if (notnodata(index)) {
+        count -= 1
+        removeValue(values(index), x, row)
+      }
+      else {
+        nodata -= 1
+      }
+      index += rasterWidth
+      row += 1
+    }
+    columnRemoved(x)
+  }
+
+  // the statistic of the data values in the window, only valid when count > 0
+  def result():Double
+
+  override def value(values:Array[Double], notnodata:Array[Boolean], rasterWidth:Int,
+      processX:Int, processY:Int, outNoData:Double):Double = {
+    if (nodata > 0 && !ignoreNoData) outNoData else result()
+  }
+
+  protected def clear():Unit
+
+  protected def addValue(value:Double, x:Int, row:Int):Unit
+
+  protected def removeValue(value:Double, x:Int, row:Int):Unit
+
+  protected def startColumn(x:Int):Unit = {}
+
+  protected def endColumn(x:Int):Unit = {}
+
+  protected def columnRemoved(x:Int):Unit = {}
+}
+
+// count, sum, mean, variance and stddev from running sums.  The sums are kept relative to the first
+// value in the window so the variance doesn't lose precision to large values.
+class SlidingMoments(stat:String, height:Int) extends SlidingFocalStat(height) {
+  private val Count = 0
+  private val Sum = 1
+  private val Mean = 2
+  private val Variance = 3
+  private val StdDev = 4
+
+  private val kind = stat match {
+  case FocalStatMapOp.Count => Count
+  case FocalStatMapOp.Sum => Sum
+  case FocalStatMapOp.Mean => Mean
+  case FocalStatMapOp.Variance => Variance
+  case FocalStatMapOp.StdDev => StdDev
+  }
+
+  private var shift:Double = Double.NaN
+  private var sum:Double = 0.0
+  private var sumsq:Double = 0.0
+
+  override def result():Double = {
+    kind match {
+    case Count => count
+    case Sum => sum + shift * count
+    case Mean => shift + sum / count
+    case Variance => variance()
+    case StdDev => math.sqrt(variance())
+    }
+  }
+
+  // the sum of the squared deviations from the mean, as FocalStatMapOp has always reported it
+  private def variance():Double = {
+    Math.max(0.0, sumsq - (sum * sum) / count)
+  }
+
+  override protected def clear():Unit = {
+    shift = Double.NaN
+    sum = 0.0
+    sumsq = 0.0
+  }
+
+  override protected def addValue(value:Double, x:Int, row:Int):Unit = {
+    if (shift.isNaN) {
+      shift = value
+    }
+    val delta = value - shift
+    sum += delta
+    sumsq += delta * delta
+  }
+
+  override protected def removeValue(value:Double, x:Int, row:Int):Unit = {
+    val delta = value - shift
+    sum -= delta
+    sumsq -= delta * delta
+  }
+}
+
+// min, max and range from the min and max of each column, kept in monotonic deques of columns
+class SlidingExtrema(stat:String, height:Int, rasterWidth:Int) extends SlidingFocalStat(height) {
+  private val Min = 0
+  private val Max = 1
+  private val Range = 2
+
+  private val kind = stat match {
+  case FocalStatMapOp.Min => Min
+  case FocalStatMapOp.Max => Max
+  case FocalStatMapOp.Range => Range
+  }
+
+  private val columnMin = Array.ofDim[Double](rasterWidth)
+  private val columnMax = Array.ofDim[Double](rasterWidth)
+
+  // columns are added left to right, at most once per row, so the deques never need to wrap
+  private val minQueue = Array.ofDim[Int](rasterWidth)
+  private val maxQueue = Array.ofDim[Int](rasterWidth)
+  private var minHead:Int = 0
+  private var minTail:Int = 0
+  private var maxHead:Int = 0
+  private var maxTail:Int = 0
+
+  private var currentMin:Double = Double.PositiveInfinity
+  private var currentMax:Double = Double.NegativeInfinity
+
+  override def result():Double = {
+    kind match {
+    case Min => columnMin(minQueue(minHead))
+    case Max => columnMax(maxQueue(maxHead))
+    case Range => columnMax(maxQueue(maxHead)) - columnMin(minQueue(minHead))
+    }
+  }
+
+  override protected def clear():Unit = {
+    minHead = 0
+    minTail = 0
+    maxHead = 0
+    maxTail = 0
+  }
+
+  override protected def startColumn(x:Int):Unit = {
+    currentMin = Double.PositiveInfinity
+    currentMax = Double.NegativeInfinity
+  }
+
+  override protected def addValue(value:Double, x:Int, row:Int):Unit = {
+    if (value < currentMin) {
+      currentMin = value
+    }
+    if (value > currentMax) {
+      currentMax = value
+    }
+  }
+
+  override protected def endColumn(x:Int):Unit = {
+    columnMin(x) = currentMin
+    columnMax(x) = currentMax
+
+    // drop the columns that can no longer be the min (max) while this one is in the window
+    while (minTail > minHead && columnMin(minQueue(minTail - 1)) >= currentMin) {
+      minTail -= 1
+    }
+    minQueue(minTail) = x
+    minTail += 1
+
+    while (maxTail > maxHead && columnMax(maxQueue(maxTail - 1)) <= currentMax) {
+      maxTail -= 1
+    }
+    maxQueue(maxTail) = x
+    maxTail += 1
+  }
+
+  override protected def removeValue(value:Double, x:Int, row:Int):Unit = {}
+
+  override protected def columnRemoved(x:Int):Unit = {
+    if (minHead < minTail && minQueue(minHead) == x) {
+      minHead += 1
+    }
+    if (maxHead < maxTail && maxQueue(maxHead) == x) {
+      maxHead += 1
+    }
+  }
+}
+
+// median from two indexed heaps, a max heap of the lower half of the values and a min heap of the
+// upper half.  Every pixel in the window has a slot, so leaving values are removed directly.
+class SlidingMedian(width:Int, height:Int) extends SlidingFocalStat(height) {
+  private val slots = width * height
+
+  private val values = Array.ofDim[Double](slots)
+  private val inLow = Array.ofDim[Boolean](slots)
+  private val position = Array.fill[Int](slots)(-1)
+
+  private val low = Array.ofDim[Int](slots)
+  private val high = Array.ofDim[Int](slots)
+  private var lowSize:Int = 0
+  private var highSize:Int = 0
+
+  override def result():Double = {
+    if ((count & 1) == 1) {
+      values(low(0))
+    }
+    else {
+      (values(low(0)) + values(high(0))) / 2.0
+    }
+  }
+
+  override protected def clear():Unit = {
+    lowSize = 0
+    highSize = 0
+    java.util.Arrays.fill(position, -1)
+  }
+
+  override protected def addValue(value:Double, x:Int, row:Int):Unit = {
+    val slot = (x % width) * height + row
+    values(slot) = value
+    push(lowSize == 0 || value <= values(low(0)), slot)
+    balance()
+  }
+
+  override protected def removeValue(value:Double, x:Int, row:Int):Unit = {
+    val slot = (x % width) * height + row
+    if (position(slot) >= 0) {
+      delete(inLow(slot), slot)
+      balance()
+    }
+  }
+
+  // keep the low heap the same size as the high heap, or one larger
+  private def balance():Unit = {
+    while (lowSize > highSize + 1) {
+      val slot = low(0)
+      delete(isLow = true, slot)
+      push(isLow = false, slot)
+    }
+    while (highSize > lowSize) {
+      val slot = high(0)
+      delete(isLow = false, slot)
+      push(isLow = true, slot)
+    }
+  }
+
+  private def push(isLow:Boolean, slot:Int):Unit = {
+    val heap = if (isLow) low else high
+    val ndx = if (isLow) lowSize else highSize
+    heap(ndx) = slot
+    inLow(slot) = isLow
+    position(slot) = ndx
+    if (isLow) lowSize += 1 else highSize += 1
+    siftUp(isLow, heap, ndx)
+  }
+
+  private def delete(isLow:Boolean, slot:Int):Unit = {
+    val heap = if (isLow) low else high
+    val ndx = position(slot)
+    val last = if (isLow) { lowSize -= 1; lowSize } else { highSize -= 1; highSize }
+    position(slot) = -1
+
+    if (ndx != last) {
+      val moved = heap(last)
+      heap(ndx) = moved
+      position(moved) = ndx
+      siftUp(isLow, heap, ndx)
+      siftDown(isLow, heap, position(moved))
+    }
+  }
+
+  // true if slot a belongs above slot b in the heap
+  private def above(isLow:Boolean, a:Int, b:Int):Boolean = {
+    if (isLow) values(a) > values(b) else values(a) < values(b)
+  }
+
+  private def swap(heap:Array[Int], i:Int, j:Int):Unit = {
+    val tmp = heap(i)
+    heap(i) = heap(j)
+    heap(j) = tmp
+    position(heap(i)) = i
+    position(heap(j)) = j
+  }
+
+  private def siftUp(isLow:Boolean, heap:Array[Int], start:Int):Unit = {
+    var ndx = start
+    while (ndx > 0) {
+      val parent = (ndx - 1) / 2
+      if (!above(isLow, heap(ndx), heap(parent))) {
+        return
+      }
+      swap(heap, ndx, parent)
+      ndx = parent
+    }
+  }
+
+  private def siftDown(isLow:Boolean, heap:Array[Int], start:Int):Unit = {
+    val size = if (isLow) lowSize else highSize
+    var ndx = start
+    while (true) {
+      val left = 2 * ndx + 1
+      if (left >= size) {
+        return
+      }
+      val right = left + 1
+      val child = if (right < size && above(isLow, heap(right), heap(left))) right else left
+      if (!above(isLow, heap(child), heap(ndx))) {
+        return
+      }
+      swap(heap, ndx, child)
+      ndx = child
+    }
+  }
+}
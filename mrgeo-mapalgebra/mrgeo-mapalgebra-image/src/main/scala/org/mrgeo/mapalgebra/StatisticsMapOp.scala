@@ -20,9 +20,9 @@ import java.awt.image.{DataBuffer, Raster, WritableRaster}
 import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.rdd.CoGroupedRDD
-import org.apache.spark.{HashPartitioner, SparkConf, SparkContext}
+import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data.DataProviderFactory.AccessMode
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
+import org.mrgeo.data.raster.{RasterTile, RasterUtils, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.data.{DataProviderFactory, ProviderProperties}
 import org.mrgeo.job.JobArguments
@@ -207,131 +207,108 @@ class StatisticsMapOp extends RasterMapOp with Externalizable {
 
     val pyramids = mapopbuilder.result().map(_.rdd(zoom) getOrElse (throw new IOException("Can't load RDD! Ouch! " + getClass.getName)))
 
-    // cogroup needs a partitioner, so we'll give one here...
-    var maxpartitions = 0
-    val partitions = pyramids.foreach(p => {
-      if (p.partitions.length > maxpartitions) {
-        maxpartitions = p.partitions.length
-      }
-    })
-
-    val groups = new CoGroupedRDD(pyramids, new HashPartitioner(maxpartitions))
+    // cogroup needs a partitioner, if the inputs are co-partitioned we'll use theirs, and won't shuffle
+    val groups = new CoGroupedRDD(pyramids, SparkUtils.joinPartitioner(pyramids))
 
     rasterRDD = Some(RasterRDD(groups.map(tile => {
 
       val epsilon = 1e-8
 
-      def count(raster: Raster, result: WritableRaster, nodata: Double) = {
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < raster.getWidth) {
-            val px = raster.getSampleDouble(x, y, 0)
+      // count, min, max, sum and mean read band 0 of each input once, as a primitive array, and fold
+      // it into per-pixel accumulators with a loop chosen per method
+      def accumulate(tiles: Array[Iterable[_]]): RasterWritable = {
+        val pixels = tilesize * tilesize
 
-            if (RasterMapOp.isNotNodata(px, nodata)) {
-              val cnt = result.getSampleDouble(x, y, 0)
-              if (RasterMapOp.isNodata(cnt, Float.NaN)) {
-                result.setSample(x, y, 0, 1)
-              }
-              else {
-                result.setSample(x, y, 0, cnt + 1)
-              }
-            }
-            x += 1
-          }
-          y += 1
+        val counts = Array.ofDim[Int](pixels)
+        val values = method match {
+        case StatisticsMapOp.Min => Array.fill[Double](pixels)(Double.PositiveInfinity)
+        case StatisticsMapOp.Max => Array.fill[Double](pixels)(Double.NegativeInfinity)
+        case _ => Array.ofDim[Double](pixels)
         }
-      }
 
-      def min(raster: Raster, result: WritableRaster, nodata: Double) = {
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < raster.getWidth) {
-            val px = raster.getSampleDouble(x, y, 0)
+        var samples: Array[Double] = null
+        var ndx: Int = 0
+        while (ndx < tiles.length) {
+          val wr = tiles(ndx)
+          if (wr != null && wr.nonEmpty) {
+            samples = RasterTile.fromWritable(wr.asInstanceOf[Seq[RasterWritable]].head).getSamples(0, samples)
+            val nodata = nodatas(ndx)
 
-            if (RasterMapOp.isNotNodata(px, nodata)) {
-              val src = result.getSampleDouble(x, y, 0)
-              if (RasterMapOp.isNodata(src, Float.NaN)) {
-                result.setSample(x, y, 0, px)
+            // NaN is never data, so (v == v && v != nodata) is the nodata test for NaN and value nodatas
+            var i: Int = 0
+            method match {
+            case StatisticsMapOp.Count =>
+              while (i < pixels) {
+                val v = samples(i)
+                if (v == v && v != nodata) {
+                  counts(i) += 1
+                }
+                i += 1
               }
-              else {
-                result.setSample(x, y, 0, Math.min(src, px))
+            case StatisticsMapOp.Min =>
+              while (i < pixels) {
+                val v = samples(i)
+                if (v == v && v != nodata) {
+                  counts(i) += 1
+                  if (v < values(i)) {
+                    values(i) = v
+                  }
+                }
+                i += 1
               }
-            }
-            x += 1
-          }
-          y += 1
-        }
-      }
-
-      def max(raster: Raster, result: WritableRaster, nodata: Double) = {
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < raster.getWidth) {
-            val px = raster.getSampleDouble(x, y, 0)
-
-            if (RasterMapOp.isNotNodata(px, nodata)) {
-              val src = result.getSampleDouble(x, y, 0)
-              if (RasterMapOp.isNodata(src, Float.NaN)) {
-                result.setSample(x, y, 0, px)
+            case StatisticsMapOp.Max =>
+              while (i < pixels) {
+                val v = samples(i)
+                if (v == v && v != nodata) {
+                  counts(i) += 1
+                  if (v > values(i)) {
+                    values(i) = v
+                  }
+                }
+                i += 1
               }
-              else {
-                result.setSample(x, y, 0, Math.max(src, px))
+            case StatisticsMapOp.Sum | StatisticsMapOp.Mean =>
+              while (i < pixels) {
+                val v = samples(i)
+                if (v == v && v != nodata) {
+                  counts(i) += 1
+                  values(i) += v
+                }
+                i += 1
               }
             }
-            x += 1
           }
-          y += 1
+          ndx += 1
         }
-      }
 
-      def mean(raster: Raster, result: WritableRaster, nodata: Double) = {
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < raster.getWidth) {
-            val px = raster.getSampleDouble(x, y, 0)
-
-            if (RasterMapOp.isNotNodata(px, nodata)) {
-              val src = result.getSampleDouble(x, y, 0)
-              val cnt = result.getSampleDouble(x, y, 1)
-              if (RasterMapOp.isNodata(src, Float.NaN)) {
-                result.setSample(x, y, 0, px)
-                result.setSample(x, y, 1, 1)
-              }
-              else {
-                result.setSample(x, y, 0, src + px)
-                result.setSample(x, y, 1, cnt + 1)
-              }
+        // pixels without data in any input stay nodata (NaN)
+        val result = RasterTile.createEmptyTile(tilesize, tilesize, 1, DataBuffer.TYPE_FLOAT, Float.NaN)
+        var i: Int = 0
+        method match {
+        case StatisticsMapOp.Count =>
+          while (i < pixels) {
+            if (counts(i) > 0) {
+              result.setDouble(i, counts(i))
             }
-            x += 1
+            i += 1
           }
-          y += 1
-        }
-      }
-
-      def sum(raster: Raster, result: WritableRaster, nodata: Double) = {
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < raster.getWidth) {
-            val px = raster.getSampleDouble(x, y, 0)
-
-            if (RasterMapOp.isNotNodata(px, nodata)) {
-              val src = result.getSampleDouble(x, y, 0)
-              if (RasterMapOp.isNodata(src, Float.NaN)) {
-                result.setSample(x, y, 0, px)
-              }
-              else {
-                result.setSample(x, y, 0, src + px)
-              }
+        case StatisticsMapOp.Mean =>
+          while (i < pixels) {
+            if (counts(i) > 0) {
+              result.setDouble(i, values(i) / counts(i))
             }
-            x += 1
+            i += 1
+          }
+        case _ =>
+          while (i < pixels) {
+            if (counts(i) > 0) {
+              result.setDouble(i, values(i))
+            }
+            i += 1
           }
-          y += 1
         }
+
+        result.toWritable
       }
 
       def mode(tiles: Array[Iterable[_]], result: WritableRaster, nodatas: Array[Double]) = {
@@ -487,57 +464,19 @@ class StatisticsMapOp extends RasterMapOp with Externalizable {
         }
       }
 
-      val bands = method match {
-      case StatisticsMapOp.Mean => 2
-      case _ => 1
-      }
-
-      val result = RasterUtils.createEmptyRaster(tilesize, tilesize, bands, DataBuffer.TYPE_FLOAT, Float.NaN)
-
-      var ndx: Int = 0
       method match {
-      case StatisticsMapOp.Mode => mode(tile._2, result, nodatas)
-      case StatisticsMapOp.Median => median(tile._2, result, nodatas)
-      case StatisticsMapOp.StdDev => stddev(tile._2, result, nodatas)
+      case StatisticsMapOp.Mode | StatisticsMapOp.Median | StatisticsMapOp.StdDev =>
+        val result = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, DataBuffer.TYPE_FLOAT, Float.NaN)
+        method match {
+        case StatisticsMapOp.Mode => mode(tile._2, result, nodatas)
+        case StatisticsMapOp.Median => median(tile._2, result, nodatas)
+        case StatisticsMapOp.StdDev => stddev(tile._2, result, nodatas)
+        }
+        (tile._1, RasterWritable.toWritable(result))
       case _ =>
-        tile._2.foreach(wr => {
-
-          val modebuilder = Array.newBuilder[Double]
-          if (wr != null && wr.nonEmpty) {
-            val raster = RasterWritable.toRaster(wr.asInstanceOf[Seq[RasterWritable]].head)
-
-            method match {
-            case StatisticsMapOp.Count => count(raster, result, nodatas(ndx))
-            case StatisticsMapOp.Max => max(raster, result, nodatas(ndx))
-            case StatisticsMapOp.Mean => mean(raster, result, nodatas(ndx))
-            case StatisticsMapOp.Min => min(raster, result, nodatas(ndx))
-            case StatisticsMapOp.Sum => sum(raster, result, nodatas(ndx))
-
-            }
-          }
-          ndx += 1
-        })
+        (tile._1, accumulate(tile._2))
       }
 
-      (tile._1, method match {
-      case StatisticsMapOp.Mean =>
-        val mean = RasterUtils.createEmptyRaster(tilesize, tilesize, 1, DataBuffer.TYPE_FLOAT, Float.NaN)
-        var y: Int = 0
-        while (y < result.getHeight) {
-          var x: Int = 0
-          while (x < result.getWidth) {
-            val total = result.getSampleDouble(x, y, 0)
-            if (RasterMapOp.isNotNodata(total, Float.NaN)) {
-              mean.setSample(x, y, 0, total / result.getSampleDouble(x, y, 1))
-            }
-            x += 1
-          }
-          y += 1
-        }
-        RasterWritable.toWritable(mean)
-      case _ => RasterWritable.toWritable(result)
-      })
-
     })))
 
     metadata(SparkUtils.calculateMetadata(rasterRDD.get, zoom, Float.NaN,
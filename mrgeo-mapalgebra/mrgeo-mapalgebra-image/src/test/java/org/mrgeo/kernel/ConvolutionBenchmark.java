@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.kernel;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.junit.Benchmark;
+
+import java.util.Random;
+
+/**
+ * Micro-benchmark for the KernelMapOp convolution backends, comparing the naive 2-D convolution
+ * with the separable convolution (on a gaussian) and with the FFT convolution (on a disk, which
+ * isn't separable) for growing kernel sizes.  The size where the FFT overtakes the naive
+ * convolution is the one to use for kernel.fft.min.area.  Not part of the unit tests, run it with
+ * the benchmark profile:
+ *
+ *   mvn -Pbenchmark test -Dtest=ConvolutionBenchmark [-Dbenchmark.tilesize=512] [-Dbenchmark.iterations=5]
+ */
+@SuppressWarnings("static-method")
+public class ConvolutionBenchmark
+{
+private static final double NODATA = -9999;
+
+@Test
+@Category(Benchmark.class)
+public void convolve()
+{
+  int tilesize = Integer.getInteger("benchmark.tilesize", 512);
+  int iterations = Integer.getInteger("benchmark.iterations", 5);
+
+  for (int size : new int[]{5, 9, 13, 15, 17, 19, 21, 31, 63})
+  {
+    int srcSize = tilesize + size - 1;
+    double[] src = new double[srcSize * srcSize];
+    Random rand = new Random(0);
+    for (int i = 0; i < src.length; i++)
+    {
+      src[i] = (rand.nextInt(20) == 0) ? NODATA : rand.nextDouble() * 1000.0;
+    }
+
+    float[] oned = new float[size];
+    for (int i = 0; i < size; i++)
+    {
+      double d = i - (size / 2);
+      oned[i] = (float) Math.exp(-(d * d) / (2.0 * (size / 6.0) * (size / 6.0)));
+    }
+    float[] gaussian = new float[size * size];
+    float[] disk = new float[size * size];
+    int radius = size / 2;
+    for (int ky = 0; ky < size; ky++)
+    {
+      for (int kx = 0; kx < size; kx++)
+      {
+        int dx = kx - radius;
+        int dy = ky - radius;
+        gaussian[ky * size + kx] = oned[kx] * oned[ky];
+        disk[ky * size + kx] = (dx * dx + dy * dy <= radius * radius) ? 1.0f : 0.0f;
+      }
+    }
+
+    // warm up
+    FFTConvolver fft = new FFTConvolver(disk, size, size, srcSize, srcSize);
+    for (int i = 0; i < 2; i++)
+    {
+      Convolution.naive(src, srcSize, srcSize, gaussian, size, size, NODATA);
+      Convolution.naive(src, srcSize, srcSize, disk, size, size, NODATA);
+      Convolution.separable(src, srcSize, srcSize, oned, oned, NODATA);
+      fft.convolve(src, NODATA);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      Convolution.naive(src, srcSize, srcSize, gaussian, size, size, NODATA);
+    }
+    double naiveMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      Convolution.separable(src, srcSize, srcSize, oned, oned, NODATA);
+    }
+    double separableMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      Convolution.naive(src, srcSize, srcSize, disk, size, size, NODATA);
+    }
+    double naiveDiskMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++)
+    {
+      fft.convolve(src, NODATA);
+    }
+    double fftMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+    System.out.println(String.format("kernel %3dx%-3d (area %4d): gaussian naive %9.2f ms/tile, separable %8.2f ms/tile" +
+            " | disk naive %9.2f ms/tile, fft %8.2f ms/tile",
+        size, size, size * size, naiveMs, separableMs, naiveDiskMs, fftMs));
+  }
+}
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.kernel;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mrgeo.junit.UnitTest;
+
+import java.util.Random;
+
+@SuppressWarnings("static-method")
+public class ConvolutionTest
+{
+private static final int SIZE = 40;
+private static final double NODATA = -9999;
+
+private static double[] random(long seed)
+{
+  Random rand = new Random(seed);
+  double[] values = new double[SIZE * SIZE];
+  for (int i = 0; i < values.length; i++)
+  {
+    values[i] = (rand.nextInt(8) == 0) ? NODATA : rand.nextDouble() * 100.0;
+  }
+  return values;
+}
+
+private static float[] gaussian(int size, double sigma)
+{
+  float[] weights = new float[size];
+  for (int i = 0; i < size; i++)
+  {
+    double d = i - (size / 2);
+    weights[i] = (float) Math.exp(-(d * d) / (2 * sigma * sigma));
+  }
+  return weights;
+}
+
+private static void assertSame(double[] expected, double[] actual)
+{
+  Assert.assertEquals(expected.length, actual.length);
+  for (int i = 0; i < expected.length; i++)
+  {
+    if (Double.isNaN(expected[i]))
+    {
+      Assert.assertTrue("Expected NaN at " + i + " but got " + actual[i], Double.isNaN(actual[i]));
+    }
+    else
+    {
+      Assert.assertEquals("Bad value at " + i, expected[i], actual[i], 1e-6 * Math.max(1.0, Math.abs(expected[i])));
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void separableMatchesNaive()
+{
+  float[] horizontal = gaussian(7, 2.0);
+  float[] vertical = gaussian(5, 1.5);
+
+  float[] weights = new float[horizontal.length * vertical.length];
+  for (int ky = 0; ky < vertical.length; ky++)
+  {
+    for (int kx = 0; kx < horizontal.length; kx++)
+    {
+      weights[ky * horizontal.length + kx] = horizontal[kx] * vertical[ky];
+    }
+  }
+
+  double[] src = random(1);
+  assertSame(Convolution.naive(src, SIZE, SIZE, weights, horizontal.length, vertical.length, NODATA),
+      Convolution.separable(src, SIZE, SIZE, horizontal, vertical, NODATA));
+}
+
+@Test
+@Category(UnitTest.class)
+public void fftMatchesNaive()
+{
+  // a ring, not separable
+  int size = 9;
+  float[] weights = new float[size * size];
+  for (int ky = 0; ky < size; ky++)
+  {
+    for (int kx = 0; kx < size; kx++)
+    {
+      double d = Math.hypot(kx - size / 2, ky - size / 2);
+      weights[ky * size + kx] = (d >= 2 && d <= 4) ? 1.0f : 0.0f;
+    }
+  }
+  Assert.assertTrue(Convolution.separate(weights, size, size).isEmpty());
+
+  double[] src = random(2);
+  assertSame(Convolution.naive(src, SIZE, SIZE, weights, size, size, NODATA),
+      Convolution.fft(src, SIZE, SIZE, weights, size, size, NODATA));
+}
+
+@Test
+@Category(UnitTest.class)
+public void separate()
+{
+  float[] horizontal = gaussian(5, 1.0);
+  float[] vertical = gaussian(3, 0.5);
+
+  float[] weights = new float[horizontal.length * vertical.length];
+  for (int ky = 0; ky < vertical.length; ky++)
+  {
+    for (int kx = 0; kx < horizontal.length; kx++)
+    {
+      weights[ky * horizontal.length + kx] = 3.0f * horizontal[kx] * vertical[ky];
+    }
+  }
+
+  scala.Tuple2<float[], float[]> separated = Convolution.separate(weights, horizontal.length, vertical.length).get();
+  for (int ky = 0; ky < vertical.length; ky++)
+  {
+    for (int kx = 0; kx < horizontal.length; kx++)
+    {
+      Assert.assertEquals(weights[ky * horizontal.length + kx], separated._1()[kx] * separated._2()[ky], 1e-5);
+    }
+  }
+}
+
+@Test
+@Category(UnitTest.class)
+public void gaussianKernelIsSeparable()
+{
+  float[] weights = GaussianGeographicKernel.weights(9, 2.0);
+  double sum = 0;
+  for (int i = 0; i < weights.length; i++)
+  {
+    sum += weights[i];
+    Assert.assertEquals(weights[i], weights[weights.length - 1 - i], 1e-7);
+  }
+  Assert.assertEquals(1.0, sum, 1e-6);
+  Assert.assertTrue(weights[4] > weights[3]);
+
+  // the gaussian takes the separable backend, the laplacian stays on OpenCV
+  GaussianGeographicKernel gaussian = new GaussianGeographicKernel(2000.0, 10, 512);
+  Assert.assertTrue(gaussian.getSeparableKernel().isDefined());
+  float[] horizontal = gaussian.getSeparableKernel().get()._1();
+  float[] vertical = gaussian.getSeparableKernel().get()._2();
+  float[] kernel = gaussian.getKernel().get();
+  Assert.assertEquals(gaussian.getWidth() * gaussian.getHeight(), kernel.length);
+  for (int ky = 0; ky < vertical.length; ky++)
+  {
+    for (int kx = 0; kx < horizontal.length; kx++)
+    {
+      Assert.assertEquals(horizontal[kx] * vertical[ky], kernel[ky * horizontal.length + kx], 1e-7);
+    }
+  }
+
+  LaplacianGeographicKernel laplacian = new LaplacianGeographicKernel(2000.0, 10, 512);
+  Assert.assertTrue(laplacian.getKernel().isEmpty());
+  Assert.assertTrue(laplacian.getSeparableKernel().isEmpty());
+}
+}
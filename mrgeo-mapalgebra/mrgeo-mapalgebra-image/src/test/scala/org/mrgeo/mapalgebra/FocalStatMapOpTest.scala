@@ -0,0 +1,156 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import java.util.Random
+
+import junit.framework.Assert
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.mrgeo.junit.UnitTest
+
+object FocalStatMapOpTest
+{
+  val Tilesize = 12
+  val Stats = Array(FocalStatMapOp.Count, FocalStatMapOp.Max, FocalStatMapOp.Min, FocalStatMapOp.Mean,
+    FocalStatMapOp.Median, FocalStatMapOp.Range, FocalStatMapOp.StdDev, FocalStatMapOp.Sum,
+    FocalStatMapOp.Variance)
+
+  // one nodata value per band
+  val Nodatas = Array(Double.NaN, -9999.0)
+
+  // the bands of a tile, with a buffer for a size x size neighborhood
+  def bands(size:Int):Array[Array[Double]] =
+  {
+    val width = Tilesize + (size / 2) * 2
+    Nodatas.indices.map(b => {
+      val random = new Random(b + 1)
+      val values = Array.fill[Double](width * width)(if (random.nextDouble() < 0.15) Nodatas(b)
+      else 1000.0 + random.nextDouble() * 100.0)
+
+      // nodata in the first columns, so it is in the neighborhoods at the start of the rows
+      for (y <- 2 until 6)
+      {
+        values(y * width) = Nodatas(b)
+        values(y * width + 1) = Nodatas(b)
+      }
+      values
+    }).toArray
+  }
+
+  def notnodata(bands:Array[Array[Double]]):Array[Array[Boolean]] =
+  {
+    bands.indices.map(b => bands(b).map(v => if (Nodatas(b).isNaN) !v.isNaN else v != Nodatas(b))).toArray
+  }
+
+  // compute every band of the tile, sharing one sweep between the bands like RawFocalMapOp does
+  def compute(op:RawFocalMapOp, bands:Array[Array[Double]], size:Int, sweep:Boolean):Array[Array[Double]] =
+  {
+    val buffer = size / 2
+    val width = Tilesize + buffer * 2
+    val rowSweep = if (sweep) op.createRowSweep(width, size, size) else None
+    Assert.assertEquals(sweep, rowSweep.isDefined)
+
+    val nnd = notnodata(bands)
+    bands.indices.map(b => {
+      val output = new Array[Double](Tilesize * Tilesize)
+      op.computeBand(bands(b), nnd(b), width, Tilesize, buffer, buffer, size, size, Double.NaN, rowSweep, 0L, output)
+      output
+    }).toArray
+  }
+
+  // the statistic worked out from all the values in the neighborhood
+  def bruteForce(stat:String, values:Array[Double], notnodata:Array[Boolean], size:Int, x:Int, y:Int,
+      ignoreNoData:Boolean):Double =
+  {
+    val buffer = size / 2
+    val width = Tilesize + buffer * 2
+    val offset = if ((size % 2) == 0) size / 2 - 1 else size / 2
+    val srcX = x + buffer
+    val srcY = y + buffer
+    if (!notnodata(srcY * width + srcX))
+    {
+      return Double.NaN
+    }
+
+    val neighborhood = for (ny <- srcY - offset until srcY - offset + size;
+                            nx <- srcX - offset until srcX - offset + size) yield ny * width + nx
+    if (!ignoreNoData && neighborhood.exists(i => !notnodata(i)))
+    {
+      return Double.NaN
+    }
+
+    val data = neighborhood.filter(i => notnodata(i)).map(i => values(i)).sorted
+    val mean = data.sum / data.length
+    val variance = data.map(v => (v - mean) * (v - mean)).sum
+    stat match
+    {
+      case FocalStatMapOp.Count => data.length
+      case FocalStatMapOp.Max => data.last
+      case FocalStatMapOp.Min => data.head
+      case FocalStatMapOp.Mean => mean
+      case FocalStatMapOp.Median =>
+        if ((data.length & 1) == 1) data(data.length / 2) else (data(data.length / 2 - 1) + data(data.length / 2)) / 2.0
+      case FocalStatMapOp.Range => data.last - data.head
+      case FocalStatMapOp.StdDev => math.sqrt(variance)
+      case FocalStatMapOp.Sum => data.sum
+      case FocalStatMapOp.Variance => variance
+    }
+  }
+
+  def assertClose(message:String, expected:Double, actual:Double):Unit =
+  {
+    Assert.assertEquals(message, expected, actual, 1e-8 * math.max(1.0, math.abs(expected)))
+  }
+}
+
+class FocalStatMapOpTest
+{
+  import FocalStatMapOpTest._
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def sweepMatchesComputePixelValue():Unit =
+  {
+    for (size <- Array(3, 4, 5); stat <- Stats; ignoreNoData <- Array(true, false))
+    {
+      val op = new FocalStatMapOp(None, stat, size + "p", ignoreNoData)
+      val tile = bands(size)
+      val nnd = notnodata(tile)
+
+      val swept = compute(op, tile, size, sweep = true)
+      val single = compute(op, tile, size, sweep = false)
+
+      var nodata = 0
+      for (b <- tile.indices; y <- 0 until Tilesize; x <- 0 until Tilesize)
+      {
+        val message = stat + " " + size + "p ignoreNoData " + ignoreNoData + " band " + b + " at " + x + ", " + y
+        val expected = bruteForce(stat, tile(b), nnd(b), size, x, y, ignoreNoData)
+        assertClose(message, expected, swept(b)(y * Tilesize + x))
+        assertClose(message, expected, single(b)(y * Tilesize + x))
+        if (expected.isNaN)
+        {
+          nodata += 1
+        }
+      }
+
+      // some, but not all, of the pixels are nodata
+      Assert.assertTrue(nodata > 0)
+      Assert.assertTrue(nodata < tile.length * Tilesize * Tilesize)
+    }
+  }
+}
@@ -29,7 +29,7 @@ import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser.{ParserException, ParserNode}
 import org.mrgeo.mapalgebra.raster.RasterMapOp
 import org.mrgeo.mapalgebra.vector.VectorMapOp
-import org.mrgeo.mapalgebra.vector.paint.VectorPainter
+import org.mrgeo.mapalgebra.vector.paint.{TileAccumulator, TileShape, VectorPainter}
 import org.mrgeo.utils.tms.{Bounds, TMSUtils}
 import org.mrgeo.utils.{LatLng, StringUtils, SparkUtils}
 
@@ -49,8 +49,9 @@ abstract class AbstractRasterizeVectorMapOp extends RasterMapOp with Externaliza
   }
 
   override def registerClasses(): Array[Class[_]] = {
-    // get all the Geometry classes from the GeometryFactory
-    GeometryFactory.getClasses
+    // get all the Geometry classes from the GeometryFactory, and the clipped shapes and
+    // accumulators the tiles are painted with
+    GeometryFactory.getClasses ++ Array[Class[_]](classOf[TileShape], classOf[TileAccumulator])
   }
 
 
@@ -16,10 +16,9 @@
 
 package org.mrgeo.mapalgebra
 
-import java.io.{ByteArrayOutputStream, DataOutputStream, Externalizable}
+import java.io.Externalizable
 
 import com.vividsolutions.jts.geom.Envelope
-import org.apache.spark.AccumulatorParam
 import org.apache.spark.rdd.{PairRDDFunctions, RDD}
 import org.mrgeo.data.raster.RasterWritable
 import org.mrgeo.data.rdd.VectorRDD
@@ -27,7 +26,7 @@ import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.geometry.Geometry
 import org.mrgeo.mapalgebra.parser.ParserNode
 import org.mrgeo.mapalgebra.vector.VectorMapOp
-import org.mrgeo.mapalgebra.vector.paint.VectorPainter
+import org.mrgeo.mapalgebra.vector.paint.{TileAccumulator, TileShape, VectorPainter}
 import org.mrgeo.utils.tms.{TileBounds, Bounds, TMSUtils}
 
 import scala.collection.mutable.ListBuffer
@@ -65,94 +64,68 @@ class RasterizeVectorMapOp extends AbstractRasterizeVectorMapOp with Externaliza
 
   override def rasterize(vectorRDD: VectorRDD): RDD[(TileIdWritable, RasterWritable)] =
   {
-    val tiledVectors = vectorsToTiledRDD(vectorRDD)
-    val localRdd = new PairRDDFunctions(tiledVectors)
-    val groupedGeometries = localRdd.groupByKey()
-    rasterize(groupedGeometries)
-  }
+    val tiledShapes = vectorsToTiledRDD(vectorRDD)
 
-  def rasterize(groupedGeometries: RDD[(TileIdWritable, Iterable[Geometry])]): RDD[(TileIdWritable, RasterWritable)] = {
-    val result = groupedGeometries.map(U => {
-      val tileId = U._1
-      val rvp = new VectorPainter(zoom,
-        aggregationType,
-        column match {
-        case Some(c) => c
-        case None => null
-        },
-        tilesize)
-      rvp.beforePaintingTile(tileId.get)
-      for (geom <- U._2) {
-        rvp.paintGeometry(geom)
-      }
-      val raster = rvp.afterPaintingTile()
-      (tileId, raster)
-    })
-    result
+    // Each tile is painted as its shapes arrive, so neither the features of a tile nor
+    // the tile's shapes are ever gathered in one place.
+    val aggType = aggregationType
+    val ts = tilesize
+    val painted = new PairRDDFunctions(tiledShapes).aggregateByKey(new TileAccumulator(aggType, ts))(
+      (accumulator, shape) => accumulator.add(shape),
+      (a1, a2) => a1.merge(a2))
+
+    painted.map(tile => (new TileIdWritable(tile._1), tile._2.toWritable))
   }
 
   /**
     * This method iterates through each of the features in the vectorRDD input and
-    * returns a new RDD of TileIdWritable and Geometry tuples. The idea is that for
-    * each feature, it identifies which tiles that feature intersects and then adds
-    * a tuple to the resulting RDD for each of this tiles paired with that feature.
-    * For example, if a feature intersects 5 tiles, then it adds 5 records for that
-    * feature to the returned RDD.
+    * returns a new RDD of tile ids and TileShape tuples. For each feature, it identifies
+    * which tiles that feature intersects, and adds a tuple for each of those tiles with
+    * the part of the feature that falls in it. For example, if a feature intersects 5
+    * tiles, then it adds (up to) 5 records, each holding only that tile's piece.
     */
-  def vectorsToTiledRDD(vectorRDD: VectorRDD): RDD[(TileIdWritable, Geometry)] = {
-    val sizeAccumulator = vectorRDD.context.accumulator(0)(MaxSizeAccumulator)
-    val tiledVectors = vectorRDD.flatMap(U => {
+  def vectorsToTiledRDD(vectorRDD: VectorRDD): RDD[(Long, TileShape)] = {
+    val z = zoom
+    val ts = tilesize
+    val filter = bounds
+    val valueColumn = aggregationType match {
+    case VectorPainter.AggregationType.MASK => None
+    case _ => column
+    }
+
+    vectorRDD.flatMap(U => {
       val geom = U._2
-      var result = new ListBuffer[(TileIdWritable, Geometry)]
-      // For each geometry, compute the tile(s) that it intersects and output the
-      // the geometry to each of those tiles.
-      val envelope: Envelope = calculateEnvelope(geom)
-      val baos = new ByteArrayOutputStream(1024)
-      val dos = new DataOutputStream(baos)
-      try {
-        geom.write(dos)
-        sizeAccumulator.add(baos.size())
-      }
-      finally {
-        dos.close()
+      val result = new ListBuffer[(Long, TileShape)]
+
+      val weight = valueColumn match {
+      case Some(c) =>
+        val sv = geom.getAttribute(c)
+        if (sv == null) {
+          None
+        }
+        else {
+          Some(sv.toDouble)
+        }
+      case None => Some(1.0)
       }
-      val b: Bounds = new Bounds(envelope.getMinX, envelope.getMinY, envelope.getMaxX, envelope.getMaxY)
 
-      bounds match {
-      case Some(filterBounds) =>
-        if (filterBounds.intersects(b)) {
-          val tiles: List[TileIdWritable] = getOverlappingTiles(zoom, tilesize, b)
+      if (weight.isDefined && !geom.isEmpty) {
+        val envelope: Envelope = calculateEnvelope(geom)
+        val b: Bounds = new Bounds(envelope.getMinX, envelope.getMinY, envelope.getMaxX, envelope.getMaxY)
+
+        if (filter.isEmpty || filter.get.intersects(b)) {
+          val tiles: List[TileIdWritable] = getOverlappingTiles(z, ts, b)
           for (tileId <- tiles) {
-            result += ((tileId, geom))
+            val tile = TMSUtils.tileid(tileId.get, z)
+            val shape = TileShape.clip(geom, TMSUtils.tileBounds(tile.tx, tile.ty, z, ts), ts, weight.get)
+            if (shape != null) {
+              result += ((tileId.get, shape))
+            }
           }
         }
-      case None =>
-        val tiles: List[TileIdWritable] = getOverlappingTiles(zoom, tilesize, b)
-        for (tileId <- tiles) {
-          result += ((tileId, geom))
-        }
       }
       result
     })
-    // An individual partition cannot serialize to more than Int.MaxValue bytes
-    // because Spark cannot to load the partition into memory, and it results in
-    // java.lang.IllegalArgumentException: Size exceeds Integer.MAX_VALUE
-    // To prevent that, we re-partition based on the maximum serialized size of
-    // the input geometries. This is not ideal because there will likely be a lot
-    // of partially filled partitions
-
-    // Need to materialize the RDD in order for the accumulator to compute the
-    // max geometry size.
-    val count = tiledVectors.count()
-    val maxSize = sizeAccumulator.value
-    log.info("Max geometry serialized size is " + maxSize)
-    // The divide by 2 is not scientific. It simply doubles the number of partitions
-    // which, during testing, significatnly improved performance.
-    val geomsPerPartition = Integer.MAX_VALUE / maxSize / 2
-    log.info("Can fit " + geomsPerPartition + " geometries in a partition")
-    val partitions = (count / geomsPerPartition).toInt + 1
-    log.info("Using " + partitions + " partitions for RasterizeVector")
-    tiledVectors.repartition(partitions)
   }
 
   def calculateEnvelope(f: Geometry): Envelope = {
@@ -174,15 +147,4 @@ class RasterizeVectorMapOp extends AbstractRasterizeVectorMapOp with Externaliza
     }
     tiles.toList
   }
-
-  object MaxSizeAccumulator extends AccumulatorParam[Int]
-  {
-    override def addInPlace(r1: Int, r2: Int): Int = {
-      Math.max(r1, r2)
-    }
-
-    override def zero(initialValue: Int): Int = {
-      initialValue
-    }
-  }
 }
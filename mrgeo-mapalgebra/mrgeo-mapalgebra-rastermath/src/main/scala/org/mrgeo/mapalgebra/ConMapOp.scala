@@ -20,13 +20,14 @@ import java.awt.image.{DataBuffer, Raster}
 import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.rdd.CoGroupedRDD
-import org.apache.spark.{HashPartitioner, SparkConf, SparkContext}
+import org.apache.spark.{SparkConf, SparkContext}
 import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser._
-import org.mrgeo.mapalgebra.raster.RasterMapOp
+import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.mapalgebra.raster.{PixelExpression, PixelFormat, PixelMapOp, RasterMapOp}
 import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.SparkUtils
 
@@ -56,7 +57,7 @@ object ConMapOp extends MapOpRegistrar {
     new ConMapOp(node, variables)
 }
 
-class ConMapOp extends RasterMapOp with Externalizable {
+class ConMapOp extends RasterMapOp with PixelMapOp with Externalizable {
 
   private var rasterRDD:Option[RasterRDD] = None
 
@@ -215,20 +216,16 @@ class ConMapOp extends RasterMapOp with Externalizable {
 
     // gather all the RDDs and cogroup them
     val rddBuilder = mutable.ArrayBuilder.make[RasterRDD]
-    var maxpartitions = 0
     inputs.foreach(mapop => {
       rddBuilder += (mapop.rdd() match {
-      case Some(r) =>
-        if (r.partitions.length > maxpartitions) {
-          maxpartitions = r.partitions.length
-        }
-        r
+      case Some(r) => r
       case _ => throw new IOException("Can't load RDD! Ouch! " + mapop.getClass.getName)
       })
     })
+    val rdds = rddBuilder.result()
 
-    // cogroup needs a partitioner, so we'll give one here...
-    val groups = new CoGroupedRDD(rddBuilder.result(), new HashPartitioner(maxpartitions))
+    // cogroup needs a partitioner, if the inputs are co-partitioned we'll use theirs, and won't shuffle
+    val groups = new CoGroupedRDD(rdds, SparkUtils.joinPartitioner(rdds))
 
     // copy these here to avoid serializing the whole mapop
     nodatas = Array.fill[Double](isRdd.length)(Double.NaN)
@@ -353,6 +350,46 @@ class ConMapOp extends RasterMapOp with Externalizable {
   }
 
 
+  override def pixelInputs(): Array[RasterMapOp] = inputs
+
+  override def pixelExpression(expressions: Array[PixelExpression]): PixelExpression = {
+    PixelExpression.con(isRdd.indices.map(i => {
+      if (isRdd(i)) {
+        expressions(rddMap(i))
+      }
+      else {
+        PixelExpression.constant(constMap(i).getOrElse(Double.NaN))
+      }
+    }).toArray)
+  }
+
+  // the largest type of the raster outputs (float if they are all constants), with the default
+  // nodata for that type, the same as execute()
+  override def pixelFormat(formats: Array[PixelFormat]): PixelFormat = {
+    val order = Array(DataBuffer.TYPE_BYTE, DataBuffer.TYPE_SHORT, DataBuffer.TYPE_USHORT,
+      DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE)
+
+    val outputs = isRdd.indices.filter(i => isRdd(i) && (i % 2 == 1 || i == isRdd.length - 1))
+    val datatype = if (outputs.isEmpty) {
+      DataBuffer.TYPE_FLOAT
+    }
+    else {
+      outputs.map(i => formats(rddMap(i)).datatype).maxBy(dt => order.indexOf(dt))
+    }
+
+    PixelFormat(datatype, Array.fill[Double](formats(0).nodatas.length)(RasterUtils.getDefaultNoDataForType(datatype)))
+  }
+
+  // like execute(), a tile is made wherever any input has one, and dropped if it is all nodata
+  override def pixelOuterJoin(): Boolean = true
+
+  override def pixelDropsNodataTiles(): Boolean = true
+
+  override def fused(rdd: RasterRDD, meta: MrsPyramidMetadata): Unit = {
+    rasterRDD = Some(rdd)
+    metadata(meta)
+  }
+
   private def calculateLargestType() = {
     var d = calculateType()
 
@@ -24,7 +24,8 @@ import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser._
-import org.mrgeo.mapalgebra.raster.RasterMapOp
+import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.mapalgebra.raster.{PixelExpression, PixelFormat, PixelMapOp, RasterMapOp}
 import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.SparkUtils
 
@@ -40,7 +41,7 @@ object LogMapOp extends MapOpRegistrar {
     new LogMapOp(node, variables)
 }
 
-class LogMapOp extends RasterMapOp with Externalizable {
+class LogMapOp extends RasterMapOp with PixelMapOp with Externalizable {
 
   private var inputMapOp:Option[RasterMapOp] = None
   private var base:Option[Double] = None
@@ -125,6 +126,23 @@ class LogMapOp extends RasterMapOp with Externalizable {
     true
   }
 
+  override def pixelInputs(): Array[RasterMapOp] = inputMapOp.toArray
+
+  override def pixelExpression(inputs: Array[PixelExpression]): PixelExpression = {
+    // copy this here to avoid serializing the whole mapop
+    val baseVal = if (base.isDefined) Math.log(base.get) else 1.0
+
+    PixelExpression.unary(inputs(0), v => Math.log(v) / baseVal)
+  }
+
+  override def pixelFormat(inputs: Array[PixelFormat]): PixelFormat =
+    PixelFormat(DataBuffer.TYPE_FLOAT, Array.fill[Double](inputs(0).nodatas.length)(Float.NaN))
+
+  override def fused(rdd: RasterRDD, meta: MrsPyramidMetadata): Unit = {
+    rasterRDD = Some(rdd)
+    metadata(meta)
+  }
+
   override def setup(job: JobArguments, conf: SparkConf): Boolean = true
 
   override def teardown(job: JobArguments, conf: SparkConf): Boolean = true
@@ -21,18 +21,30 @@ import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.rdd.PairRDDFunctions
 import org.apache.spark.{SparkConf, SparkContext}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
+import org.mrgeo.data.rdd.{RasterRDD, TileSchema}
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.MapOp
 import org.mrgeo.mapalgebra.parser._
-import org.mrgeo.mapalgebra.raster.RasterMapOp
+import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.mapalgebra.raster.{PixelExpression, PixelFormat, PixelMapOp, RasterMapOp}
 import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.SparkUtils
 import org.mrgeo.utils.tms.Bounds
 
-abstract class RawBinaryMathMapOp extends RasterMapOp with Externalizable {
+object RawBinaryMathMapOp {
+  // the result of a constant input tile, as a constant tile
+  def constantTile(tilesize:Int, datatype:Int, outputnodata:Array[Double], nodatas:Array[Double],
+      values:Array[Double], fn:(Double, Int) => Double):RasterWritable = {
+    val output = Array.tabulate[Double](values.length)(b => {
+      if (RasterMapOp.isNotNodata(values(b), nodatas(b))) fn(values(b), b) else outputnodata(b)
+    })
+    RasterWritable.createConstant(tilesize, tilesize, output.length, datatype, output)
+  }
+}
+
+abstract class RawBinaryMathMapOp extends RasterMapOp with PixelMapOp with Externalizable {
   var constA: Option[Double] = None
   var constB: Option[Double] = None
 
@@ -113,61 +125,14 @@ abstract class RawBinaryMathMapOp extends RasterMapOp with Externalizable {
 
 
   private[binarymath] def computeWithConstantA(raster: RasterMapOp, const: Double): Option[RasterRDD] = {
-
-    val rdd = raster.rdd() getOrElse(throw new IOException("Can't load RDD! Ouch! " + raster.getClass.getName))
-
-    val meta = raster.metadata().getOrElse(throw new IOException("Can't load metadata! Ouch! " + raster.getClass.getName))
-
-    // copy this here to avoid serializing the whole mapop
-    val nodatas = meta.getDefaultValues
-
-    val r1 = RasterWritable.toRaster(rdd.first()._2)
-
-    val outputnodata = if (datatype == r1.getSampleModel.getDataType) {
-      nodatas
-    }
-    else {
-      Array.fill[Double](r1.getNumBands)(nodata())
-    }
-
-    val answer = RasterRDD(rdd.map(tile => {
-      val raster = RasterWritable.toRaster(tile._2)
-      val width = raster.getWidth
-
-      val output = RasterUtils.createEmptyRaster(width, raster.getHeight, raster.getNumBands, datatype())
-
-      var b: Int = 0
-      while (b < raster.getNumBands) {
-        val pixels = raster.getSamples(0, 0, width, raster.getHeight, 0, null.asInstanceOf[Array[Double]])
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < width) {
-            val v = pixels(y * width + x)
-            if (RasterMapOp.isNotNodata(v, nodatas(b))) {
-              output.setSample(x, y, b, function(const, v))
-            }
-            else {
-              output.setSample(x, y, b, outputnodata(b))
-            }
-
-            x += 1
-          }
-          y += 1
-        }
-        b += 1
-      }
-      (tile._1, RasterWritable.toWritable(output))
-    }))
-
-    metadata(SparkUtils.calculateMetadata(answer, raster.metadata().get.getMaxZoomLevel, outputnodata,
-      bounds = meta.getBounds, calcStats = false))
-
-    Some(answer)
-
+    computeWithConstant(raster, (v:Double) => function(const, v))
   }
 
   private[binarymath] def computeWithConstantB(raster: RasterMapOp, const: Double): Option[RasterRDD] = {
+    computeWithConstant(raster, (v:Double) => function(v, const))
+  }
+
+  private def computeWithConstant(raster: RasterMapOp, fn: (Double) => Double): Option[RasterRDD] = {
 
     val rdd = raster.rdd() getOrElse(throw new IOException("Can't load RDD! Ouch! " + raster.getClass.getName))
 
@@ -176,44 +141,46 @@ abstract class RawBinaryMathMapOp extends RasterMapOp with Externalizable {
     // copy this here to avoid serializing the whole mapop
     val nodatas = meta.getDefaultValues
 
-    val r1 = RasterWritable.toRaster(rdd.first()._2)
+    val r1 = TileSchema.of(rdd, Some(meta))
 
-    val outputnodata = if (datatype == r1.getSampleModel.getDataType) {
+    val outputnodata = if (datatype == r1.datatype) {
       nodatas
     }
     else {
-      Array.fill[Double](r1.getNumBands)(nodata())
+      Array.fill[Double](r1.bands)(nodata())
     }
 
-    val answer = RasterRDD(rdd.map(tile => {
-      val raster = RasterWritable.toRaster(tile._2)
-
-      val width = raster.getWidth
-
-      val output = RasterUtils.createEmptyRaster(width, raster.getHeight, raster.getNumBands, datatype())
-
-      var b: Int = 0
-      while (b < raster.getNumBands) {
-        val pixels = raster.getSamples(0, 0, width, raster.getHeight, 0, null.asInstanceOf[Array[Double]])
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < width) {
-            val v = pixels(y * width + x)
-            if (RasterMapOp.isNotNodata(v, nodatas(b))) {
-              output.setSample(x, y, b, function(v, const))
-            }
-            else {
-              output.setSample(x, y, b, outputnodata(b))
-            }
-            x += 1
+    val outputdatatype = datatype()
+    val tilesize = r1.tilesize
+
+    val answer = RasterRDD(rdd.mapPartitions(_.map(t => {
+      val values = RasterWritable.getConstantValues(t._2)
+      if (values != null) {
+        // a constant tile stays constant, there's one value per band to work out
+        (t._1, RawBinaryMathMapOp.constantTile(tilesize, outputdatatype, outputnodata, nodatas, values,
+          (v:Double, b:Int) => fn(v)))
+      }
+      else {
+        val tile = RasterTile.fromWritable(t._2)
+        val output = RasterTile.createEmptyTile(tile.getWidth, tile.getHeight, tile.getNumBands, outputdatatype)
+
+        val bands = tile.getNumBands
+        val samples = tile.getNumSamples
+        var i: Int = 0
+        while (i < samples) {
+          val b = i % bands
+          val v = tile.getDouble(i)
+          if (RasterMapOp.isNotNodata(v, nodatas(b))) {
+            output.setDouble(i, fn(v))
           }
-          y += 1
+          else {
+            output.setDouble(i, outputnodata(b))
+          }
+          i += 1
         }
-        b += 1
+        (t._1, RasterWritable.compact(output.toWritable))
       }
-      (tile._1, RasterWritable.toWritable(output))
-    }))
+    }), preservesPartitioning = true)).withSchema(TileSchema(r1.bands, outputdatatype, r1.tilesize, outputnodata))
 
     metadata(SparkUtils.calculateMetadata(answer, raster.metadata().get.getMaxZoomLevel, outputnodata,
       bounds = meta.getBounds, calcStats = false))
@@ -226,90 +193,67 @@ abstract class RawBinaryMathMapOp extends RasterMapOp with Externalizable {
     val rdd1 = raster1.rdd() getOrElse(throw new IOException("Can't load RDD! Ouch! " + raster1.getClass.getName))
     val rdd2 = raster2.rdd() getOrElse(throw new IOException("Can't load RDD! Ouch! " + raster2.getClass.getName))
 
-    val r1 = RasterWritable.toRaster(rdd1.first()._2)
-    val r2 = RasterWritable.toRaster(rdd2.first()._2)
+    val r1 = TileSchema.of(rdd1, raster1.metadata())
+    val r2 = TileSchema.of(rdd2, raster2.metadata())
 
     // copy this here to avoid serializing the whole mapop
     val nodata1 = raster1.metadata() match {
     case Some(metadata) => metadata.getDefaultValues
-    case _ =>
-      Array.fill[Double](r1.getNumBands)(Double.NaN)
+    case _ => r1.nodatas
     }
     val nodata2 = raster2.metadata() match {
     case Some(metadata) => metadata.getDefaultValues
-    case _ =>
-      Array.fill[Double](r2.getNumBands)(Double.NaN)
+    case _ => r2.nodatas
     }
 
-    val outputnodata = if (datatype == r1.getSampleModel.getDataType) {
+    val outputnodata = if (datatype == r1.datatype) {
       nodata1
     }
-    else if (datatype == r2.getSampleModel.getDataType) {
+    else if (datatype == r2.datatype) {
       nodata2
     }
     else {
-      Array.fill[Double](r1.getNumBands)(nodata())
+      Array.fill[Double](r1.bands)(nodata())
     }
 
-    val convertr1 = r1.getSampleModel.getDataType != datatype
-    val convertr2 = r2.getSampleModel.getDataType != datatype || !(nodata1 sameElements nodata2)
+    val outputdatatype = datatype()
+    val tilesize = r1.tilesize
 
-    // group the RDDs
-    val group = new PairRDDFunctions(rdd1).cogroup(rdd2)
+    // group the RDDs, if the inputs are co-partitioned this doesn't shuffle
+    val group = new PairRDDFunctions(rdd1).cogroup(rdd2, SparkUtils.joinPartitioner(Seq(rdd1, rdd2)))
 
-    val answer = RasterRDD(group.flatMap(tile => {
+    val answer = RasterRDD(group.mapPartitions(_.flatMap(tile => {
       val iter1 = tile._2._1
       val iter2 = tile._2._2
 
       // if raster 1 or 2 is missing, we can't do the binary math
       if (iter1.nonEmpty && iter2.nonEmpty) {
         // we know there are only 1 item in each group's iterator, so we can use head()
-        val raster1 = RasterWritable.toRaster(iter1.head)
-        val raster2 = RasterWritable.toRaster(iter2.head)
-
-        val output = if (convertr1) {
-          RasterUtils.createEmptyRaster(raster1.getWidth, raster1.getHeight, raster1.getNumBands, datatype())
+        val const1 = RasterWritable.getConstantValues(iter1.head)
+        val const2 = RasterWritable.getConstantValues(iter2.head)
+
+        val output = if (const1 != null && const2 != null) {
+          // two constant tiles make a constant tile, without touching a pixel
+          RawBinaryMathMapOp.constantTile(tilesize, outputdatatype, outputnodata, nodata1, const1,
+            (v1:Double, b:Int) => {
+              if (RasterMapOp.isNotNodata(const2(b), nodata2(b))) function(v1, const2(b)) else outputnodata(b)
+            })
         }
-        else {
-          RasterUtils.makeRasterWritable(raster1)
+        else if (RasterWritable.isNodata(iter1.head, nodata1) || RasterWritable.isNodata(iter2.head, nodata2)) {
+          // nodata in either input is nodata in the output
+          RasterWritable.createConstant(tilesize, tilesize, outputnodata.length, outputdatatype, outputnodata)
         }
-
-        val width = raster1.getWidth
-        var b: Int = 0
-        while (b < raster1.getNumBands) {
-          val pixels1 = raster1.getSamples(0, 0, width, raster1.getHeight, 0, null.asInstanceOf[Array[Double]])
-          val pixels2 = raster2.getSamples(0, 0, width, raster2.getHeight, 0, null.asInstanceOf[Array[Double]])
-          var y: Int = 0
-          while (y < raster1.getHeight) {
-            var x: Int = 0
-            while (x < width) {
-              val v1 = pixels1(y * width + x)
-              if (RasterMapOp.isNotNodata(v1, nodata1(b))) {
-                val v2 = pixels2(y * width + x)
-                if (RasterMapOp.isNotNodata(v2, nodata2(b))) {
-                  output.setSample(x, y, b, function(v1, v2))
-                }
-                else {
-                  // if raster2 is nodata, we need to set raster1's pixel to nodata as well
-                  output.setSample(x, y, b, outputnodata(b))
-                }
-              }
-              else if (convertr1) {
-                output.setSample(x, y, b, outputnodata(b))
-              }
-              x += 1
-            }
-            y += 1
-          }
-          b += 1
+        else {
+          RasterWritable.compact(computeTile(RasterTile.fromWritable(iter1.head), RasterTile.fromWritable(iter2.head),
+            nodata1, nodata2, outputnodata, outputdatatype).toWritable)
         }
 
-        Array((tile._1, RasterWritable.toWritable(output))).iterator
+        Array((tile._1, output)).iterator
       }
       else {
         Array.empty[(TileIdWritable, RasterWritable)].iterator
       }
-    }))
+    }), preservesPartitioning = true)).withSchema(TileSchema(r1.bands, outputdatatype, r1.tilesize, outputnodata))
 
     metadata(SparkUtils.calculateMetadata(answer, raster1.metadata().get.getMaxZoomLevel, outputnodata,
       bounds = Bounds.combine(raster1.metadata().get.getBounds,raster2.metadata().get.getBounds), calcStats = false))
@@ -317,8 +261,64 @@ abstract class RawBinaryMathMapOp extends RasterMapOp with Externalizable {
     Some(answer)
   }
 
+  private def computeTile(tile1:RasterTile, tile2:RasterTile, nodata1:Array[Double], nodata2:Array[Double],
+      outputnodata:Array[Double], outputdatatype:Int):RasterTile = {
+    val output = RasterTile.createEmptyTile(tile1.getWidth, tile1.getHeight, tile1.getNumBands, outputdatatype)
+
+    val bands = tile1.getNumBands
+    val samples = tile1.getNumSamples
+    var i: Int = 0
+    while (i < samples) {
+      val b = i % bands
+      val v1 = tile1.getDouble(i)
+      if (RasterMapOp.isNotNodata(v1, nodata1(b))) {
+        val v2 = tile2.getDouble(i)
+        if (RasterMapOp.isNotNodata(v2, nodata2(b))) {
+          output.setDouble(i, function(v1, v2))
+        }
+        else {
+          // if raster2 is nodata, we need to set raster1's pixel to nodata as well
+          output.setDouble(i, outputnodata(b))
+        }
+      }
+      else {
+        output.setDouble(i, outputnodata(b))
+      }
+      i += 1
+    }
+    output
+  }
+
 
   private[binarymath] def function(a:Double, b:Double):Double
+
+  override def pixelInputs():Array[RasterMapOp] = (varA ++ varB).toArray
+
+  override def pixelExpression(inputs:Array[PixelExpression]):PixelExpression = {
+    if (constA.isDefined) {
+      PixelExpression.binary(PixelExpression.constant(constA.get), inputs(0), function)
+    }
+    else if (constB.isDefined) {
+      PixelExpression.binary(inputs(0), PixelExpression.constant(constB.get), function)
+    }
+    else {
+      PixelExpression.binary(inputs(0), inputs(1), function)
+    }
+  }
+
+  // same rules as execute(), keep the nodata of the first input with our datatype
+  override def pixelFormat(inputs:Array[PixelFormat]):PixelFormat = {
+    val outputdatatype = datatype()
+    inputs.find(_.datatype == outputdatatype) match {
+    case Some(format) => PixelFormat(outputdatatype, format.nodatas)
+    case _ => PixelFormat(outputdatatype, Array.fill[Double](inputs(0).nodatas.length)(nodata()))
+    }
+  }
+
+  override def fused(rdd:RasterRDD, meta:MrsPyramidMetadata):Unit = {
+    rasterRDD = Some(rdd)
+    metadata(meta)
+  }
   private[binarymath] def datatype():Int = { DataBuffer.TYPE_FLOAT }
   private[binarymath] def nodata():Double = { Float.NaN }
 
@@ -22,7 +22,7 @@ import java.io.IOException
 import org.apache.spark.SparkContext
 import org.apache.spark.rdd.PairRDDFunctions
 import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.rdd.{RasterRDD, TileSchema}
 import org.mrgeo.image.MrsPyramidMetadata
 import org.mrgeo.mapalgebra.parser.ParserNode
 import org.mrgeo.mapalgebra.raster.RasterMapOp
@@ -74,12 +74,12 @@ class IsNodataMapOp extends RawUnaryMathMapOp {
     val bounds = getOutputBounds(meta)
     val tb = TMSUtils.boundsToTile(bounds, zoom, meta.getTilesize)
     val allTiles = RasterMapOp.createEmptyRasterRDD(context, tb, zoom)
-    val src = RasterWritable.toRaster(rdd.first()._2)
+    val src = TileSchema.of(rdd, Some(meta))
     // If there are tiles missing from the input that are within the bounds,
     // output a tile with all zeros (meaning all pixels are nodata).
     val missingRaster = RasterWritable.toWritable(
-      RasterUtils.createEmptyRaster(src.getWidth, src.getHeight,
-        src.getNumBands, DataBuffer.TYPE_BYTE, 1))
+      RasterUtils.createEmptyRaster(src.tilesize, src.tilesize,
+        src.bands, DataBuffer.TYPE_BYTE, 1))
 
     val joined = new PairRDDFunctions(allTiles).leftOuterJoin(rdd)
     rasterRDD = Some(RasterRDD(joined.map(tile => {
@@ -114,6 +114,7 @@ class IsNodataMapOp extends RawUnaryMathMapOp {
     })))
 
     val outputNodatas = Array.fill[Double](meta.getBands)(RasterUtils.getDefaultNoDataForType(DataBuffer.TYPE_BYTE))
+    rasterRDD.get.withSchema(TileSchema(src.bands, DataBuffer.TYPE_BYTE, src.tilesize, outputNodatas))
     metadata(SparkUtils.calculateMetadata(rasterRDD.get, meta.getMaxZoomLevel, outputNodatas,
       bounds = bounds, calcStats = false))
 
@@ -121,5 +122,7 @@ class IsNodataMapOp extends RawUnaryMathMapOp {
   }
 
 
+  override def pixelFusable():Boolean = false
+
   override private[unarymath] def function(a: Double): Double = { Double.NaN }
 }
@@ -20,15 +20,16 @@ import java.awt.image.DataBuffer
 import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
 
 import org.apache.spark.{SparkConf, SparkContext}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
-import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.raster.RasterTile
+import org.mrgeo.data.rdd.{RasterRDD, TileSchema}
 import org.mrgeo.job.JobArguments
 import org.mrgeo.mapalgebra.parser._
-import org.mrgeo.mapalgebra.raster.RasterMapOp
+import org.mrgeo.image.MrsPyramidMetadata
+import org.mrgeo.mapalgebra.raster.{PixelExpression, PixelFormat, PixelMapOp, RasterMapOp}
 import org.mrgeo.utils.MrGeoImplicits._
 import org.mrgeo.utils.SparkUtils
 
-abstract class RawUnaryMathMapOp extends RasterMapOp with Externalizable {
+abstract class RawUnaryMathMapOp extends RasterMapOp with PixelMapOp with Externalizable {
   var input:Option[RasterMapOp] = None
   var rasterRDD:Option[RasterRDD] = None
 
@@ -64,43 +65,35 @@ abstract class RawUnaryMathMapOp extends RasterMapOp with Externalizable {
 
     val rdd = input.get.rdd() getOrElse (throw new IOException("Can't load RDD! Ouch! " + input.getClass.getName))
 
-    val r = RasterWritable.toRaster(rdd.first()._2)
-    val convert = datatype() != DataBuffer.TYPE_UNDEFINED && r.getSampleModel.getDataType != datatype()
+    val schema = TileSchema.of(rdd, Some(meta))
+    val inputdatatype = schema.datatype
+    val convert = datatype() != DataBuffer.TYPE_UNDEFINED && inputdatatype != datatype()
 
     // copy this here to avoid serializing the whole mapop
     val nodatas = meta.getDefaultValues
 
     val outputnodata = if (convert)  Array.fill[Double](meta.getBands)(nodata()) else nodatas
-    val outputdatatype = if (convert) datatype() else r.getSampleModel.getDataType
-
-    rasterRDD = Some(RasterRDD(rdd.map(tile => {
-      val raster = RasterWritable.toRaster(tile._2)
-
-      val output = RasterUtils.createEmptyRaster(raster.getWidth, raster.getHeight, raster.getNumBands, outputdatatype)
-
-      val width = raster.getWidth
-      var b: Int = 0
-      while (b < raster.getNumBands) {
-        val pixels = raster.getSamples(0, 0, width, raster.getHeight, 0, null.asInstanceOf[Array[Double]])
-        var y: Int = 0
-        while (y < raster.getHeight) {
-          var x: Int = 0
-          while (x < width) {
-            val v = pixels(y * width + x)
-            if (RasterMapOp.isNotNodata(v, nodatas(b))) {
-              output.setSample(x, y, b, function(v))
-            }
-            else {
-              output.setSample(x, y, b, outputnodata(b))
-            }
-            x += 1
-          }
-          y += 1
+    val outputdatatype = if (convert) datatype() else inputdatatype
+
+    rasterRDD = Some(rdd.mapTiles((_, tile) => {
+      val output = RasterTile.createEmptyTile(tile.getWidth, tile.getHeight, tile.getNumBands, outputdatatype)
+
+      val bands = tile.getNumBands
+      val samples = tile.getNumSamples
+      var i: Int = 0
+      while (i < samples) {
+        val b = i % bands
+        val v = tile.getDouble(i)
+        if (RasterMapOp.isNotNodata(v, nodatas(b))) {
+          output.setDouble(i, function(v))
         }
-        b += 1
+        else {
+          output.setDouble(i, outputnodata(b))
+        }
+        i += 1
       }
-      (tile._1, RasterWritable.toWritable(output))
-    })))
+      output
+    }).withSchema(TileSchema(schema.bands, outputdatatype, schema.tilesize, outputnodata)))
 
     metadata(SparkUtils.calculateMetadata(rasterRDD.get, meta.getMaxZoomLevel, outputnodata,
       bounds = meta.getBounds, calcStats = false))
@@ -110,6 +103,27 @@ abstract class RawUnaryMathMapOp extends RasterMapOp with Externalizable {
 
   private[unarymath] def function(a:Double):Double
 
+  override def pixelInputs():Array[RasterMapOp] = input.toArray
+
+  override def pixelExpression(inputs:Array[PixelExpression]):PixelExpression = {
+    PixelExpression.unary(inputs(0), function)
+  }
+
+  override def pixelFormat(inputs:Array[PixelFormat]):PixelFormat = {
+    val format = inputs(0)
+    if (datatype() != DataBuffer.TYPE_UNDEFINED && format.datatype != datatype()) {
+      PixelFormat(datatype(), Array.fill[Double](format.nodatas.length)(nodata()))
+    }
+    else {
+      format
+    }
+  }
+
+  override def fused(rdd:RasterRDD, meta:MrsPyramidMetadata):Unit = {
+    rasterRDD = Some(rdd)
+    metadata(meta)
+  }
+
   override def readExternal(in: ObjectInput): Unit = {}
 
   override def writeExternal(out: ObjectOutput): Unit = {}
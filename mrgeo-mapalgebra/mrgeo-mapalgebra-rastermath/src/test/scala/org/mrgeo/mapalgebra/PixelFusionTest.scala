@@ -0,0 +1,154 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import java.awt.image.DataBuffer
+
+import junit.framework.Assert
+import org.apache.spark.{SparkConf, SparkContext}
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.mrgeo.data.raster.RasterTile
+import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.job.JobArguments
+import org.mrgeo.junit.UnitTest
+import org.mrgeo.mapalgebra.binarymath.{GreaterThanMapOp, MultMapOp, PlusMapOp}
+import org.mrgeo.mapalgebra.raster.{PixelMapOp, RasterMapOp}
+import org.mrgeo.mapalgebra.unarymath.AbsMapOp
+import org.mrgeo.test.SparkLocalRunnerTest
+import org.mrgeo.utils.SparkUtils
+import org.mrgeo.utils.tms.{Bounds, TMSUtils}
+
+object PixelFusionTest
+{
+  val Zoom = 10
+  val Tilesize = 4
+  val Ty = 300L
+
+  // a is in tiles 1-3, with tile 2 all nodata, b is in tiles 2-4
+  val TilesA = Array(1L, 2L, 3L)
+  val TilesB = Array(2L, 3L, 4L)
+
+  def a(tx:Long, x:Int, y:Int):Double =
+    if (tx == 2 || (x + y) % 5 == 0) Float.NaN else (x - y) * tx + 0.5
+
+  def b(tx:Long, x:Int, y:Int):Double =
+    if ((x * 3 + y) % 4 == 0) Float.NaN else x * y + tx
+
+  def tileid(tx:Long):Long = TMSUtils.tileid(tx, Ty, Zoom)
+}
+
+class PixelFusionTest extends SparkLocalRunnerTest
+{
+  import PixelFusionTest._
+
+  // a raster map op with a fixed rdd
+  private class InputMapOp(tiles:RasterRDD) extends RasterMapOp
+  {
+    override def rdd():Option[RasterRDD] = Some(tiles)
+
+    override def setup(job:JobArguments, conf:SparkConf):Boolean = true
+
+    override def execute(context:SparkContext):Boolean = true
+
+    override def teardown(job:JobArguments, conf:SparkConf):Boolean = true
+  }
+
+  private def input(txs:Array[Long], value:(Long, Int, Int) => Double):RasterMapOp =
+  {
+    val tiles = txs.map(tx => {
+      val tile = RasterTile.createEmptyTile(Tilesize, Tilesize, 1, DataBuffer.TYPE_FLOAT)
+      for (y <- 0 until Tilesize; x <- 0 until Tilesize)
+      {
+        tile.setSample(x, y, 0, value(tx, x, y))
+      }
+      (new TileIdWritable(tileid(tx)), tile.toWritable)
+    })
+
+    val rdd = RasterRDD(sparkContext.parallelize(tiles))
+
+    val op = new InputMapOp(rdd)
+    op.metadata(SparkUtils.calculateMetadata(rdd, Zoom, Array[Number](Float.NaN), calcStats = false,
+      bounds = Bounds.combine(txs.map(tx => TMSUtils.tileBounds(tx, Ty, Zoom, Tilesize)):_*)))
+    op
+  }
+
+  private def collect(op:RasterMapOp):Map[Long, RasterTile] =
+  {
+    op.rdd().get.collect().map(tile => (tile._1.get(), RasterTile.fromWritable(tile._2))).toMap
+  }
+
+  // run the chain one map op at a time, and as a single fused kernel, and check they make the same tiles
+  private def assertFusedMatches(chain:() => Array[RasterMapOp]):Map[Long, RasterTile] =
+  {
+    val unfused = chain()
+    unfused.foreach(op => Assert.assertTrue(op.execute(sparkContext)))
+    val expected = collect(unfused.last)
+
+    val fused = chain()
+    val absorbed = fused.init.toSet[RasterMapOp]
+    Assert.assertTrue(PixelMapOp.execute(fused.last.asInstanceOf[PixelMapOp], absorbed.contains, sparkContext))
+    val actual = collect(fused.last)
+
+    Assert.assertEquals(expected.keySet, actual.keySet)
+    for ((id, tile) <- expected)
+    {
+      val fusedTile = actual(id)
+      for (i <- 0 until tile.getNumSamples)
+      {
+        val e = tile.getDouble(i)
+        val v = fusedTile.getDouble(i)
+        Assert.assertTrue("tile " + id + " sample " + i + ": expected " + e + " but was " + v,
+          (e.isNaN && v.isNaN) || e == v)
+      }
+    }
+    actual
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def binaryChain():Unit =
+  {
+    val tiles = assertFusedMatches(() => {
+      val plus = PlusMapOp.create(input(TilesA, PixelFusionTest.a), input(TilesB, PixelFusionTest.b))
+          .asInstanceOf[RasterMapOp]
+      val abs = AbsMapOp.create(plus).asInstanceOf[RasterMapOp]
+      val mult = MultMapOp.create(abs, 2.0).asInstanceOf[RasterMapOp]
+      Array(plus, abs, mult)
+    })
+
+    // only the tiles in both inputs, including the one that is all nodata
+    Assert.assertEquals(Set(tileid(2), tileid(3)), tiles.keySet)
+    Assert.assertTrue((0 until tiles(tileid(2)).getNumSamples).forall(i => tiles(tileid(2)).getDouble(i).isNaN))
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def conChain():Unit =
+  {
+    val tiles = assertFusedMatches(() => {
+      val b = input(TilesB, PixelFusionTest.b)
+      val gt = GreaterThanMapOp.create(input(TilesA, PixelFusionTest.a), 0.0).asInstanceOf[RasterMapOp]
+      val con = ConMapOp.create(gt, b, 0.0).asInstanceOf[RasterMapOp]
+      Array(gt, con)
+    })
+
+    // the tiles in either input, less the ones that come out all nodata
+    Assert.assertEquals(Set(tileid(1), tileid(3)), tiles.keySet)
+  }
+}
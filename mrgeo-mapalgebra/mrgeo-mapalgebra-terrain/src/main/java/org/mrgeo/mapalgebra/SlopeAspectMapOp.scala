@@ -18,11 +18,10 @@ package org.mrgeo.mapalgebra
 
 import java.awt.image.DataBuffer
 import java.io.{Externalizable, IOException, ObjectInput, ObjectOutput}
-import javax.vecmath.Vector3d
 
 import org.apache.spark.rdd.RDD
 import org.apache.spark.{SparkConf, SparkContext}
-import org.mrgeo.data.raster.{RasterUtils, RasterWritable}
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
 import org.mrgeo.data.rdd.RasterRDD
 import org.mrgeo.data.tile.TileIdWritable
 import org.mrgeo.job.JobArguments
@@ -41,35 +40,48 @@ object SlopeAspectMapOp {
   final val Slope = "slope"
   final val Aspect = "aspect"
 
+  private def checkUnits(units:String) = {
+    if (!(units.equalsIgnoreCase("deg") || units.equalsIgnoreCase("rad") || units.equalsIgnoreCase("gradient") ||
+        units.equalsIgnoreCase("percent"))) {
+      throw new ParserException("units must be \"deg\", \"rad\", \"gradient\", or \"percent\".")
+    }
+  }
 }
 
+/**
+  * Slope, aspect, hillshade and curvature of an elevation raster.  All the products asked for
+  * are computed in one pass over each tile by a TerrainKernel, and each becomes a band of the
+  * output, in the order asked for.
+  */
 class SlopeAspectMapOp extends RasterMapOp with Externalizable {
 
-  final val DEG_2_RAD: Double = 0.0174532925
-  final val RAD_2_DEG: Double = 57.2957795
-  final val TWO_PI:Double = 6.28318530718
-  final val THREE_PI_OVER_2:Double = 4.71238898038
-
   private var inputMapOp:Option[RasterMapOp] = None
   private var units:String = "rad"
-  private var slope:Boolean = true
+  private var products:Array[Int] = Array[Int](TerrainKernel.Slope)
+  private var azimuth:Double = TerrainKernel.DefaultAzimuth
+  private var altitude:Double = TerrainKernel.DefaultAltitude
 
   private var rasterRDD:Option[RasterRDD] = None
 
-  private[mapalgebra] def this(inputMapOp:Option[RasterMapOp], units:String, isSlope:Boolean) = {
+  private[mapalgebra] def this(inputMapOp:Option[RasterMapOp], units:String, products:Array[Int],
+      azimuth:Double = TerrainKernel.DefaultAzimuth, altitude:Double = TerrainKernel.DefaultAltitude) = {
     this()
 
     this.inputMapOp = inputMapOp
-    this.slope = isSlope
+    this.products = products
+    this.azimuth = azimuth
+    this.altitude = altitude
 
-    if (!(units.equalsIgnoreCase("deg") || units.equalsIgnoreCase("rad") || units.equalsIgnoreCase("gradient") ||
-        units.equalsIgnoreCase("percent"))) {
-      throw new ParserException("units must be \"deg\", \"rad\", \"gradient\", or \"percent\".")
-    }
+    SlopeAspectMapOp.checkUnits(units)
     this.units = units
 
   }
 
+  private[mapalgebra] def this(inputMapOp:Option[RasterMapOp], units:String, isSlope:Boolean) = {
+    this(inputMapOp, units,
+      Array[Int](if (isSlope) TerrainKernel.Slope else TerrainKernel.Aspect))
+  }
+
   private[mapalgebra] def this(node:ParserNode, isSlope:Boolean, variables: String => Option[ParserNode]) = {
     this()
 
@@ -80,7 +92,7 @@ class SlopeAspectMapOp extends RasterMapOp with Externalizable {
       throw new ParserException(node.getName + " requires only one or two arguments")
     }
 
-    slope = isSlope
+    products = Array[Int](if (isSlope) TerrainKernel.Slope else TerrainKernel.Aspect)
 
     inputMapOp = RasterMapOp.decodeToRaster(node.getChild(0), variables)
 
@@ -90,131 +102,88 @@ class SlopeAspectMapOp extends RasterMapOp with Externalizable {
       case _ => throw new ParserException("Error decoding string")
       }
 
-      if (!(units.equalsIgnoreCase("deg") || units.equalsIgnoreCase("rad") || units.equalsIgnoreCase("gradient") ||
-          units.equalsIgnoreCase("percent"))) {
-        throw new ParserException("units must be \"deg\", \"rad\", \"gradient\", or \"percent\".")
-      }
-
+      SlopeAspectMapOp.checkUnits(units)
     }
   }
 
-  override def rdd(): Option[RasterRDD] = rasterRDD
-
-  override def setup(job: JobArguments, conf: SparkConf): Boolean = {
-    true
-  }
-
-  private def calculate(tiles:RDD[(TileIdWritable, RasterWritable)], bufferX:Int, bufferY: Int, nodata:Double, zoom:Int, tilesize:Int) = {
-
-    tiles.map(tile => {
-
-      val raster = RasterWritable.toRaster(tile._2)
-
-      val np = 0
-      val zp = 1
-      val pp = 2
-      val nz = 3
-      val zz = 4
-      val pz = 5
-      val nn = 6
-      val zn = 7
-      val pn = 8
-
-      val dx = TMSUtils.resolution(zoom, tilesize) * LatLng.METERS_PER_DEGREE
-      val dy = dx
-
-      val z = Array.ofDim[Double](9)
-
-      val vx = new Vector3d(dx, 0.0, 0.0)
-      val vy = new Vector3d(0.0, dy, 0.0)
-      val normal = new Vector3d()
-      val up = new Vector3d(0, 0, 1.0)  // z (up) direction
+  /**
+    * Parses the products that take no units: hillshade(raster, [azimuth], [altitude]) and
+    * curvature(raster)
+    */
+  private[mapalgebra] def this(node:ParserNode, product:Int, variables: String => Option[ParserNode]) = {
+    this()
 
-      var theta:Double = 0.0
+    val maxArgs = if (product == TerrainKernel.Hillshade) 3 else 1
+    if (node.getNumChildren < 1) {
+      throw new ParserException(node.getName + " requires at least one argument")
+    }
+    else if (node.getNumChildren > maxArgs) {
+      throw new ParserException(node.getName + " requires at most " + maxArgs + " argument(s)")
+    }
 
+    products = Array[Int](product)
 
-      def isnodata(v:Double, nodata:Double):Boolean = if (nodata.isNaN) v.isNaN  else v == nodata
+    inputMapOp = RasterMapOp.decodeToRaster(node.getChild(0), variables)
 
-      def calculateNormal(x: Int, y: Int): (Double, Double, Double) = {
+    if (node.getNumChildren >= 2) {
+      azimuth = MapOp.decodeDouble(node.getChild(1), variables) getOrElse
+          (throw new ParserException("Expected a number for the azimuth"))
+    }
+    if (node.getNumChildren == 3) {
+      altitude = MapOp.decodeDouble(node.getChild(2), variables) getOrElse
+          (throw new ParserException("Expected a number for the altitude"))
+    }
+  }
 
-        // if the origin pixel is nodata, the normal is nodata
+  /**
+    * Parses terrain(raster, [units]), all the products as the bands of one raster
+    */
+  private[mapalgebra] def this(node:ParserNode, variables: String => Option[ParserNode]) = {
+    this(node, true, variables)
 
-        val origin = raster.getSampleDouble(x, y, 0)
-        if (isnodata(origin, nodata)) {
-          return (Double.NaN, Double.NaN, Double.NaN)
-        }
+    products = Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect, TerrainKernel.Hillshade,
+      TerrainKernel.Curvature)
+  }
 
-        // get the elevations of the 3x3 grid of elevations, if a neighbor is nodata, make the elevation
-        // the same as the origin, this makes the slopes a little prettier
-        var ndx = 0
-        var dy: Int = y - 1
-        while (dy <= y + 1) {
-          var dx: Int = x - 1
-          while (dx <= x + 1) {
-            z(ndx) = raster.getSampleDouble(dx, dy, 0)
-            if (isnodata(z(ndx), nodata)) {
-              z(ndx) = origin
-            }
-
-            ndx += 1
-            dx += 1
-          }
-          dy += 1
-        }
+  override def rdd(): Option[RasterRDD] = rasterRDD
 
-        vx.z = ((z(pp) + z(pz) * 2 + z(pn)) - (z(np) + z(nz) * 2 + z(nn))) / 8.0
-        vy.z = ((z(pp) + z(zp) * 2 + z(np)) - (z(pn) + z(zn) * 2 + z(nn))) / 8.0
+  override def setup(job: JobArguments, conf: SparkConf): Boolean = {
+    true
+  }
 
-        normal.cross(vx, vy)
-        normal.normalize()
+  private def calculate(tiles:RDD[(TileIdWritable, RasterWritable)], bufferX:Int, bufferY: Int, nodata:Double, zoom:Int, tilesize:Int) = {
 
-        // we want the normal to always point up.
-        normal.z = Math.abs(normal.z)
+    val resolution = TMSUtils.resolution(zoom, tilesize) * LatLng.METERS_PER_DEGREE
+    val kernel = new TerrainKernel(products, resolution, nodata, units, azimuth, altitude)
 
-        (normal.x, normal.y, normal.z)
-      }
+    tiles.mapPartitions(iter => {
+      // the elevation and product buffers are reused for every tile in the partition
+      var elevation:Array[Double] = null
+      var output:Array[Array[Double]] = null
 
-      def calculateAngle(normal: (Double, Double, Double)): Float = {
-        if (normal._1.isNaN) {
-          return Float.NaN
-        }
+      iter.map(tile => {
+        val raster = RasterTile.fromWritable(tile._2)
 
-        if (slope) {
-          theta  = Math.acos(up.dot(new Vector3d(normal._1, normal._2, normal._3)))
-        }
-        else {  // aspect
-          // change from (-Pi to Pi) to (0 to 2Pi), make 0 deg north (+ 3pi/2)
-          // convert to clockwise (2pi -)
-          theta = TWO_PI - (Math.atan2(normal._2, normal._1) + THREE_PI_OVER_2) % TWO_PI
-        }
+        val width = raster.getWidth - bufferX * 2
+        val height = raster.getHeight - bufferY * 2
 
-        units match {
-        case "deg"  => (theta * RAD_2_DEG).toFloat
-        case "rad" => theta.toFloat
-        case "percent" => (Math.tan(theta) * 100.0).toFloat
-        case _ => Math.tan(theta).toFloat
+        elevation = raster.getSamples(0, elevation)
+        if (output == null || output(0).length < width * height) {
+          output = Array.fill[Array[Double]](kernel.numProducts)(new Array[Double](width * height))
         }
-      }
 
-      val width = raster.getWidth - bufferX * 2
-      val height = raster.getHeight - bufferY * 2
+        kernel.compute(elevation, raster.getWidth, raster.getHeight, bufferX, output)
 
-      val answer = RasterUtils.createEmptyRaster(width, height, 1, DataBuffer.TYPE_FLOAT) // , Float.NaN)
-
-      var y: Int = 0
-      while (y < height) {
-        var x: Int = 0
-        while (x < width) {
-          val normal = calculateNormal(x + bufferX, y + bufferY)
-
-          answer.setSample(x, y, 0, calculateAngle(normal))
-          x += 1
+        val answer = RasterTile.createEmptyTile(width, height, kernel.numProducts, DataBuffer.TYPE_FLOAT)
+        var b = 0
+        while (b < kernel.numProducts) {
+          answer.setSamples(b, output(b))
+          b += 1
         }
-        y += 1
-      }
 
-      (new TileIdWritable(tile._1), RasterWritable.toWritable(answer))
-    })
+        (new TileIdWritable(tile._1), RasterWritable.compact(answer.toWritable))
+      })
+    }, preservesPartitioning = true)
   }
 
 
@@ -242,7 +211,7 @@ class SlopeAspectMapOp extends RasterMapOp with Externalizable {
     rasterRDD =
         Some(RasterRDD(calculate(tiles, bufferX, bufferY, nodatas(0).doubleValue(), zoom, tilesize)))
 
-    metadata(SparkUtils.calculateMetadata(rasterRDD.get, zoom, Array[Number](Float.NaN),
+    metadata(SparkUtils.calculateMetadata(rasterRDD.get, zoom, Array.fill[Number](products.length)(Float.NaN),
       bounds = meta.getBounds, calcStats = false))
 
     true
@@ -254,12 +223,17 @@ class SlopeAspectMapOp extends RasterMapOp with Externalizable {
 
   override def readExternal(in: ObjectInput): Unit = {
     units = in.readUTF()
-    slope = in.readBoolean()
+    products = Array.fill[Int](in.readInt())(in.readInt())
+    azimuth = in.readDouble()
+    altitude = in.readDouble()
   }
 
   override def writeExternal(out: ObjectOutput): Unit = {
     out.writeUTF(units)
-    out.writeBoolean(slope)
+    out.writeInt(products.length)
+    products.foreach(out.writeInt)
+    out.writeDouble(azimuth)
+    out.writeDouble(altitude)
   }
 
 }
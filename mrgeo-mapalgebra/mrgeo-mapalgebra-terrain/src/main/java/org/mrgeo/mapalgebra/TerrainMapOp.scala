@@ -0,0 +1,39 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import org.mrgeo.mapalgebra.parser.ParserNode
+import org.mrgeo.mapalgebra.raster.RasterMapOp
+
+// Slope, aspect, hillshade and curvature as the 4 bands of one raster, computed in one pass
+object TerrainMapOp extends MapOpRegistrar {
+  override def register: Array[String] = {
+    Array[String]("terrain")
+  }
+
+  def create(raster:RasterMapOp, units:String="rad"):MapOp = {
+    new SlopeAspectMapOp(Some(raster), units, Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect,
+      TerrainKernel.Hillshade, TerrainKernel.Curvature))
+  }
+
+  override def apply(node:ParserNode, variables: String => Option[ParserNode]): MapOp =
+    new SlopeAspectMapOp(node, variables)
+}
+
+// Dummy class definition to allow the python reflection to find the Terrain mapop
+abstract class TerrainMapOp extends RasterMapOp {
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+object TerrainKernel {
+  final val Slope = 0
+  final val Aspect = 1
+  final val Hillshade = 2
+  final val Curvature = 3
+
+  final val Names = Array[String]("slope", "aspect", "hillshade", "curvature")
+
+  final val DefaultAzimuth = 315.0
+  final val DefaultAltitude = 45.0
+
+  private final val RAD_2_DEG: Double = 57.2957795
+  private final val DEG_2_RAD: Double = 0.0174532925
+  private final val TWO_PI: Double = 6.28318530718
+  private final val THREE_PI_OVER_2: Double = 4.71238898038
+
+  private final val Radians = 0
+  private final val Degrees = 1
+  private final val Percent = 2
+  private final val Gradient = 3
+}
+
+/**
+  * Computes terrain products from the 3x3 window around each pixel of an elevation tile,
+  * using Horn's method for the x and y gradients.  The elevations are read from a primitive,
+  * row-major array that includes a one pixel halo, and every product asked for is written in
+  * the same pass, each to its own array, without allocating anything per pixel.
+  *
+  * Products (in the order given):
+  *   slope     - the angle from horizontal, in the units asked for
+  *   aspect    - the downslope direction, clockwise from north, in the units asked for
+  *   hillshade - the illumination (0 - 255) from a light at the azimuth and altitude (degrees)
+  *   curvature - the total curvature (second derivative), in 1/100 of a z unit, positive
+  *               is convex (Zevenbergen and Thorne)
+  *
+  * If the center pixel is nodata, every product is NaN.  Neighbors that are nodata are
+  * given the elevation of the center pixel.
+  *
+  * @param products the products to compute, from TerrainKernel.Slope, Aspect, ...
+  * @param resolution the size of a pixel, in the units of the elevation
+  * @param nodata the nodata value of the elevations
+  * @param units "rad", "deg", "percent" or "gradient", for slope and aspect
+  */
+class TerrainKernel(products: Array[Int], resolution: Double, nodata: Double, units: String,
+    azimuth: Double = TerrainKernel.DefaultAzimuth,
+    altitude: Double = TerrainKernel.DefaultAltitude) extends Serializable {
+
+  import TerrainKernel._
+
+  private val unitType = units match {
+  case "deg" => Degrees
+  case "rad" => Radians
+  case "percent" => Percent
+  case _ => Gradient
+  }
+
+  // the light direction (x east, y north, z up), for hillshade
+  private val zenith = (90.0 - altitude) * DEG_2_RAD
+  private val sunAzimuth = azimuth * DEG_2_RAD
+  private val lightX = Math.sin(zenith) * Math.sin(sunAzimuth)
+  private val lightY = Math.sin(zenith) * Math.cos(sunAzimuth)
+  private val lightZ = Math.cos(zenith)
+
+  // Horn's weights sum to 8, and each side is a pixel away from the center
+  private val gradientScale = 1.0 / (8.0 * resolution)
+  private val curvatureScale = 100.0 / (resolution * resolution)
+
+  def numProducts:Int = products.length
+
+  /**
+    * Compute the products for the inner (width - 2 * buffer) x (height - 2 * buffer) pixels of
+    * the elevations.  buffer must be at least 1.
+    *
+    * @param elevation the elevations, row-major, width x height
+    * @param output one row-major array per product, each (width - 2 * buffer) x (height - 2 * buffer)
+    */
+  def compute(elevation: Array[Double], width: Int, height: Int, buffer: Int,
+      output: Array[Array[Double]]): Unit = {
+    val outWidth = width - buffer * 2
+    val outHeight = height - buffer * 2
+    val nodataIsNaN = nodata.isNaN
+
+    var y = 0
+    while (y < outHeight) {
+      var c = (y + buffer) * width + buffer
+      var o = y * outWidth
+
+      var x = 0
+      while (x < outWidth) {
+        val origin = elevation(c)
+        if (if (nodataIsNaN) origin.isNaN else origin == nodata) {
+          var p = 0
+          while (p < products.length) {
+            output(p)(o) = Double.NaN
+            p += 1
+          }
+        }
+        else {
+          // the 3x3 window, north row first; nodata neighbors take the origin's elevation
+          val nw = value(elevation(c - width - 1), origin, nodataIsNaN)
+          val n = value(elevation(c - width), origin, nodataIsNaN)
+          val ne = value(elevation(c - width + 1), origin, nodataIsNaN)
+          val w = value(elevation(c - 1), origin, nodataIsNaN)
+          val e = value(elevation(c + 1), origin, nodataIsNaN)
+          val sw = value(elevation(c + width - 1), origin, nodataIsNaN)
+          val s = value(elevation(c + width), origin, nodataIsNaN)
+          val se = value(elevation(c + width + 1), origin, nodataIsNaN)
+
+          // rise per unit distance, to the east and to the north
+          val dzdx = ((ne + e * 2 + se) - (nw + w * 2 + sw)) * gradientScale
+          val dzdy = ((ne + n * 2 + nw) - (se + s * 2 + sw)) * gradientScale
+
+          var p = 0
+          while (p < products.length) {
+            output(p)(o) = products(p) match {
+            case Slope => slope(dzdx, dzdy)
+            case Aspect => aspect(dzdx, dzdy)
+            case Hillshade => hillshade(dzdx, dzdy)
+            case _ => curvature(origin, n, s, e, w)
+            }
+            p += 1
+          }
+        }
+
+        c += 1
+        o += 1
+        x += 1
+      }
+      y += 1
+    }
+  }
+
+  @inline
+  private def value(v: Double, origin: Double, nodataIsNaN: Boolean): Double = {
+    if (if (nodataIsNaN) v.isNaN else v == nodata) origin else v
+  }
+
+  private def slope(dzdx: Double, dzdy: Double): Double = {
+    // the tangent of the slope is the length of the gradient
+    val gradient = Math.sqrt(dzdx * dzdx + dzdy * dzdy)
+    unitType match {
+    case Degrees => Math.atan(gradient) * RAD_2_DEG
+    case Radians => Math.atan(gradient)
+    case Percent => gradient * 100.0
+    case _ => gradient
+    }
+  }
+
+  private def aspect(dzdx: Double, dzdy: Double): Double = {
+    // the x and y of the surface normal point downhill; change from (-Pi to Pi) to (0 to 2Pi),
+    // make 0 north (+ 3pi/2) and convert to clockwise (2pi -)
+    val theta = TWO_PI - (Math.atan2(0.0 - dzdy, 0.0 - dzdx) + THREE_PI_OVER_2) % TWO_PI
+    unitType match {
+    case Degrees => theta * RAD_2_DEG
+    case Radians => theta
+    case Percent => Math.tan(theta) * 100.0
+    case _ => Math.tan(theta)
+    }
+  }
+
+  private def hillshade(dzdx: Double, dzdy: Double): Double = {
+    // the dot product of the unit normal (-dzdx, -dzdy, 1) and the light
+    val shade = (lightZ - dzdx * lightX - dzdy * lightY) / Math.sqrt(dzdx * dzdx + dzdy * dzdy + 1.0)
+    if (shade <= 0.0) 0.0 else shade * 255.0
+  }
+
+  private def curvature(origin: Double, n: Double, s: Double, e: Double, w: Double): Double = {
+    // the second derivatives along x and y, summed and flipped so a peak is positive
+    -2.0 * (((w + e) / 2.0 - origin) + ((n + s) / 2.0 - origin)) * curvatureScale
+  }
+}
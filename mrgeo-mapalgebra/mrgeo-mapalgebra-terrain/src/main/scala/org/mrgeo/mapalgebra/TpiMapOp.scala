@@ -60,6 +60,12 @@ class TpiMapOp extends RawFocalMapOp
     inputMapOp = input
   }
 
+  // the sum of the neighborhood is kept up to date as it slides along each row
+  override protected[mapalgebra] def createRowSweep(rasterWidth: Int, neighborhoodWidth: Int,
+                                                    neighborhoodHeight: Int): Option[FocalRowSweep] = {
+    Some(new SlidingTpi(neighborhoodHeight))
+  }
+
   override protected def computePixelValue(rasterValues: Array[Double], notnodata: Array[Boolean],
                                            outNoData: Double, rasterWidth: Int,
                                            processX: Int, processY: Int,
@@ -105,3 +111,43 @@ class TpiMapOp extends RawFocalMapOp
     (neighborhoodSize, neighborhoodSize)
   }
 }
+
+// The difference between a pixel and the mean of the rest of its neighborhood, from a running
+// sum of the neighborhood.  The sum is kept relative to the first value in the window so large
+// elevations don't lose precision.
+class SlidingTpi(height: Int) extends SlidingFocalStat(height) {
+  private var shift: Double = Double.NaN
+  private var sum: Double = 0.0
+
+  // the mean of the neighborhood, including its center
+  override def result(): Double = shift + sum / count
+
+  override def value(values: Array[Double], notnodata: Array[Boolean], rasterWidth: Int,
+                     processX: Int, processY: Int, outNoData: Double): Double = {
+    // the center is in the window (it isn't nodata), leave it out of the mean
+    val others = count - 1
+    if (others > 0) {
+      val center = values(processY * rasterWidth + processX)
+      center - (shift + (sum - (center - shift)) / others)
+    }
+    else {
+      outNoData
+    }
+  }
+
+  override protected def clear(): Unit = {
+    shift = Double.NaN
+    sum = 0.0
+  }
+
+  override protected def addValue(value: Double, x: Int, row: Int): Unit = {
+    if (shift.isNaN) {
+      shift = value
+    }
+    sum += value - shift
+  }
+
+  override protected def removeValue(value: Double, x: Int, row: Int): Unit = {
+    sum -= value - shift
+  }
+}
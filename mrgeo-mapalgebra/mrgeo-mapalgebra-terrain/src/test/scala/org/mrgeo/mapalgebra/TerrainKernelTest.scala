@@ -0,0 +1,227 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import javax.vecmath.Vector3d
+
+import junit.framework.Assert
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.mrgeo.junit.UnitTest
+
+object TerrainKernelTest
+{
+  val Resolution = 10.0
+  val Size = 5
+  val Epsilon = 1e-9
+
+  // a Size x Size dem, f is the elevation (in pixels of Resolution) at a column and row, rows go south
+  def dem(f:(Int, Int) => Double):Array[Double] =
+  {
+    Array.tabulate[Double](Size * Size)(i => f(i % Size, i / Size) * Resolution)
+  }
+
+  // a plane rising a per unit distance to the east and b to the north
+  def plane(a:Double, b:Double):Array[Double] = dem((x, y) => a * x - b * y)
+
+  // the products of the inner pixels, each (Size - 2) x (Size - 2)
+  def compute(kernel:TerrainKernel, elevation:Array[Double]):Array[Array[Double]] =
+  {
+    val output = Array.fill[Array[Double]](kernel.numProducts)(new Array[Double]((Size - 2) * (Size - 2)))
+    kernel.compute(elevation, Size, Size, 1, output)
+    output
+  }
+
+  /**
+    * The slope and aspect (radians) of the pixel at x, y, worked out the way SlopeAspectMapOp did
+    * before the TerrainKernel, with the cross product of Vector3d's.
+    */
+  def vector3d(elevation:Array[Double], x:Int, y:Int, nodata:Double):(Double, Double) =
+  {
+    def isnodata(v:Double):Boolean = if (nodata.isNaN) v.isNaN else v == nodata
+
+    val origin = elevation(y * Size + x)
+    if (isnodata(origin))
+    {
+      return (Double.NaN, Double.NaN)
+    }
+
+    val z = Array.ofDim[Double](9)
+    var ndx = 0
+    for (dy <- y - 1 to y + 1; dx <- x - 1 to x + 1)
+    {
+      z(ndx) = elevation(dy * Size + dx)
+      if (isnodata(z(ndx)))
+      {
+        z(ndx) = origin
+      }
+      ndx += 1
+    }
+
+    val vx = new Vector3d(Resolution, 0.0, 0.0)
+    val vy = new Vector3d(0.0, Resolution, 0.0)
+    vx.z = ((z(2) + z(5) * 2 + z(8)) - (z(0) + z(3) * 2 + z(6))) / 8.0
+    vy.z = ((z(2) + z(1) * 2 + z(0)) - (z(8) + z(7) * 2 + z(6))) / 8.0
+
+    val normal = new Vector3d()
+    normal.cross(vx, vy)
+    normal.normalize()
+    normal.z = Math.abs(normal.z)
+
+    val slope = Math.acos(new Vector3d(0, 0, 1.0).dot(normal))
+    val aspect = 2.0 * Math.PI - (Math.atan2(normal.y, normal.x) + 1.5 * Math.PI) % (2.0 * Math.PI)
+    (slope, aspect)
+  }
+
+  def assertMatchesVector3d(elevation:Array[Double], nodata:Double):Unit =
+  {
+    val kernel = new TerrainKernel(Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect), Resolution, nodata, "rad")
+    val output = compute(kernel, elevation)
+
+    for (y <- 0 until Size - 2; x <- 0 until Size - 2)
+    {
+      val expected = vector3d(elevation, x + 1, y + 1, nodata)
+      Assert.assertEquals("slope at " + x + ", " + y, expected._1, output(0)(y * (Size - 2) + x), Epsilon)
+      Assert.assertEquals("aspect at " + x + ", " + y, expected._2, output(1)(y * (Size - 2) + x), Epsilon)
+    }
+  }
+}
+
+class TerrainKernelTest
+{
+  import TerrainKernelTest._
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def planeMatchesVector3d():Unit =
+  {
+    assertMatchesVector3d(plane(1.0, 0.0), Double.NaN)
+    assertMatchesVector3d(plane(0.0, -1.0), Double.NaN)
+    assertMatchesVector3d(plane(0.5, 2.0), Double.NaN)
+    assertMatchesVector3d(plane(-0.25, 0.75), Double.NaN)
+    assertMatchesVector3d(dem((x, y) => (x - 2) * (x - 2) - y * y * 0.5), Double.NaN)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def slopeAndAspect():Unit =
+  {
+    // rising to the east, downhill is west
+    val kernel = new TerrainKernel(Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect), Resolution, Double.NaN, "deg")
+    var output = compute(kernel, plane(1.0, 0.0))
+    Assert.assertEquals(45.0, output(0)(4), 1e-5)
+    Assert.assertEquals(270.0, output(1)(4), 1e-5)
+
+    // rising to the north, downhill is south
+    output = compute(kernel, plane(0.0, 1.0))
+    Assert.assertEquals(45.0, output(0)(4), 1e-5)
+    Assert.assertEquals(180.0, output(1)(4), 1e-5)
+
+    val percent = new TerrainKernel(Array[Int](TerrainKernel.Slope), Resolution, Double.NaN, "percent")
+    output = compute(percent, plane(0.5, 0.0))
+    Assert.assertEquals(50.0, output(0)(4), Epsilon)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def flatAspect():Unit =
+  {
+    val flat = dem((x, y) => 3.0)
+    val kernel = new TerrainKernel(Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect), Resolution, Double.NaN, "rad")
+    val output = compute(kernel, flat)
+    for (i <- output(0).indices)
+    {
+      Assert.assertEquals(0.0, output(0)(i), 0.0)
+      Assert.assertEquals(Math.PI / 2.0, output(1)(i), Epsilon)
+    }
+
+    assertMatchesVector3d(flat, Double.NaN)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def nodataNeighbors():Unit =
+  {
+    // a nodata neighbor takes the center's elevation, a nodata center is nodata
+    for (nodata <- Array(Double.NaN, -9999.0))
+    {
+      val elevation = plane(0.5, 2.0)
+      elevation(1 * Size + 2) = nodata
+      elevation(3 * Size + 3) = nodata
+      elevation(2 * Size + 0) = nodata
+      assertMatchesVector3d(elevation, nodata)
+
+      val kernel = new TerrainKernel(Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect, TerrainKernel.Hillshade,
+        TerrainKernel.Curvature), Resolution, nodata, "rad")
+      val output = compute(kernel, elevation)
+      for (p <- output.indices)
+      {
+        Assert.assertTrue(output(p)((1 - 1) * (Size - 2) + (2 - 1)).isNaN)
+        Assert.assertTrue(output(p)((3 - 1) * (Size - 2) + (3 - 1)).isNaN)
+        Assert.assertFalse(output(p)(4).isNaN)
+      }
+    }
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def hillshade():Unit =
+  {
+    // flat ground is lit by the sine of the altitude
+    var kernel = new TerrainKernel(Array[Int](TerrainKernel.Hillshade), Resolution, Double.NaN, "rad", 90.0, 30.0)
+    var output = compute(kernel, dem((x, y) => 0.0))
+    Assert.assertEquals(0.5 * 255.0, output(0)(4), 1e-6)
+
+    // a light in the east at 45 degrees, a 45 degree slope facing it is fully lit...
+    kernel = new TerrainKernel(Array[Int](TerrainKernel.Hillshade), Resolution, Double.NaN, "rad", 90.0, 45.0)
+    output = compute(kernel, plane(-1.0, 0.0))
+    Assert.assertEquals(255.0, output(0)(4), 1e-6)
+
+    // ...and one facing away is dark
+    output = compute(kernel, plane(1.0, 0.0))
+    Assert.assertEquals(0.0, output(0)(4), 1e-6)
+
+    // the default light is in the northwest, at 45 degrees
+    kernel = new TerrainKernel(Array[Int](TerrainKernel.Hillshade), Resolution, Double.NaN, "rad")
+    output = compute(kernel, plane(1.0, -1.0))
+    val expected = 255.0 * (Math.sqrt(0.5) + Math.sqrt(0.5) * (Math.sqrt(0.5) + Math.sqrt(0.5))) / Math.sqrt(3.0)
+    Assert.assertEquals(expected, output(0)(4), 1e-6)
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def curvature():Unit =
+  {
+    val kernel = new TerrainKernel(Array[Int](TerrainKernel.Curvature), Resolution, Double.NaN, "rad")
+
+    val peak = compute(kernel, dem((x, y) => -((x - 2) * (x - 2) + (y - 2) * (y - 2))))
+    Assert.assertTrue(peak(0)(4) > 0.0)
+
+    val bowl = compute(kernel, dem((x, y) => (x - 2) * (x - 2) + (y - 2) * (y - 2)))
+    Assert.assertTrue(bowl(0)(4) < 0.0)
+    Assert.assertEquals(-peak(0)(4), bowl(0)(4), Epsilon)
+
+    // the neighbors are a pixel (Resolution) above the center along x and y, in 1/100 of a z unit
+    Assert.assertEquals(-2.0 * (1.0 + 1.0) * 100.0 / Resolution, bowl(0)(4), Epsilon)
+
+    val flat = compute(kernel, plane(0.5, 2.0))
+    for (v <- flat(0))
+    {
+      Assert.assertEquals(0.0, v, Epsilon)
+    }
+  }
+}
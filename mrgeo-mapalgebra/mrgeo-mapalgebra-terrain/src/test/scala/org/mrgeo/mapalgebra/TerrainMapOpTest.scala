@@ -0,0 +1,162 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import java.awt.image.DataBuffer
+
+import junit.framework.Assert
+import org.apache.spark.{SparkConf, SparkContext}
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.mrgeo.data.raster.{RasterTile, RasterWritable}
+import org.mrgeo.data.rdd.RasterRDD
+import org.mrgeo.data.tile.TileIdWritable
+import org.mrgeo.job.JobArguments
+import org.mrgeo.junit.UnitTest
+import org.mrgeo.mapalgebra.raster.RasterMapOp
+import org.mrgeo.test.SparkLocalRunnerTest
+import org.mrgeo.utils.tms.TMSUtils
+import org.mrgeo.utils.{LatLng, SparkUtils}
+
+object TerrainMapOpTest
+{
+  val Zoom = 10
+  val Tilesize = 8
+  val Tx = 600L
+  val Ty = 300L
+
+  // the size of a pixel, in meters, as the map op sees it
+  val Resolution = TMSUtils.resolution(Zoom, Tilesize) * LatLng.METERS_PER_DEGREE
+
+  // a tilted, curved surface, in pixels of Resolution; rows go south
+  def elevation(x:Int, y:Int):Double = (0.5 * x - 0.25 * y + 0.05 * (x - 4) * (x - 4)) * Resolution
+}
+
+class TerrainMapOpTest extends SparkLocalRunnerTest
+{
+  import TerrainMapOpTest._
+
+  // a raster map op with a fixed rdd
+  private class DemMapOp(tiles:RasterRDD) extends RasterMapOp
+  {
+    override def rdd():Option[RasterRDD] = Some(tiles)
+
+    override def setup(job:JobArguments, conf:SparkConf):Boolean = true
+
+    override def execute(context:SparkContext):Boolean = true
+
+    override def teardown(job:JobArguments, conf:SparkConf):Boolean = true
+  }
+
+  // a single tile dem
+  private def dem():RasterMapOp =
+  {
+    val tile = RasterTile.createEmptyTile(Tilesize, Tilesize, 1, DataBuffer.TYPE_FLOAT)
+    for (y <- 0 until Tilesize; x <- 0 until Tilesize)
+    {
+      tile.setSample(x, y, 0, elevation(x, y))
+    }
+
+    val rdd = RasterRDD(sparkContext.parallelize(Seq((new TileIdWritable(TMSUtils.tileid(Tx, Ty, Zoom)),
+      tile.toWritable))))
+
+    val op = new DemMapOp(rdd)
+    op.metadata(SparkUtils.calculateMetadata(rdd, Zoom, Array[Number](Float.NaN), calcStats = false,
+      bounds = TMSUtils.tileBounds(Tx, Ty, Zoom, Tilesize)))
+    op
+  }
+
+  // what the kernel gives for the dem, the tile has no neighbors, so its halo is nodata
+  private def expected(kernel:TerrainKernel):Array[Array[Double]] =
+  {
+    val width = Tilesize + 2
+    val buffered = Array.fill[Double](width * width)(Double.NaN)
+    for (y <- 0 until Tilesize; x <- 0 until Tilesize)
+    {
+      // the same float elevations as the tile
+      buffered((y + 1) * width + x + 1) = elevation(x, y).toFloat
+    }
+
+    val output = Array.fill[Array[Double]](kernel.numProducts)(new Array[Double](Tilesize * Tilesize))
+    kernel.compute(buffered, width, width, 1, output)
+    output
+  }
+
+  private def run(op:MapOp):RasterTile =
+  {
+    val raster = op.asInstanceOf[RasterMapOp]
+    Assert.assertTrue(raster.execute(sparkContext))
+
+    val tiles = raster.rdd().get.collect()
+    Assert.assertEquals(1, tiles.length)
+    Assert.assertEquals(TMSUtils.tileid(Tx, Ty, Zoom), tiles(0)._1.get())
+    RasterTile.fromWritable(tiles(0)._2)
+  }
+
+  private def assertBands(expected:Array[Array[Double]], tile:RasterTile):Unit =
+  {
+    Assert.assertEquals(expected.length, tile.getNumBands)
+    for (b <- expected.indices; y <- 0 until Tilesize; x <- 0 until Tilesize)
+    {
+      Assert.assertEquals("band " + b + " at " + x + ", " + y, expected(b)(y * Tilesize + x).toFloat,
+        tile.getSampleFloat(x, y, b), 0.0f)
+    }
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def terrainBandOrder():Unit =
+  {
+    val op = TerrainMapOp.create(dem(), "deg")
+    val tile = run(op)
+
+    Assert.assertEquals(4, op.asInstanceOf[RasterMapOp].metadata().get.getBands)
+    assertBands(expected(new TerrainKernel(Array[Int](TerrainKernel.Slope, TerrainKernel.Aspect,
+      TerrainKernel.Hillshade, TerrainKernel.Curvature), Resolution, Double.NaN, "deg")), tile)
+
+    // each band is the product on its own
+    for ((product, b) <- Array(TerrainKernel.Slope, TerrainKernel.Aspect, TerrainKernel.Hillshade,
+      TerrainKernel.Curvature).zipWithIndex)
+    {
+      val single = expected(new TerrainKernel(Array[Int](product), Resolution, Double.NaN, "deg"))
+      Assert.assertEquals(single(0)(3 * Tilesize + 3).toFloat, tile.getSampleFloat(3, 3, b), 0.0f)
+    }
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def hillshade():Unit =
+  {
+    assertBands(expected(new TerrainKernel(Array[Int](TerrainKernel.Hillshade), Resolution, Double.NaN, "rad")),
+      run(HillshadeMapOp.create(dem())))
+
+    assertBands(expected(new TerrainKernel(Array[Int](TerrainKernel.Hillshade), Resolution, Double.NaN, "rad",
+      135.0, 30.0)), run(HillshadeMapOp.create(dem(), 135.0, 30.0)))
+  }
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def curvature():Unit =
+  {
+    val expectedCurvature = expected(new TerrainKernel(Array[Int](TerrainKernel.Curvature), Resolution,
+      Double.NaN, "rad"))
+    assertBands(expectedCurvature, run(CurvatureMapOp.create(dem())))
+
+    // the surface curves up along x, like a bowl
+    Assert.assertTrue(expectedCurvature(0)(3 * Tilesize + 3) < 0.0)
+  }
+}
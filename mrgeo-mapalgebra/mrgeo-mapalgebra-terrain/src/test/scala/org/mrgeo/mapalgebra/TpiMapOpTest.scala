@@ -0,0 +1,120 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.mapalgebra
+
+import java.util.Random
+
+import junit.framework.Assert
+import org.junit.Test
+import org.junit.experimental.categories.Category
+import org.mrgeo.junit.UnitTest
+
+object TpiMapOpTest
+{
+  val Tilesize = 12
+
+  // one nodata value per band
+  val Nodatas = Array(Double.NaN, -9999.0)
+
+  // the bands of a tile, with a buffer for a size x size neighborhood
+  def bands(size:Int):Array[Array[Double]] =
+  {
+    val width = Tilesize + (size / 2) * 2
+    Nodatas.indices.map(b => {
+      val random = new Random(b + 1)
+      val values = Array.fill[Double](width * width)(if (random.nextDouble() < 0.15) Nodatas(b)
+      else 1000.0 + random.nextDouble() * 100.0)
+
+      // nodata in the first columns, so it is in the neighborhoods at the start of the rows
+      for (y <- 2 until 6)
+      {
+        values(y * width) = Nodatas(b)
+        values(y * width + 1) = Nodatas(b)
+      }
+
+      // a pixel with only nodata around it
+      val center = (width / 2) * width + width / 2
+      for (dy <- -(size / 2) to size / 2; dx <- -(size / 2) to size / 2)
+      {
+        values(center + dy * width + dx) = Nodatas(b)
+      }
+      values(center) = 1050.0
+      values
+    }).toArray
+  }
+
+  def notnodata(bands:Array[Array[Double]]):Array[Array[Boolean]] =
+  {
+    bands.indices.map(b => bands(b).map(v => if (Nodatas(b).isNaN) !v.isNaN else v != Nodatas(b))).toArray
+  }
+
+  // compute every band of the tile, sharing one sweep between the bands like RawFocalMapOp does
+  def compute(op:RawFocalMapOp, bands:Array[Array[Double]], size:Int, sweep:Boolean):Array[Array[Double]] =
+  {
+    val buffer = size / 2
+    val width = Tilesize + buffer * 2
+    val rowSweep = if (sweep) op.createRowSweep(width, size, size) else None
+    Assert.assertEquals(sweep, rowSweep.isDefined)
+
+    val nnd = notnodata(bands)
+    bands.indices.map(b => {
+      val output = new Array[Double](Tilesize * Tilesize)
+      op.computeBand(bands(b), nnd(b), width, Tilesize, buffer, buffer, size, size, Double.NaN, rowSweep, 0L, output)
+      output
+    }).toArray
+  }
+}
+
+class TpiMapOpTest
+{
+  import TpiMapOpTest._
+
+  @Test
+  @Category(Array[Class[_]] { classOf[UnitTest] })
+  def sweepMatchesComputePixelValue():Unit =
+  {
+    for (size <- Array(3, 4, 5, 7))
+    {
+      val op = new TpiMapOp(None)
+      val tile = bands(size)
+
+      val swept = compute(op, tile, size, sweep = true)
+      val single = compute(op, tile, size, sweep = false)
+
+      var nodata = 0
+      for (b <- tile.indices; y <- 0 until Tilesize; x <- 0 until Tilesize)
+      {
+        val expected = single(b)(y * Tilesize + x)
+        Assert.assertEquals(size + "p band " + b + " at " + x + ", " + y, expected, swept(b)(y * Tilesize + x),
+          1e-8 * math.max(1.0, math.abs(expected)))
+        if (expected.isNaN)
+        {
+          nodata += 1
+        }
+      }
+      Assert.assertTrue(nodata > 0)
+      Assert.assertTrue(nodata < tile.length * Tilesize * Tilesize)
+
+      // the pixel with only nodata around it has nothing to compare to
+      val center = Tilesize / 2
+      for (b <- tile.indices)
+      {
+        Assert.assertTrue(swept(b)(center * Tilesize + center).isNaN)
+      }
+    }
+  }
+}
@@ -19,6 +19,7 @@ package org.mrgeo.resources.about;
 import org.mrgeo.core.MrGeoConstants;
 import org.mrgeo.mapalgebra.MapOpFactory;
 import org.mrgeo.services.Configuration;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileCache;
 import org.mrgeo.utils.ClassLoaderUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -138,6 +139,19 @@ public class AboutResource
 //      }
       xmlWriter.writeEndElement();
 
+      // the counters of the rendered tile cache, to see how well it serves the tile services
+      RenderedTileCache cache = RenderedTileCache.getInstance();
+      xmlWriter.writeStartElement("TileCache");
+      xmlWriter.writeAttribute("enabled", Boolean.toString(cache.isEnabled()));
+      for (Map.Entry<String, Long> stat : cache.getStats().entrySet())
+      {
+        xmlWriter.writeStartElement("Counter");
+        xmlWriter.writeAttribute("name", stat.getKey());
+        xmlWriter.writeAttribute("value", Long.toString(stat.getValue()));
+        xmlWriter.writeEndElement();
+      }
+      xmlWriter.writeEndElement();
+
 
       if (debugMode)
       {
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.services.mrspyramid.rendering;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local disk tier of the RenderedTileCache.  Tiles are stored one per file, in a directory per
+ * pyramid, so a pyramid is invalidated by deleting its directory.  The fingerprint of the metadata
+ * the tiles were rendered from is kept in the same directory, so tiles left from before a restart
+ * are dropped if the pyramid changed in the meantime.  When the tier grows past its size, the
+ * least recently used tiles are deleted (reading a tile touches its file).
+ */
+public class DiskTileCacheTier implements TileCacheTier
+{
+  private static final Logger log = LoggerFactory.getLogger(DiskTileCacheTier.class);
+
+  private static final String EXTENSION = ".tile";
+  private static final String FINGERPRINT = "fingerprint";
+
+  private final File root;
+  private final long maxBytes;
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public DiskTileCacheTier(final File root, final long maxBytes) throws IOException
+  {
+    this.root = root;
+    this.maxBytes = maxBytes;
+
+    FileUtils.forceMkdir(root);
+    bytes.set(FileUtils.sizeOfDirectory(root));
+  }
+
+  public File getRoot()
+  {
+    return root;
+  }
+
+  @Override
+  public String getName()
+  {
+    return "disk";
+  }
+
+  @Override
+  public RenderedTileCache.Tile get(final RenderedTileKey key) throws IOException
+  {
+    final File file = file(key);
+    if (!file.exists())
+    {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+    {
+      final String mimeType = in.readUTF();
+      final byte[] data = new byte[in.readInt()];
+      in.readFully(data);
+
+      // the eviction order
+      file.setLastModified(System.currentTimeMillis());
+      return new RenderedTileCache.Tile(data, mimeType);
+    }
+    catch (FileNotFoundException | EOFException e)
+    {
+      // evicted or invalidated while we were reading it
+      return null;
+    }
+  }
+
+  @Override
+  public void put(final RenderedTileKey key, final RenderedTileCache.Tile tile) throws IOException
+  {
+    final File file = file(key);
+    final File dir = file.getParentFile();
+    FileUtils.forceMkdir(dir);
+
+    // write to a temporary file, then move it in place, so readers never see a partial tile
+    final File tmp = File.createTempFile("tile", ".tmp", dir);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+    {
+      out.writeUTF(tile.getMimeType());
+      out.writeInt(tile.getBytes().length);
+      out.write(tile.getBytes());
+    }
+
+    final long length = tmp.length();
+    final long replaced = file.length();
+    if (!tmp.renameTo(file))
+    {
+      FileUtils.deleteQuietly(tmp);
+      return;
+    }
+
+    if (bytes.addAndGet(length - replaced) > maxBytes)
+    {
+      evict();
+    }
+  }
+
+  @Override
+  public void invalidate(final String pyramid) throws IOException
+  {
+    final File dir = directory(pyramid);
+    if (dir.exists())
+    {
+      final long size = FileUtils.sizeOfDirectory(dir);
+      FileUtils.deleteDirectory(dir);
+      bytes.addAndGet(-size);
+    }
+  }
+
+  @Override
+  public void invalidateAll() throws IOException
+  {
+    FileUtils.cleanDirectory(root);
+    bytes.set(0);
+  }
+
+  @Override
+  public synchronized void checkFingerprint(final String pyramid, final String fingerprint) throws IOException
+  {
+    final File file = new File(directory(pyramid), FINGERPRINT);
+    if (file.exists())
+    {
+      if (FileUtils.readFileToString(file, "UTF-8").equals(fingerprint))
+      {
+        return;
+      }
+      log.debug("Metadata for {} has changed since its tiles were cached, invalidating them", pyramid);
+    }
+
+    // without a fingerprint there's no telling what the tiles were rendered from
+    invalidate(pyramid);
+
+    FileUtils.forceMkdir(file.getParentFile());
+    FileUtils.writeStringToFile(file, fingerprint, "UTF-8");
+    bytes.addAndGet(file.length());
+  }
+
+  @Override
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+
+  private File directory(final String pyramid)
+  {
+    return new File(root, DigestUtils.md5Hex(pyramid));
+  }
+
+  private File file(final RenderedTileKey key)
+  {
+    return new File(directory(key.getPyramid()), DigestUtils.md5Hex(key.getRequest()) + EXTENSION);
+  }
+
+  // delete the least recently used tiles until the tier is back under 90% of its size
+  private synchronized void evict()
+  {
+    if (bytes.get() <= maxBytes)
+    {
+      return;
+    }
+
+    final List<File> files = new ArrayList<>(FileUtils.listFiles(root, new String[]{EXTENSION.substring(1)}, true));
+    Collections.sort(files, new Comparator<File>()
+    {
+      @Override
+      public int compare(final File f1, final File f2)
+      {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+
+    final long target = (long) (maxBytes * 0.9);
+    for (final File file : files)
+    {
+      if (bytes.get() <= target)
+      {
+        break;
+      }
+      final long length = file.length();
+      if (file.delete())
+      {
+        bytes.addAndGet(-length);
+        evictions.incrementAndGet();
+      }
+    }
+
+    log.debug("Evicted rendered tiles from {}, now {} bytes", root, bytes.get());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.services.mrspyramid.rendering;
+
+import com.google.common.cache.*;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-heap LRU tier of the RenderedTileCache, bounded by the number of bytes of the tiles.
+ */
+public class MemoryTileCacheTier implements TileCacheTier
+{
+  private final Cache<RenderedTileKey, RenderedTileCache.Tile> cache;
+  private final AtomicLong evictions = new AtomicLong();
+
+  public MemoryTileCacheTier(final long maxBytes)
+  {
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(new Weigher<RenderedTileKey, RenderedTileCache.Tile>()
+        {
+          @Override
+          public int weigh(final RenderedTileKey key, final RenderedTileCache.Tile tile)
+          {
+            return tile.getBytes().length + key.getRequest().length() * 2;
+          }
+        })
+        .removalListener(new RemovalListener<RenderedTileKey, RenderedTileCache.Tile>()
+        {
+          @Override
+          public void onRemoval(final RemovalNotification<RenderedTileKey, RenderedTileCache.Tile> notification)
+          {
+            if (notification.wasEvicted())
+            {
+              evictions.incrementAndGet();
+            }
+          }
+        })
+        .build();
+  }
+
+  @Override
+  public String getName()
+  {
+    return "memory";
+  }
+
+  @Override
+  public RenderedTileCache.Tile get(final RenderedTileKey key)
+  {
+    return cache.getIfPresent(key);
+  }
+
+  @Override
+  public void put(final RenderedTileKey key, final RenderedTileCache.Tile tile)
+  {
+    cache.put(key, tile);
+  }
+
+  @Override
+  public void invalidate(final String pyramid)
+  {
+    final Iterator<RenderedTileKey> keys = cache.asMap().keySet().iterator();
+    while (keys.hasNext())
+    {
+      if (keys.next().getPyramid().equals(pyramid))
+      {
+        keys.remove();
+      }
+    }
+  }
+
+  @Override
+  public void invalidateAll()
+  {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public void checkFingerprint(final String pyramid, final String fingerprint)
+  {
+    // the tiles are gone when the process ends, and the RenderedTileCache checks for changes while it runs
+  }
+
+  @Override
+  public long getEvictions()
+  {
+    return evictions.get();
+  }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.services.mrspyramid.rendering;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.mrgeo.core.MrGeoConstants;
+import org.mrgeo.image.MrsPyramidMetadata;
+import org.mrgeo.services.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of rendered (colored and encoded) tiles for the tile services, so repeated requests for
+ * the same tile skip reading, coloring and encoding it.  The cache is made of tiers (e.g. memory,
+ * then disk) that are searched in order; a tile found in a later tier is copied to the earlier ones.
+ *
+ * Tiles are dropped when the metadata of their pyramid changes (e.g. the pyramid is rebuilt or
+ * its statistics are updated), which is checked at most once every
+ * MrGeoConstants.MRGEO_TILE_CACHE_METADATA_CHECK seconds per pyramid.
+ */
+public class RenderedTileCache
+{
+  private static final Logger log = LoggerFactory.getLogger(RenderedTileCache.class);
+
+  private static volatile RenderedTileCache instance = null;
+
+  /**
+   * A rendered tile, and the mime type it was encoded as
+   */
+  public static class Tile
+  {
+    private final byte[] bytes;
+    private final String mimeType;
+
+    public Tile(final byte[] bytes, final String mimeType)
+    {
+      this.bytes = bytes;
+      this.mimeType = mimeType;
+    }
+
+    public byte[] getBytes()
+    {
+      return bytes;
+    }
+
+    public String getMimeType()
+    {
+      return mimeType;
+    }
+
+    public Response.ResponseBuilder toResponse()
+    {
+      return Response.ok(bytes).header("Content-type", mimeType);
+    }
+  }
+
+  /**
+   * Reads the current metadata of a pyramid, only called when the metadata needs checking
+   */
+  public interface MetadataSource
+  {
+    MrsPyramidMetadata read() throws IOException;
+  }
+
+  private static class Check
+  {
+    final String fingerprint;
+    final long time;
+
+    Check(final String fingerprint, final long time)
+    {
+      this.fingerprint = fingerprint;
+      this.time = time;
+    }
+  }
+
+  private final List<TileCacheTier> tiers;
+  private final long checkInterval;
+
+  private final Map<String, Check> checks = new ConcurrentHashMap<>();
+
+  private final AtomicLong[] hits;
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public static RenderedTileCache getInstance()
+  {
+    if (instance == null)
+    {
+      synchronized (RenderedTileCache.class)
+      {
+        if (instance == null)
+        {
+          instance = create(Configuration.getInstance().getProperties());
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * @param tiers the tiers, fastest first.  No tiers disables the cache.
+   * @param checkInterval the minimum time between checks of the metadata of a pyramid, in millis
+   */
+  public RenderedTileCache(final List<TileCacheTier> tiers, final long checkInterval)
+  {
+    this.tiers = new ArrayList<>(tiers);
+    this.checkInterval = checkInterval;
+
+    hits = new AtomicLong[tiers.size()];
+    for (int i = 0; i < hits.length; i++)
+    {
+      hits[i] = new AtomicLong();
+    }
+  }
+
+  private static RenderedTileCache create(final Properties props)
+  {
+    final List<TileCacheTier> tiers = new ArrayList<>();
+
+    if (Boolean.parseBoolean(props.getProperty(MrGeoConstants.MRGEO_TILE_CACHE_ENABLED,
+        MrGeoConstants.MRGEO_TILE_CACHE_ENABLED_DEFAULT)))
+    {
+      final long memory = Long.parseLong(props.getProperty(MrGeoConstants.MRGEO_TILE_CACHE_MEMORY_MB,
+          MrGeoConstants.MRGEO_TILE_CACHE_MEMORY_MB_DEFAULT)) * 1024 * 1024;
+      if (memory > 0)
+      {
+        tiers.add(new MemoryTileCacheTier(memory));
+      }
+
+      final String dir = props.getProperty(MrGeoConstants.MRGEO_TILE_CACHE_DISK_DIR);
+      if (dir != null && !dir.isEmpty())
+      {
+        final long disk = Long.parseLong(props.getProperty(MrGeoConstants.MRGEO_TILE_CACHE_DISK_MB,
+            MrGeoConstants.MRGEO_TILE_CACHE_DISK_MB_DEFAULT)) * 1024 * 1024;
+        try
+        {
+          tiers.add(new DiskTileCacheTier(new File(dir), disk));
+        }
+        catch (IOException e)
+        {
+          log.error("Can't use " + dir + " for the rendered tile cache", e);
+        }
+      }
+    }
+
+    final long interval = Long.parseLong(props.getProperty(MrGeoConstants.MRGEO_TILE_CACHE_METADATA_CHECK,
+        MrGeoConstants.MRGEO_TILE_CACHE_METADATA_CHECK_DEFAULT)) * 1000;
+
+    return new RenderedTileCache(tiers, interval);
+  }
+
+  public boolean isEnabled()
+  {
+    return !tiers.isEmpty();
+  }
+
+  /**
+   * @return the tile, or null if it isn't cached
+   */
+  public Tile get(final RenderedTileKey key)
+  {
+    for (int i = 0; i < tiers.size(); i++)
+    {
+      final Tile tile = get(tiers.get(i), key);
+      if (tile != null)
+      {
+        hits[i].incrementAndGet();
+
+        // promote the tile to the faster tiers
+        for (int j = 0; j < i; j++)
+        {
+          put(tiers.get(j), key, tile);
+        }
+        return tile;
+      }
+    }
+
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public void put(final RenderedTileKey key, final Tile tile)
+  {
+    for (final TileCacheTier tier : tiers)
+    {
+      put(tier, key, tile);
+    }
+  }
+
+  /**
+   * Cache the image in a successful response built by an ImageResponseWriter, other responses
+   * (errors, streamed images) aren't cached
+   */
+  public void put(final RenderedTileKey key, final Response response, final String mimeType)
+  {
+    if (response.getStatus() == Response.Status.OK.getStatusCode() && response.getEntity() instanceof byte[])
+    {
+      put(key, new Tile((byte[]) response.getEntity(), mimeType));
+    }
+  }
+
+  /**
+   * Drop all the tiles rendered from a pyramid
+   */
+  public void invalidate(final String pyramid)
+  {
+    invalidations.incrementAndGet();
+    checks.remove(pyramid);
+
+    for (final TileCacheTier tier : tiers)
+    {
+      try
+      {
+        tier.invalidate(pyramid);
+      }
+      catch (IOException e)
+      {
+        log.error("Can't invalidate " + pyramid + " in the " + tier.getName() + " tile cache", e);
+      }
+    }
+  }
+
+  public void invalidateAll()
+  {
+    invalidations.incrementAndGet();
+    checks.clear();
+
+    for (final TileCacheTier tier : tiers)
+    {
+      try
+      {
+        tier.invalidateAll();
+      }
+      catch (IOException e)
+      {
+        log.error("Can't invalidate the " + tier.getName() + " tile cache", e);
+      }
+    }
+  }
+
+  /**
+   * Drop the tiles of a pyramid if its metadata has changed since it was last checked.  Call this
+   * before get(); the metadata is only read when the check interval has passed.
+   */
+  public void checkMetadata(final String pyramid, final MetadataSource source) throws IOException
+  {
+    if (!isEnabled())
+    {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    final Check last = checks.get(pyramid);
+    if (last != null && now - last.time < checkInterval)
+    {
+      return;
+    }
+
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    source.read().save(stream);
+    final String fingerprint = DigestUtils.md5Hex(stream.toByteArray());
+
+    if (last != null && !last.fingerprint.equals(fingerprint))
+    {
+      log.debug("Metadata for {} has changed, invalidating its rendered tiles", pyramid);
+      invalidate(pyramid);
+    }
+    if (last == null || !last.fingerprint.equals(fingerprint))
+    {
+      // tiers that outlive this process compare against the fingerprint they were cached with
+      for (final TileCacheTier tier : tiers)
+      {
+        try
+        {
+          tier.checkFingerprint(pyramid, fingerprint);
+        }
+        catch (IOException e)
+        {
+          log.error("Can't check the metadata of " + pyramid + " in the " + tier.getName() + " tile cache", e);
+        }
+      }
+    }
+    checks.put(pyramid, new Check(fingerprint, now));
+  }
+
+  /**
+   * @return a snapshot of the cache counters: hits per tier ("hits.memory", ...), "misses",
+   * evictions per tier ("evictions.memory", ...) and "invalidations".  The About resource
+   * reports these.
+   */
+  public Map<String, Long> getStats()
+  {
+    final Map<String, Long> stats = new LinkedHashMap<>();
+    for (int i = 0; i < tiers.size(); i++)
+    {
+      stats.put("hits." + tiers.get(i).getName(), hits[i].get());
+    }
+    stats.put("misses", misses.get());
+    for (final TileCacheTier tier : tiers)
+    {
+      stats.put("evictions." + tier.getName(), tier.getEvictions());
+    }
+    stats.put("invalidations", invalidations.get());
+
+    return stats;
+  }
+
+  // a tier that fails is treated as a miss, the tile can always be rendered again
+  private static Tile get(final TileCacheTier tier, final RenderedTileKey key)
+  {
+    try
+    {
+      return tier.get(key);
+    }
+    catch (IOException e)
+    {
+      log.warn("Can't read " + key + " from the " + tier.getName() + " tile cache", e);
+      return null;
+    }
+  }
+
+  private static void put(final TileCacheTier tier, final RenderedTileKey key, final Tile tile)
+  {
+    try
+    {
+      tier.put(key, tile);
+    }
+    catch (IOException e)
+    {
+      log.warn("Can't write " + key + " to the " + tier.getName() + " tile cache", e);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.services.mrspyramid.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a rendered (colored and encoded) tile in the RenderedTileCache: the pyramid it was
+ * rendered from, and every request parameter that changes the rendered bytes (tile, format, color
+ * scale, min/max, mask, the user's roles, etc.).
+ */
+public class RenderedTileKey
+{
+  private final String pyramid;
+  private final String request;
+
+  public RenderedTileKey(final String pyramid, final Object... parameters)
+  {
+    this.pyramid = pyramid;
+
+    // null and "null" parameters are kept apart
+    final StringBuilder sb = new StringBuilder();
+    for (final Object parameter : parameters)
+    {
+      if (parameter == null)
+      {
+        sb.append('\0');
+      }
+      else if (parameter instanceof Object[])
+      {
+        sb.append(Arrays.deepToString((Object[]) parameter));
+      }
+      else
+      {
+        sb.append(parameter.toString());
+      }
+      sb.append('\u001f');
+    }
+    request = sb.toString();
+  }
+
+  public String getPyramid()
+  {
+    return pyramid;
+  }
+
+  public String getRequest()
+  {
+    return request;
+  }
+
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (!(o instanceof RenderedTileKey))
+    {
+      return false;
+    }
+    final RenderedTileKey other = (RenderedTileKey) o;
+    return pyramid.equals(other.pyramid) && request.equals(other.request);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return 31 * pyramid.hashCode() + request.hashCode();
+  }
+
+  @Override
+  public String toString()
+  {
+    return pyramid + ": " + request.replace('\u001f', ' ');
+  }
+}
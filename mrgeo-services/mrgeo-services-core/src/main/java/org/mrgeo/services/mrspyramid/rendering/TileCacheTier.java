@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+package org.mrgeo.services.mrspyramid.rendering;
+
+import java.io.IOException;
+
+/**
+ * A level of the RenderedTileCache (e.g. memory, disk).  Implementations need to be thread safe,
+ * and may drop tiles whenever they want to.
+ */
+public interface TileCacheTier
+{
+  String getName();
+
+  /**
+   * @return the tile, or null if this tier doesn't have it
+   */
+  RenderedTileCache.Tile get(RenderedTileKey key) throws IOException;
+
+  void put(RenderedTileKey key, RenderedTileCache.Tile tile) throws IOException;
+
+  /**
+   * Drop all the tiles rendered from a pyramid
+   */
+  void invalidate(String pyramid) throws IOException;
+
+  void invalidateAll() throws IOException;
+
+  /**
+   * Drop the tiles of a pyramid if they were rendered from metadata with a different
+   * fingerprint, and remember this one.  Only tiers that keep their tiles across restarts need
+   * to remember it; the RenderedTileCache notices changes made while it is running.
+   */
+  void checkFingerprint(String pyramid, String fingerprint) throws IOException;
+
+  /**
+   * @return the number of tiles dropped to keep the tier within its bounds
+   */
+  long getEvictions();
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2009-2016 DigitalGlobe, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ *
+ */
+
+package org.mrgeo.services.mrspyramid.rendering;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+import org.mrgeo.image.MrsPyramidMetadata;
+import org.mrgeo.junit.UnitTest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@SuppressWarnings("static-method")
+public class RenderedTileCacheTest
+{
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MemoryTileCacheTier memory;
+  private DiskTileCacheTier disk;
+  private RenderedTileCache cache;
+
+  @Before
+  public void setUp() throws IOException
+  {
+    memory = new MemoryTileCacheTier(1024 * 1024);
+    disk = new DiskTileCacheTier(folder.newFolder("tiles"), 1024 * 1024);
+
+    final List<TileCacheTier> tiers = new ArrayList<>();
+    tiers.add(memory);
+    tiers.add(disk);
+    cache = new RenderedTileCache(tiers, 0);
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void getPut()
+  {
+    final RenderedTileKey key = new RenderedTileKey("pyramid", 1, 2, 3, "image/png", null, 1.0);
+    Assert.assertNull(cache.get(key));
+
+    cache.put(key, new RenderedTileCache.Tile(new byte[]{1, 2, 3}, "image/png"));
+
+    final RenderedTileCache.Tile tile = cache.get(new RenderedTileKey("pyramid", 1, 2, 3, "image/png", null, 1.0));
+    Assert.assertNotNull(tile);
+    Assert.assertEquals("image/png", tile.getMimeType());
+    Assert.assertEquals(3, tile.getBytes().length);
+
+    // null and "null" are different parameters
+    Assert.assertNull(cache.get(new RenderedTileKey("pyramid", 1, 2, 3, "image/png", "null", 1.0)));
+
+    final Map<String, Long> stats = cache.getStats();
+    Assert.assertEquals(1L, stats.get("hits.memory").longValue());
+    Assert.assertEquals(2L, stats.get("misses").longValue());
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void promote() throws IOException
+  {
+    final RenderedTileKey key = new RenderedTileKey("pyramid", 1, 2, 3);
+    disk.put(key, new RenderedTileCache.Tile(new byte[]{4, 5}, "image/jpeg"));
+
+    final RenderedTileCache.Tile tile = cache.get(key);
+    Assert.assertNotNull(tile);
+    Assert.assertEquals("image/jpeg", tile.getMimeType());
+    Assert.assertEquals(5, tile.getBytes()[1]);
+    Assert.assertNotNull(memory.get(key));
+    Assert.assertEquals(1L, cache.getStats().get("hits.disk").longValue());
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void invalidateOnMetadataChange() throws IOException
+  {
+    final RenderedTileKey key = new RenderedTileKey("pyramid", 1, 2, 3);
+    final RenderedTileKey other = new RenderedTileKey("other", 1, 2, 3);
+
+    final MrsPyramidMetadata metadata = new MrsPyramidMetadata();
+    metadata.setPyramid("pyramid");
+    metadata.setMaxZoomLevel(3);
+
+    final RenderedTileCache.MetadataSource source = new RenderedTileCache.MetadataSource()
+    {
+      @Override
+      public MrsPyramidMetadata read()
+      {
+        return metadata;
+      }
+    };
+
+    cache.checkMetadata("pyramid", source);
+    cache.put(key, new RenderedTileCache.Tile(new byte[]{1}, "image/png"));
+    cache.put(other, new RenderedTileCache.Tile(new byte[]{1}, "image/png"));
+
+    // unchanged metadata keeps the tiles
+    cache.checkMetadata("pyramid", source);
+    Assert.assertNotNull(cache.get(key));
+
+    metadata.setMaxZoomLevel(4);
+    cache.checkMetadata("pyramid", source);
+    Assert.assertNull(cache.get(key));
+    Assert.assertNotNull(cache.get(other));
+    Assert.assertEquals(1L, cache.getStats().get("invalidations").longValue());
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void invalidateOnRestart() throws IOException
+  {
+    final RenderedTileKey key = new RenderedTileKey("pyramid", 1, 2, 3);
+
+    final MrsPyramidMetadata metadata = new MrsPyramidMetadata();
+    metadata.setPyramid("pyramid");
+    metadata.setMaxZoomLevel(3);
+
+    final RenderedTileCache.MetadataSource source = new RenderedTileCache.MetadataSource()
+    {
+      @Override
+      public MrsPyramidMetadata read()
+      {
+        return metadata;
+      }
+    };
+
+    cache.checkMetadata("pyramid", source);
+    cache.put(key, new RenderedTileCache.Tile(new byte[]{1}, "image/png"));
+
+    // a new cache over the same directory keeps the tiles while the metadata is the same...
+    RenderedTileCache restarted = new RenderedTileCache(
+        Collections.<TileCacheTier>singletonList(new DiskTileCacheTier(disk.getRoot(), 1024 * 1024)), 0);
+    restarted.checkMetadata("pyramid", source);
+    Assert.assertNotNull(restarted.get(key));
+
+    // ...and drops them if it changed while the cache wasn't running
+    metadata.setMaxZoomLevel(4);
+    restarted = new RenderedTileCache(
+        Collections.<TileCacheTier>singletonList(new DiskTileCacheTier(disk.getRoot(), 1024 * 1024)), 0);
+    restarted.checkMetadata("pyramid", source);
+    Assert.assertNull(restarted.get(key));
+  }
+
+  @Test
+  @Category(UnitTest.class)
+  public void evictLeastRecentlyUsed() throws IOException
+  {
+    // room for two of the tiles, but not three
+    final DiskTileCacheTier small = new DiskTileCacheTier(folder.newFolder("small"), 300);
+    final RenderedTileKey first = new RenderedTileKey("pyramid", 1, 1, 3);
+    final RenderedTileKey second = new RenderedTileKey("pyramid", 2, 1, 3);
+    final RenderedTileKey third = new RenderedTileKey("pyramid", 3, 1, 3);
+
+    final long now = System.currentTimeMillis();
+    small.put(first, new RenderedTileCache.Tile(new byte[100], "image/png"));
+    touch(small.getRoot(), now - 20000);
+    small.put(second, new RenderedTileCache.Tile(new byte[100], "image/png"));
+    touch(small.getRoot(), now - 10000);
+
+    // the first tile was written first, but read last
+    Assert.assertNotNull(small.get(first));
+    small.put(third, new RenderedTileCache.Tile(new byte[100], "image/png"));
+
+    Assert.assertNotNull(small.get(first));
+    Assert.assertNull(small.get(second));
+    Assert.assertNotNull(small.get(third));
+    Assert.assertEquals(1L, small.getEvictions());
+  }
+
+  // set the time of the tiles newer than it
+  private static void touch(final File dir, final long time)
+  {
+    for (final File file : FileUtils.listFiles(dir, new String[]{"tile"}, true))
+    {
+      if (file.lastModified() > time)
+      {
+        Assert.assertTrue(file.setLastModified(time));
+      }
+    }
+  }
+}
@@ -35,6 +35,8 @@ import org.mrgeo.services.SecurityUtils;
 import org.mrgeo.services.mrspyramid.rendering.ImageHandlerFactory;
 import org.mrgeo.services.mrspyramid.rendering.ImageRenderer;
 import org.mrgeo.services.mrspyramid.rendering.ImageResponseWriter;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileCache;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileKey;
 import org.mrgeo.services.mrspyramid.rendering.TiffImageRenderer;
 import org.mrgeo.services.tms.TmsService;
 import org.mrgeo.utils.HadoopUtils;
@@ -396,6 +398,9 @@ public Response getTile(@PathParam("version") final String version,
   final ImageRenderer renderer;
   Raster raster;
 
+  final RenderedTileCache cache = RenderedTileCache.getInstance();
+  RenderedTileKey key = null;
+
   try
   {
     renderer = (ImageRenderer) ImageHandlerFactory.getHandler(format, ImageRenderer.class);
@@ -404,6 +409,29 @@ public Response getTile(@PathParam("version") final String version,
     // a new security layer and pass those properties.
     // Apply mask if requested
     ProviderProperties providerProperties = SecurityUtils.getProviderProperties();
+
+    // masked tiles depend on a second pyramid, so only unmasked tiles are cached
+    if (cache.isEnabled() && (mask == null || mask.isEmpty()))
+    {
+      final String name = pyramid;
+      cache.checkMetadata(name, new RenderedTileCache.MetadataSource()
+      {
+        @Override
+        public MrsPyramidMetadata read() throws IOException
+        {
+          return service.getPyramid(name).getMetadata();
+        }
+      });
+
+      key = new RenderedTileKey(pyramid, "tms", z, x, y, format, colorScaleName, colorScale, min, max,
+          ProviderProperties.toDelimitedString(providerProperties));
+      final RenderedTileCache.Tile tile = cache.get(key);
+      if (tile != null)
+      {
+        return tile.toResponse().build();
+      }
+    }
+
     if (mask != null && !mask.isEmpty())
     {
       raster = renderer.renderImage(pyramid, x, y, z, mask, maskMax, providerProperties);
@@ -478,8 +506,14 @@ public Response getTile(@PathParam("version") final String version,
 //        }
 //      }
 
-    return ((ImageResponseWriter) ImageHandlerFactory.getHandler(format,
-        ImageResponseWriter.class)).write(raster, renderer.getDefaultValues()).build();
+    final ImageResponseWriter writer = (ImageResponseWriter) ImageHandlerFactory.getHandler(format,
+        ImageResponseWriter.class);
+    final Response response = writer.write(raster, renderer.getDefaultValues()).build();
+    if (key != null)
+    {
+      cache.put(key, response, writer.getResponseMimeType());
+    }
+    return response;
 
   }
   catch (final IllegalArgumentException e)
@@ -37,6 +37,7 @@ import org.mrgeo.data.ProviderProperties;
 import org.mrgeo.image.MrsPyramid;
 import org.mrgeo.junit.UnitTest;
 import org.mrgeo.image.MrsPyramidMetadata;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileCache;
 import org.mrgeo.services.tms.TmsService;
 import org.mrgeo.services.utils.ImageTestUtils;
 import org.mrgeo.test.TestUtils;
@@ -50,6 +51,7 @@ import javax.ws.rs.core.Response.Status;
 import java.io.IOException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
@@ -337,6 +339,44 @@ public class TileMapServiceResourceIntegrationTest extends JerseyTest
 //    verifyNoMoreInteractions(request, service);
   }
 
+  @Test
+  @Category(UnitTest.class)
+  public void testGetTileFromCache() throws Exception
+  {
+    String version = "1.0.0";
+    String raster = rgbsmall_nopyramids_abs;
+    int x = 11346;
+    int y = 5667;
+    int z = 14;
+    String format = "png";
+
+    when(service.getMetadata(raster)).thenReturn( getMetadata(raster) );
+    when(service.getPyramid(raster)).thenReturn( getPyramid( raster ));
+
+    RenderedTileCache cache = RenderedTileCache.getInstance();
+    Assert.assertTrue(cache.isEnabled());
+    // the other tests may have already rendered this tile
+    cache.invalidateAll();
+
+    WebResource webResource = resource();
+    WebResource wr =  webResource.path("tms" + "/" + version + "/" + URLEncoder.encode(raster, "UTF-8") + "/" + z + "/" + x + "/" + y  + "." + format);
+
+    long misses = cache.getStats().get("misses");
+    ClientResponse resp = wr.get(ClientResponse.class);
+    Assert.assertEquals(Status.OK.getStatusCode(), resp.getStatus());
+    byte[] rendered = resp.getEntity(byte[].class);
+    Assert.assertEquals(misses + 1, (long) cache.getStats().get("misses"));
+
+    // the same request again is served from the cache
+    long hits = cache.getStats().get("hits.memory");
+    resp = wr.get(ClientResponse.class);
+    Assert.assertEquals(Status.OK.getStatusCode(), resp.getStatus());
+    Assert.assertEquals("[image/png]", resp.getHeaders().get("Content-Type").toString());
+    Assert.assertTrue(Arrays.equals(rendered, resp.getEntity(byte[].class)));
+    Assert.assertEquals(hits + 1, (long) cache.getStats().get("hits.memory"));
+    Assert.assertEquals(misses + 1, (long) cache.getStats().get("misses"));
+  }
+
   @Test
   @Category(UnitTest.class)
   public void testGetTileRgbJpg() throws Exception
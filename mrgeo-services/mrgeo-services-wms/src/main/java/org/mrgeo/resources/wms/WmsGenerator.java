@@ -26,11 +26,14 @@ import org.mrgeo.data.ProviderProperties;
 import org.mrgeo.data.image.MrsImageDataProvider;
 import org.mrgeo.image.MrsImage;
 import org.mrgeo.image.MrsPyramid;
+import org.mrgeo.image.MrsPyramidMetadata;
 import org.mrgeo.services.SecurityUtils;
 import org.mrgeo.services.Version;
 import org.mrgeo.services.mrspyramid.rendering.ImageHandlerFactory;
 import org.mrgeo.services.mrspyramid.rendering.ImageRenderer;
 import org.mrgeo.services.mrspyramid.rendering.ImageResponseWriter;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileCache;
+import org.mrgeo.services.mrspyramid.rendering.RenderedTileKey;
 import org.mrgeo.services.mrspyramid.rendering.TiffImageRenderer;
 import org.mrgeo.services.utils.DocumentUtils;
 import org.mrgeo.services.utils.RequestUtils;
@@ -405,18 +408,29 @@ public class WmsGenerator
     // Return the resulting image
     try
     {
+      String style = (styleNames != null && styleNames.length > 0) ? styleNames[0] : null;
+
+      RenderedTileKey key = new RenderedTileKey(layerNames[0], "wms-map", style, format, bounds,
+          width, height, srs, ProviderProperties.toDelimitedString(providerProperties));
+      Response.ResponseBuilder cached = getCachedImage(key, providerProperties);
+      if (cached != null)
+      {
+        return setupCaching(cached, allParams).build();
+      }
+
       Raster result = renderer.renderImage(layerNames[0], bounds, width, height, providerProperties, srs);
 
       result = colorRaster(layerNames[0],
-          (styleNames != null && styleNames.length > 0) ? styleNames[0] : null,
+          style,
           format,
           renderer,
           result);
 
-      Response.ResponseBuilder builder = ((ImageResponseWriter) ImageHandlerFactory
-              .getHandler(format, ImageResponseWriter.class))
-              .write(result, layerNames[0], bounds);
-      return setupCaching(builder, allParams).build();
+      ImageResponseWriter writer = (ImageResponseWriter) ImageHandlerFactory
+              .getHandler(format, ImageResponseWriter.class);
+      Response response = setupCaching(writer.write(result, layerNames[0], bounds), allParams).build();
+      cacheImage(key, response, writer);
+      return response;
     }
     catch (Exception e)
     {
@@ -710,15 +724,25 @@ public class WmsGenerator
     }
     try
     {
+      RenderedTileKey key = new RenderedTileKey(layer, "wms-tile", style, format, tileCol, tileRow,
+          scale, ProviderProperties.toDelimitedString(providerProperties));
+      Response.ResponseBuilder cached = getCachedImage(key, providerProperties);
+      if (cached != null)
+      {
+        return setupCaching(cached, allParams).build();
+      }
+
       Raster result = renderer.renderImage(layer, tileCol, tileRow, scale, providerProperties);
 
       result = colorRaster(layer, style, format, renderer, result);
 
-      Response.ResponseBuilder builder =  ((ImageResponseWriter) ImageHandlerFactory
-              .getHandler(format, ImageResponseWriter.class))
-              .write(result, tileCol, tileRow, scale,
+      ImageResponseWriter writer = (ImageResponseWriter) ImageHandlerFactory
+              .getHandler(format, ImageResponseWriter.class);
+      Response.ResponseBuilder builder = writer.write(result, tileCol, tileRow, scale,
                      MrsPyramid.open(layer, providerProperties));
-      return setupCaching(builder, allParams).build();
+      Response response = setupCaching(builder, allParams).build();
+      cacheImage(key, response, writer);
+      return response;
     }
     catch (Exception e)
     {
@@ -727,6 +751,42 @@ public class WmsGenerator
     }
   }
 
+  /*
+   * Returns the rendered image from the tile cache, or null if it isn't cached.  The layer's
+   * cached images are dropped first if its metadata has changed.
+   */
+  private static Response.ResponseBuilder getCachedImage(final RenderedTileKey key,
+      final ProviderProperties providerProperties) throws IOException
+  {
+    RenderedTileCache cache = RenderedTileCache.getInstance();
+    if (!cache.isEnabled())
+    {
+      return null;
+    }
+
+    cache.checkMetadata(key.getPyramid(), new RenderedTileCache.MetadataSource()
+    {
+      @Override
+      public MrsPyramidMetadata read() throws IOException
+      {
+        return MrsPyramid.open(key.getPyramid(), providerProperties).getMetadata();
+      }
+    });
+
+    RenderedTileCache.Tile tile = cache.get(key);
+    return (tile == null) ? null : tile.toResponse();
+  }
+
+  private static void cacheImage(final RenderedTileKey key, final Response response,
+      final ImageResponseWriter writer)
+  {
+    RenderedTileCache cache = RenderedTileCache.getInstance();
+    if (cache.isEnabled())
+    {
+      cache.put(key, response, writer.getResponseMimeType());
+    }
+  }
+
   private static Raster colorRaster(String layer, String style, String imageFormat, ImageRenderer renderer,
       Raster result) throws Exception
   {